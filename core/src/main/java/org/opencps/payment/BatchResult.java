@@ -0,0 +1,95 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment;
+
+import java.util.Map;
+import org.opencps.payment.api.PaymentResponse;
+
+/**
+ * The outcome of a single item of a batch sent by ConnectorBase.sendBatch().
+ * Each item carries either the response from the gateway or the error
+ * raised while creating or sending its request.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class BatchResult {
+
+    private Integer index;
+    private Map<String, String> parameters;
+    private PaymentResponse response;
+    private Throwable error;
+
+    /**
+     * Create a new batch result
+     * 
+     * @param Integer index
+     * @param Map parameters
+     * @param PaymentResponse response
+     * @param Throwable error
+     */
+    public BatchResult(Integer index, Map<String, String> parameters, PaymentResponse response, Throwable error) {
+        this.index = index;
+        this.parameters = parameters;
+        this.response = response;
+        this.error = error;
+    }
+
+    /**
+     * Get the position of the item in the batch
+     * 
+     * @return Integer
+     */
+    public Integer getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the parameters the item was created with
+     * 
+     * @return Map
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Get the response of the item, null if the item failed
+     * 
+     * @return PaymentResponse
+     */
+    public PaymentResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Get the error of the item, null if the item was sent
+     * 
+     * @return Throwable
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Did the item fail before a response was received?
+     * 
+     * @return Boolean
+     */
+    public Boolean hasError() {
+        return error != null;
+    }
+}
@@ -20,11 +20,25 @@ import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.apache.ApacheHttpTransport;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.opencps.payment.api.PaymentConnector;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
 
 /**
  * This abstract class should be extended by all payment connectors
@@ -36,6 +50,11 @@ import org.opencps.payment.api.PaymentConnector;
  */
 public abstract class ConnectorBase implements PaymentConnector {
 
+    /**
+     * Default number of requests a batch keeps in flight.
+     */
+    public static final Integer DEFAULT_BATCH_CONCURRENCY = 8;
+
     protected Map<String, String> parameters;
     
     /**
@@ -43,6 +62,11 @@ public abstract class ConnectorBase implements PaymentConnector {
      */
     protected HttpTransport transport;
 
+    /**
+     * The interceptors requests of the connector are sent through.
+     */
+    protected List<RequestInterceptor> interceptors = new CopyOnWriteArrayList<RequestInterceptor>();
+
     /**
      * The HTTP servlet request object.
      */
@@ -153,6 +177,62 @@ public abstract class ConnectorBase implements PaymentConnector {
         return setParameter("currency", value);
     }
 
+    /**
+     * Get the number of requests a batch keeps in flight
+     * @return Integer
+     */
+    public Integer getBatchConcurrency() {
+        String value = getParameter("batchConcurrency");
+        if (Helper.isInteger(value) && Integer.parseInt(value) > 0) {
+            return Integer.valueOf(value);
+        }
+        return DEFAULT_BATCH_CONCURRENCY;
+    }
+
+    /**
+     * Set the number of requests a batch keeps in flight
+     * @param value
+     * @return ConnectorBase
+     */
+    public ConnectorBase setBatchConcurrency(Integer value) {
+        return setParameter("batchConcurrency", value.toString());
+    }
+
+    /**
+     * Create the deadline of a request of the given operation, from the connector parameters.
+     * 
+     * The total, connect and read timeouts, in milliseconds, are looked up by the
+     * operation, e.g. "purchaseTimeout", "purchaseConnectTimeout" and "purchaseReadTimeout",
+     * falling back to "timeout", "connectTimeout" and "readTimeout".
+     * 
+     * @param operation
+     * @return Deadline, null if no timeout is set
+     */
+    public Deadline createDeadline(PaymentOperation operation) {
+        Integer timeout = getTimeout(operation, "Timeout", "timeout");
+        Integer connectTimeout = getTimeout(operation, "ConnectTimeout", "connectTimeout");
+        Integer readTimeout = getTimeout(operation, "ReadTimeout", "readTimeout");
+        if (timeout == null && connectTimeout == null && readTimeout == null) {
+            return null;
+        }
+        Deadline deadline = timeout != null ? Deadline.after(timeout, TimeUnit.MILLISECONDS) : Deadline.unbounded();
+        if (connectTimeout != null) {
+            deadline = deadline.withConnectTimeout(connectTimeout);
+        }
+        if (readTimeout != null) {
+            deadline = deadline.withReadTimeout(readTimeout);
+        }
+        return deadline;
+    }
+
+    private Integer getTimeout(PaymentOperation operation, String suffix, String fallback) {
+        String value = operation != null ? getParameter(operation.getMethod() + suffix) : null;
+        if (!Helper.isInteger(value)) {
+            value = getParameter(fallback);
+        }
+        return Helper.isInteger(value) ? Integer.valueOf(value) : null;
+    }
+
     /**
      * Get http servlet request
      * @return HttpServletRequest
@@ -177,6 +257,51 @@ public abstract class ConnectorBase implements PaymentConnector {
         return transport;
     }
 
+    /**
+     * Get the interceptors requests of the connector are sent through
+     * @return List<RequestInterceptor>
+     */
+    public List<RequestInterceptor> getInterceptors() {
+        if (interceptors == null) {
+            return new ArrayList<RequestInterceptor>();
+        }
+        return interceptors;
+    }
+
+    /**
+     * Add an interceptor, interceptors run in the order they were added
+     * @param interceptor
+     * @return ConnectorBase
+     */
+    public ConnectorBase addInterceptor(RequestInterceptor interceptor) {
+        interceptors.add(interceptor);
+        return this;
+    }
+
+    /**
+     * Remove an interceptor
+     * @param interceptor
+     * @return ConnectorBase
+     */
+    public ConnectorBase removeInterceptor(RequestInterceptor interceptor) {
+        interceptors.remove(interceptor);
+        return this;
+    }
+
+    /**
+     * Tag a request created by a connector operation with that operation
+     * 
+     * @param operation
+     * @param request
+     * @return RequestBase
+     */
+    protected RequestBase prepareRequest(PaymentOperation operation, RequestBase request) {
+        if (request != null) {
+            request.setOperation(operation);
+        }
+        return request;
+    }
+
     /**
      * Create and initialize a request object
      * 
@@ -201,7 +326,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase authorize(Map<String, String> parameters) {
-        return doAuthorize(parameters);
+        return prepareRequest(PaymentOperation.AUTHORIZE, doAuthorize(parameters));
     }
 
     protected abstract RequestBase doAuthorize(Map<String, String> parameters);
@@ -212,7 +337,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase completeAuthorize(Map<String, String> parameter) {
-        return doCompleteAuthorize(parameter);
+        return prepareRequest(PaymentOperation.COMPLETE_AUTHORIZE, doCompleteAuthorize(parameter));
     }
 
     protected abstract RequestBase doCompleteAuthorize(Map<String, String> parameters);
@@ -223,7 +348,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase capture(Map<String, String> parameters) {
-        return doCapture(parameters);
+        return prepareRequest(PaymentOperation.CAPTURE, doCapture(parameters));
     }
 
     protected abstract RequestBase doCapture(Map<String, String> parameters);
@@ -234,7 +359,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase purchase(Map<String, String> parameters) {
-        return doPurchase(parameters);
+        return prepareRequest(PaymentOperation.PURCHASE, doPurchase(parameters));
     }
 
     protected abstract RequestBase doPurchase(Map<String, String> parameters);
@@ -245,7 +370,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase completePurchase(Map<String, String> parameters) {
-        return doCompletePurchase(parameters);
+        return prepareRequest(PaymentOperation.COMPLETE_PURCHASE, doCompletePurchase(parameters));
     }
 
     protected abstract RequestBase doCompletePurchase(Map<String, String> parameters);
@@ -256,7 +381,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase refund(Map<String, String> parameters) {
-        return doRefund(parameters);
+        return prepareRequest(PaymentOperation.REFUND, doRefund(parameters));
     }
 
     protected abstract RequestBase doRefund(Map<String, String> parameters);
@@ -267,7 +392,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase revert(Map<String, String> parameters) {
-        return doRevert(parameters);
+        return prepareRequest(PaymentOperation.REVERT, doRevert(parameters));
     }
 
     protected abstract RequestBase doRevert(Map<String, String> parameters);
@@ -278,7 +403,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase acceptNotification(Map<String, String> parameters) {
-        return doAcceptNotification(parameters);
+        return prepareRequest(PaymentOperation.ACCEPT_NOTIFICATION, doAcceptNotification(parameters));
     }
 
     protected abstract RequestBase doAcceptNotification(Map<String, String> parameters);
@@ -289,7 +414,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase createCard(Map<String, String> parameters) {
-        return doCreateCard(parameters);
+        return prepareRequest(PaymentOperation.CREATE_CARD, doCreateCard(parameters));
     }
 
     protected abstract RequestBase doCreateCard(Map<String, String> parameters);
@@ -300,7 +425,7 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase updateCard(Map<String, String> parameters) {
-        return doUpdateCard(parameters);
+        return prepareRequest(PaymentOperation.UPDATE_CARD, doUpdateCard(parameters));
     }
 
     protected abstract RequestBase doUpdateCard(Map<String, String> parameters);
@@ -311,8 +436,161 @@ public abstract class ConnectorBase implements PaymentConnector {
      * @return The request from the connector.
      */
     public RequestBase deleteCard(Map<String, String> parameters) {
-        return doDeleteCard(parameters);
+        return prepareRequest(PaymentOperation.DELETE_CARD, doDeleteCard(parameters));
     }
 
     protected abstract RequestBase doDeleteCard(Map<String, String> parameters);
+
+    /**
+     * Create a request for the given operation
+     * @param operation the operation to create the request for.
+     * @param parameters gateway-specific data, that will be sent to the Gateway service.
+     * @return The request from the connector.
+     */
+    public RequestBase request(PaymentOperation operation, Map<String, String> parameters) {
+        switch (operation) {
+            case AUTHORIZE:
+                return authorize(parameters);
+            case COMPLETE_AUTHORIZE:
+                return completeAuthorize(parameters);
+            case CAPTURE:
+                return capture(parameters);
+            case PURCHASE:
+                return purchase(parameters);
+            case COMPLETE_PURCHASE:
+                return completePurchase(parameters);
+            case REFUND:
+                return refund(parameters);
+            case REVERT:
+                return revert(parameters);
+            case ACCEPT_NOTIFICATION:
+                return acceptNotification(parameters);
+            case CREATE_CARD:
+                return createCard(parameters);
+            case UPDATE_CARD:
+                return updateCard(parameters);
+            case DELETE_CARD:
+                return deleteCard(parameters);
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation + ".");
+        }
+    }
+
+    /**
+     * Send a batch of requests of one operation, using the batch concurrency of the connector
+     * @see #sendBatch(PaymentOperation, Collection, Integer)
+     */
+    public List<BatchResult> sendBatch(PaymentOperation operation, Collection<Map<String, String>> parameters) {
+        return sendBatch(operation, parameters, getBatchConcurrency());
+    }
+
+    /**
+     * Send a batch of requests of one operation (usually capture, refund or revert).
+     * 
+     * Up to concurrency requests are kept in flight over the shared HTTP transport,
+     * each worker picking the next item as soon as its previous request completes.
+     * The results are returned in the order of the given parameters, an item that
+     * failed carries its error instead of a response.
+     * 
+     * @param operation the operation of every request in the batch.
+     * @param parameters gateway-specific data of each request.
+     * @param concurrency the maximum number of requests in flight.
+     * @return The results of the batch, in order.
+     */
+    public List<BatchResult> sendBatch(final PaymentOperation operation, Collection<Map<String, String>> parameters, Integer concurrency) {
+        if (concurrency == null) {
+            throw new IllegalArgumentException("The batch concurrency must be set.");
+        }
+        final List<Map<String, String>> items = new ArrayList<Map<String, String>>(parameters);
+        final AtomicReferenceArray<BatchResult> results = new AtomicReferenceArray<BatchResult>(items.size());
+        if (items.isEmpty()) {
+            return new ArrayList<BatchResult>();
+        }
+
+        int workers = Math.max(1, Math.min(concurrency, items.size()));
+        final AtomicInteger cursor = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new BatchThreadFactory(getShortName()));
+        try {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int index;
+                        while (!stopped.get() && (index = cursor.getAndIncrement()) < items.size()) {
+                            results.set(index, sendBatchItem(operation, index, items.get(index)));
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        // Requests in flight may already have reached the gateway: wait for every one of them,
+        // an interrupt only stops the workers from picking new items
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+                stopped.set(true);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        int picked = Math.min(cursor.get(), items.size());
+        List<BatchResult> list = new ArrayList<BatchResult>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            BatchResult result = results.get(i);
+            if (result == null && i < picked) {
+                // The worker sending the item died, the gateway may or may not have processed it
+                result = new BatchResult(i, items.get(i), null, new RuntimeException("Batch item outcome unknown."));
+            }
+            else if (result == null) {
+                result = new BatchResult(i, items.get(i), null, new RuntimeException("Batch item was not sent."));
+            }
+            list.add(result);
+        }
+        return list;
+    }
+
+    /**
+     * Create and send a single item of a batch
+     */
+    protected BatchResult sendBatchItem(PaymentOperation operation, Integer index, Map<String, String> parameters) {
+        try {
+            PaymentResponse response = request(operation, parameters).send();
+            return new BatchResult(index, parameters, response, null);
+        }
+        catch (RuntimeException e) {
+            return new BatchResult(index, parameters, null, e);
+        }
+    }
+
+    /**
+     * Thread factory of batch workers
+     */
+    private static class BatchThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public BatchThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "payment-batch-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
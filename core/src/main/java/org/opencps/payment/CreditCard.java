@@ -112,11 +112,8 @@ public class CreditCard {
         int length = number.length();
         boolean alternate = false;
         for (int i = length - 1; i >= 0; i--) {
-            int n = 0;
-            try {
-                n = Integer.parseInt(number.substring(i, i + 1));
-            }
-            catch(NumberFormatException e) {
+            int n = Character.digit(number.charAt(i), 10);
+            if (n < 0) {
                 return false;
             }
             if (alternate) {
@@ -17,7 +17,9 @@
 package org.opencps.payment;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class abstracts certain functionality around currency objects,
@@ -28,6 +30,15 @@ import java.util.List;
  */
 public class Currency {
 
+    private static final Map<String, Integer> DECIMALS = new HashMap<String, Integer>();
+
+    static {
+        for (Currency currency : alls()) {
+            DECIMALS.put(currency.getCode(), currency.getDecimals());
+            DECIMALS.put(currency.getCode().toLowerCase(), currency.getDecimals());
+        }
+    }
+
     private String code;
     private String numeric;
     private Integer decimals;
@@ -88,6 +99,17 @@ public class Currency {
         return null;
     }
 
+    /**
+     * Get the number of decimal places of a currency without building the list of currencies
+     * 
+     * @param code the three letter currency code, in upper or lower case
+     * @return int, 2 if the currency is not supported
+     */
+    public static int decimals(String code) {
+        Integer decimals = code != null ? DECIMALS.get(code) : null;
+        return decimals != null ? decimals : 2;
+    }
+
     /**
      * Get all supported currencies
      */
@@ -0,0 +1,156 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment;
+
+import java.util.concurrent.TimeUnit;
+import org.opencps.payment.exception.DeadlineExceededException;
+
+/**
+ * The deadline of a request, with the connect and read timeouts of its
+ * HTTP exchanges. A deadline is immutable; the transport timeouts it gives
+ * never go past the time remaining.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public final class Deadline {
+
+    /**
+     * Connect and read timeout of the Google HTTP client, in milliseconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 20000;
+
+    private final long expiresAt;
+    private final boolean bounded;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private Deadline(long expiresAt, boolean bounded, int connectTimeout, int readTimeout) {
+        this.expiresAt = expiresAt;
+        this.bounded = bounded;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Create a deadline expiring after the given duration
+     * 
+     * @param duration
+     * @param unit
+     * @return Deadline
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration), true, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a deadline that never expires, only carrying transport timeouts
+     * 
+     * @return Deadline
+     */
+    public static Deadline unbounded() {
+        return new Deadline(0, false, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Get a copy of the deadline with the given connect timeout
+     * 
+     * @param milliseconds
+     * @return Deadline
+     */
+    public Deadline withConnectTimeout(int milliseconds) {
+        return new Deadline(expiresAt, bounded, milliseconds, readTimeout);
+    }
+
+    /**
+     * Get a copy of the deadline with the given read timeout
+     * 
+     * @param milliseconds
+     * @return Deadline
+     */
+    public Deadline withReadTimeout(int milliseconds) {
+        return new Deadline(expiresAt, bounded, connectTimeout, milliseconds);
+    }
+
+    /**
+     * Does the deadline expire?
+     * 
+     * @return Boolean
+     */
+    public Boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * Has the deadline expired?
+     * 
+     * @return Boolean
+     */
+    public Boolean isExpired() {
+        return bounded && expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Get the time remaining, Long.MAX_VALUE if the deadline does not expire
+     * 
+     * @param unit
+     * @return long
+     */
+    public long remaining(TimeUnit unit) {
+        if (!bounded) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the connect timeout of an HTTP exchange started now, in milliseconds
+     * 
+     * @return Integer
+     */
+    public Integer getConnectTimeout() {
+        return cap(connectTimeout);
+    }
+
+    /**
+     * Get the read timeout of an HTTP exchange started now, in milliseconds
+     * 
+     * @return Integer
+     */
+    public Integer getReadTimeout() {
+        return cap(readTimeout);
+    }
+
+    /**
+     * Throw if the deadline has expired
+     * 
+     * @throws DeadlineExceededException
+     */
+    public void check() throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Request deadline exceeded.");
+        }
+    }
+
+    private int cap(int timeout) {
+        if (!bounded) {
+            return timeout;
+        }
+        // A zero timeout means infinite for the HTTP client, so never go below 1ms
+        long remaining = Math.max(1, remaining(TimeUnit.MILLISECONDS));
+        return timeout > 0 ? (int) Math.min(timeout, remaining) : (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+}
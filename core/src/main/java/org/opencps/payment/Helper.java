@@ -16,6 +16,8 @@
 */
 package org.opencps.payment;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class defines various static utility functions that are in use
  * throughout the OpenCPS Payment system.
@@ -24,6 +26,21 @@ package org.opencps.payment;
  */
 public class Helper {
 
+    /**
+     * Returned by parseMinorUnits() for an amount that is not a decimal number
+     */
+    public static final long NOT_AN_AMOUNT = Long.MIN_VALUE;
+
+    /**
+     * Returned by parseMinorUnits() for an amount with more decimal places than its currency
+     */
+    public static final long TOO_PRECISE = Long.MIN_VALUE + 1;
+
+    /**
+     * Returned by parseMinorUnits() for an amount that does not fit in a long once in minor units
+     */
+    public static final long TOO_LARGE = Long.MIN_VALUE + 2;
+
     /**
      * Check a string is an integer number
      */
@@ -94,4 +111,77 @@ public class Helper {
             return String.format(format, number);
         }
     }
+
+    /**
+     * Convert a decimal amount string to minor units of its currency, e.g. "10.50" to 1050 cents,
+     * without going through a float
+     * 
+     * @return Long, null if the amount is not a decimal number, is too precise for the currency
+     * or does not fit in a long once in minor units
+     */
+    public static Long toMinorUnits(String amount, Integer decimals) {
+        if (amount == null) {
+            return null;
+        }
+        long units = parse(amount, null, 0, amount.length(), decimals);
+        return units > TOO_LARGE ? units : null;
+    }
+
+    /**
+     * Convert a decimal amount string to minor units of its currency
+     * 
+     * @return long, NOT_AN_AMOUNT, TOO_PRECISE or TOO_LARGE if it cannot be converted
+     */
+    public static long parseMinorUnits(String amount, int decimals) {
+        return parse(amount, null, 0, amount.length(), decimals);
+    }
+
+    /**
+     * Convert a decimal amount written in ASCII between start and end of a buffer
+     * to minor units of its currency, without copying it out of the buffer
+     * 
+     * @return long, NOT_AN_AMOUNT, TOO_PRECISE or TOO_LARGE if it cannot be converted
+     */
+    public static long parseMinorUnits(ByteBuffer buffer, int start, int end, int decimals) {
+        return parse(null, buffer, start, end, decimals);
+    }
+
+    private static long parse(String chars, ByteBuffer bytes, int start, int end, int decimals) {
+        if (start >= end) {
+            return NOT_AN_AMOUNT;
+        }
+        boolean negative = (chars != null ? chars.charAt(start) : bytes.get(start)) == '-';
+        long units = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int c = chars != null ? chars.charAt(i) : bytes.get(i);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            if (c < '0' || c > '9' || ++digits > 18) {
+                return NOT_AN_AMOUNT;
+            }
+            units = units * 10 + (c - '0');
+            if (fraction >= 0) {
+                fraction++;
+            }
+        }
+        if (digits == 0) {
+            return NOT_AN_AMOUNT;
+        }
+        if (fraction > decimals) {
+            return TOO_PRECISE;
+        }
+        try {
+            for (int i = Math.max(fraction, 0); i < decimals; i++) {
+                units = Math.multiplyExact(units, 10L);
+            }
+        }
+        catch (ArithmeticException e) {
+            return TOO_LARGE;
+        }
+        return negative ? -units : units;
+    }
 }
@@ -0,0 +1,81 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment;
+
+import java.util.List;
+import java.util.Map;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.PhaseTimer;
+
+/**
+ * The chain of interceptors a request is sent through.
+ * The last link of the chain sends the data with RequestBase.send(Map).
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+final class InterceptorChain implements RequestInterceptor.Chain {
+
+    private final List<RequestInterceptor> interceptors;
+    private final int index;
+    private final RequestBase request;
+    private final Map<String, String> data;
+
+    InterceptorChain(List<RequestInterceptor> interceptors, int index, RequestBase request, Map<String, String> data) {
+        this.interceptors = interceptors;
+        this.index = index;
+        this.request = request;
+        this.data = data;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor.Chain#getRequest()
+     */
+    @Override
+    public RequestBase getRequest() {
+        return request;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor.Chain#getData()
+     */
+    @Override
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor.Chain#proceed()
+     */
+    @Override
+    public PaymentResponse proceed() throws PaymentException {
+        if (index < interceptors.size()) {
+            InterceptorChain next = new InterceptorChain(interceptors, index + 1, request, data);
+            return interceptors.get(index).intercept(next);
+        }
+        Deadline deadline = request.getDeadline();
+        if (deadline != null) {
+            deadline.check();
+        }
+        PhaseTimer.current().markQueued();
+        return request.send(data);
+    }
+}
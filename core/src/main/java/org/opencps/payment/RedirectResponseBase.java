@@ -17,10 +17,15 @@
 package org.opencps.payment;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.opencps.payment.api.PaymentRedirectResponse;
+import org.opencps.payment.codec.FormEncoder;
+import org.opencps.payment.metrics.PaymentEvents;
+import org.opencps.payment.redirect.RedirectJson;
+import org.opencps.payment.redirect.RedirectPageCache;
+import org.opencps.payment.redirect.RedirectTemplate;
 
 /**
  * This abstract class implements PaymentRedirectResponse
@@ -41,56 +46,68 @@ public abstract class RedirectResponseBase extends ResponseBase implements Payme
     }
     
     /**
-     * (non-Javadoc)
-     * @see org.opencps.payment.api.PaymentRedirectResponse#redirect()
+     * Perform the required redirect. Clients preferring JSON to HTML in their
+     * Accept header, such as XHR calls, get the redirect as JSON to follow it themselves.
      */
     @Override
     public void redirect() throws IOException {
         if (!isRedirect()) {
             throw new IOException("This response does not support redirection.");
         }
+        HttpServletRequest servletRequest = request.getConnector().getServletRequest();
         HttpServletResponse response = request.getConnector().getServletResponse();
-        if (getRedirectMethod().toUpperCase() == "GET") {
-            response.sendRedirect(getRedirectUrl());
+        String method = getRedirectMethod();
+        PaymentEvents events = PaymentEvents.get();
+        Object event = events.beginRedirect();
+        String outcome = "FAILED";
+        try {
+            boolean json = servletRequest != null && RedirectJson.accepts(servletRequest.getHeader("Accept"));
+            if (json && ("GET".equalsIgnoreCase(method) || "POST".equalsIgnoreCase(method))) {
+                RedirectJson.write(response, this);
+                outcome = "JSON";
+            }
+            else if ("GET".equalsIgnoreCase(method)) {
+                response.sendRedirect(getRedirectUrl());
+                outcome = "REDIRECT";
+            }
+            else if ("POST".equalsIgnoreCase(method)) {
+                getRedirectTemplate().write(servletRequest, response, getRedirectData());
+                outcome = "FORM";
+            }
+            else {
+                throw new IOException("Invalid redirect method " + method + ".");
+            }
         }
-        else if(getRedirectMethod().toUpperCase() == "POST") {
-            response.setContentType("text/html");
-            response.setCharacterEncoding("UTF-8");
-            PrintWriter out = response.getWriter();
-            out.print(getRedirectForm());
-        }
-        else {
-            throw new IOException("Invalid redirect method " + getRedirectMethod() + ".");
+        finally {
+            if (event != null) {
+                events.endRedirect(event, request, method, outcome);
+            }
         }
     }
-    
+
     /**
-     * Get html code of redirect form
+     * Get the template of the redirect form, cached per connector and action URL
      */
-    public String getRedirectForm() {
-        StringBuilder hiddenFields = new StringBuilder();
-        Map<String, String> data = getRedirectData();
-
-        for (Map.Entry<String, String> entry: data.entrySet()) {
-            hiddenFields.append("<input type=\"hidden\" name=\"")
-                .append(entry.getKey())
-                .append("\"")
-                .append(" value=\"")
-                .append(entry.getValue())
-                .append("\" />");
-        }
+    protected RedirectTemplate getRedirectTemplate() {
+        ConnectorBase connector = request != null ? request.getConnector() : null;
+        String name = connector != null ? connector.getShortName() : "";
+        return RedirectPageCache.DEFAULT.get(name, getRedirectUrl());
+    }
 
-        StringBuilder redirectForm = new StringBuilder();
-        redirectForm.append("<!DOCTYPE html><html><head>")
-            .append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\" />")
-            .append("<title>Redirecting...</title>")
-            .append("<body onload=\"document.forms[0].submit();\">")
-            .append("<form action=\"" + getRedirectUrl() + "\" method=\"post\">")
-            .append("<p>Redirecting to payment page...</p>")
-            .append("<p><input type=\"submit\" value=\"Continue\" /></p>")
-            .append(hiddenFields)
-            .append("</form></body></html>");
+    /**
+     * Build a redirect URL for getRedirectUrl(), with data as its query string
+     * 
+     * @param endpoint the gateway URL
+     * @param data the query parameters
+     */
+    protected String buildRedirectUrl(String endpoint, Map<String, String> data) {
+        return FormEncoder.FORM.appendQuery(endpoint, data);
+    }
 
-        return redirectForm.toString();
+    /**
+     * Get html code of redirect form
+     */
+    public String getRedirectForm() {
+        return getRedirectTemplate().render(getRedirectData());
     }
 }
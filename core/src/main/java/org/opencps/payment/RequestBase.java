@@ -16,14 +16,38 @@
 */
 package org.opencps.payment;
 
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.opencps.payment.api.PaymentItem;
+import org.opencps.payment.api.PaymentOperation;
 import org.opencps.payment.api.PaymentRequest;
 import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.codec.FormEncoder;
+import org.opencps.payment.codec.LazyResponseData;
+import org.opencps.payment.codec.ResponseFormat;
+import org.opencps.payment.exception.DeadlineExceededException;
 import org.opencps.payment.exception.InvalidRequestException;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.PaymentEvents;
+import org.opencps.payment.metrics.Phase;
+import org.opencps.payment.metrics.PhaseTimer;
+import org.opencps.payment.validation.Validator;
 
 /**
  * This abstract class implements PaymentRequest and defines a basic
@@ -61,6 +85,16 @@ public abstract class RequestBase implements PaymentRequest {
      */
     protected CreditCard card;
 
+    /**
+     * The operation the request was created for.
+     */
+    protected PaymentOperation operation;
+
+    /**
+     * The deadline of the request.
+     */
+    protected Deadline deadline;
+
     protected static Boolean zeroAmountAllowed = true;
 
     protected static Boolean negativeAmountAllowed = false;
@@ -124,6 +158,36 @@ public abstract class RequestBase implements PaymentRequest {
         return connector;
     }
 
+    /**
+     * Get the operation the request was created for
+     */
+    public PaymentOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Set the operation the request was created for
+     */
+    public RequestBase setOperation(PaymentOperation operation) {
+        this.operation = operation;
+        return this;
+    }
+
+    /**
+     * Get the deadline of the request
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the deadline of the request, instead of the one configured on the connector
+     */
+    public RequestBase setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
     /**
      * Get test mode of the request
      */
@@ -432,12 +496,163 @@ public abstract class RequestBase implements PaymentRequest {
         return setParameter("paymentMethod", value);
     }
 
+    /**
+     * Get the validation rules of the request, null if it has none.
+     * Request classes usually compile their RuleSet once into a static field.
+     */
+    protected Validator getValidator() {
+        return null;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.PaymentRequest#validate()
+     */
+    @Override
+    public void validate() throws InvalidRequestException {
+        Validator validator = getValidator();
+        if (validator != null) {
+            validator.check(this);
+        }
+    }
+
     /**
      * Send the request
      */
     public PaymentResponse send() {
-    	Map<String, String> data = getData();
-        return send(data);
+        try {
+            return execute();
+        }
+        catch (PaymentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Send the request through the interceptors of the connector
+     * 
+     * @throws PaymentException when an interceptor rejects the request
+     */
+    public PaymentResponse execute() throws PaymentException {
+        PaymentEvents events = PaymentEvents.get();
+        Object event = events.beginRequest();
+        PaymentResponse result = null;
+        Throwable failure = null;
+        try {
+            if (deadline == null && connector != null) {
+                deadline = connector.createDeadline(operation);
+            }
+            if (deadline != null) {
+                deadline.check();
+            }
+            Map<String, String> data = getData();
+            result = new InterceptorChain(getInterceptors(), 0, this, data).proceed();
+            if (result != null) {
+                response = result;
+            }
+            return result;
+        }
+        catch (PaymentException e) {
+            failure = e;
+            throw e;
+        }
+        catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        }
+        finally {
+            if (event != null) {
+                events.endRequest(event, this, result, failure);
+            }
+        }
+    }
+
+    /**
+     * Get the interceptors the request is sent through
+     */
+    protected List<RequestInterceptor> getInterceptors() {
+        if (connector == null) {
+            return Collections.emptyList();
+        }
+        return connector.getInterceptors();
+    }
+
+    /**
+     * Get a request factory of the connector transport whose requests
+     * have the connect and read timeouts of the request deadline
+     */
+    public HttpRequestFactory getRequestFactory() {
+        return connector.getHttpTransport().createRequestFactory(new HttpRequestInitializer() {
+            @Override
+            public void initialize(HttpRequest request) throws IOException {
+                applyDeadline(request);
+                ExchangeInterceptor exchange = new ExchangeInterceptor();
+                request.setInterceptor(exchange);
+                request.setResponseInterceptor(exchange);
+                request.setIOExceptionHandler(exchange);
+            }
+        });
+    }
+
+    /**
+     * Set the connect and read timeouts of an HTTP request from the request deadline
+     * 
+     * @throws DeadlineExceededException if the deadline has expired
+     */
+    public void applyDeadline(HttpRequest request) throws DeadlineExceededException {
+        if (deadline != null) {
+            deadline.check();
+            request.setConnectTimeout(deadline.getConnectTimeout());
+            request.setReadTimeout(deadline.getReadTimeout());
+        }
+    }
+
+    /**
+     * Get data as an application/x-www-form-urlencoded body for send(Map)
+     */
+    protected HttpContent getFormContent(Map<String, String> data) {
+        PhaseTimer timer = PhaseTimer.current();
+        long start = timer.isActive() ? System.nanoTime() : 0;
+        HttpContent content = new ByteArrayContent("application/x-www-form-urlencoded", FormEncoder.FORM.toByteArray(data));
+        if (start != 0) {
+            timer.add(Phase.SIGN, System.nanoTime() - start);
+        }
+        return content;
+    }
+
+    /**
+     * Get an endpoint URL with data as its query string for send(Map)
+     */
+    protected String getQueryUrl(String endpoint, Map<String, String> data) {
+        PhaseTimer timer = PhaseTimer.current();
+        long start = timer.isActive() ? System.nanoTime() : 0;
+        String url = FormEncoder.FORM.appendQuery(endpoint, data);
+        if (start != 0) {
+            timer.add(Phase.SIGN, System.nanoTime() - start);
+        }
+        return url;
+    }
+
+    /**
+     * Read the body of a gateway HTTP response into data for a ResponseBase,
+     * indexed once and decoded only as the response getters ask for values
+     */
+    protected Map<String, String> parseResponse(HttpResponse response, ResponseFormat format) throws IOException {
+        PhaseTimer timer = PhaseTimer.current();
+        long start = timer.isActive() ? System.nanoTime() : 0;
+        InputStream content = response.getContent();
+        if (content == null) {
+            return new LazyResponseData(new byte[0], format);
+        }
+        try {
+            return LazyResponseData.parse(content, format);
+        }
+        finally {
+            content.close();
+            if (start != 0) {
+                timer.add(Phase.PARSE, System.nanoTime() - start);
+            }
+        }
     }
 
     /**
@@ -449,4 +664,42 @@ public abstract class RequestBase implements PaymentRequest {
         }
         return response;
     }
+
+    /**
+     * Times the gateway exchanges of the request and records them as flight recorder events,
+     * those that get no response ending with a status code of 0
+     */
+    private final class ExchangeInterceptor implements HttpExecuteInterceptor, HttpResponseInterceptor, HttpIOExceptionHandler {
+
+        private Object event;
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            PhaseTimer.current().startNetwork();
+            event = PaymentEvents.get().beginExchange();
+        }
+
+        @Override
+        public void interceptResponse(HttpResponse response) throws IOException {
+            PhaseTimer.current().endNetwork(response.getStatusCode());
+            if (event != null) {
+                HttpRequest request = response.getRequest();
+                PaymentEvents.get().endExchange(event, RequestBase.this, request.getRequestMethod(),
+                    request.getUrl().getHost(), response.getStatusCode());
+                event = null;
+            }
+        }
+
+        @Override
+        public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
+            PhaseTimer.current().failNetwork();
+            if (event != null) {
+                PaymentEvents.get().endExchange(event, RequestBase.this, request.getRequestMethod(),
+                    request.getUrl().getHost(), 0);
+                event = null;
+            }
+            // Never retried here, retries are up to a RetryInterceptor
+            return false;
+        }
+    }
 }
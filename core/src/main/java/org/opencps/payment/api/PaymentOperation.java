@@ -0,0 +1,61 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.api;
+
+/**
+ * Payment operations supported by a connector
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public enum PaymentOperation {
+    AUTHORIZE("authorize"),
+    COMPLETE_AUTHORIZE("completeAuthorize"),
+    CAPTURE("capture"),
+    PURCHASE("purchase"),
+    COMPLETE_PURCHASE("completePurchase"),
+    REFUND("refund"),
+    REVERT("revert"),
+    ACCEPT_NOTIFICATION("acceptNotification"),
+    CREATE_CARD("createCard"),
+    UPDATE_CARD("updateCard"),
+    DELETE_CARD("deleteCard");
+
+    private final String method;
+
+    private PaymentOperation(String method) {
+        this.method = method;
+    }
+
+    /**
+     * Get the name of the connector method of the operation, e.g. completePurchase
+     * 
+     * @return String
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Does the operation only query the gateway, without changing the transaction?
+     * Read-only operations are safe to send more than once.
+     * 
+     * @return Boolean
+     */
+    public Boolean isReadOnly() {
+        return this == COMPLETE_AUTHORIZE || this == COMPLETE_PURCHASE || this == ACCEPT_NOTIFICATION;
+    }
+}
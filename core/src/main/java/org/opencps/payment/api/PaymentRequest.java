@@ -17,6 +17,7 @@
 package org.opencps.payment.api;
 
 import java.util.Map;
+import org.opencps.payment.exception.InvalidRequestException;
 
 /**
  * This interface class defines the standard functions that any OpenCPS Payment request
@@ -40,6 +41,13 @@ public interface PaymentRequest extends PaymentMessage {
      */
     public Map<String, String> getParameters();
 
+    /**
+     * Validate the request parameters
+     * 
+     * @throws InvalidRequestException listing every violation when the request is invalid
+     */
+    public void validate() throws InvalidRequestException;
+
     /**
      * Get the response to this request (if the request has been sent)
      * 
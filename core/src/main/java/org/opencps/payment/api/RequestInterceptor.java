@@ -0,0 +1,70 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.api;
+
+import java.util.Map;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * This interface defines a hook around the sending of a request.
+ * Interceptors are registered on a connector and run, in the order they were
+ * added, every time a request of that connector is sent. Each interceptor
+ * decides whether, when and how many times the rest of the chain proceeds.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface RequestInterceptor {
+
+    /**
+     * Intercept the sending of a request
+     * 
+     * @param chain The rest of the chain, ending with RequestBase.send(Map)
+     * @return PaymentResponse
+     * @throws PaymentException when the interceptor rejects the request
+     */
+    public PaymentResponse intercept(Chain chain) throws PaymentException;
+
+    /**
+     * The rest of an interceptor chain
+     */
+    public interface Chain {
+
+        /**
+         * Get the request being sent
+         * 
+         * @return RequestBase
+         */
+        public RequestBase getRequest();
+
+        /**
+         * Get the data being sent
+         * 
+         * @return Map
+         */
+        public Map<String, String> getData();
+
+        /**
+         * Run the next interceptors and send the request.
+         * It may be called more than once, e.g. to retry the request.
+         * 
+         * @return PaymentResponse
+         * @throws PaymentException when a next interceptor rejects the request
+         */
+        public PaymentResponse proceed() throws PaymentException;
+    }
+}
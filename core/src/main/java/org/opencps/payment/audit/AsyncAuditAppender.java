@@ -0,0 +1,237 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appends audit records to a bounded queue, drained into an AuditSink by its own thread.
+ * 
+ * Records are copied into slots of a fixed size, allocated up to the capacity
+ * of the queue and then reused, so appending allocates nothing once the
+ * appender has warmed up. Appending never waits: a record is dropped when
+ * every slot is queued, and counted as an overflow when it is larger than a slot.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AsyncAuditAppender implements AuditAppender {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final AuditSink sink;
+    private final int capacity;
+    private final int maxRecordSize;
+    private final BlockingQueue<Slot> queue;
+    private final BlockingQueue<Slot> free;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean closed;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Create and start an appender queuing 8192 records of up to 4KB
+     * 
+     * @param sink
+     */
+    public AsyncAuditAppender(AuditSink sink) {
+        this(sink, 8192, 4096);
+    }
+
+    /**
+     * Create and start an appender
+     * 
+     * @param sink
+     * @param capacity the number of records queued
+     * @param maxRecordSize the size of the largest record, in bytes
+     */
+    public AsyncAuditAppender(AuditSink sink, int capacity, int maxRecordSize) {
+        if (capacity < 1 || maxRecordSize < 1) {
+            throw new IllegalArgumentException("Capacity and record size must be positive.");
+        }
+        this.sink = sink;
+        this.capacity = capacity;
+        this.maxRecordSize = maxRecordSize;
+        this.queue = new ArrayBlockingQueue<Slot>(capacity);
+        this.free = new ArrayBlockingQueue<Slot>(capacity);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "payment-audit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.audit.AuditAppender#append(byte[], int, int)
+     */
+    @Override
+    public Boolean append(byte[] buffer, int offset, int length) {
+        if (length > maxRecordSize) {
+            overflows.increment();
+            return false;
+        }
+        Slot slot = closed ? null : take();
+        if (slot == null) {
+            dropped.increment();
+            return false;
+        }
+        System.arraycopy(buffer, offset, slot.buffer, 0, length);
+        slot.length = length;
+        // There are never more slots than the queue holds
+        queue.offer(slot);
+        // Closed meanwhile: the writer may be gone, so take the record back unless it was already taken
+        if (closed && queue.remove(slot)) {
+            free.offer(slot);
+            dropped.increment();
+            return false;
+        }
+        appended.increment();
+        return true;
+    }
+
+    /**
+     * Stop appending records, and wait for the queued ones to be written.
+     * Records still queued after the timeout are dropped.
+     * 
+     * @param timeout
+     * @param unit
+     * @return were all queued records written?
+     * @throws InterruptedException
+     */
+    public Boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        unit.timedJoin(thread, timeout);
+        if (thread.isAlive()) {
+            thread.interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of records waiting in the queue
+     */
+    public int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of records queued
+     */
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    /**
+     * Get the number of records dropped because the queue was full or the appender closed
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Get the number of records dropped because they were larger than the maximum record size
+     */
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    /**
+     * Get the number of records written to the sink
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Get the number of records the sink failed to write
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    private Slot take() {
+        Slot slot = free.poll();
+        if (slot != null) {
+            return slot;
+        }
+        if (allocated.incrementAndGet() > capacity) {
+            allocated.decrementAndGet();
+            return null;
+        }
+        return new Slot(maxRecordSize);
+    }
+
+    private void drain() {
+        List<Slot> batch = new ArrayList<Slot>(BATCH_SIZE);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Slot first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                write(batch);
+                for (Slot slot : batch) {
+                    free.offer(slot);
+                }
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            dropped.add(batch.size() + queue.size());
+            queue.clear();
+        }
+    }
+
+    private void write(List<Slot> batch) {
+        try {
+            for (Slot slot : batch) {
+                sink.write(slot.buffer, 0, slot.length);
+            }
+            sink.flush();
+            written.add(batch.size());
+        }
+        catch (Exception e) {
+            // The records of the batch may or may not have been stored
+            failures.add(batch.size());
+        }
+    }
+
+    private static final class Slot {
+
+        private final byte[] buffer;
+        private int length;
+
+        Slot(int size) {
+            this.buffer = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+/**
+ * Takes the encoded records of an AuditLog.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface AuditAppender {
+
+    /**
+     * Append a record. The buffer is reused once the method returns,
+     * and the method must not block the payment thread.
+     * 
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return was the record taken, false if it was dropped
+     */
+    public Boolean append(byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,139 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.opencps.payment.ConnectorBase;
+import org.opencps.payment.CreditCard;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.codec.ByteBuilder;
+import org.opencps.payment.codec.JsonWriter;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * Writes an audit record of each payment operation as a line of JSON.
+ * 
+ * Only the fields of the schema registered for the operation are written,
+ * masked as the schema says, so card data never reaches the log. Records
+ * are encoded into a buffer of the current thread, without intermediate
+ * strings, and handed to an AuditAppender.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AuditLog {
+
+    // Larger buffers, grown by an unusual record, are not kept by the thread
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private final AuditAppender appender;
+    private final AtomicReferenceArray<AuditSchema> schemas =
+        new AtomicReferenceArray<AuditSchema>(PaymentOperation.values().length);
+    private volatile AuditSchema defaultSchema = AuditSchema.getDefault();
+
+    private final ThreadLocal<JsonWriter> writers = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter(new ByteBuilder(512));
+        }
+    };
+
+    /**
+     * @param appender
+     */
+    public AuditLog(AuditAppender appender) {
+        this.appender = appender;
+    }
+
+    /**
+     * Register the schema of an operation, before requests are logged
+     * 
+     * @param operation
+     * @param schema
+     * @return AuditLog
+     */
+    public AuditLog register(PaymentOperation operation, AuditSchema schema) {
+        schemas.set(operation.ordinal(), schema);
+        return this;
+    }
+
+    /**
+     * Set the schema of the operations registered without one
+     * 
+     * @param schema
+     * @return AuditLog
+     */
+    public AuditLog setDefaultSchema(AuditSchema schema) {
+        this.defaultSchema = schema;
+        return this;
+    }
+
+    /**
+     * Get the schema of an operation
+     * 
+     * @param operation
+     * @return AuditSchema
+     */
+    public AuditSchema getSchema(PaymentOperation operation) {
+        AuditSchema schema = operation != null ? schemas.get(operation.ordinal()) : null;
+        return schema != null ? schema : defaultSchema;
+    }
+
+    /**
+     * Get the appender
+     * 
+     * @return AuditAppender
+     */
+    public AuditAppender getAppender() {
+        return appender;
+    }
+
+    /**
+     * Log a request
+     * 
+     * @param request
+     * @param response null if the request failed
+     * @param status the outcome of the request
+     * @return was the record taken by the appender?
+     */
+    public Boolean log(RequestBase request, PaymentResponse response, JournalRecord.Status status) {
+        JsonWriter json = writers.get();
+        ByteBuilder out = json.getOut();
+        try {
+            out.reset();
+            json.reset().beginObject().name("time").value(System.currentTimeMillis());
+            ConnectorBase connector = request.getConnector();
+            json.name("connector").value(connector != null ? connector.getShortName() : null);
+            PaymentOperation operation = request.getOperation();
+            json.name("operation").value(operation != null ? operation.name() : null);
+            json.name("status").value(status != null ? status.name() : null);
+            if (response != null && response.getTransactionReference() != null) {
+                json.name("gatewayReference").value(response.getTransactionReference());
+            }
+            CreditCard card = request.getCard();
+            getSchema(operation).write(json, request.getParameters(), card != null ? card.getParameters() : null);
+            json.endObject();
+            return appender.append(out.getBuffer(), 0, out.length());
+        }
+        finally {
+            if (out.getBuffer().length > MAX_RETAINED) {
+                writers.remove();
+            }
+        }
+    }
+}
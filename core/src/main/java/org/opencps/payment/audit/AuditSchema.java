@@ -0,0 +1,193 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.util.Arrays;
+import java.util.Map;
+import org.opencps.payment.codec.JsonWriter;
+
+/**
+ * The fields an AuditLog writes for a type of request.
+ * 
+ * A schema lists the request and card parameters that are audited, so a
+ * parameter is only written once registered, and how each one is masked.
+ * Names are resolved when the schema is built; writing a record looks
+ * them up without allocating.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AuditSchema {
+
+    /**
+     * How the value of a field is written
+     */
+    public enum Masking {
+
+        /**
+         * Written as is
+         */
+        NONE,
+
+        /**
+         * A card number, only its first six and last four digits are written
+         */
+        PAN,
+
+        /**
+         * Every character is masked, only the length of the value is written
+         */
+        FULL
+    }
+
+    private static final int PAN_MIN_LENGTH = 13;
+
+    private String[] parameters = new String[8];
+    private String[] names = new String[8];
+    private Masking[] maskings = new Masking[8];
+    private boolean[] card = new boolean[8];
+    private int size;
+
+    /**
+     * Get the default schema: the amount, currency, transaction ID and
+     * reference, client IP and masked card number
+     * 
+     * @return AuditSchema
+     */
+    public static AuditSchema getDefault() {
+        return new AuditSchema()
+            .add("amount")
+            .add("currency")
+            .add("transactionId")
+            .add("transactionReference")
+            .add("clientIp")
+            .addCard("number", Masking.PAN);
+    }
+
+    /**
+     * Add a request parameter written as is
+     * 
+     * @param parameter
+     * @return AuditSchema
+     */
+    public AuditSchema add(String parameter) {
+        return add(parameter, Masking.NONE);
+    }
+
+    /**
+     * Add a request parameter
+     * 
+     * @param parameter
+     * @param masking
+     * @return AuditSchema
+     */
+    public AuditSchema add(String parameter, Masking masking) {
+        return add(parameter, parameter, masking, false);
+    }
+
+    /**
+     * Add a card parameter, written as "card." followed by its name
+     * 
+     * @param parameter the name of the CreditCard parameter, e.g. "number"
+     * @param masking
+     * @return AuditSchema
+     */
+    public AuditSchema addCard(String parameter, Masking masking) {
+        return add(parameter, "card." + parameter, masking, true);
+    }
+
+    /**
+     * Get the number of fields
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the parameter of a field
+     */
+    public String getParameter(int field) {
+        return parameters[field];
+    }
+
+    /**
+     * Get the name a field is written with
+     */
+    public String getName(int field) {
+        return names[field];
+    }
+
+    /**
+     * Get the masking of a field
+     */
+    public Masking getMasking(int field) {
+        return maskings[field];
+    }
+
+    /**
+     * Is a field a card parameter?
+     */
+    public Boolean isCard(int field) {
+        return card[field];
+    }
+
+    /**
+     * Write the fields found in the parameters as members of the current JSON object,
+     * the fields without a value excepted
+     * 
+     * @param json
+     * @param parameters the request parameters
+     * @param card the card parameters, null if none
+     */
+    public void write(JsonWriter json, Map<String, String> parameters, Map<String, String> card) {
+        for (int i = 0; i < size; i++) {
+            Map<String, String> source = this.card[i] ? card : parameters;
+            String value = source != null ? source.get(this.parameters[i]) : null;
+            if (value == null) {
+                continue;
+            }
+            json.name(names[i]);
+            switch (maskings[i]) {
+                case PAN:
+                    json.maskedValue(value, value.length() >= PAN_MIN_LENGTH ? 6 : 0, 4);
+                    break;
+                case FULL:
+                    json.maskedValue(value, 0, 0);
+                    break;
+                default:
+                    json.value(value);
+            }
+        }
+    }
+
+    private AuditSchema add(String parameter, String name, Masking masking, boolean card) {
+        if (parameter == null || masking == null) {
+            throw new IllegalArgumentException("A field must have a parameter and a masking.");
+        }
+        if (size == parameters.length) {
+            parameters = Arrays.copyOf(parameters, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+            maskings = Arrays.copyOf(maskings, size * 2);
+            this.card = Arrays.copyOf(this.card, size * 2);
+        }
+        parameters[size] = parameter;
+        names[size] = name;
+        maskings[size] = masking;
+        this.card[size] = card;
+        size++;
+        return this;
+    }
+}
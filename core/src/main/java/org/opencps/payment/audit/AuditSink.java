@@ -0,0 +1,45 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.io.IOException;
+
+/**
+ * Stores the audit records written by an AsyncAuditAppender, e.g. in a file.
+ * The methods are called from the appender thread only.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface AuditSink {
+
+    /**
+     * Write a record
+     * 
+     * @param buffer
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Flush the records written, called after each batch
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException;
+}
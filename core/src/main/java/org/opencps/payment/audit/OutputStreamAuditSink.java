@@ -0,0 +1,54 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes audit records to a stream, one per line.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class OutputStreamAuditSink implements AuditSink {
+
+    private final OutputStream out;
+
+    /**
+     * @param out the stream, buffered by the caller if needed
+     */
+    public OutputStreamAuditSink(OutputStream out) {
+        this.out = out;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.audit.AuditSink#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        out.write('\n');
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.audit.AuditSink#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,232 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that strings are appended to as UTF-8, either as
+ * they are or escaped for HTML, without intermediate strings or byte arrays.
+ * Builders are not thread safe; they are meant to be reused by one thread.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class ByteBuilder {
+
+    private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] APOS = "&#39;".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * Create a builder
+     * 
+     * @param capacity the initial capacity in bytes
+     */
+    public ByteBuilder(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Get the number of bytes appended
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Get the backing array, valid up to length()
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Set the number of bytes appended, after writing into the backing array directly
+     */
+    public ByteBuilder setLength(int length) {
+        if (length < 0 || length > buffer.length) {
+            throw new IndexOutOfBoundsException("Invalid length " + length + ".");
+        }
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * Empty the builder, keeping its capacity
+     */
+    public ByteBuilder reset() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Append a byte
+     */
+    public ByteBuilder append(byte b) {
+        ensureCapacity(1);
+        buffer[length++] = b;
+        return this;
+    }
+
+    /**
+     * Append bytes
+     */
+    public ByteBuilder append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Append a range of bytes
+     */
+    public ByteBuilder append(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Append a string as UTF-8
+     */
+    public ByteBuilder appendUtf8(String value) {
+        return appendUtf8(value, 0, value.length());
+    }
+
+    /**
+     * Append the chars of a string from start to end as UTF-8
+     */
+    public ByteBuilder appendUtf8(String value, int start, int end) {
+        ensureCapacity((end - start) * 3);
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            }
+            else {
+                i = appendChar(value, i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append a string as UTF-8, escaping the HTML special characters & &lt; &gt; " and '
+     */
+    public ByteBuilder appendHtml(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    append(AMP);
+                    break;
+                case '<':
+                    append(LT);
+                    break;
+                case '>':
+                    append(GT);
+                    break;
+                case '"':
+                    append(QUOT);
+                    break;
+                case '\'':
+                    append(APOS);
+                    break;
+                default:
+                    if (c < 0x80) {
+                        ensureCapacity(1);
+                        buffer[length++] = (byte) c;
+                    }
+                    else {
+                        ensureCapacity(4);
+                        i = appendChar(value, i);
+                    }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write the bytes appended to a stream
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Copy the bytes appended
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ensure room for more bytes
+     */
+    public void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * Append the non ASCII char at index i, with room for it already ensured
+     * 
+     * @return the index of the last char consumed
+     */
+    private int appendChar(String value, int i) {
+        char c = value.charAt(i);
+        if (c < 0x800) {
+            buffer[length++] = (byte) (0xc0 | (c >> 6));
+            buffer[length++] = (byte) (0x80 | (c & 0x3f));
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+            buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+        else if (Character.isSurrogate(c)) {
+            // Unpaired surrogate, encoded as '?' like String.getBytes
+            buffer[length++] = (byte) '?';
+        }
+        else {
+            buffer[length++] = (byte) (0xe0 | (c >> 12));
+            buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[length++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes data maps as query strings and form bodies.
+ * 
+ * Pairs are written, sorted by key or in the iteration order of the map,
+ * straight into a per-thread UTF-8 buffer. Characters are percent-encoded
+ * through a lookup table instead of URLEncoder, so encoding a map allocates
+ * nothing but the result asked for. Pairs with a null value are skipped.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class FormEncoder {
+
+    /**
+     * application/x-www-form-urlencoded, in the iteration order of the map,
+     * producing the same output as URLEncoder
+     */
+    public static final FormEncoder FORM = new FormEncoder(false, true);
+
+    /**
+     * application/x-www-form-urlencoded, sorted by key
+     */
+    public static final FormEncoder SORTED_FORM = new FormEncoder(true, true);
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean[] unreserved = new boolean[128];
+    private final Boolean sorted;
+    private final Boolean spaceAsPlus;
+    private final ThreadLocal<State> states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    /**
+     * Create an encoder
+     * 
+     * @param sorted sort the pairs by key, or keep the iteration order of the map
+     * @param spaceAsPlus encode spaces as '+' like HTML forms, or as "%20" and leave '~' unencoded like RFC 3986
+     */
+    public FormEncoder(Boolean sorted, Boolean spaceAsPlus) {
+        this.sorted = sorted;
+        this.spaceAsPlus = spaceAsPlus;
+        for (char c = 'a'; c <= 'z'; c++) {
+            unreserved[c] = true;
+            unreserved[c - 'a' + 'A'] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            unreserved[c] = true;
+        }
+        unreserved['-'] = true;
+        unreserved['.'] = true;
+        unreserved['_'] = true;
+        if (spaceAsPlus) {
+            unreserved['*'] = true;
+        }
+        else {
+            unreserved['~'] = true;
+        }
+    }
+
+    /**
+     * Encode data into the buffer of the current thread.
+     * The buffer is only valid until the next encoding on this thread.
+     * 
+     * @param data
+     * @return ByteBuffer positioned at the start of the encoded data
+     */
+    public ByteBuffer encode(Map<String, String> data) {
+        State state = states.get();
+        state.encode(data);
+        state.view.clear();
+        state.view.limit(state.length);
+        return state.view;
+    }
+
+    /**
+     * Encode data into a new byte array
+     * 
+     * @param data
+     * @return byte[]
+     */
+    public byte[] toByteArray(Map<String, String> data) {
+        State state = states.get();
+        state.encode(data);
+        return Arrays.copyOf(state.buffer, state.length);
+    }
+
+    /**
+     * Encode data into a string
+     * 
+     * @param data
+     * @return String
+     */
+    public String toString(Map<String, String> data) {
+        State state = states.get();
+        state.encode(data);
+        return new String(state.buffer, 0, state.length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Append data as the query string of an URL
+     * 
+     * @param url the URL, which may already have a query string
+     * @param data
+     * @return String
+     */
+    public String appendQuery(String url, Map<String, String> data) {
+        State state = states.get();
+        state.encode(data);
+        if (state.length == 0) {
+            return url;
+        }
+        StringBuilder builder = new StringBuilder(url.length() + 1 + state.length).append(url);
+        builder.append(url.indexOf('?') < 0 ? '?' : '&');
+        for (int i = 0; i < state.length; i++) {
+            builder.append((char) state.buffer[i]);
+        }
+        return builder.toString();
+    }
+
+    private final class State {
+
+        private byte[] buffer = new byte[1024];
+        private ByteBuffer view = ByteBuffer.wrap(buffer);
+        private int length;
+        private final ByteBuilder utf8 = new ByteBuilder(256);
+        private String[] keys = new String[32];
+
+        void encode(Map<String, String> data) {
+            length = 0;
+            if (sorted) {
+                int count = 0;
+                for (String key : data.keySet()) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                    keys[count++] = key;
+                }
+                Arrays.sort(keys, 0, count);
+                for (int i = 0; i < count; i++) {
+                    write(keys[i], data.get(keys[i]));
+                    keys[i] = null;
+                }
+            }
+            else {
+                for (Map.Entry<String, String> entry : data.entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        private void write(String key, String value) {
+            if (value == null) {
+                return;
+            }
+            if (length > 0) {
+                put((byte) '&');
+            }
+            escape(key);
+            put((byte) '=');
+            escape(value);
+        }
+
+        private void put(byte b) {
+            ensureCapacity(1);
+            buffer[length++] = b;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+                view = ByteBuffer.wrap(buffer);
+            }
+        }
+
+        private void escape(String value) {
+            utf8.reset().appendUtf8(value);
+            byte[] bytes = utf8.getBuffer();
+            int count = utf8.length();
+            // A byte takes at most 3 once percent-encoded
+            ensureCapacity(count * 3);
+            byte[] buffer = this.buffer;
+            int position = length;
+            for (int i = 0; i < count; i++) {
+                int b = bytes[i] & 0xff;
+                if (b < 0x80 && unreserved[b]) {
+                    buffer[position++] = (byte) b;
+                }
+                else if (b == ' ' && spaceAsPlus) {
+                    buffer[position++] = '+';
+                }
+                else {
+                    position = percent(buffer, position, b);
+                }
+            }
+            length = position;
+        }
+
+        private int percent(byte[] buffer, int position, int b) {
+            buffer[position] = '%';
+            buffer[position + 1] = HEX[(b >> 4) & 0x0f];
+            buffer[position + 2] = HEX[b & 0x0f];
+            return position + 3;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes JSON as it goes into a ByteBuilder, in UTF-8, without building
+ * intermediate strings. The writer only keeps track of whether a comma is
+ * due; callers are responsible for well-formed nesting.
+ * 
+ * Strings are escaped so the output is also safe inside an HTML script:
+ * besides quotes, backslashes and control characters, &lt; &gt; &amp; ' and the
+ * line separators U+2028 and U+2029 are written as \\u escapes.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_DEPTH = 64;
+
+    private final ByteBuilder out;
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * Create a writer
+     * 
+     * @param out the builder JSON is appended to
+     */
+    public JsonWriter(ByteBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Get the builder JSON is appended to
+     */
+    public ByteBuilder getOut() {
+        return out;
+    }
+
+    /**
+     * Start an object
+     */
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    /**
+     * End the current object
+     */
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    /**
+     * Start an array
+     */
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    /**
+     * End the current array
+     */
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    /**
+     * Write the name of the next member of the current object
+     */
+    public JsonWriter name(String name) {
+        separate();
+        string(name);
+        out.append((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a string value, or null
+     */
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            out.append(NULL);
+        }
+        else {
+            string(value);
+        }
+        return this;
+    }
+
+    /**
+     * Write a number value
+     */
+    public JsonWriter value(long value) {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            out.appendUtf8("-9223372036854775808");
+            return this;
+        }
+        if (value < 0) {
+            out.append((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        out.ensureCapacity(digits);
+        byte[] buffer = out.getBuffer();
+        int end = out.length() + digits;
+        for (int i = end - 1; i >= out.length(); i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        out.setLength(end);
+        return this;
+    }
+
+    /**
+     * Write a boolean value, or null
+     */
+    public JsonWriter value(Boolean value) {
+        separate();
+        out.append(value == null ? NULL : value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Write a map as an object of string members
+     */
+    public JsonWriter value(Map<String, String> map) {
+        if (map == null) {
+            return value((String) null);
+        }
+        beginObject();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            name(entry.getKey()).value(entry.getValue());
+        }
+        return endObject();
+    }
+
+    /**
+     * Write a string value, or null, with every character masked but the first
+     * and last ones visible; masked and non-alphanumeric characters are written as '*'
+     * 
+     * @param value
+     * @param visiblePrefix the number of first characters left visible
+     * @param visibleSuffix the number of last characters left visible
+     */
+    public JsonWriter maskedValue(String value, int visiblePrefix, int visibleSuffix) {
+        separate();
+        if (value == null) {
+            out.append(NULL);
+            return this;
+        }
+        int length = value.length();
+        out.ensureCapacity(length + 2);
+        out.append((byte) '"');
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            boolean visible = i < visiblePrefix || i >= length - visibleSuffix;
+            boolean safe = c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+            out.append((byte) (visible && safe ? c : '*'));
+        }
+        out.append((byte) '"');
+        return this;
+    }
+
+    /**
+     * Forget the nesting written so far, to write a new document
+     */
+    public JsonWriter reset() {
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    private JsonWriter open(char c) {
+        separate();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply.");
+        }
+        out.append((byte) c);
+        first[depth++] = true;
+        return this;
+    }
+
+    private JsonWriter close(char c) {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close.");
+        }
+        depth--;
+        out.append((byte) c);
+        return this;
+    }
+
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (first[depth - 1]) {
+                first[depth - 1] = false;
+            }
+            else {
+                out.append((byte) ',');
+            }
+        }
+    }
+
+    private void string(String value) {
+        out.append((byte) '"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\' || c == '<' || c == '>' || c == '&' || c == '\''
+                    || c == '\u2028' || c == '\u2029') {
+                out.appendUtf8(value, start, i);
+                escape(c);
+                start = i + 1;
+            }
+        }
+        out.appendUtf8(value, start, value.length());
+        out.append((byte) '"');
+    }
+
+    private void escape(char c) {
+        out.ensureCapacity(6);
+        switch (c) {
+            case '"':
+                out.append((byte) '\\').append((byte) '"');
+                break;
+            case '\\':
+                out.append((byte) '\\').append((byte) '\\');
+                break;
+            case '\n':
+                out.append((byte) '\\').append((byte) 'n');
+                break;
+            case '\r':
+                out.append((byte) '\\').append((byte) 'r');
+                break;
+            case '\t':
+                out.append((byte) '\\').append((byte) 't');
+                break;
+            default:
+                out.append((byte) '\\').append((byte) 'u')
+                    .append(HEX[(c >> 12) & 0x0f]).append(HEX[(c >> 8) & 0x0f])
+                    .append(HEX[(c >> 4) & 0x0f]).append(HEX[c & 0x0f]);
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The data of a gateway response, decoded on demand.
+ * 
+ * The body is scanned once to index where each key and value starts and
+ * ends; a value is only decoded into a String when it is asked for, and then
+ * kept. A response that is only asked for its status and reference therefore
+ * decodes two values, whatever the size of the body. Keys are matched against
+ * the raw bytes without being decoded, unless they are escaped.
+ * 
+ * When a key appears more than once the last value wins, as it would when
+ * putting the pairs into a HashMap. The map is read only.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LazyResponseData extends AbstractMap<String, String> {
+
+    private static final int KEY_START = 0;
+    private static final int KEY_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+
+    private static final byte ESCAPED_KEY = 1;
+    private static final byte ESCAPED_VALUE = 2;
+    private static final byte NULL_VALUE = 4;
+    private static final byte SHADOWED = 8;
+
+    private final byte[] body;
+    private final ResponseFormat format;
+    private int[] offsets = new int[64];
+    private byte[] flags = new byte[16];
+    private int count;
+    private String[] keys;
+    private String[] values;
+    private int size = -1;
+
+    /**
+     * Index a response body
+     * 
+     * @param body the body in UTF-8, not copied
+     * @param format
+     * @throws IllegalArgumentException if a JSON body is malformed
+     */
+    public LazyResponseData(byte[] body, ResponseFormat format) {
+        this.body = body;
+        this.format = format;
+        switch (format) {
+            case JSON:
+                new JsonIndexer().index();
+                break;
+            case FORM:
+                indexPairs((byte) '&');
+                break;
+            default:
+                indexPairs((byte) '\n');
+        }
+        keys = new String[count];
+        values = new String[count];
+    }
+
+    /**
+     * Read and index a response body
+     * 
+     * @param in the body, read to its end
+     * @param format
+     * @return LazyResponseData
+     * @throws IOException
+     */
+    public static LazyResponseData parse(InputStream in, ResponseFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new LazyResponseData(out.toByteArray(), format);
+    }
+
+    /**
+     * Get the format of the body
+     */
+    public ResponseFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public String get(Object key) {
+        int field = find(key);
+        return field < 0 ? null : value(field);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        if (size < 0) {
+            markShadowed();
+        }
+        return size;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        size();
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next = skipShadowed(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (next >= count) {
+                            throw new NoSuchElementException();
+                        }
+                        int field = next;
+                        next = skipShadowed(next + 1);
+                        return new AbstractMap.SimpleImmutableEntry<String, String>(key(field), value(field));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int skipShadowed(int field) {
+        while (field < count && (flags[field] & SHADOWED) != 0) {
+            field++;
+        }
+        return field;
+    }
+
+    private void markShadowed() {
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if (sameKey(i, j)) {
+                    flags[i] |= SHADOWED;
+                    break;
+                }
+            }
+            if ((flags[i] & SHADOWED) == 0) {
+                distinct++;
+            }
+        }
+        size = distinct;
+    }
+
+    private boolean sameKey(int i, int j) {
+        if (((flags[i] | flags[j]) & ESCAPED_KEY) != 0) {
+            return key(i).equals(key(j));
+        }
+        int start = offsets[i * 4 + KEY_START];
+        int length = offsets[i * 4 + KEY_END] - start;
+        int other = offsets[j * 4 + KEY_START];
+        if (offsets[j * 4 + KEY_END] - other != length) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (body[start + k] != body[other + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int find(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        String name = (String) key;
+        for (int field = count - 1; field >= 0; field--) {
+            if (matches(field, name)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int field, String name) {
+        if ((flags[field] & ESCAPED_KEY) != 0) {
+            return key(field).equals(name);
+        }
+        int start = offsets[field * 4 + KEY_START];
+        int length = offsets[field * 4 + KEY_END] - start;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                return key(field).equals(name);
+            }
+            if (i >= length || body[start + i] != c) {
+                return false;
+            }
+        }
+        return length == name.length();
+    }
+
+    private String key(int field) {
+        String key = keys[field];
+        if (key == null) {
+            key = decode(offsets[field * 4 + KEY_START], offsets[field * 4 + KEY_END], (flags[field] & ESCAPED_KEY) != 0);
+            keys[field] = key;
+        }
+        return key;
+    }
+
+    private String value(int field) {
+        if ((flags[field] & NULL_VALUE) != 0) {
+            return null;
+        }
+        String value = values[field];
+        if (value == null) {
+            value = decode(offsets[field * 4 + VALUE_START], offsets[field * 4 + VALUE_END], (flags[field] & ESCAPED_VALUE) != 0);
+            values[field] = value;
+        }
+        return value;
+    }
+
+    private String decode(int start, int end, boolean escaped) {
+        if (!escaped) {
+            return new String(body, start, end - start, StandardCharsets.UTF_8);
+        }
+        if (format == ResponseFormat.JSON) {
+            return decodeJson(start, end);
+        }
+        return decodeForm(start, end);
+    }
+
+    private String decodeForm(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = body[i];
+            if (b == '+') {
+                bytes[length++] = ' ';
+            }
+            else if (b == '%' && i + 2 < end && hex(body[i + 1]) >= 0 && hex(body[i + 2]) >= 0) {
+                bytes[length++] = (byte) (hex(body[i + 1]) << 4 | hex(body[i + 2]));
+                i += 2;
+            }
+            else {
+                bytes[length++] = b;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String decodeJson(int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        int run = start;
+        for (int i = start; i < end; i++) {
+            if (body[i] != '\\') {
+                continue;
+            }
+            builder.append(new String(body, run, i - run, StandardCharsets.UTF_8));
+            char c = (char) body[++i];
+            switch (c) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= end) {
+                        throw new IllegalArgumentException("Malformed JSON escape at offset " + i + ".");
+                    }
+                    int code = 0;
+                    for (int k = 1; k <= 4; k++) {
+                        code = code << 4 | Math.max(0, hex(body[i + k]));
+                    }
+                    builder.append((char) code);
+                    i += 4;
+                    break;
+                default:
+                    builder.append(c);
+            }
+            run = i + 1;
+        }
+        builder.append(new String(body, run, end - run, StandardCharsets.UTF_8));
+        return builder.toString();
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private void add(int keyStart, int keyEnd, int valueStart, int valueEnd, int flag) {
+        if (count == flags.length) {
+            flags = Arrays.copyOf(flags, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 8);
+        }
+        offsets[count * 4 + KEY_START] = keyStart;
+        offsets[count * 4 + KEY_END] = keyEnd;
+        offsets[count * 4 + VALUE_START] = valueStart;
+        offsets[count * 4 + VALUE_END] = valueEnd;
+        flags[count] = (byte) flag;
+        count++;
+    }
+
+    /**
+     * Index key=value pairs separated by a byte, skipping empty pairs
+     */
+    private void indexPairs(byte separator) {
+        boolean form = format == ResponseFormat.FORM;
+        int start = 0;
+        while (start < body.length) {
+            int end = start;
+            int equals = -1;
+            int flag = 0;
+            while (end < body.length && body[end] != separator) {
+                byte b = body[end];
+                if (b == '=' && equals < 0) {
+                    equals = end;
+                }
+                else if (form && (b == '%' || b == '+')) {
+                    flag |= equals < 0 ? ESCAPED_KEY : ESCAPED_VALUE;
+                }
+                end++;
+            }
+            int next = end + 1;
+            if (!form) {
+                // Lines may end with CRLF
+                while (end > start && (body[end - 1] == '\r')) {
+                    end--;
+                }
+            }
+            if (end > start) {
+                if (equals < 0 || equals >= end) {
+                    add(start, end, end, end, flag);
+                }
+                else {
+                    add(start, equals, equals + 1, end, flag);
+                }
+            }
+            start = next;
+        }
+    }
+
+    /**
+     * Indexes the members of a JSON object
+     */
+    private final class JsonIndexer {
+
+        private int position;
+
+        void index() {
+            skipWhitespace();
+            if (position == body.length) {
+                return;
+            }
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                expect('"');
+                int keyStart = position;
+                boolean keyEscaped = skipString();
+                int keyEnd = position - 1;
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                int flag = keyEscaped ? ESCAPED_KEY : 0;
+                byte b = peek();
+                if (b == '"') {
+                    position++;
+                    int valueStart = position;
+                    if (skipString()) {
+                        flag |= ESCAPED_VALUE;
+                    }
+                    add(keyStart, keyEnd, valueStart, position - 1, flag);
+                }
+                else {
+                    int valueStart = position;
+                    if (b == '{' || b == '[') {
+                        skipNested();
+                    }
+                    else {
+                        skipLiteral();
+                    }
+                    int valueEnd = position;
+                    if (valueEnd - valueStart == 4 && body[valueStart] == 'n' && body[valueStart + 1] == 'u'
+                            && body[valueStart + 2] == 'l' && body[valueStart + 3] == 'l') {
+                        flag |= NULL_VALUE;
+                    }
+                    add(keyStart, keyEnd, valueStart, valueEnd, flag);
+                }
+                skipWhitespace();
+                byte separator = next();
+                if (separator == '}') {
+                    return;
+                }
+                if (separator != ',') {
+                    throw malformed();
+                }
+            }
+        }
+
+        /**
+         * Skip to just after the closing quote
+         * 
+         * @return does the string have escapes?
+         */
+        private boolean skipString() {
+            boolean escaped = false;
+            while (true) {
+                byte b = next();
+                if (b == '"') {
+                    return escaped;
+                }
+                if (b == '\\') {
+                    escaped = true;
+                    next();
+                }
+            }
+        }
+
+        private void skipNested() {
+            int depth = 0;
+            do {
+                byte b = next();
+                if (b == '"') {
+                    skipString();
+                }
+                else if (b == '{' || b == '[') {
+                    depth++;
+                }
+                else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+            while (depth > 0);
+        }
+
+        private void skipLiteral() {
+            int start = position;
+            while (position < body.length) {
+                byte b = body[position];
+                if (b == ',' || b == '}' || b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                    break;
+                }
+                position++;
+            }
+            if (position == start) {
+                throw malformed();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < body.length) {
+                byte b = body[position];
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                    break;
+                }
+                position++;
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw malformed();
+            }
+        }
+
+        private byte peek() {
+            if (position >= body.length) {
+                throw malformed();
+            }
+            return body[position];
+        }
+
+        private byte next() {
+            byte b = peek();
+            position++;
+            return b;
+        }
+
+        private IllegalArgumentException malformed() {
+            return new IllegalArgumentException("Malformed JSON response at offset " + position + ".");
+        }
+    }
+}
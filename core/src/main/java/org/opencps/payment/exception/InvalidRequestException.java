@@ -17,6 +17,8 @@
 package org.opencps.payment.exception;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
@@ -25,7 +27,38 @@ public class InvalidRequestException extends IOException {
 
     private static final long serialVersionUID = -4035363288860693988L;
 
+    private final List<String> violations;
+
     public InvalidRequestException(String string) {
         super(string);
+        this.violations = Collections.singletonList(string);
+    }
+
+    /**
+     * @param violations every violation found in the request
+     */
+    public InvalidRequestException(List<String> violations) {
+        super(join(violations));
+        this.violations = Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * Get every violation found in the request
+     * 
+     * @return List
+     */
+    public List<String> getViolations() {
+        return violations;
+    }
+
+    private static String join(List<String> violations) {
+        StringBuilder message = new StringBuilder();
+        for (String violation : violations) {
+            if (message.length() > 0) {
+                message.append(' ');
+            }
+            message.append(violation);
+        }
+        return message.toString();
     }
 }
@@ -0,0 +1,130 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.ConcurrencyLimitExceededException;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * Gives each connector an AdaptiveLimit on its calls in flight, finding by
+ * itself how many concurrent calls the gateway serves best. Requests over
+ * the limit are shed at once with a ConcurrencyLimitExceededException.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AdaptiveConcurrencyInterceptor implements RequestInterceptor {
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int probeInterval;
+    private final CircuitBreakerPolicy failures = new CircuitBreakerPolicy();
+    private final ConcurrentMap<String, AdaptiveLimit> limits = new ConcurrentHashMap<String, AdaptiveLimit>();
+
+    /**
+     * Create an interceptor with limits between 1 and 200, starting at 20
+     */
+    public AdaptiveConcurrencyInterceptor() {
+        this(20, 1, 200, 1000);
+    }
+
+    /**
+     * Create an interceptor
+     * 
+     * @param initialLimit the limit of a connector before any call was measured
+     * @param minLimit the lowest limit of a connector
+     * @param maxLimit the highest limit of a connector
+     * @param probeInterval the number of calls between two measures of the no-load latency
+     */
+    public AdaptiveConcurrencyInterceptor(int initialLimit, int minLimit, int maxLimit, int probeInterval) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * Get the limit of a connector
+     * 
+     * @param connector the short name of the connector
+     * @return AdaptiveLimit
+     */
+    public AdaptiveLimit getLimit(String connector) {
+        AdaptiveLimit limit = limits.get(connector);
+        if (limit == null) {
+            limit = new AdaptiveLimit(initialLimit, minLimit, maxLimit, probeInterval);
+            AdaptiveLimit existing = limits.putIfAbsent(connector, limit);
+            if (existing != null) {
+                limit = existing;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Get the limits of all connectors seen so far, by connector short name
+     * 
+     * @return Map
+     */
+    public Map<String, AdaptiveLimit> getLimits() {
+        return Collections.unmodifiableMap(limits);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        String connector = chain.getRequest().getConnector().getShortName();
+        AdaptiveLimit limit = getLimit(connector);
+        int inFlight = limit.tryAcquire();
+        if (inFlight < 0) {
+            throw new ConcurrencyLimitExceededException("Concurrency limit of " + connector + " reached.");
+        }
+        long start = System.nanoTime();
+        boolean released = false;
+        try {
+            PaymentResponse response = chain.proceed();
+            released = true;
+            limit.release(System.nanoTime() - start, inFlight, false);
+            return response;
+        }
+        catch (Exception e) {
+            released = true;
+            if (failures.isFailure(e)) {
+                limit.release(System.nanoTime() - start, inFlight, true);
+            }
+            else {
+                limit.release();
+            }
+            throw e;
+        }
+        finally {
+            // An Error gives the slot back without a sample
+            if (!released) {
+                limit.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrency limit of one gateway that adapts to its measured round trip time.
+ * 
+ * The limit follows the TCP Vegas congestion control: the ratio between the
+ * lowest round trip time seen (the no-load latency) and the one just measured
+ * estimates how many calls are queued at the gateway. The limit grows while
+ * that queue is short and the callers use the limit, and shrinks when the
+ * queue builds up or calls fail. The
+ * no-load latency is measured again every probeInterval samples, so a lasting
+ * change of the gateway latency becomes the new baseline.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AdaptiveLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int probeInterval;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+    private double estimatedLimit;
+    private long noLoadRtt;
+    private int probeCountdown;
+
+    /**
+     * Create a limit
+     * 
+     * @param initialLimit the limit before any call was measured
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit
+     * @param probeInterval the number of samples between two measures of the no-load latency
+     */
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, int probeInterval) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limits.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.probeInterval = probeInterval;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+        this.probeCountdown = probeInterval;
+    }
+
+    /**
+     * Take a slot for a call
+     * 
+     * @return the number of calls in flight including this one, -1 if the limit is reached
+     */
+    public int tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Release the slot of a call, and adjust the limit from its round trip time
+     * 
+     * @param rtt the round trip time of the call in nanoseconds
+     * @param inFlightAtStart the number of calls in flight when it started
+     * @param dropped did the call fail?
+     */
+    public void release(long rtt, int inFlightAtStart, boolean dropped) {
+        inFlight.decrementAndGet();
+        if (rtt > 0) {
+            update(rtt, inFlightAtStart, dropped);
+        }
+    }
+
+    /**
+     * Release the slot of a call that did not reach the gateway
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void update(long rtt, int inFlightAtStart, boolean dropped) {
+        if (--probeCountdown <= 0) {
+            probeCountdown = probeInterval;
+            noLoadRtt = rtt;
+            return;
+        }
+        if (noLoadRtt == 0 || rtt < noLoadRtt) {
+            noLoadRtt = rtt;
+            return;
+        }
+        double step = Math.max(1, Math.log10(estimatedLimit));
+        double queue = Math.ceil(estimatedLimit * (1 - (double) noLoadRtt / rtt));
+        double next;
+        if (dropped || queue > 6 * step) {
+            next = estimatedLimit - step;
+        }
+        else if (inFlightAtStart * 2 < estimatedLimit) {
+            // The callers do not use the limit, so it has not been proven too low
+            return;
+        }
+        else if (queue <= step) {
+            next = estimatedLimit + 6 * step;
+        }
+        else if (queue < 3 * step) {
+            next = estimatedLimit + step;
+        }
+        else {
+            return;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Get the current limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Get the number of calls in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Get the no-load round trip time in nanoseconds
+     */
+    public synchronized long getNoLoadRtt() {
+        return noLoadRtt;
+    }
+
+    /**
+     * Get the number of calls shed since the limit was created
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
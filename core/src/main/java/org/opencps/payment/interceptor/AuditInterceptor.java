@@ -0,0 +1,97 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.audit.AuditLog;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * Writes an audit record of every request to an AuditLog, with its outcome.
+ * A request that fails is logged with the ERROR status.
+ * 
+ * A request is never failed because the audit log cannot be written; such
+ * errors are counted instead, see getErrors().
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AuditInterceptor implements RequestInterceptor {
+
+    private final AuditLog log;
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * @param log
+     */
+    public AuditInterceptor(AuditLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Get the audit log
+     * 
+     * @return AuditLog
+     */
+    public AuditLog getLog() {
+        return log;
+    }
+
+    /**
+     * Get the number of records that could not be written
+     * 
+     * @return long
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        RequestBase request = chain.getRequest();
+        PaymentResponse response;
+        try {
+            response = chain.proceed();
+        }
+        catch (PaymentException e) {
+            log(request, null, JournalRecord.Status.ERROR);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            log(request, null, JournalRecord.Status.ERROR);
+            throw e;
+        }
+        log(request, response, JournalInterceptor.getStatus(response));
+        return response;
+    }
+
+    private void log(RequestBase request, PaymentResponse response, JournalRecord.Status status) {
+        try {
+            log.log(request, response, status);
+        }
+        catch (RuntimeException e) {
+            errors.increment();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bulkhead capping the calls in flight to one gateway.
+ * Calls over the cap wait in a bounded queue, for a bounded time.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class Bulkhead {
+
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long maxWait;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create a bulkhead
+     * 
+     * @param maxConcurrent the maximum number of calls in flight
+     * @param maxWaiting the maximum number of calls waiting for a permit
+     * @param maxWait how long a call waits for a permit
+     * @param unit the unit of maxWait
+     */
+    public Bulkhead(int maxConcurrent, int maxWaiting, long maxWait, TimeUnit unit) {
+        if (maxConcurrent < 1 || maxWaiting < 0) {
+            throw new IllegalArgumentException("Invalid bulkhead size.");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.maxWait = unit.toNanos(maxWait);
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Acquire a permit, waiting at most the configured time
+     * 
+     * @return Boolean false if the queue is full or no permit was released in time
+     * @throws InterruptedException
+     */
+    public Boolean acquire() throws InterruptedException {
+        return acquire(maxWait);
+    }
+
+    /**
+     * Acquire a permit, waiting at most the given time
+     * 
+     * @param timeout the maximum wait in nanoseconds
+     * @return Boolean false if the queue is full or no permit was released in time
+     * @throws InterruptedException
+     */
+    public Boolean acquire(long timeout) throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(Math.min(timeout, maxWait), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            rejected.increment();
+            return false;
+        }
+        finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Release a permit
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Get the maximum number of calls in flight
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Get the number of calls in flight
+     */
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * Get the number of calls waiting for a permit
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Get the number of calls rejected since the bulkhead was created
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.opencps.payment.Deadline;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.BulkheadFullException;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * Isolates connectors from each other by giving each its own Bulkhead, so a
+ * slow gateway cannot hold more than its share of the servlet threads.
+ * Requests that find no room fail with a BulkheadFullException, they never
+ * wait past their deadline.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class BulkheadInterceptor implements RequestInterceptor {
+
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long maxWait;
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+    /**
+     * Create an interceptor
+     * 
+     * @param maxConcurrent the maximum number of calls in flight per connector
+     * @param maxWaiting the maximum number of calls waiting per connector
+     * @param maxWait how long a call waits for room
+     * @param unit the unit of maxWait
+     */
+    public BulkheadInterceptor(int maxConcurrent, int maxWaiting, long maxWait, TimeUnit unit) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.maxWait = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Get the bulkhead of a connector
+     * 
+     * @param connector the short name of the connector
+     * @return Bulkhead
+     */
+    public Bulkhead getBulkhead(String connector) {
+        Bulkhead bulkhead = bulkheads.get(connector);
+        if (bulkhead == null) {
+            bulkhead = new Bulkhead(maxConcurrent, maxWaiting, maxWait, TimeUnit.NANOSECONDS);
+            Bulkhead existing = bulkheads.putIfAbsent(connector, bulkhead);
+            if (existing != null) {
+                bulkhead = existing;
+            }
+        }
+        return bulkhead;
+    }
+
+    /**
+     * Get the bulkheads of all connectors seen so far, by connector short name
+     * 
+     * @return Map
+     */
+    public Map<String, Bulkhead> getBulkheads() {
+        return Collections.unmodifiableMap(bulkheads);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        String connector = chain.getRequest().getConnector().getShortName();
+        Bulkhead bulkhead = getBulkhead(connector);
+        Deadline deadline = chain.getRequest().getDeadline();
+        long timeout = deadline != null ? Math.min(maxWait, deadline.remaining(TimeUnit.NANOSECONDS)) : maxWait;
+        try {
+            if (!bulkhead.acquire(timeout)) {
+                throw new BulkheadFullException("Too many requests in flight to " + connector + ".");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkheadFullException("Interrupted while waiting for room to " + connector + ".");
+        }
+        try {
+            return chain.proceed();
+        }
+        finally {
+            bulkhead.release();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A circuit breaker over the calls to one gateway, as configured by a CircuitBreakerPolicy.
+ * Call outcomes are counted in a rolling window of time buckets, without locking.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CircuitBreaker {
+
+    /**
+     * States of a circuit breaker
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int CALLS = 0;
+    private static final int FAILURES = 1;
+    private static final int SLOW_CALLS = 2;
+
+    private final CircuitBreakerPolicy policy;
+    private final long bucketNanos;
+    private final long origin = System.nanoTime();
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+    private final AtomicInteger trialPermits = new AtomicInteger();
+    private final AtomicInteger trialSuccesses = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile long openedAt;
+
+    /**
+     * Create a closed circuit breaker
+     * 
+     * @param policy
+     */
+    public CircuitBreaker(CircuitBreakerPolicy policy) {
+        this.policy = policy;
+        this.bucketNanos = policy.getWindow() / policy.getBuckets();
+        this.buckets = new AtomicReferenceArray<Bucket>(policy.getBuckets());
+    }
+
+    /**
+     * Get the state of the breaker
+     * 
+     * @return State
+     */
+    public State getState() {
+        State current = state.get();
+        if (current == State.OPEN && System.nanoTime() - openedAt >= policy.getOpenDuration()) {
+            return State.HALF_OPEN;
+        }
+        return current;
+    }
+
+    /**
+     * Ask for permission to make a call. Every permitted call must be followed
+     * by onSuccess(), onFailure() or onIgnored().
+     * 
+     * @return Boolean false if the breaker is open
+     */
+    public Boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            if (System.nanoTime() - openedAt < policy.getOpenDuration()) {
+                rejected.increment();
+                return false;
+            }
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                trialSuccesses.set(0);
+                trialPermits.set(policy.getHalfOpenCalls());
+            }
+        }
+        int permits;
+        do {
+            permits = trialPermits.get();
+            if (permits <= 0) {
+                rejected.increment();
+                return false;
+            }
+        } while (!trialPermits.compareAndSet(permits, permits - 1));
+        return true;
+    }
+
+    /**
+     * Record a successful call
+     * 
+     * @param duration the duration of the call in nanoseconds
+     */
+    public void onSuccess(long duration) {
+        long now = System.nanoTime();
+        boolean slow = duration >= policy.getSlowCallDuration();
+        Bucket bucket = bucket(now);
+        bucket.calls.incrementAndGet();
+        if (slow) {
+            bucket.slowCalls.incrementAndGet();
+        }
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            if (trialSuccesses.incrementAndGet() >= policy.getHalfOpenCalls() && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                reset();
+            }
+        }
+        else if (current == State.CLOSED && slow) {
+            evaluate(now);
+        }
+    }
+
+    /**
+     * Record a failed call
+     * 
+     * @param duration the duration of the call in nanoseconds
+     */
+    public void onFailure(long duration) {
+        long now = System.nanoTime();
+        Bucket bucket = bucket(now);
+        bucket.calls.incrementAndGet();
+        bucket.failures.incrementAndGet();
+        if (duration >= policy.getSlowCallDuration()) {
+            bucket.slowCalls.incrementAndGet();
+        }
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            open(State.HALF_OPEN, now);
+        }
+        else if (current == State.CLOSED) {
+            evaluate(now);
+        }
+    }
+
+    /**
+     * Record a permitted call that did not reach the gateway
+     */
+    public void onIgnored() {
+        if (state.get() == State.HALF_OPEN) {
+            trialPermits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the number of calls in the rolling window
+     */
+    public long getCalls() {
+        return sum(System.nanoTime(), CALLS);
+    }
+
+    /**
+     * Get the number of failed calls in the rolling window
+     */
+    public long getFailures() {
+        return sum(System.nanoTime(), FAILURES);
+    }
+
+    /**
+     * Get the number of slow calls in the rolling window
+     */
+    public long getSlowCalls() {
+        return sum(System.nanoTime(), SLOW_CALLS);
+    }
+
+    /**
+     * Get the number of calls rejected since the breaker was created
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void evaluate(long now) {
+        long calls = sum(now, CALLS);
+        if (calls == 0 || calls < policy.getMinimumCalls()) {
+            return;
+        }
+        double failureRate = (double) sum(now, FAILURES) / calls;
+        double slowCallRate = (double) sum(now, SLOW_CALLS) / calls;
+        if (failureRate >= policy.getFailureRateThreshold() || slowCallRate >= policy.getSlowCallRateThreshold()) {
+            open(State.CLOSED, now);
+        }
+    }
+
+    private void open(State from, long now) {
+        openedAt = now;
+        state.compareAndSet(from, State.OPEN);
+    }
+
+    private void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    private Bucket bucket(long now) {
+        long epoch = (now - origin) / bucketNanos;
+        int index = (int) (epoch % buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.epoch >= epoch) {
+                return bucket;
+            }
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private long sum(long now, int counter) {
+        long epoch = (now - origin) / bucketNanos;
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && epoch - bucket.epoch < buckets.length()) {
+                total += counter == CALLS ? bucket.calls.get() : counter == FAILURES ? bucket.failures.get() : bucket.slowCalls.get();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Call counters of one period of the rolling window
+     */
+    private static final class Bucket {
+        private final long epoch;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong slowCalls = new AtomicLong();
+
+        private Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
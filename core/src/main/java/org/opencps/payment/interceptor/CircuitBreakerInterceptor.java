@@ -0,0 +1,112 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.CircuitBreakerOpenException;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * Guards each connector with its own CircuitBreaker.
+ * Requests to a connector whose breaker is open fail fast with a
+ * CircuitBreakerOpenException, without reaching the gateway.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CircuitBreakerInterceptor implements RequestInterceptor {
+
+    private final CircuitBreakerPolicy policy;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Create an interceptor
+     * 
+     * @param policy the policy of the breaker of every connector
+     */
+    public CircuitBreakerInterceptor(CircuitBreakerPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Get the breaker of a connector
+     * 
+     * @param connector the short name of the connector
+     * @return CircuitBreaker
+     */
+    public CircuitBreaker getBreaker(String connector) {
+        CircuitBreaker breaker = breakers.get(connector);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(policy);
+            CircuitBreaker existing = breakers.putIfAbsent(connector, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Get the breakers of all connectors seen so far, by connector short name
+     * 
+     * @return Map
+     */
+    public Map<String, CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        String connector = chain.getRequest().getConnector().getShortName();
+        CircuitBreaker breaker = getBreaker(connector);
+        if (!breaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException("Circuit breaker of " + connector + " is open.");
+        }
+        long start = System.nanoTime();
+        boolean recorded = false;
+        try {
+            PaymentResponse response = chain.proceed();
+            recorded = true;
+            breaker.onSuccess(System.nanoTime() - start);
+            return response;
+        }
+        catch (Exception e) {
+            recorded = true;
+            if (policy.isFailure(e)) {
+                breaker.onFailure(System.nanoTime() - start);
+            }
+            else {
+                breaker.onIgnored();
+            }
+            throw e;
+        }
+        finally {
+            // An Error says nothing about the gateway, but must give back a half-open permit
+            if (!recorded) {
+                breaker.onIgnored();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.TimeUnit;
+import org.opencps.payment.exception.InvalidRequestException;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * The configuration of a CircuitBreaker.
+ * 
+ * The breaker opens when, over the rolling window, at least minimumCalls
+ * were made and either the failure rate or the slow call rate reaches its
+ * threshold. It stays open for openDuration, then lets halfOpenCalls trial
+ * calls through: the breaker closes if they all succeed and opens again
+ * on the first failure.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CircuitBreakerPolicy {
+
+    private long window = TimeUnit.SECONDS.toNanos(10);
+    private Integer buckets = 10;
+    private Integer minimumCalls = 20;
+    private Double failureRateThreshold = 0.5;
+    private long slowCallDuration = TimeUnit.SECONDS.toNanos(5);
+    private Double slowCallRateThreshold = 0.8;
+    private long openDuration = TimeUnit.SECONDS.toNanos(30);
+    private Integer halfOpenCalls = 3;
+
+    /**
+     * Get the length of the rolling window in nanoseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Get the number of buckets of the rolling window
+     */
+    public Integer getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Set the length of the rolling window and the number of buckets it is split into
+     */
+    public CircuitBreakerPolicy setWindow(long window, TimeUnit unit, Integer buckets) {
+        if (buckets < 1 || unit.toNanos(window) < buckets) {
+            throw new IllegalArgumentException("Invalid rolling window.");
+        }
+        this.window = unit.toNanos(window);
+        this.buckets = buckets;
+        return this;
+    }
+
+    /**
+     * Get the minimum number of calls in the window before the rates are evaluated
+     */
+    public Integer getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * Set the minimum number of calls in the window before the rates are evaluated
+     */
+    public CircuitBreakerPolicy setMinimumCalls(Integer value) {
+        minimumCalls = value;
+        return this;
+    }
+
+    /**
+     * Get the failure rate opening the breaker, between 0 and 1
+     */
+    public Double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Set the failure rate opening the breaker, between 0 and 1
+     */
+    public CircuitBreakerPolicy setFailureRateThreshold(Double value) {
+        failureRateThreshold = value;
+        return this;
+    }
+
+    /**
+     * Get the duration in nanoseconds from which a call is slow
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * Get the slow call rate opening the breaker, between 0 and 1
+     */
+    public Double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Set the duration from which a call is slow, and the slow call rate opening the breaker
+     */
+    public CircuitBreakerPolicy setSlowCalls(long duration, TimeUnit unit, Double rateThreshold) {
+        slowCallDuration = unit.toNanos(duration);
+        slowCallRateThreshold = rateThreshold;
+        return this;
+    }
+
+    /**
+     * Get how long the breaker stays open in nanoseconds
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Set how long the breaker stays open
+     */
+    public CircuitBreakerPolicy setOpenDuration(long value, TimeUnit unit) {
+        openDuration = unit.toNanos(value);
+        return this;
+    }
+
+    /**
+     * Get the number of trial calls let through when half open
+     */
+    public Integer getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * Set the number of trial calls let through when half open
+     */
+    public CircuitBreakerPolicy setHalfOpenCalls(Integer value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("At least one trial call is needed.");
+        }
+        halfOpenCalls = value;
+        return this;
+    }
+
+    /**
+     * Does an error count as a failure of the gateway? Requests rejected by an
+     * interceptor and invalid requests do not.
+     */
+    public Boolean isFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PaymentException || cause instanceof InvalidRequestException) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * Coalesces identical read-only requests, such as completePurchase polls
+ * for the same transaction reference, into one gateway call.
+ * 
+ * Requests are identical when they have the same connector short name,
+ * operation and data. Concurrent identical requests share the call in
+ * flight; with a cache, the response is also served to identical requests
+ * sent within its time to live, so a burst of polls becomes one call.
+ * Requests of other operations are sent as is.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CoalescingInterceptor implements RequestInterceptor {
+
+    private final IdempotencyStore cache;
+    private final SingleFlight<PaymentResponse> inFlight = new SingleFlight<PaymentResponse>();
+
+    /**
+     * Create an interceptor sharing only the calls in flight
+     */
+    public CoalescingInterceptor() {
+        this(null);
+    }
+
+    /**
+     * Create an interceptor also caching up to 1000 responses
+     * 
+     * @param ttl how long a response is served again
+     * @param unit the unit of ttl
+     */
+    public CoalescingInterceptor(long ttl, TimeUnit unit) {
+        this(new MemoryIdempotencyStore(1000, ttl, unit));
+    }
+
+    /**
+     * Create an interceptor caching responses in the given store
+     * 
+     * @param cache the response cache, null for none
+     */
+    public CoalescingInterceptor(IdempotencyStore cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the response cache
+     * 
+     * @return IdempotencyStore, null if responses are not cached
+     */
+    public IdempotencyStore getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the number of distinct calls in flight
+     * 
+     * @return Integer
+     */
+    public Integer getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(final Chain chain) throws PaymentException {
+        final String key = getKey(chain.getRequest(), chain.getData());
+        if (key == null) {
+            return chain.proceed();
+        }
+        if (cache != null) {
+            PaymentResponse response = cache.get(key);
+            if (response != null) {
+                return response;
+            }
+        }
+        return inFlight.execute(key, new Callable<PaymentResponse>() {
+            @Override
+            public PaymentResponse call() throws Exception {
+                PaymentResponse response = chain.proceed();
+                if (cache != null && response != null) {
+                    cache.put(key, response);
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Get the coalescing key of a request, null if the request is not coalesced
+     * 
+     * @param request
+     * @param data the data being sent
+     * @return String
+     */
+    protected String getKey(RequestBase request, Map<String, String> data) {
+        PaymentOperation operation = request.getOperation();
+        if (operation == null || !operation.isReadOnly()) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(request.getConnector().getShortName())
+            .append(':').append(operation.name());
+        if (data != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(data).entrySet()) {
+                key.append('\u0000').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,556 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import org.opencps.payment.api.PaymentRedirectResponse;
+import org.opencps.payment.api.PaymentRequest;
+import org.opencps.payment.api.PaymentResponse;
+
+/**
+ * IdempotencyStore holding at most capacity responses, each for a fixed time
+ * to live, that survive a restart of the JVM.
+ * 
+ * Responses are served from memory, as by MemoryIdempotencyStore, and every
+ * change is appended to a log file, framed by its length and a CRC32 of its
+ * payload, and forced to disk before put() returns. The log is written under
+ * the store lock but forced outside of it, and threads that wait for the disk
+ * at the same time are served by a single fsync. When opened, the store
+ * replays the log, a record torn by a crash being discarded, and rewrites it
+ * with the live responses only; the log is rewritten again once it holds
+ * twice as many records as the capacity. A rewrite that fails leaves the
+ * previous log in use.
+ * 
+ * A response restored from the log is a snapshot of what is needed to replay
+ * it: its outcome, code, message and transaction reference, and its redirect
+ * URL, method and data. The gateway response data is not written, so a
+ * restored response has none. It has no request either, so it cannot
+ * redirect() by itself. The redirect data, e.g. the signed fields of a
+ * gateway form, is written as is: the log is to be kept where only the
+ * payment application can read it.
+ * 
+ * A response that cannot be written is still served from memory; such errors
+ * are counted, see getErrors().
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class FileIdempotencyStore implements IdempotencyStore, Closeable {
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MAX_RECORD = 16 << 20;
+
+    private final File file;
+    private final int capacity;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, false);
+    private final LongAdder errors = new LongAdder();
+    private final Object syncLock = new Object();
+    private FileOutputStream stream;
+    private DataOutputStream out;
+    private int records;
+    private boolean closed;
+    private long written;
+    private volatile long synced;
+
+    /**
+     * Open a store, creating its log file if needed
+     * 
+     * @param file the log file
+     * @param capacity the maximum number of responses
+     * @param ttl how long a response is kept
+     * @param unit the unit of ttl
+     * @throws IOException when the log cannot be read or written
+     */
+    public FileIdempotencyStore(File file, int capacity, long ttl, TimeUnit unit) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.ttl = unit.toMillis(ttl);
+        if (file.exists()) {
+            load();
+        }
+        compact();
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.interceptor.IdempotencyStore#get(java.lang.String)
+     */
+    @Override
+    public synchronized PaymentResponse get(String key) {
+        evictExpired(System.currentTimeMillis());
+        Entry entry = entries.get(key);
+        return entry != null ? entry.response : null;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.interceptor.IdempotencyStore#put(java.lang.String, org.opencps.payment.api.PaymentResponse)
+     */
+    @Override
+    public void put(String key, PaymentResponse response) {
+        long sequence;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictExpired(now);
+            Entry entry = new Entry(response, now + ttl);
+            entries.remove(key);
+            entries.put(key, entry);
+            if (entries.size() > capacity) {
+                Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            try {
+                sequence = append(encode(PUT, key, entry));
+            }
+            catch (IOException e) {
+                errors.increment();
+                return;
+            }
+        }
+        sync(sequence);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.interceptor.IdempotencyStore#remove(java.lang.String)
+     */
+    @Override
+    public void remove(String key) {
+        long sequence;
+        synchronized (this) {
+            if (entries.remove(key) == null) {
+                return;
+            }
+            try {
+                sequence = append(encode(REMOVE, key, null));
+            }
+            catch (IOException e) {
+                errors.increment();
+                return;
+            }
+        }
+        sync(sequence);
+    }
+
+    /**
+     * Get the number of responses held
+     * 
+     * @return Integer
+     */
+    public synchronized Integer size() {
+        evictExpired(System.currentTimeMillis());
+        return entries.size();
+    }
+
+    /**
+     * Get the number of changes that could not be written to the log
+     * 
+     * @return long
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Get the log file
+     * 
+     * @return File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Write a record to the log, under the store lock
+     * 
+     * @return the sequence number of the record, for sync()
+     */
+    private long append(byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("The idempotency store is closed.");
+        }
+        if (records >= capacity * 2) {
+            try {
+                compact();
+            }
+            catch (IOException e) {
+                // The record still goes to the previous log
+                errors.increment();
+            }
+        }
+        write(out, payload);
+        out.flush();
+        records++;
+        return ++written;
+    }
+
+    /**
+     * Force the log to disk up to a record, outside of the store lock
+     */
+    private void sync(long sequence) {
+        synchronized (syncLock) {
+            // Another thread's fsync, or a rewrite of the log, may have covered it
+            if (synced >= sequence) {
+                return;
+            }
+            FileOutputStream target;
+            long last;
+            synchronized (this) {
+                target = stream;
+                last = written;
+            }
+            try {
+                target.getFD().sync();
+                synchronized (this) {
+                    if (last > synced) {
+                        synced = last;
+                    }
+                }
+            }
+            catch (IOException e) {
+                // A rewrite closes the stream it replaces, once the new log is on disk
+                if (synced < sequence) {
+                    errors.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the log with the live responses only, replacing it atomically.
+     * The append stream is reopened whether or not the rewrite succeeds.
+     */
+    private void compact() throws IOException {
+        evictExpired(System.currentTimeMillis());
+        Path temp = new File(file.getPath() + ".tmp").toPath();
+        FileOutputStream tempStream = new FileOutputStream(temp.toFile());
+        try {
+            DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(tempStream));
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                write(tempOut, encode(PUT, entry.getKey(), entry.getValue()));
+            }
+            tempOut.flush();
+            tempStream.getFD().sync();
+        }
+        finally {
+            tempStream.close();
+        }
+        try {
+            if (out != null) {
+                out.close();
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // Every record written so far is in the new log, already on disk
+            synced = written;
+        }
+        finally {
+            stream = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(stream));
+            // After a failure, the rewrite is tried again once as many records are appended
+            records = entries.size();
+        }
+    }
+
+    private void load() throws IOException {
+        long now = System.currentTimeMillis();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 1 || length > MAX_RECORD) {
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        return;
+                    }
+                }
+                catch (EOFException e) {
+                    // The end of the log, or a record torn by a crash
+                    return;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = record.readByte();
+                String key = readString(record);
+                entries.remove(key);
+                if (type == PUT) {
+                    long expiresAt = record.readLong();
+                    if (expiresAt > now) {
+                        entries.put(key, new Entry(StoredResponse.read(record), expiresAt));
+                    }
+                }
+            }
+        }
+        finally {
+            in.close();
+            while (entries.size() > capacity) {
+                Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().expiresAt > now) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static byte[] encode(byte type, String key, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(type);
+        writeString(record, key);
+        if (entry != null) {
+            record.writeLong(entry.expiresAt);
+            StoredResponse.write(record, entry.response);
+        }
+        record.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void write(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? 0 : value ? 2 : 1);
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        byte value = in.readByte();
+        return value == 0 ? null : value == 2;
+    }
+
+    private static final class Entry {
+        private final PaymentResponse response;
+        private final long expiresAt;
+
+        private Entry(PaymentResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A response restored from the log
+     */
+    static final class StoredResponse implements PaymentRedirectResponse {
+
+        private String code;
+        private String message;
+        private String transactionReference;
+        private Boolean successful;
+        private Boolean redirect;
+        private Boolean cancelled;
+        private String redirectUrl;
+        private String redirectMethod;
+        private Map<String, String> redirectData;
+
+        static void write(DataOutputStream out, PaymentResponse response) throws IOException {
+            writeString(out, response.getCode());
+            writeString(out, response.getMessage());
+            writeString(out, response.getTransactionReference());
+            writeBoolean(out, response.isSuccessful());
+            writeBoolean(out, response.isRedirect());
+            writeBoolean(out, response.isCancelled());
+            boolean redirect = response instanceof PaymentRedirectResponse && Boolean.TRUE.equals(response.isRedirect());
+            out.writeBoolean(redirect);
+            if (redirect) {
+                PaymentRedirectResponse redirectResponse = (PaymentRedirectResponse) response;
+                writeString(out, redirectResponse.getRedirectUrl());
+                writeString(out, redirectResponse.getRedirectMethod());
+                writeMap(out, redirectResponse.getRedirectData());
+            }
+        }
+
+        static StoredResponse read(DataInputStream in) throws IOException {
+            StoredResponse response = new StoredResponse();
+            response.code = readString(in);
+            response.message = readString(in);
+            response.transactionReference = readString(in);
+            response.successful = readBoolean(in);
+            response.redirect = readBoolean(in);
+            response.cancelled = readBoolean(in);
+            if (in.readBoolean()) {
+                response.redirectUrl = readString(in);
+                response.redirectMethod = readString(in);
+                response.redirectData = readMap(in);
+            }
+            return response;
+        }
+
+        @Override
+        public Map<String, String> getData() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public PaymentRequest getRequest() {
+            return null;
+        }
+
+        @Override
+        public Boolean isSuccessful() {
+            return successful;
+        }
+
+        @Override
+        public Boolean isRedirect() {
+            return redirect;
+        }
+
+        @Override
+        public Boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String getCode() {
+            return code;
+        }
+
+        @Override
+        public String getTransactionReference() {
+            return transactionReference;
+        }
+
+        @Override
+        public String getRedirectUrl() {
+            return redirectUrl;
+        }
+
+        @Override
+        public String getRedirectMethod() {
+            return redirectMethod;
+        }
+
+        @Override
+        public Map<String, String> getRedirectData() {
+            return redirectData;
+        }
+
+        @Override
+        public void redirect() throws IOException {
+            throw new IOException("A response restored from the idempotency log has no request to redirect.");
+        }
+    }
+}
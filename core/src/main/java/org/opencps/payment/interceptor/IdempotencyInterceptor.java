@@ -0,0 +1,121 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * Deduplicates purchase, capture, refund and revert requests by their transaction ID.
+ * 
+ * Concurrent identical requests share the one call in flight, and the response
+ * of a completed call is served from the IdempotencyStore while it remembers it.
+ * Requests are identical when they have the same connector short name,
+ * operation and transaction ID. Requests without a transaction ID are sent as is.
+ * 
+ * The interceptor keeps no per-connector state of its own, so one instance
+ * can be added to every connector sharing the store.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class IdempotencyInterceptor implements RequestInterceptor {
+
+    private final IdempotencyStore store;
+    private final Set<PaymentOperation> operations;
+    private final SingleFlight<PaymentResponse> inFlight = new SingleFlight<PaymentResponse>();
+
+    /**
+     * Create an interceptor for purchase, capture, refund and revert requests
+     * 
+     * @param store
+     */
+    public IdempotencyInterceptor(IdempotencyStore store) {
+        this(store, EnumSet.of(PaymentOperation.PURCHASE, PaymentOperation.CAPTURE,
+                PaymentOperation.REFUND, PaymentOperation.REVERT));
+    }
+
+    /**
+     * Create an interceptor for the given operations
+     * 
+     * @param store
+     * @param operations
+     */
+    public IdempotencyInterceptor(IdempotencyStore store, Set<PaymentOperation> operations) {
+        this.store = store;
+        this.operations = EnumSet.copyOf(operations);
+    }
+
+    /**
+     * Get the backing store
+     * 
+     * @return IdempotencyStore
+     */
+    public IdempotencyStore getStore() {
+        return store;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(final Chain chain) throws PaymentException {
+        final String key = getKey(chain.getRequest());
+        if (key == null) {
+            return chain.proceed();
+        }
+        PaymentResponse response = store.get(key);
+        if (response != null) {
+            return response;
+        }
+        return inFlight.execute(key, new Callable<PaymentResponse>() {
+            @Override
+            public PaymentResponse call() throws Exception {
+                // The previous call may have completed between the lookup and joining
+                PaymentResponse response = store.get(key);
+                if (response == null) {
+                    response = chain.proceed();
+                    if (response != null) {
+                        store.put(key, response);
+                    }
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Get the idempotency key of a request, null if the request is not deduplicated
+     * 
+     * @param request
+     * @return String
+     */
+    protected String getKey(RequestBase request) {
+        PaymentOperation operation = request.getOperation();
+        String transactionId = request.getTransactionId();
+        if (operation == null || !operations.contains(operation) || transactionId == null || transactionId.length() == 0) {
+            return null;
+        }
+        return request.getConnector().getShortName() + ":" + operation.name() + ":" + transactionId;
+    }
+}
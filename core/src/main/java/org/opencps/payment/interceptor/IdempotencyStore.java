@@ -0,0 +1,52 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import org.opencps.payment.api.PaymentResponse;
+
+/**
+ * Backing store of the responses remembered by IdempotencyInterceptor.
+ * Implementations must be safe for use by multiple threads and may forget
+ * a response at any time, e.g. when it expires.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Get the response stored for a key
+     * 
+     * @param key
+     * @return PaymentResponse, null if there is none
+     */
+    public PaymentResponse get(String key);
+
+    /**
+     * Store the response for a key
+     * 
+     * @param key
+     * @param response
+     */
+    public void put(String key, PaymentResponse response);
+
+    /**
+     * Forget the response stored for a key
+     * 
+     * @param key
+     */
+    public void remove(String key);
+}
@@ -0,0 +1,168 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.CreditCard;
+import org.opencps.payment.Helper;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.ResponseBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.journal.Journal;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * Writes every request to a Journal, once as SENT before it goes to the
+ * gateway, and once with its outcome when the response comes back.
+ * 
+ * A request is never failed because the journal cannot be written; such
+ * errors are counted instead, see getErrors().
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class JournalInterceptor implements RequestInterceptor {
+
+    private final Journal journal;
+    private final LongAdder errors = new LongAdder();
+    private final ThreadLocal<JournalRecord> records = new ThreadLocal<JournalRecord>() {
+        @Override
+        protected JournalRecord initialValue() {
+            return new JournalRecord();
+        }
+    };
+
+    /**
+     * @param journal
+     */
+    public JournalInterceptor(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get the journal
+     * 
+     * @return Journal
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Get the number of records that could not be written
+     * 
+     * @return long
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        RequestBase request = chain.getRequest();
+        JournalRecord record = records.get().clear();
+        describe(record, request);
+        long requestedAt = System.currentTimeMillis();
+        record.setStatus(JournalRecord.Status.SENT).setRequestedAt(requestedAt);
+        append(record);
+
+        PaymentResponse response;
+        try {
+            response = chain.proceed();
+        }
+        catch (PaymentException e) {
+            complete(record, request, requestedAt, JournalRecord.Status.ERROR, null);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            complete(record, request, requestedAt, JournalRecord.Status.ERROR, null);
+            throw e;
+        }
+        complete(record, request, requestedAt, getStatus(response), response);
+        return response;
+    }
+
+    /**
+     * Get the status journaled for a response
+     * 
+     * @param response
+     * @return JournalRecord.Status
+     */
+    public static JournalRecord.Status getStatus(PaymentResponse response) {
+        if (response == null) {
+            return JournalRecord.Status.ERROR;
+        }
+        if (response.isRedirect()) {
+            return JournalRecord.Status.REDIRECT;
+        }
+        if (response.isCancelled()) {
+            return JournalRecord.Status.CANCELLED;
+        }
+        if (response instanceof ResponseBase && ((ResponseBase) response).isPending()) {
+            return JournalRecord.Status.PENDING;
+        }
+        return response.isSuccessful() ? JournalRecord.Status.SUCCESSFUL : JournalRecord.Status.FAILED;
+    }
+
+    private void complete(JournalRecord record, RequestBase request, long requestedAt,
+            JournalRecord.Status status, PaymentResponse response) {
+        // The thread may have journaled other requests meanwhile, e.g. in a nested send
+        describe(record.clear(), request);
+        // The reference of the gateway identifies a new transaction, a refund keeps the one it was sent with
+        if (record.getTransactionReference() == null && response != null) {
+            record.setTransactionReference(response.getTransactionReference());
+        }
+        record.setStatus(status).setRequestedAt(requestedAt).setCompletedAt(System.currentTimeMillis());
+        append(record);
+    }
+
+    private void describe(JournalRecord record, RequestBase request) {
+        Map<String, String> parameters = request.getParameters();
+        record.setOperation(request.getOperation())
+            .setConnector(request.getConnector() != null ? request.getConnector().getShortName() : null)
+            .setTransactionId(parameters.get("transactionId"))
+            .setTransactionReference(parameters.get("transactionReference"))
+            .setCurrency(parameters.get("currency"));
+        Long amount = Helper.toMinorUnits(parameters.get("amount"), request.getCurrencyDecimalPlaces());
+        if (amount != null) {
+            record.setAmount(amount);
+        }
+        CreditCard card = request.getCard();
+        if (card != null && card.getParameters() != null) {
+            record.setCardNumber(card.getParameters().get("number"));
+        }
+    }
+
+    private void append(JournalRecord record) {
+        try {
+            journal.append(record);
+        }
+        catch (IOException e) {
+            errors.increment();
+        }
+        catch (RuntimeException e) {
+            errors.increment();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.LatencyRecorder;
+import org.opencps.payment.metrics.PhaseTimer;
+
+/**
+ * Times every request and its phases into a LatencyRecorder.
+ * 
+ * It should be the first interceptor of a connector, so the queue phase
+ * covers the waits in the interceptors after it. One instance can be added
+ * to every connector sharing the recorder.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LatencyInterceptor implements RequestInterceptor {
+
+    private final LatencyRecorder recorder;
+
+    /**
+     * @param recorder
+     */
+    public LatencyInterceptor(LatencyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Get the recorder
+     * 
+     * @return LatencyRecorder
+     */
+    public LatencyRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        PhaseTimer timer = PhaseTimer.current();
+        timer.begin();
+        try {
+            return chain.proceed();
+        }
+        finally {
+            RequestBase request = chain.getRequest();
+            if (timer.end() && request.getConnector() != null && request.getOperation() != null) {
+                recorder.record(request.getConnector().getShortName(), request.getOperation(), timer);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A window over the most recent latencies of a connector.
+ * Recording is lock-free, the percentile used as hedging threshold is
+ * recomputed once every quarter of the window.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LatencyWindow {
+
+    private final AtomicLongArray samples;
+    private final AtomicInteger count = new AtomicInteger();
+    private final int mask;
+    private final double percentile;
+    private volatile boolean filled;
+    private volatile long threshold = -1;
+
+    /**
+     * Create a window
+     * 
+     * @param size the number of latencies kept, rounded up to a power of two
+     * @param percentile the percentile of the threshold, between 0 and 1
+     */
+    public LatencyWindow(int size, double percentile) {
+        int capacity = Integer.highestOneBit(Math.max(size, 4) - 1) << 1;
+        this.samples = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.percentile = percentile;
+    }
+
+    /**
+     * Record a latency
+     * 
+     * @param nanos
+     */
+    public void record(long nanos) {
+        int index = count.getAndIncrement();
+        samples.set(index & mask, nanos);
+        int recorded = index + 1;
+        if ((recorded & (samples.length() / 4 - 1)) == 0 && (filled || recorded >= samples.length())) {
+            filled = true;
+            threshold = compute();
+        }
+    }
+
+    /**
+     * Get the latency percentile in nanoseconds, -1 until the window has filled up
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    private long compute() {
+        long[] values = new long[samples.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = samples.get(i);
+        }
+        Arrays.sort(values);
+        int index = (int) Math.ceil(percentile * values.length) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
+    }
+}
@@ -0,0 +1,121 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.opencps.payment.api.PaymentResponse;
+
+/**
+ * In-memory IdempotencyStore holding at most capacity responses, each for
+ * a fixed time to live. Entries are kept in insertion order so the oldest
+ * entry is both the first to expire and the first to be evicted.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class MemoryIdempotencyStore implements IdempotencyStore {
+
+    private final int capacity;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Create a new store
+     * 
+     * @param capacity the maximum number of responses
+     * @param ttl how long a response is kept
+     * @param unit the unit of ttl
+     */
+    public MemoryIdempotencyStore(int capacity, long ttl, TimeUnit unit) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.ttl = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, false);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.interceptor.IdempotencyStore#get(java.lang.String)
+     */
+    @Override
+    public synchronized PaymentResponse get(String key) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        Entry entry = entries.get(key);
+        return entry != null ? entry.response : null;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.interceptor.IdempotencyStore#put(java.lang.String, org.opencps.payment.api.PaymentResponse)
+     */
+    @Override
+    public synchronized void put(String key, PaymentResponse response) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        entries.remove(key);
+        entries.put(key, new Entry(response, now + ttl));
+        if (entries.size() > capacity) {
+            Iterator<String> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.interceptor.IdempotencyStore#remove(java.lang.String)
+     */
+    @Override
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Get the number of responses held
+     * 
+     * @return Integer
+     */
+    public synchronized Integer size() {
+        evictExpired(System.nanoTime());
+        return entries.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().expiresAt - now > 0) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final PaymentResponse response;
+        private final long expiresAt;
+
+        private Entry(PaymentResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
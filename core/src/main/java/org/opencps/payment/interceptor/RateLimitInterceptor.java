@@ -0,0 +1,220 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.opencps.payment.ConnectorBase;
+import org.opencps.payment.Deadline;
+import org.opencps.payment.Helper;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.exception.RateLimitExceededException;
+
+/**
+ * Limits the rate of requests to each gateway and merchant token with a TokenBucket.
+ * 
+ * Buckets are keyed by connector short name and token parameter, so every
+ * request using the same merchant account shares one quota. The token is a
+ * secret: keys only hold the first 16 hex digits of its SHA-256. The rate and burst
+ * default to the ones of the interceptor and can be set per connector with
+ * the "rateLimit" and "rateLimitBurst" connector parameters.
+ * 
+ * A request waits at most maxWait for a token, and never past its deadline;
+ * a zero maxWait only tries to take one.
+ * Requests that get no token fail with a RateLimitExceededException. Bulk jobs can
+ * use sendAsync() to wait for their token without blocking a thread.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RateLimitInterceptor implements RequestInterceptor {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "payment-rate-limit");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available.", e);
+            }
+        }
+    };
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final long maxWait;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final Set<RequestBase> permitted = Collections.newSetFromMap(new ConcurrentHashMap<RequestBase, Boolean>());
+
+    /**
+     * Create an interceptor
+     * 
+     * @param permitsPerSecond the default rate of each bucket
+     * @param burst the default number of tokens of each bucket
+     * @param maxWait how long a request waits for a token
+     * @param unit the unit of maxWait
+     */
+    public RateLimitInterceptor(double permitsPerSecond, int burst, long maxWait, TimeUnit unit) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxWait = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Get the bucket of a request
+     * 
+     * @param request
+     * @return TokenBucket
+     */
+    public TokenBucket getBucket(RequestBase request) {
+        ConnectorBase connector = request.getConnector();
+        String token = request.getToken();
+        if (token == null) {
+            token = connector.getParameter("token");
+        }
+        String key = connector.getShortName() + ":" + (token != null ? fingerprint(token) : "");
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = createBucket(connector);
+            TokenBucket existing = buckets.putIfAbsent(key, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Get the buckets seen so far, by connector short name and token fingerprint
+     * 
+     * @return Map
+     */
+    public Map<String, TokenBucket> getBuckets() {
+        return Collections.unmodifiableMap(buckets);
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        RequestBase request = chain.getRequest();
+        if (!permitted.remove(request)) {
+            acquire(request, getBucket(request));
+        }
+        return chain.proceed();
+    }
+
+    /**
+     * Send a request once its token is available, without blocking the caller.
+     * The request is sent from the executor.
+     * 
+     * @param request
+     * @param executor
+     * @return CompletableFuture of the response
+     */
+    public CompletableFuture<PaymentResponse> sendAsync(final RequestBase request, Executor executor) {
+        return getBucket(request).acquireAsync(SCHEDULER).thenApplyAsync(new Function<Void, PaymentResponse>() {
+            @Override
+            public PaymentResponse apply(Void permit) {
+                permitted.add(request);
+                try {
+                    return request.send();
+                }
+                finally {
+                    permitted.remove(request);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Take a token for a request
+     */
+    protected void acquire(RequestBase request, TokenBucket bucket) throws PaymentException {
+        Deadline deadline = request.getDeadline();
+        long timeout = deadline != null ? Math.min(maxWait, deadline.remaining(TimeUnit.NANOSECONDS)) : maxWait;
+        long wait = bucket.reserve(timeout);
+        if (wait < 0) {
+            throw new RateLimitExceededException("Rate limit of " + request.getConnector().getShortName() + " exceeded.");
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        catch (InterruptedException e) {
+            bucket.release();
+            Thread.currentThread().interrupt();
+            throw new RateLimitExceededException("Interrupted while waiting for the rate limit of "
+                    + request.getConnector().getShortName() + ".");
+        }
+    }
+
+    /**
+     * Get the fingerprint of a merchant token: the first 16 hex digits of its SHA-256
+     */
+    static String fingerprint(String token) {
+        byte[] hash = DIGESTS.get().digest(token.getBytes(StandardCharsets.UTF_8));
+        char[] chars = new char[16];
+        for (int i = 0; i < 8; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private TokenBucket createBucket(ConnectorBase connector) {
+        double rate = permitsPerSecond;
+        int size = burst;
+        String value = connector.getParameter("rateLimit");
+        if (Helper.isNumeric(value) && Double.parseDouble(value) > 0) {
+            rate = Double.parseDouble(value);
+        }
+        value = connector.getParameter("rateLimitBurst");
+        if (Helper.isInteger(value) && Integer.parseInt(value) > 0) {
+            size = Integer.parseInt(value);
+        }
+        return new TokenBucket(rate, size);
+    }
+}
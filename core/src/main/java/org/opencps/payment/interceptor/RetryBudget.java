@@ -0,0 +1,83 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget bounding the retries of a connector to a ratio of its requests.
+ * Every request deposits ratio of a retry, every retry withdraws a whole one,
+ * so a failing gateway is not hit by a retry storm.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    /**
+     * Create a full budget
+     * 
+     * @param ratio the number of retries earned by each request
+     * @param maxRetries the maximum number of retries saved up
+     */
+    public RetryBudget(double ratio, int maxRetries) {
+        this.deposit = Math.round(ratio * SCALE);
+        this.capacity = maxRetries * SCALE;
+        this.balance = new AtomicLong(capacity);
+    }
+
+    /**
+     * Deposit the share of a request
+     */
+    public void deposit() {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    /**
+     * Withdraw a retry
+     * 
+     * @return Boolean false if the budget is exhausted
+     */
+    public Boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Get the number of retries left
+     */
+    public long getRemaining() {
+        return balance.get() / SCALE;
+    }
+}
@@ -0,0 +1,334 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opencps.payment.Deadline;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.PhaseTimer;
+
+/**
+ * Retries failed requests with an exponential jittered backoff, and hedges
+ * slow read-only requests, as configured by a RetryPolicy.
+ * 
+ * The retries of each connector are bounded by its RetryBudget, and the
+ * attempts of each connector are counted in its RetryMetrics. No attempt
+ * is started past the deadline of the request.
+ * 
+ * A hedged request is sent from two threads at once, with the same request
+ * and data, so hedging is only for requests whose connector and following
+ * interceptors are thread-safe; the phases of the winning attempt are added
+ * to the timer of the calling thread. When the hedge executor is busy, the
+ * request is sent from the calling thread without a hedge.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RetryInterceptor implements RequestInterceptor, Closeable {
+
+    private static final int LATENCY_WINDOW = 256;
+    private static final int HEDGE_THREADS = 32;
+
+    private final RetryPolicy policy;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final ConcurrentMap<String, ConnectorState> states = new ConcurrentHashMap<String, ConnectorState>();
+
+    /**
+     * Create an interceptor, hedged attempts are sent from a pool of at most
+     * 32 daemon threads, shut down by close()
+     * 
+     * @param policy
+     */
+    public RetryInterceptor(RetryPolicy policy) {
+        this(policy, new ThreadPoolExecutor(0, HEDGE_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new HedgeThreadFactory()), true);
+    }
+
+    /**
+     * Create an interceptor, hedged attempts are sent from the executor, which
+     * the caller shuts down
+     * 
+     * @param policy
+     * @param executor
+     */
+    public RetryInterceptor(RetryPolicy policy, ExecutorService executor) {
+        this(policy, executor, false);
+    }
+
+    private RetryInterceptor(RetryPolicy policy, ExecutorService executor, boolean ownsExecutor) {
+        this.policy = policy;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Get the policy
+     * 
+     * @return RetryPolicy
+     */
+    public RetryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the attempt metrics of a connector
+     * 
+     * @param connector the short name of the connector
+     * @return RetryMetrics
+     */
+    public RetryMetrics getMetrics(String connector) {
+        return getState(connector).metrics;
+    }
+
+    /**
+     * Get the retry budget of a connector
+     * 
+     * @param connector the short name of the connector
+     * @return RetryBudget
+     */
+    public RetryBudget getBudget(String connector) {
+        return getState(connector).budget;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        RequestBase request = chain.getRequest();
+        ConnectorState state = getState(request.getConnector().getShortName());
+        state.budget.deposit();
+        boolean retried = policy.isRetried(request.getOperation());
+        boolean hedged = policy.isHedged(request.getOperation());
+
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                PaymentResponse response = hedged ? sendHedged(chain, state) : chain.proceed();
+                long duration = System.nanoTime() - start;
+                state.metrics.recordAttempt(attempt, duration, false);
+                state.latencies.record(duration);
+                return response;
+            }
+            catch (Exception e) {
+                state.metrics.recordAttempt(attempt, System.nanoTime() - start, true);
+                if (!retried || attempt >= policy.getMaxAttempts() || !policy.isRetryable(e)) {
+                    throw e;
+                }
+                if (!state.budget.tryWithdraw()) {
+                    state.metrics.recordBudgetExhausted();
+                    throw e;
+                }
+                if (!backoff(request, attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait before the next attempt
+     * 
+     * @return Boolean false if the next attempt would start past the deadline, or the thread was interrupted
+     */
+    protected Boolean backoff(RequestBase request, int attempt) {
+        long delay = policy.getDelay(attempt);
+        Deadline deadline = request.getDeadline();
+        if (deadline != null && delay >= deadline.remaining(TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Shut down the hedge executor, when it was created by this interceptor
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Send an attempt, and a hedged one when the first is slower than the threshold
+     */
+    private PaymentResponse sendHedged(Chain chain, ConnectorState state) throws PaymentException {
+        long threshold = state.latencies.getThreshold();
+        if (threshold < 0) {
+            return chain.proceed();
+        }
+        CompletionService<PaymentResponse> completion = new ExecutorCompletionService<PaymentResponse>(executor);
+        Attempt first = new Attempt(chain);
+        Attempt second = new Attempt(chain);
+        Future<PaymentResponse> primary;
+        try {
+            primary = completion.submit(first);
+        }
+        catch (RejectedExecutionException e) {
+            return chain.proceed();
+        }
+        Future<PaymentResponse> hedge = null;
+        Throwable failure = null;
+        try {
+            Future<PaymentResponse> done = completion.poll(threshold, TimeUnit.NANOSECONDS);
+            int pending = 1;
+            if (done == null) {
+                try {
+                    hedge = completion.submit(second);
+                    state.metrics.recordHedge();
+                    pending = 2;
+                }
+                catch (RejectedExecutionException e) {
+                    // the executor is busy, wait for the first attempt alone
+                }
+            }
+            for (; pending > 0; pending--) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                try {
+                    PaymentResponse response = done.get();
+                    if (done == hedge) {
+                        state.metrics.recordHedgeWin();
+                        PhaseTimer.current().merge(second.phases);
+                    }
+                    else {
+                        PhaseTimer.current().merge(first.phases);
+                    }
+                    return response;
+                }
+                catch (ExecutionException e) {
+                    failure = e.getCause();
+                }
+                done = null;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentException("Interrupted while waiting for the gateway.");
+        }
+        finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+        if (failure instanceof PaymentException) {
+            throw (PaymentException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new RuntimeException(failure);
+    }
+
+    private ConnectorState getState(String connector) {
+        ConnectorState state = states.get(connector);
+        if (state == null) {
+            state = new ConnectorState(policy);
+            ConnectorState existing = states.putIfAbsent(connector, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Retry state of a connector
+     */
+    private static final class ConnectorState {
+        private final RetryBudget budget;
+        private final RetryMetrics metrics;
+        private final LatencyWindow latencies;
+
+        private ConnectorState(RetryPolicy policy) {
+            budget = new RetryBudget(policy.getBudgetRatio(), policy.getBudgetMaxRetries());
+            metrics = new RetryMetrics(policy.getMaxAttempts());
+            latencies = new LatencyWindow(LATENCY_WINDOW, policy.getHedgePercentile());
+        }
+    }
+
+    /**
+     * An attempt sent from the hedge executor, timed on its thread
+     */
+    private static final class Attempt implements Callable<PaymentResponse> {
+        private final Chain chain;
+        private PhaseTimer phases;
+
+        private Attempt(Chain chain) {
+            this.chain = chain;
+        }
+
+        @Override
+        public PaymentResponse call() throws Exception {
+            PhaseTimer timer = PhaseTimer.current();
+            timer.begin();
+            try {
+                return chain.proceed();
+            }
+            finally {
+                timer.end();
+                phases = timer.snapshot();
+            }
+        }
+    }
+
+    /**
+     * Thread factory of hedged attempts
+     */
+    private static class HedgeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "payment-hedge-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Attempt metrics of the requests sent through a RetryInterceptor for one connector.
+ * Attempts are counted by their number, attempt 1 being the first send of a request.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RetryMetrics {
+
+    private final AtomicLongArray attempts;
+    private final AtomicLongArray failures;
+    private final AtomicLongArray nanos;
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * Create the metrics
+     * 
+     * @param maxAttempts the maximum number of attempts of a request
+     */
+    public RetryMetrics(int maxAttempts) {
+        attempts = new AtomicLongArray(maxAttempts + 1);
+        failures = new AtomicLongArray(maxAttempts + 1);
+        nanos = new AtomicLongArray(maxAttempts + 1);
+    }
+
+    /**
+     * Record an attempt
+     * 
+     * @param attempt the number of the attempt, starting at 1
+     * @param duration the duration of the attempt in nanoseconds
+     * @param failed did the attempt fail?
+     */
+    public void recordAttempt(int attempt, long duration, boolean failed) {
+        int index = Math.min(attempt, attempts.length() - 1);
+        attempts.incrementAndGet(index);
+        nanos.addAndGet(index, duration);
+        if (failed) {
+            failures.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * Record a retry refused by the exhausted budget
+     */
+    public void recordBudgetExhausted() {
+        budgetExhausted.increment();
+    }
+
+    /**
+     * Record a hedged attempt
+     */
+    public void recordHedge() {
+        hedges.increment();
+    }
+
+    /**
+     * Record a hedged attempt that answered first
+     */
+    public void recordHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * Get the number of requests, i.e. of first attempts
+     */
+    public long getRequests() {
+        return getAttempts(1);
+    }
+
+    /**
+     * Get the number of retries, i.e. of attempts after the first one
+     */
+    public long getRetries() {
+        long retries = 0;
+        for (int i = 2; i < attempts.length(); i++) {
+            retries += attempts.get(i);
+        }
+        return retries;
+    }
+
+    /**
+     * Get the number of attempts with the given number
+     */
+    public long getAttempts(int attempt) {
+        return attempt < attempts.length() ? attempts.get(attempt) : 0;
+    }
+
+    /**
+     * Get the number of failed attempts with the given number
+     */
+    public long getFailures(int attempt) {
+        return attempt < failures.length() ? failures.get(attempt) : 0;
+    }
+
+    /**
+     * Get the mean duration in nanoseconds of the attempts with the given number
+     */
+    public long getMeanNanos(int attempt) {
+        long count = getAttempts(attempt);
+        return count > 0 ? nanos.get(attempt) / count : 0;
+    }
+
+    /**
+     * Get the number of retries refused by the exhausted budget
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    /**
+     * Get the number of hedged attempts sent
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * Get the number of hedged attempts that answered first
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+}
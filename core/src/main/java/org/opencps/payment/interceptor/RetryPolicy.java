@@ -0,0 +1,213 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.exception.InvalidRequestException;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * The configuration of RetryInterceptor.
+ * 
+ * Only requests of the retried operations are sent more than once, by default
+ * the read-only operations. Attempts are spaced by an exponential backoff with
+ * full jitter: the delay before attempt n+1 is a random value between zero and
+ * min(maxDelay, baseDelay * 2^(n-1)).
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RetryPolicy {
+
+    private Integer maxAttempts = 3;
+    private long baseDelay = TimeUnit.MILLISECONDS.toNanos(50);
+    private long maxDelay = TimeUnit.SECONDS.toNanos(1);
+    private Set<PaymentOperation> operations = EnumSet.noneOf(PaymentOperation.class);
+    private Double budgetRatio = 0.2;
+    private Integer budgetMaxRetries = 100;
+    private Boolean hedging = false;
+    private Double hedgePercentile = 0.95;
+
+    /**
+     * Create a policy retrying the read-only operations
+     */
+    public RetryPolicy() {
+        for (PaymentOperation operation : PaymentOperation.values()) {
+            if (operation.isReadOnly()) {
+                operations.add(operation);
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of attempts of a request, the first one included
+     */
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Set the maximum number of attempts of a request, the first one included
+     */
+    public RetryPolicy setMaxAttempts(Integer value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("A request needs at least one attempt.");
+        }
+        maxAttempts = value;
+        return this;
+    }
+
+    /**
+     * Get the base delay of the backoff in nanoseconds
+     */
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Get the maximum delay of the backoff in nanoseconds
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Set the base and the maximum delay of the backoff
+     */
+    public RetryPolicy setBackoff(long baseDelay, long maxDelay, TimeUnit unit) {
+        this.baseDelay = unit.toNanos(baseDelay);
+        this.maxDelay = unit.toNanos(maxDelay);
+        return this;
+    }
+
+    /**
+     * Get the operations whose requests are retried
+     */
+    public Set<PaymentOperation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Set the operations whose requests are retried. Only add an operation that
+     * changes the transaction when the gateway deduplicates it by transaction ID.
+     */
+    public RetryPolicy setOperations(Set<PaymentOperation> value) {
+        operations = value.isEmpty() ? EnumSet.noneOf(PaymentOperation.class) : EnumSet.copyOf(value);
+        return this;
+    }
+
+    /**
+     * Get the number of retries earned by each request
+     */
+    public Double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * Get the maximum number of retries saved up by a connector
+     */
+    public Integer getBudgetMaxRetries() {
+        return budgetMaxRetries;
+    }
+
+    /**
+     * Set the retry budget of each connector: every request earns ratio retries,
+     * up to maxRetries saved, so retries stay below that ratio of the traffic.
+     */
+    public RetryPolicy setBudget(Double ratio, Integer maxRetries) {
+        budgetRatio = ratio;
+        budgetMaxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Are read-only requests hedged?
+     */
+    public Boolean getHedging() {
+        return hedging;
+    }
+
+    /**
+     * Get the latency percentile after which a read-only request is hedged
+     */
+    public Double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * Hedge read-only requests: when the first attempt is slower than the given
+     * percentile of the recent latencies, a second one is sent and the first
+     * response wins. Both attempts send the same request from two threads, so
+     * the connector and the interceptors after the RetryInterceptor must be
+     * thread-safe.
+     */
+    public RetryPolicy setHedging(Boolean value, Double percentile) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1.");
+        }
+        hedging = value;
+        hedgePercentile = percentile;
+        return this;
+    }
+
+    /**
+     * Is the request of an operation retried?
+     */
+    public Boolean isRetried(PaymentOperation operation) {
+        return operation != null && operations.contains(operation);
+    }
+
+    /**
+     * Is the request of an operation hedged?
+     */
+    public Boolean isHedged(PaymentOperation operation) {
+        return hedging && operation != null && operation.isReadOnly();
+    }
+
+    /**
+     * Can a failed attempt be retried? By default only transport failures are,
+     * requests rejected by an interceptor or invalid requests are not.
+     */
+    public Boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PaymentException || cause instanceof InvalidRequestException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the delay before the next attempt in nanoseconds
+     * 
+     * @param attempt the number of the failed attempt, starting at 1
+     */
+    public long getDelay(int attempt) {
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelay) {
+            ceiling = maxDelay;
+        }
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+}
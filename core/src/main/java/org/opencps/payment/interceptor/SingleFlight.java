@@ -0,0 +1,98 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import org.opencps.payment.exception.PaymentException;
+
+/**
+ * Runs at most one call per key at a time. Callers asking for a key that
+ * is already in flight wait for, and share, the result of that call.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentMap<String, CompletableFuture<V>> calls = new ConcurrentHashMap<String, CompletableFuture<V>>();
+
+    /**
+     * Run the call, or join the call already in flight for the key
+     * 
+     * @param key
+     * @param call
+     * @return The result of the call
+     * @throws PaymentException when the call failed with a PaymentException
+     */
+    public V execute(String key, Callable<V> call) throws PaymentException {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            V result = call.call();
+            future.complete(result);
+            return result;
+        }
+        catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw rethrow(e);
+        }
+        finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * Get the number of calls in flight
+     * 
+     * @return Integer
+     */
+    public Integer size() {
+        return calls.size();
+    }
+
+    private V await(CompletableFuture<V> future) throws PaymentException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentException("Interrupted while waiting for the call in flight.");
+        }
+        catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static PaymentException rethrow(Throwable e) throws PaymentException {
+        if (e instanceof PaymentException) {
+            throw (PaymentException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new RuntimeException(e);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Map;
+import org.opencps.payment.Helper;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.journal.JournalRecord;
+import org.opencps.payment.state.TransactionStateStore;
+
+/**
+ * Keeps a TransactionStateStore up to date with the outcome of every request,
+ * and rejects with an InvalidTransitionException the requests the state of
+ * their transaction does not allow, e.g. a capture after a revert, and those
+ * sent while another operation of their transaction is in flight.
+ * 
+ * Transactions are found by the transactionId parameter, or else by the
+ * transactionReference one. The store is rebuilt on startup by replaying the
+ * journal of a JournalInterceptor into it.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class StateInterceptor implements RequestInterceptor {
+
+    private final TransactionStateStore store;
+
+    /**
+     * @param store
+     */
+    public StateInterceptor(TransactionStateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Get the state store
+     * 
+     * @return TransactionStateStore
+     */
+    public TransactionStateStore getStore() {
+        return store;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        RequestBase request = chain.getRequest();
+        PaymentOperation operation = request.getOperation();
+        if (operation == null) {
+            return chain.proceed();
+        }
+        Map<String, String> parameters = request.getParameters();
+        String transactionId = parameters.get("transactionId");
+        String reference = parameters.get("transactionReference");
+        boolean reserved = store.reserve(operation, transactionId, reference);
+        boolean applied = false;
+        try {
+            PaymentResponse response = chain.proceed();
+            String responseReference = reference;
+            if (responseReference == null && response != null) {
+                responseReference = response.getTransactionReference();
+            }
+            Long amount = Helper.toMinorUnits(parameters.get("amount"), request.getCurrencyDecimalPlaces());
+            store.apply(operation, JournalInterceptor.getStatus(response), transactionId, responseReference,
+                amount != null ? amount : JournalRecord.NO_AMOUNT, System.currentTimeMillis());
+            applied = true;
+            return response;
+        }
+        finally {
+            if (reserved && !applied) {
+                store.release(operation, transactionId, reference);
+            }
+        }
+    }
+}
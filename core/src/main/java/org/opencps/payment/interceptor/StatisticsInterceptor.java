@@ -0,0 +1,93 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.Map;
+import org.opencps.payment.Helper;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.journal.JournalRecord;
+import org.opencps.payment.statistics.PaymentStatistics;
+
+/**
+ * Records the outcome of every request in PaymentStatistics.
+ * 
+ * The interceptor keeps no per-connector state of its own, so one instance
+ * can be added to every connector sharing the statistics.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class StatisticsInterceptor implements RequestInterceptor {
+
+    private final PaymentStatistics statistics;
+
+    /**
+     * @param statistics
+     */
+    public StatisticsInterceptor(PaymentStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Get the statistics
+     * 
+     * @return PaymentStatistics
+     */
+    public PaymentStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        PaymentResponse response;
+        try {
+            response = chain.proceed();
+        }
+        catch (PaymentException e) {
+            record(chain.getRequest(), JournalRecord.Status.ERROR);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            record(chain.getRequest(), JournalRecord.Status.ERROR);
+            throw e;
+        }
+        record(chain.getRequest(), JournalInterceptor.getStatus(response));
+        return response;
+    }
+
+    private void record(RequestBase request, JournalRecord.Status outcome) {
+        if (request.getConnector() == null) {
+            return;
+        }
+        Map<String, String> parameters = request.getParameters();
+        String currency = parameters.get("currency");
+        long amount = JournalRecord.NO_AMOUNT;
+        if (outcome == JournalRecord.Status.SUCCESSFUL) {
+            Long units = Helper.toMinorUnits(parameters.get("amount"), request.getCurrencyDecimalPlaces());
+            if (units != null) {
+                amount = units;
+            }
+        }
+        statistics.record(request.getConnector().getShortName(), request.getOperation(), currency, outcome, amount);
+    }
+}
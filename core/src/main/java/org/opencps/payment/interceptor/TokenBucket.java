@@ -0,0 +1,217 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A lock-free token bucket.
+ * 
+ * The bucket refills at a fixed rate up to burst tokens. It is implemented as
+ * a generic cell rate algorithm: the only state is the theoretical arrival
+ * time of the next token, updated by compare-and-set, so a permit can be taken
+ * right away, reserved ahead of time, or refused.
+ * 
+ * Callers waiting as long as needed reserve at most one interval ahead and
+ * wait outside the bucket otherwise, so a backlog of bulk requests does not
+ * book the bucket far ahead of interactive requests with a short wait.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private final long origin = System.nanoTime();
+    private final AtomicLong arrival = new AtomicLong();
+
+    /**
+     * Create a full bucket
+     * 
+     * @param permitsPerSecond the refill rate
+     * @param burst the maximum number of tokens
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit.");
+        }
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.tolerance = interval * (burst - 1);
+    }
+
+    /**
+     * Take a token if one is available
+     * 
+     * @return Boolean false if the bucket is empty
+     */
+    public Boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Take a token, waiting at most the given time for it
+     * 
+     * @param timeout the maximum wait
+     * @param unit the unit of timeout
+     * @return Boolean false if no token is available in time
+     * @throws InterruptedException
+     */
+    public Boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long wait = reserve(unit.toNanos(timeout));
+        if (wait < 0) {
+            return false;
+        }
+        sleep(wait);
+        return true;
+    }
+
+    /**
+     * Take a token, waiting for it as long as needed
+     * 
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        while ((wait = reserve(interval)) < 0) {
+            TimeUnit.NANOSECONDS.sleep(getDelay());
+        }
+        sleep(wait);
+    }
+
+    /**
+     * Take a token without blocking the caller.
+     * The token is returned if the future is cancelled before it is available.
+     * 
+     * @param scheduler the scheduler completing the future once the token is available
+     * @return CompletableFuture completed when the token is available
+     */
+    public CompletableFuture<Void> acquireAsync(final ScheduledExecutorService scheduler) {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        final AtomicBoolean reserved = new AtomicBoolean();
+        future.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void permit, Throwable cause) {
+                if (cause != null && reserved.compareAndSet(true, false)) {
+                    release();
+                }
+            }
+        });
+        final Runnable grant = new Runnable() {
+            @Override
+            public void run() {
+                if (reserved.compareAndSet(true, false) && !future.complete(null)) {
+                    release();
+                }
+            }
+        };
+        new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                long wait = reserve(interval);
+                if (wait < 0) {
+                    scheduler.schedule(this, getDelay(), TimeUnit.NANOSECONDS);
+                    return;
+                }
+                reserved.set(true);
+                if (future.isDone()) {
+                    if (reserved.compareAndSet(true, false)) {
+                        release();
+                    }
+                }
+                else if (wait == 0) {
+                    grant.run();
+                }
+                else {
+                    scheduler.schedule(grant, wait, TimeUnit.NANOSECONDS);
+                }
+            }
+        }.run();
+        return future;
+    }
+
+    /**
+     * Reserve the next token
+     * 
+     * @param maxWait the longest acceptable wait in nanoseconds
+     * @return the wait in nanoseconds until the token is available, -1 if it is longer than maxWait
+     */
+    public long reserve(long maxWait) {
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long current = arrival.get();
+            long start = Math.max(current, now);
+            long wait = Math.max(0, start - now - tolerance);
+            if (wait > maxWait) {
+                return -1;
+            }
+            if (arrival.compareAndSet(current, start + interval)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Give back a reserved token that is not used
+     */
+    public void release() {
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long current = arrival.get();
+            if (current <= now || arrival.compareAndSet(current, Math.max(now, current - interval))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of tokens available now
+     */
+    public long getAvailable() {
+        long now = System.nanoTime() - origin;
+        long backlog = Math.max(0, arrival.get() - now);
+        return Math.max(0, (tolerance + interval - backlog) / interval);
+    }
+
+    /**
+     * Wait for a reserved token, giving it back if interrupted
+     */
+    private void sleep(long wait) throws InterruptedException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        catch (InterruptedException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the time until a reservation fits in one interval ahead
+     */
+    private long getDelay() {
+        long now = System.nanoTime() - origin;
+        return Math.max(interval, arrival.get() - now - tolerance - interval);
+    }
+}
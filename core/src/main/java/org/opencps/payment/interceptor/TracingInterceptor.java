@@ -0,0 +1,106 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.PhaseTimer;
+import org.opencps.payment.metrics.SlowRequestTracer;
+
+/**
+ * Passes every request to a SlowRequestTracer once it completes.
+ * 
+ * The request is timed on the PhaseTimer of the thread, started by a
+ * LatencyInterceptor added before this one, or else by this interceptor.
+ * 
+ * A request is never failed because it cannot be traced; such errors are
+ * counted instead, see getErrors().
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class TracingInterceptor implements RequestInterceptor {
+
+    private final SlowRequestTracer tracer;
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * @param tracer
+     */
+    public TracingInterceptor(SlowRequestTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Get the tracer
+     * 
+     * @return SlowRequestTracer
+     */
+    public SlowRequestTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Get the number of requests that could not be traced
+     * 
+     * @return long
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * (non-Javadoc)
+     * @see org.opencps.payment.api.RequestInterceptor#intercept(org.opencps.payment.api.RequestInterceptor.Chain)
+     */
+    @Override
+    public PaymentResponse intercept(Chain chain) throws PaymentException {
+        PhaseTimer timer = PhaseTimer.current();
+        boolean owner = !timer.isActive();
+        if (owner) {
+            timer.begin();
+        }
+        PaymentResponse response = null;
+        Throwable failure = null;
+        try {
+            response = chain.proceed();
+            return response;
+        }
+        catch (PaymentException e) {
+            failure = e;
+            throw e;
+        }
+        catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        }
+        finally {
+            try {
+                tracer.complete(chain.getRequest(), response, failure, timer, System.nanoTime() - timer.getStartedAt());
+            }
+            catch (RuntimeException e) {
+                errors.increment();
+            }
+            finally {
+                if (owner) {
+                    timer.end();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.journal;
+
+/**
+ * When the journal forces its records to disk
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Leave it to the operating system, records survive a crash of the JVM but not of the machine
+     */
+    NEVER,
+
+    /**
+     * Every interval, in the background, records of the last interval may be lost
+     */
+    INTERVAL,
+
+    /**
+     * Before append returns, a record is never lost once appended.
+     * Concurrent appends share one fsync (group commit).
+     */
+    COMMIT
+}
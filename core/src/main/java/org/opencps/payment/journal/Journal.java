@@ -0,0 +1,392 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.opencps.payment.codec.ByteBuilder;
+
+/**
+ * An append-only journal of transaction records, kept in segment files mapped in memory.
+ * 
+ * Each record is framed by its length and a CRC32 of its payload. Records
+ * are encoded outside of any lock into a buffer of the appending thread, then
+ * copied into the mapped segment; when a segment is full the journal moves on
+ * to a new file. With the COMMIT policy, appending threads that wait for the
+ * disk at the same time are served by a single fsync.
+ * 
+ * When opened again, the journal continues after the last complete record of
+ * its last segment, a record torn by a crash being discarded.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class Journal implements Closeable {
+
+    /**
+     * The default size of a segment file, 64 MB
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final int HEADER = 8;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final File directory;
+    private final int segmentSize;
+    private final FsyncPolicy policy;
+    private final Object syncLock = new Object();
+    private final Thread syncer;
+    private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private int offset;
+    private volatile long position;
+    private volatile long durable;
+    private volatile boolean closed;
+
+    /**
+     * Open a journal forcing every commit to disk, with 64 MB segments
+     * 
+     * @param directory
+     * @throws IOException
+     */
+    public Journal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, FsyncPolicy.COMMIT, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open a journal, creating its directory if needed
+     * 
+     * @param directory
+     * @param segmentSize the size of each segment file
+     * @param policy when records are forced to disk
+     * @param interval the interval of the INTERVAL policy
+     * @param unit the unit of interval
+     * @throws IOException
+     */
+    public Journal(File directory, int segmentSize, FsyncPolicy policy, long interval, TimeUnit unit) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("The segment size must be at least 1024 bytes.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the journal directory " + directory + ".");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.policy = policy;
+
+        long[] indexes = listSegments();
+        if (indexes.length == 0) {
+            open(0);
+        }
+        else {
+            open(indexes[indexes.length - 1]);
+            offset = recover(segment);
+            // Clear what follows, so a torn record is never mistaken for a valid one
+            for (int i = offset; i < segmentSize; i++) {
+                segment.put(i, (byte) 0);
+            }
+        }
+        position = segmentIndex * segmentSize + offset;
+        durable = position;
+
+        if (policy == FsyncPolicy.INTERVAL) {
+            final long sleep = Math.max(1, unit.toMillis(interval));
+            syncer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!closed) {
+                        try {
+                            Thread.sleep(sleep);
+                            sync();
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "payment-journal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+        else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Get the directory of the segment files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the fsync policy
+     */
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the position after the last record appended
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the position up to which records are forced to disk
+     */
+    public long getDurablePosition() {
+        return durable;
+    }
+
+    /**
+     * Append a record, and wait for it to reach the disk with the COMMIT policy
+     * 
+     * @param record
+     * @return the position after the record
+     * @throws IOException when the journal is closed or cannot create a segment
+     */
+    public long append(JournalRecord record) throws IOException {
+        ByteBuilder frame = encoders.get().encode(record);
+        int length = frame.length();
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("The record is larger than a journal segment.");
+        }
+        long end;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The journal is closed.");
+            }
+            if (offset + length > segmentSize) {
+                roll();
+            }
+            segment.position(offset);
+            segment.put(frame.getBuffer(), 0, length);
+            offset += length;
+            end = segmentIndex * segmentSize + offset;
+            position = end;
+        }
+        if (policy == FsyncPolicy.COMMIT) {
+            await(end);
+        }
+        return end;
+    }
+
+    /**
+     * Force every record appended to disk
+     */
+    public void sync() {
+        await(position);
+    }
+
+    /**
+     * Replay every record, from the first segment to the last record appended
+     * 
+     * @param listener
+     * @return the number of records replayed
+     * @throws IOException
+     */
+    public long replay(JournalListener listener) throws IOException {
+        long count = 0;
+        JournalRecord record = new JournalRecord();
+        for (long index : listSegments()) {
+            RandomAccessFile file = new RandomAccessFile(getSegmentFile(index), "r");
+            try {
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                int next = 0;
+                CRC32 crc = new CRC32();
+                while ((next = nextRecord(buffer, next, crc)) > 0) {
+                    ByteBuffer payload = buffer.duplicate();
+                    payload.limit(next);
+                    listener.onRecord(record.clear().decode(payload));
+                    count++;
+                }
+            }
+            finally {
+                file.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stop appending and force every record to disk
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+        if (policy != FsyncPolicy.NEVER) {
+            sync();
+        }
+    }
+
+    private void await(long end) {
+        if (durable >= end) {
+            return;
+        }
+        synchronized (syncLock) {
+            // A sync done while waiting for the lock may have covered the record already
+            if (durable >= end) {
+                return;
+            }
+            MappedByteBuffer current;
+            long target;
+            synchronized (this) {
+                current = segment;
+                target = position;
+            }
+            current.force();
+            durable = target;
+        }
+    }
+
+    private void roll() throws IOException {
+        // Full segments are forced here, a sync then only forces the current one
+        if (policy != FsyncPolicy.NEVER) {
+            segment.force();
+        }
+        open(segmentIndex + 1);
+        offset = 0;
+    }
+
+    private void open(long index) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getSegmentFile(index), "rw");
+        try {
+            file.setLength(segmentSize);
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segmentIndex = index;
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Find the end of the last complete record of a segment
+     */
+    private static int recover(MappedByteBuffer buffer) {
+        int end = 0;
+        int next;
+        CRC32 crc = new CRC32();
+        while ((next = nextRecord(buffer, end, crc)) > 0) {
+            end = next;
+        }
+        return end;
+    }
+
+    /**
+     * Check the record at an offset, leaving the buffer at its payload
+     * 
+     * @return the offset after the record, 0 if there is no complete record there
+     */
+    private static int nextRecord(ByteBuffer buffer, int offset, CRC32 crc) {
+        if (offset + HEADER > buffer.capacity()) {
+            return 0;
+        }
+        int length = buffer.getInt(offset);
+        int checksum = buffer.getInt(offset + 4);
+        if (length <= 0 || length > buffer.capacity() - offset - HEADER) {
+            return 0;
+        }
+        crc.reset();
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + HEADER + length);
+        payload.position(offset + HEADER);
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            return 0;
+        }
+        buffer.position(offset + HEADER);
+        return offset + HEADER + length;
+    }
+
+    private long[] listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        long[] indexes = new long[names != null ? names.length : 0];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = Long.parseLong(names[i].substring(PREFIX.length(), names[i].length() - SUFFIX.length()));
+        }
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
+    private File getSegmentFile(long index) {
+        return new File(directory, String.format("%s%016d%s", PREFIX, index, SUFFIX));
+    }
+
+    /**
+     * The frame buffer and checksum of an appending thread
+     */
+    private static final class Encoder {
+
+        private final ByteBuilder frame = new ByteBuilder(256);
+        private final CRC32 crc = new CRC32();
+
+        ByteBuilder encode(JournalRecord record) {
+            frame.reset();
+            for (int i = 0; i < HEADER; i++) {
+                frame.append((byte) 0);
+            }
+            record.encode(frame);
+            int length = frame.length() - HEADER;
+            byte[] buffer = frame.getBuffer();
+            crc.reset();
+            crc.update(buffer, HEADER, length);
+            putInt(buffer, 0, length);
+            putInt(buffer, 4, (int) crc.getValue());
+            return frame;
+        }
+
+        private static void putInt(byte[] buffer, int offset, int value) {
+            buffer[offset] = (byte) (value >>> 24);
+            buffer[offset + 1] = (byte) (value >>> 16);
+            buffer[offset + 2] = (byte) (value >>> 8);
+            buffer[offset + 3] = (byte) value;
+        }
+    }
+}
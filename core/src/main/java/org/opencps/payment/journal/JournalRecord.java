@@ -0,0 +1,337 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.codec.ByteBuilder;
+
+/**
+ * A record of the transaction journal, written when a request is sent and when its response comes back.
+ * 
+ * Records are reused: the journal encodes them when appended, and replays
+ * every record into the same instance, so a listener must copy what it keeps.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class JournalRecord {
+
+    /**
+     * The stage or outcome of a request
+     */
+    public enum Status {
+        SENT, SUCCESSFUL, FAILED, CANCELLED, REDIRECT, PENDING, ERROR
+    }
+
+    /**
+     * The amount of a record without one
+     */
+    public static final long NO_AMOUNT = Long.MIN_VALUE;
+
+    private static final byte VERSION = 1;
+    private static final Status[] STATUSES = Status.values();
+    private static final PaymentOperation[] OPERATIONS = PaymentOperation.values();
+
+    private PaymentOperation operation;
+    private Status status;
+    private String connector;
+    private String transactionId;
+    private String transactionReference;
+    private long amount = NO_AMOUNT;
+    private String currency;
+    private String cardNumber;
+    private long requestedAt;
+    private long completedAt;
+
+    /**
+     * Clear every field
+     * 
+     * @return JournalRecord
+     */
+    public JournalRecord clear() {
+        operation = null;
+        status = null;
+        connector = null;
+        transactionId = null;
+        transactionReference = null;
+        amount = NO_AMOUNT;
+        currency = null;
+        cardNumber = null;
+        requestedAt = 0;
+        completedAt = 0;
+        return this;
+    }
+
+    /**
+     * Get the operation
+     */
+    public PaymentOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Set the operation
+     */
+    public JournalRecord setOperation(PaymentOperation operation) {
+        this.operation = operation;
+        return this;
+    }
+
+    /**
+     * Get the status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Set the status
+     */
+    public JournalRecord setStatus(Status status) {
+        this.status = status;
+        return this;
+    }
+
+    /**
+     * Get the short name of the connector
+     */
+    public String getConnector() {
+        return connector;
+    }
+
+    /**
+     * Set the short name of the connector
+     */
+    public JournalRecord setConnector(String connector) {
+        this.connector = connector;
+        return this;
+    }
+
+    /**
+     * Get the transaction ID
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Set the transaction ID
+     */
+    public JournalRecord setTransactionId(String transactionId) {
+        this.transactionId = transactionId;
+        return this;
+    }
+
+    /**
+     * Get the transaction reference
+     */
+    public String getTransactionReference() {
+        return transactionReference;
+    }
+
+    /**
+     * Set the transaction reference
+     */
+    public JournalRecord setTransactionReference(String transactionReference) {
+        this.transactionReference = transactionReference;
+        return this;
+    }
+
+    /**
+     * Get the amount in minor units of the currency, NO_AMOUNT if unknown
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * Set the amount in minor units of the currency
+     */
+    public JournalRecord setAmount(long amount) {
+        this.amount = amount;
+        return this;
+    }
+
+    /**
+     * Get the currency
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Set the currency
+     */
+    public JournalRecord setCurrency(String currency) {
+        this.currency = currency;
+        return this;
+    }
+
+    /**
+     * Get the card number, masked in replayed records
+     */
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    /**
+     * Set the card number, only its first six and last four digits are written
+     */
+    public JournalRecord setCardNumber(String cardNumber) {
+        this.cardNumber = cardNumber;
+        return this;
+    }
+
+    /**
+     * Get when the request was sent, in milliseconds since the epoch
+     */
+    public long getRequestedAt() {
+        return requestedAt;
+    }
+
+    /**
+     * Set when the request was sent
+     */
+    public JournalRecord setRequestedAt(long requestedAt) {
+        this.requestedAt = requestedAt;
+        return this;
+    }
+
+    /**
+     * Get when the response came back, in milliseconds since the epoch, 0 if it did not yet
+     */
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    /**
+     * Set when the response came back
+     */
+    public JournalRecord setCompletedAt(long completedAt) {
+        this.completedAt = completedAt;
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "JournalRecord[" + operation + " " + status + " " + connector + " " + transactionId
+            + " " + transactionReference + " " + amount + " " + currency + "]";
+    }
+
+    /**
+     * Append the payload of the record
+     */
+    void encode(ByteBuilder out) {
+        out.append(VERSION);
+        out.append((byte) (operation != null ? operation.ordinal() + 1 : 0));
+        out.append((byte) (status != null ? status.ordinal() + 1 : 0));
+        appendLong(out, amount);
+        appendLong(out, requestedAt);
+        appendLong(out, completedAt);
+        appendString(out, connector);
+        appendString(out, transactionId);
+        appendString(out, transactionReference);
+        appendString(out, currency);
+        appendMasked(out, cardNumber);
+    }
+
+    /**
+     * Read the payload of a record
+     * 
+     * @throws IllegalArgumentException when the payload is not a record
+     */
+    JournalRecord decode(ByteBuffer in) {
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("Unknown journal record version.");
+        }
+        int operation = in.get();
+        int status = in.get();
+        this.operation = operation > 0 ? OPERATIONS[operation - 1] : null;
+        this.status = status > 0 ? STATUSES[status - 1] : null;
+        this.amount = in.getLong();
+        this.requestedAt = in.getLong();
+        this.completedAt = in.getLong();
+        this.connector = readString(in);
+        this.transactionId = readString(in);
+        this.transactionReference = readString(in);
+        this.currency = readString(in);
+        this.cardNumber = readString(in);
+        return this;
+    }
+
+    private static void appendLong(ByteBuilder out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.append((byte) (value >>> shift));
+        }
+    }
+
+    private static void appendString(ByteBuilder out, String value) {
+        if (value == null) {
+            out.append((byte) 0xff).append((byte) 0xff);
+            return;
+        }
+        int start = out.length();
+        out.append((byte) 0).append((byte) 0).appendUtf8(value);
+        int length = out.length() - start - 2;
+        if (length > Short.MAX_VALUE) {
+            length = Short.MAX_VALUE;
+            // Do not cut a character in the middle
+            while ((out.getBuffer()[start + 2 + length] & 0xc0) == 0x80) {
+                length--;
+            }
+            out.setLength(start + 2 + length);
+        }
+        out.getBuffer()[start] = (byte) (length >>> 8);
+        out.getBuffer()[start + 1] = (byte) length;
+    }
+
+    private static void appendMasked(ByteBuilder out, String number) {
+        if (number == null) {
+            appendString(out, null);
+            return;
+        }
+        int length = Math.min(number.length(), Short.MAX_VALUE);
+        out.append((byte) (length >>> 8)).append((byte) length);
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            boolean visible = i < 6 && length > 12 || i >= length - 4;
+            out.append((byte) (visible && c < 0x80 ? c : '*'));
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.interceptor.JournalInterceptor;
+
+/**
+ * The PaymentEvents of a JVM with a flight recorder, only loaded on one.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+final class FlightRecorderEvents extends PaymentEvents {
+
+    // Enabled as soon as a recording enables the event type
+    private final RequestEvent requests = new RequestEvent();
+    private final ExchangeEvent exchanges = new ExchangeEvent();
+    private final NotificationEvent notifications = new NotificationEvent();
+    private final RedirectEvent redirects = new RedirectEvent();
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#beginRequest()
+     */
+    @Override
+    public Object beginRequest() {
+        if (!requests.isEnabled()) {
+            return null;
+        }
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#endRequest(java.lang.Object, org.opencps.payment.RequestBase, org.opencps.payment.api.PaymentResponse, java.lang.Throwable)
+     */
+    @Override
+    public void endRequest(Object event, RequestBase request, PaymentResponse response, Throwable failure) {
+        if (!(event instanceof RequestEvent)) {
+            return;
+        }
+        RequestEvent requestEvent = (RequestEvent) event;
+        requestEvent.end();
+        if (requestEvent.shouldCommit()) {
+            requestEvent.connector = getConnector(request);
+            requestEvent.operation = getOperation(request);
+            requestEvent.transactionId = request.getTransactionId();
+            requestEvent.amountClass = getAmountClass(request.getParameters().get("amount"));
+            requestEvent.outcome = failure != null ? failure.getClass().getSimpleName()
+                : JournalInterceptor.getStatus(response).name();
+            requestEvent.commit();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#beginExchange()
+     */
+    @Override
+    public Object beginExchange() {
+        if (!exchanges.isEnabled()) {
+            return null;
+        }
+        ExchangeEvent event = new ExchangeEvent();
+        event.begin();
+        return event;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#endExchange(java.lang.Object, org.opencps.payment.RequestBase, java.lang.String, java.lang.String, int)
+     */
+    @Override
+    public void endExchange(Object event, RequestBase request, String method, String host, int statusCode) {
+        if (!(event instanceof ExchangeEvent)) {
+            return;
+        }
+        ExchangeEvent exchangeEvent = (ExchangeEvent) event;
+        exchangeEvent.end();
+        if (exchangeEvent.shouldCommit()) {
+            exchangeEvent.connector = getConnector(request);
+            exchangeEvent.operation = getOperation(request);
+            exchangeEvent.transactionId = request != null ? request.getTransactionId() : null;
+            exchangeEvent.method = method;
+            exchangeEvent.host = host;
+            exchangeEvent.statusCode = statusCode;
+            exchangeEvent.commit();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#beginNotification()
+     */
+    @Override
+    public Object beginNotification() {
+        if (!notifications.isEnabled()) {
+            return null;
+        }
+        NotificationEvent event = new NotificationEvent();
+        event.begin();
+        return event;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#endNotification(java.lang.Object, java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public void endNotification(Object event, String connector, String transactionReference, String outcome) {
+        if (!(event instanceof NotificationEvent)) {
+            return;
+        }
+        NotificationEvent notificationEvent = (NotificationEvent) event;
+        notificationEvent.end();
+        if (notificationEvent.shouldCommit()) {
+            notificationEvent.connector = connector;
+            notificationEvent.transactionReference = transactionReference;
+            notificationEvent.outcome = outcome;
+            notificationEvent.commit();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#beginRedirect()
+     */
+    @Override
+    public Object beginRedirect() {
+        if (!redirects.isEnabled()) {
+            return null;
+        }
+        RedirectEvent event = new RedirectEvent();
+        event.begin();
+        return event;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.metrics.PaymentEvents#endRedirect(java.lang.Object, org.opencps.payment.RequestBase, java.lang.String, java.lang.String)
+     */
+    @Override
+    public void endRedirect(Object event, RequestBase request, String method, String outcome) {
+        if (!(event instanceof RedirectEvent)) {
+            return;
+        }
+        RedirectEvent redirectEvent = (RedirectEvent) event;
+        redirectEvent.end();
+        if (redirectEvent.shouldCommit()) {
+            redirectEvent.connector = getConnector(request);
+            redirectEvent.operation = getOperation(request);
+            redirectEvent.transactionId = request != null ? request.getTransactionId() : null;
+            redirectEvent.method = method;
+            redirectEvent.outcome = outcome;
+            redirectEvent.commit();
+        }
+    }
+
+    private static String getConnector(RequestBase request) {
+        return request != null && request.getConnector() != null ? request.getConnector().getShortName() : null;
+    }
+
+    private static String getOperation(RequestBase request) {
+        return request != null && request.getOperation() != null ? request.getOperation().name() : null;
+    }
+}
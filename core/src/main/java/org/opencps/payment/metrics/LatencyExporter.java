@@ -0,0 +1,37 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import org.opencps.payment.api.PaymentOperation;
+
+/**
+ * Exports the latency histograms of a LatencyRecorder, e.g. to a monitoring system.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface LatencyExporter {
+
+    /**
+     * Export a histogram
+     * 
+     * @param connector the short name of the connector
+     * @param operation
+     * @param phase
+     * @param histogram the live histogram, still being recorded into
+     */
+    public void export(String connector, PaymentOperation operation, Phase phase, LatencyHistogram histogram);
+}
@@ -0,0 +1,118 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.opencps.payment.api.PaymentOperation;
+
+/**
+ * The latency histograms of every connector, operation and phase.
+ * Histograms are created when their first value is recorded.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LatencyRecorder {
+
+    private static final PaymentOperation[] OPERATIONS = PaymentOperation.values();
+    private static final Phase[] PHASES = Phase.values();
+
+    private final ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>> connectors =
+        new ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>>();
+
+    /**
+     * Record the time of a phase
+     * 
+     * @param connector the short name of the connector
+     * @param operation
+     * @param phase
+     * @param nanos
+     */
+    public void record(String connector, PaymentOperation operation, Phase phase, long nanos) {
+        getHistogram(getHistograms(connector), operation, phase).record(nanos);
+    }
+
+    /**
+     * Record the phases timed last by a timer, those that did not occur excepted
+     * 
+     * @param connector the short name of the connector
+     * @param operation
+     * @param timer
+     */
+    public void record(String connector, PaymentOperation operation, PhaseTimer timer) {
+        AtomicReferenceArray<LatencyHistogram> histograms = getHistograms(connector);
+        for (Phase phase : PHASES) {
+            long nanos = timer.get(phase);
+            if (nanos > 0 || phase == Phase.TOTAL) {
+                getHistogram(histograms, operation, phase).record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Get the histogram of a connector, operation and phase
+     * 
+     * @param connector
+     * @param operation
+     * @param phase
+     * @return LatencyHistogram, null if nothing was recorded
+     */
+    public LatencyHistogram getHistogram(String connector, PaymentOperation operation, Phase phase) {
+        AtomicReferenceArray<LatencyHistogram> histograms = connectors.get(connector);
+        return histograms != null ? histograms.get(operation.ordinal() * PHASES.length + phase.ordinal()) : null;
+    }
+
+    /**
+     * Pass every histogram to an exporter
+     * 
+     * @param exporter
+     */
+    public void export(LatencyExporter exporter) {
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> connector : connectors.entrySet()) {
+            AtomicReferenceArray<LatencyHistogram> histograms = connector.getValue();
+            for (int i = 0; i < histograms.length(); i++) {
+                LatencyHistogram histogram = histograms.get(i);
+                if (histogram != null) {
+                    exporter.export(connector.getKey(), OPERATIONS[i / PHASES.length], PHASES[i % PHASES.length], histogram);
+                }
+            }
+        }
+    }
+
+    private AtomicReferenceArray<LatencyHistogram> getHistograms(String connector) {
+        AtomicReferenceArray<LatencyHistogram> histograms = connectors.get(connector);
+        if (histograms == null) {
+            histograms = new AtomicReferenceArray<LatencyHistogram>(OPERATIONS.length * PHASES.length);
+            AtomicReferenceArray<LatencyHistogram> previous = connectors.putIfAbsent(connector, histograms);
+            if (previous != null) {
+                histograms = previous;
+            }
+        }
+        return histograms;
+    }
+
+    private static LatencyHistogram getHistogram(AtomicReferenceArray<LatencyHistogram> histograms, PaymentOperation operation, Phase phase) {
+        int index = operation.ordinal() * PHASES.length + phase.ordinal();
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+}
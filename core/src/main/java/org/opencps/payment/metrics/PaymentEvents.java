@@ -0,0 +1,184 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+
+/**
+ * Emits Java Flight Recorder events for requests, gateway exchanges,
+ * notifications and redirects.
+ * 
+ * Each begin method returns a started event, or null while no recording
+ * enables it, and the matching end method commits it. Callers hold the
+ * event as an Object, so nothing of jdk.jfr is loaded on a JVM without
+ * the flight recorder, and an event that is not recorded costs one check.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class PaymentEvents {
+
+    private static final String[] AMOUNT_CLASSES = new String[20];
+
+    static {
+        AMOUNT_CLASSES[0] = "0";
+        for (int i = 1; i < AMOUNT_CLASSES.length; i++) {
+            AMOUNT_CLASSES[i] = "1e" + (i - 1);
+        }
+    }
+
+    private static final PaymentEvents INSTANCE = create();
+
+    /**
+     * Events that are never recorded
+     */
+    protected PaymentEvents() {
+    }
+
+    /**
+     * Get the events of the JVM, recorded if it has a flight recorder
+     * 
+     * @return PaymentEvents
+     */
+    public static PaymentEvents get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Begin the event of a request
+     * 
+     * @return the event, null if not recorded
+     */
+    public Object beginRequest() {
+        return null;
+    }
+
+    /**
+     * Commit the event of a request
+     * 
+     * @param event returned by beginRequest()
+     * @param request
+     * @param response null if the request failed
+     * @param failure the exception the request failed with, null if none
+     */
+    public void endRequest(Object event, RequestBase request, PaymentResponse response, Throwable failure) {
+    }
+
+    /**
+     * Begin the event of a gateway HTTP exchange
+     * 
+     * @return the event, null if not recorded
+     */
+    public Object beginExchange() {
+        return null;
+    }
+
+    /**
+     * Commit the event of a gateway HTTP exchange
+     * 
+     * @param event returned by beginExchange()
+     * @param request
+     * @param method the HTTP method
+     * @param host the host of the gateway
+     * @param statusCode
+     */
+    public void endExchange(Object event, RequestBase request, String method, String host, int statusCode) {
+    }
+
+    /**
+     * Begin the event of a notification
+     * 
+     * @return the event, null if not recorded
+     */
+    public Object beginNotification() {
+        return null;
+    }
+
+    /**
+     * Commit the event of a notification
+     * 
+     * @param event returned by beginNotification()
+     * @param connector the short name of the connector
+     * @param transactionReference
+     * @param outcome
+     */
+    public void endNotification(Object event, String connector, String transactionReference, String outcome) {
+    }
+
+    /**
+     * Begin the event of a redirect
+     * 
+     * @return the event, null if not recorded
+     */
+    public Object beginRedirect() {
+        return null;
+    }
+
+    /**
+     * Commit the event of a redirect
+     * 
+     * @param event returned by beginRedirect()
+     * @param request
+     * @param method the redirect method
+     * @param outcome
+     */
+    public void endRedirect(Object event, RequestBase request, String method, String outcome) {
+    }
+
+    /**
+     * Get the order of magnitude of an amount, e.g. "1e3" from 1000 to 9999.99,
+     * so events tell small payments from large ones without their amounts
+     * 
+     * @param amount a decimal amount
+     * @return String, null if the amount is not a positive decimal
+     */
+    public static String getAmountClass(String amount) {
+        if (amount == null) {
+            return null;
+        }
+        int digits = 0;
+        boolean nonZero = false;
+        for (int i = 0; i < amount.length(); i++) {
+            char c = amount.charAt(i);
+            if (c == '.') {
+                break;
+            }
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            if (nonZero || c != '0') {
+                nonZero = true;
+                digits++;
+            }
+        }
+        return AMOUNT_CLASSES[Math.min(digits, AMOUNT_CLASSES.length - 1)];
+    }
+
+    private static PaymentEvents create() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return (PaymentEvents) Class.forName("org.opencps.payment.metrics.FlightRecorderEvents")
+                .getDeclaredConstructor().newInstance();
+        }
+        catch (Exception e) {
+            return new PaymentEvents();
+        }
+        catch (LinkageError e) {
+            return new PaymentEvents();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+/**
+ * The phases a request goes through
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public enum Phase {
+
+    /**
+     * Waiting in the interceptors before it is first sent, e.g. for a rate limit or a bulkhead
+     */
+    QUEUE,
+
+    /**
+     * Encoding and signing the data sent
+     */
+    SIGN,
+
+    /**
+     * Exchanging with the gateway, from sending the request to receiving the response headers
+     */
+    NETWORK,
+
+    /**
+     * Parsing the response body
+     */
+    PARSE,
+
+    /**
+     * The whole request
+     */
+    TOTAL
+}
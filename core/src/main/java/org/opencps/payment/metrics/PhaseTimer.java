@@ -0,0 +1,237 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+/**
+ * Times the phases of the request being sent by the current thread.
+ * 
+ * Each thread has one timer, allocated once, which a LatencyInterceptor
+ * starts and stops around a request. The code of each phase adds its time
+ * to it; while no request is timed, that does nothing. Requests sent from
+ * within another one are timed as part of it.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public final class PhaseTimer {
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private static final ThreadLocal<PhaseTimer> TIMERS = new ThreadLocal<PhaseTimer>() {
+        @Override
+        protected PhaseTimer initialValue() {
+            return new PhaseTimer();
+        }
+    };
+
+    private final long[] phases = new long[PHASES.length];
+    private int depth;
+    private long startedAt;
+    private long networkStartedAt;
+    private int exchanges;
+    private int statusCode;
+    private boolean queued;
+    private boolean networkFailed;
+
+    private PhaseTimer() {
+    }
+
+    /**
+     * Get the timer of the current thread
+     * 
+     * @return PhaseTimer
+     */
+    public static PhaseTimer current() {
+        return TIMERS.get();
+    }
+
+    /**
+     * Is a request being timed?
+     * 
+     * @return Boolean
+     */
+    public Boolean isActive() {
+        return depth > 0;
+    }
+
+    /**
+     * Start timing a request, unless one is timed already
+     */
+    public void begin() {
+        if (depth++ == 0) {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = 0;
+            }
+            queued = false;
+            networkStartedAt = 0;
+            networkFailed = false;
+            exchanges = 0;
+            statusCode = 0;
+            startedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Stop timing a request
+     * 
+     * @return whether the outermost request ended, its phases then being final
+     */
+    public Boolean end() {
+        if (depth == 0) {
+            return false;
+        }
+        if (--depth > 0) {
+            return false;
+        }
+        phases[Phase.TOTAL.ordinal()] = System.nanoTime() - startedAt;
+        return true;
+    }
+
+    /**
+     * Mark the end of the queue phase, when the request is first sent
+     */
+    public void markQueued() {
+        if (depth > 0 && !queued) {
+            queued = true;
+            phases[Phase.QUEUE.ordinal()] = System.nanoTime() - startedAt;
+        }
+    }
+
+    /**
+     * Mark the start of a gateway exchange
+     */
+    public void startNetwork() {
+        networkStartedAt = System.nanoTime();
+        networkFailed = false;
+        exchanges++;
+    }
+
+    /**
+     * Mark the end of a gateway exchange started by startNetwork()
+     * 
+     * @param statusCode the HTTP status code of the gateway response
+     */
+    public void endNetwork(int statusCode) {
+        if (depth > 0 && networkStartedAt != 0) {
+            phases[Phase.NETWORK.ordinal()] += System.nanoTime() - networkStartedAt;
+        }
+        networkStartedAt = 0;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Mark the end of a gateway exchange started by startNetwork() that got
+     * no response, e.g. one that failed to connect, timed out or was reset
+     */
+    public void failNetwork() {
+        endNetwork(0);
+        networkFailed = true;
+    }
+
+    /**
+     * Add time to a phase
+     * 
+     * @param phase
+     * @param nanos
+     */
+    public void add(Phase phase, long nanos) {
+        if (depth > 0) {
+            phases[phase.ordinal()] += nanos;
+        }
+    }
+
+    /**
+     * Copy the phases of the request timed last, e.g. to hand them to another thread
+     * 
+     * @return PhaseTimer
+     */
+    public PhaseTimer snapshot() {
+        PhaseTimer copy = new PhaseTimer();
+        System.arraycopy(phases, 0, copy.phases, 0, phases.length);
+        copy.startedAt = startedAt;
+        copy.networkStartedAt = networkStartedAt;
+        copy.exchanges = exchanges;
+        copy.statusCode = statusCode;
+        copy.queued = queued;
+        copy.networkFailed = networkFailed;
+        return copy;
+    }
+
+    /**
+     * Add the phases of an attempt timed on another thread, e.g. a hedged one,
+     * to the request being timed. Its total time is not added, the request
+     * being timed measures it itself.
+     * 
+     * @param attempt the snapshot of the attempt
+     */
+    public void merge(PhaseTimer attempt) {
+        if (depth == 0) {
+            return;
+        }
+        if (attempt.queued && !queued) {
+            queued = true;
+            phases[Phase.QUEUE.ordinal()] = Math.max(0, attempt.startedAt + attempt.phases[Phase.QUEUE.ordinal()] - startedAt);
+        }
+        for (Phase phase : PHASES) {
+            if (phase != Phase.QUEUE && phase != Phase.TOTAL) {
+                phases[phase.ordinal()] += attempt.phases[phase.ordinal()];
+            }
+        }
+        exchanges += attempt.exchanges;
+        statusCode = attempt.statusCode;
+        networkFailed = attempt.isNetworkOpen();
+    }
+
+    /**
+     * Get the time of a phase of the request timed last
+     * 
+     * @param phase
+     * @return the time in nanoseconds, 0 if the phase did not occur
+     */
+    public long get(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * Get the number of gateway exchanges started by the request timed last
+     */
+    public int getExchanges() {
+        return exchanges;
+    }
+
+    /**
+     * Get the HTTP status code of the last gateway response, 0 if none came back
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Did the last gateway exchange get no response, e.g. it failed to connect or timed out?
+     * 
+     * @return Boolean
+     */
+    public Boolean isNetworkOpen() {
+        return networkStartedAt != 0 || networkFailed;
+    }
+
+    /**
+     * Get when the request being timed started, as System.nanoTime()
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder event of a redirect to a gateway being rendered.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+@Name("org.opencps.payment.Redirect")
+@Label("Payment Redirect")
+@Category("OpenCPS Payment")
+@StackTrace(false)
+final class RedirectEvent extends Event {
+
+    @Label("Connector")
+    String connector;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Transaction ID")
+    String transactionId;
+
+    @Label("Method")
+    String method;
+
+    @Label("Outcome")
+    String outcome;
+}
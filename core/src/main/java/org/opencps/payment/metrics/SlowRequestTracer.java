@@ -0,0 +1,248 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.ConnectorBase;
+import org.opencps.payment.CreditCard;
+import org.opencps.payment.Deadline;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.ResponseBase;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.audit.AuditAppender;
+import org.opencps.payment.audit.AuditSchema;
+import org.opencps.payment.codec.ByteBuilder;
+import org.opencps.payment.codec.JsonWriter;
+import org.opencps.payment.interceptor.JournalInterceptor;
+import org.opencps.payment.interceptor.TokenBucket;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * Writes a detailed trace of the requests that are slow or fail.
+ * 
+ * A trace is a line of JSON with the outcome of the request, its phase times
+ * in microseconds, the request fields of an AuditSchema, the response code,
+ * message and the data fields of another AuditSchema, and the state of the
+ * gateway exchanges. Response data is only written once its fields are
+ * registered in the response schema, which has none by default. The
+ * requests that are fast and succeed only cost a comparison; the other ones
+ * are traced within a budget of a TokenBucket, so a gateway outage does not
+ * flood the appender.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class SlowRequestTracer {
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final AuditAppender appender;
+    private final long threshold;
+    private final TokenBucket budget;
+    private volatile AuditSchema requestSchema = AuditSchema.getDefault();
+    private volatile AuditSchema responseSchema = new AuditSchema();
+    private final LongAdder traced = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final ThreadLocal<JsonWriter> writers = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter(new ByteBuilder(2048));
+        }
+    };
+
+    /**
+     * Create a tracer writing up to one trace a second, in bursts of ten
+     * 
+     * @param appender
+     * @param threshold the time above which a request is slow
+     * @param unit the unit of threshold
+     */
+    public SlowRequestTracer(AuditAppender appender, long threshold, TimeUnit unit) {
+        this(appender, threshold, unit, new TokenBucket(1, 10));
+    }
+
+    /**
+     * Create a tracer
+     * 
+     * @param appender
+     * @param threshold the time above which a request is slow
+     * @param unit the unit of threshold
+     * @param budget a permit is taken for each trace
+     */
+    public SlowRequestTracer(AuditAppender appender, long threshold, TimeUnit unit, TokenBucket budget) {
+        this.appender = appender;
+        this.threshold = unit.toNanos(threshold);
+        this.budget = budget;
+    }
+
+    /**
+     * Set the schema of the request fields written
+     * 
+     * @param requestSchema
+     * @return SlowRequestTracer
+     */
+    public SlowRequestTracer setRequestSchema(AuditSchema requestSchema) {
+        this.requestSchema = requestSchema;
+        return this;
+    }
+
+    /**
+     * Set the schema of the response data fields written
+     * 
+     * @param responseSchema
+     * @return SlowRequestTracer
+     */
+    public SlowRequestTracer setResponseSchema(AuditSchema responseSchema) {
+        this.responseSchema = responseSchema;
+        return this;
+    }
+
+    /**
+     * Get the time above which a request is slow
+     * 
+     * @param unit
+     * @return long
+     */
+    public long getThreshold(TimeUnit unit) {
+        return unit.convert(threshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Trace a completed request if it was slow or failed
+     * 
+     * @param request
+     * @param response null if the request failed
+     * @param failure the exception the request failed with, null if none
+     * @param timer the timer of the request, its phases being complete
+     * @param total the time of the request in nanoseconds
+     * @return was a trace written?
+     */
+    public Boolean complete(RequestBase request, PaymentResponse response, Throwable failure, PhaseTimer timer, long total) {
+        JournalRecord.Status status = null;
+        if (failure == null && total < threshold) {
+            // Cheap enough for the fast path: a few flags of the response
+            status = JournalInterceptor.getStatus(response);
+            if (status != JournalRecord.Status.FAILED && status != JournalRecord.Status.ERROR) {
+                return false;
+            }
+        }
+        if (!budget.tryAcquire()) {
+            skipped.increment();
+            return false;
+        }
+        if (status == null) {
+            status = failure != null ? JournalRecord.Status.ERROR : JournalInterceptor.getStatus(response);
+        }
+        JsonWriter json = writers.get();
+        ByteBuilder out = json.getOut();
+        out.reset();
+        json.reset().beginObject();
+        writeOutcome(json, request, status, failure, total);
+        writePhases(json, timer);
+        json.name("request").beginObject();
+        CreditCard card = request.getCard();
+        requestSchema.write(json, request.getParameters(), card != null ? card.getParameters() : null);
+        json.endObject();
+        writeResponse(json, response, responseSchema);
+        writeTransport(json, request, timer);
+        json.endObject();
+        if (!appender.append(out.getBuffer(), 0, out.length())) {
+            dropped.increment();
+            return false;
+        }
+        traced.increment();
+        return true;
+    }
+
+    /**
+     * Get the number of traces written
+     */
+    public long getTraced() {
+        return traced.sum();
+    }
+
+    /**
+     * Get the number of slow or failed requests not traced for lack of budget
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Get the number of traces the appender dropped
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private static void writeOutcome(JsonWriter json, RequestBase request, JournalRecord.Status status, Throwable failure, long total) {
+        json.name("time").value(System.currentTimeMillis());
+        ConnectorBase connector = request.getConnector();
+        json.name("connector").value(connector != null ? connector.getShortName() : null);
+        json.name("operation").value(request.getOperation() != null ? request.getOperation().name() : null);
+        json.name("status").value(status.name());
+        if (failure != null) {
+            json.name("failure").value(failure.getClass().getName());
+            json.name("failureMessage").value(failure.getMessage());
+        }
+        json.name("totalMicros").value(TimeUnit.NANOSECONDS.toMicros(total));
+    }
+
+    private static void writePhases(JsonWriter json, PhaseTimer timer) {
+        json.name("phases").beginObject();
+        for (Phase phase : PHASES) {
+            if (phase != Phase.TOTAL) {
+                json.name(phase.name()).value(TimeUnit.NANOSECONDS.toMicros(timer.get(phase)));
+            }
+        }
+        json.endObject();
+    }
+
+    private static void writeResponse(JsonWriter json, PaymentResponse response, AuditSchema schema) {
+        if (response == null) {
+            return;
+        }
+        json.name("response").beginObject();
+        json.name("code").value(response.getCode());
+        json.name("message").value(response.getMessage());
+        json.name("transactionReference").value(response.getTransactionReference());
+        if (schema.size() > 0 && response instanceof ResponseBase && ((ResponseBase) response).getData() != null) {
+            json.name("data").beginObject();
+            schema.write(json, ((ResponseBase) response).getData(), null);
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    private static void writeTransport(JsonWriter json, RequestBase request, PhaseTimer timer) {
+        json.name("transport").beginObject();
+        ConnectorBase connector = request.getConnector();
+        if (connector != null && connector.getHttpTransport() != null) {
+            json.name("class").value(connector.getHttpTransport().getClass().getName());
+        }
+        json.name("exchanges").value(timer.getExchanges());
+        json.name("statusCode").value(timer.getStatusCode());
+        json.name("awaitingResponse").value(timer.isNetworkOpen());
+        Deadline deadline = request.getDeadline();
+        if (deadline != null && deadline.isBounded()) {
+            json.name("deadlineRemainingMillis").value(deadline.remaining(TimeUnit.MILLISECONDS));
+        }
+        json.endObject();
+    }
+}
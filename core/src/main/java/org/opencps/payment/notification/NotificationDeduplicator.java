@@ -0,0 +1,193 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.api.NotificationStatus;
+import org.opencps.payment.api.PaymentNotification;
+
+/**
+ * Recognizes notifications a gateway sends again, by transaction reference and status.
+ * 
+ * The exact LRU of recent keys decides: its capacity is the deduplication
+ * window, and a key that left it is taken for a new notification, which the
+ * sink must then tolerate. isDuplicate() asks a RotatingBloomFilter first, so
+ * the notifications never seen, which is most of them, are answered without
+ * the lock of the LRU; a false positive is never taken for a duplicate.
+ * addIfAbsent() has to update the LRU anyway, so it only feeds the filter.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class NotificationDeduplicator {
+
+    private final RotatingBloomFilter filter;
+    private final LinkedHashMap<String, Boolean> recent;
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Create a deduplicator for about 100000 notifications an hour, remembering the last 100000
+     */
+    public NotificationDeduplicator() {
+        this(100000, 0.01, 1, TimeUnit.HOURS, 100000);
+    }
+
+    /**
+     * Create a deduplicator
+     * 
+     * @param expected the number of notifications expected per window
+     * @param falsePositiveRate the false positive rate of the Bloom filter
+     * @param window how long a notification is remembered at least by the Bloom filter
+     * @param unit the unit of window
+     * @param capacity the number of recent keys remembered exactly, the deduplication window
+     */
+    public NotificationDeduplicator(int expected, double falsePositiveRate, long window, TimeUnit unit, final int capacity) {
+        this.filter = new RotatingBloomFilter(expected, falsePositiveRate, window, unit);
+        this.recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 2841905375624618093L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Has the notification been seen already?
+     * 
+     * @param notification
+     * @return Boolean
+     */
+    public Boolean isDuplicate(PaymentNotification notification) {
+        String reference = notification.getTransactionReference();
+        NotificationStatus status = notification.getTransactionStatus();
+        if (!filter.mightContain(hash(reference, status))) {
+            return false;
+        }
+        boolean seen;
+        synchronized (recent) {
+            seen = recent.get(key(reference, status)) != null;
+        }
+        if (seen) {
+            duplicates.increment();
+        }
+        else {
+            falsePositives.increment();
+        }
+        return seen;
+    }
+
+    /**
+     * Remember the notification, once it is sure to be processed
+     * 
+     * @param notification
+     */
+    public void add(PaymentNotification notification) {
+        String reference = notification.getTransactionReference();
+        NotificationStatus status = notification.getTransactionStatus();
+        filter.add(hash(reference, status));
+        synchronized (recent) {
+            recent.put(key(reference, status), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Remember the notification unless it has been seen already, in one atomic step
+     * so concurrent resends of a notification are only let through once
+     * 
+     * @param notification
+     * @return Boolean, false if the notification is a duplicate
+     */
+    public Boolean addIfAbsent(PaymentNotification notification) {
+        String reference = notification.getTransactionReference();
+        NotificationStatus status = notification.getTransactionStatus();
+        boolean seen;
+        synchronized (recent) {
+            seen = recent.put(key(reference, status), Boolean.TRUE) != null;
+        }
+        if (seen) {
+            duplicates.increment();
+            return false;
+        }
+        filter.add(hash(reference, status));
+        return true;
+    }
+
+    /**
+     * Forget a notification added by addIfAbsent() that was not processed after all,
+     * so it is accepted when sent again. The Bloom filter keeps it, so the next
+     * one is checked against the LRU.
+     * 
+     * @param notification
+     */
+    public void remove(PaymentNotification notification) {
+        String key = key(notification.getTransactionReference(), notification.getTransactionStatus());
+        synchronized (recent) {
+            recent.remove(key);
+        }
+    }
+
+    /**
+     * Get the number of duplicates recognized
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Get the number of notifications the Bloom filter matched but the LRU did not, in isDuplicate()
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Get the number of keys remembered exactly
+     */
+    public int size() {
+        synchronized (recent) {
+            return recent.size();
+        }
+    }
+
+    /**
+     * Get the Bloom filter
+     */
+    public RotatingBloomFilter getFilter() {
+        return filter;
+    }
+
+    private static String key(String reference, NotificationStatus status) {
+        return reference + '\u0000' + status;
+    }
+
+    private static long hash(String reference, NotificationStatus status) {
+        // FNV-1a over the characters, without building the key
+        long hash = 0xcbf29ce484222325L;
+        if (reference != null) {
+            for (int i = 0; i < reference.length(); i++) {
+                hash = (hash ^ reference.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ (status != null ? status.ordinal() + 1 : 0)) * 0x100000001b3L;
+    }
+}
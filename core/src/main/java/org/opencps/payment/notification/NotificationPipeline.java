@@ -0,0 +1,372 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.ConnectorBase;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentNotification;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.metrics.PaymentEvents;
+
+/**
+ * Takes gateway notifications off the servlet thread.
+ * 
+ * A notification is verified and parsed inline, so the servlet can answer
+ * the gateway at once, then queued for a NotificationSink. Notifications
+ * are spread over partitions by transaction reference; each partition has a
+ * bounded queue drained in batches by its own thread, so notifications of a
+ * transaction are delivered in the order they were received. When a queue
+ * is full the notification is refused as OVERLOADED, for the servlet to
+ * answer with an error and the gateway to send it again later.
+ * 
+ * A batch the sink fails to process is delivered again, with a backoff,
+ * until it succeeds; its partition stops meanwhile, and its queue fills up
+ * and pushes back on the gateway.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class NotificationPipeline {
+
+    /**
+     * The outcome of submitting a notification
+     */
+    public enum Admission {
+
+        /**
+         * Queued for the sink, the gateway can be acknowledged
+         */
+        ACCEPTED,
+
+        /**
+         * Failed verification, the notification was dropped
+         */
+        INVALID,
+
+        /**
+         * Seen already, the gateway can be acknowledged
+         */
+        DUPLICATE,
+
+        /**
+         * The queue is full or the pipeline closed, the gateway should send it again
+         */
+        OVERLOADED
+    }
+
+    private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(5);
+
+    private final NotificationSink sink;
+    private final Partition[] partitions;
+    private final int batchSize;
+    private final long maxWait;
+    private volatile NotificationVerifier verifier;
+    private volatile NotificationDeduplicator deduplicator;
+    private volatile boolean closed;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Create and start a pipeline
+     * 
+     * @param sink
+     * @param partitions the number of partitions, each drained by its own thread
+     * @param capacity the number of notifications each partition queues
+     * @param batchSize the maximum number of notifications delivered at once
+     * @param maxWait how long a full queue is waited for before refusing a notification
+     * @param unit the unit of maxWait
+     */
+    public NotificationPipeline(NotificationSink sink, int partitions, int capacity, int batchSize, long maxWait, TimeUnit unit) {
+        if (partitions < 1 || capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Partitions, capacity and batch size must be positive.");
+        }
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxWait = unit.toNanos(maxWait);
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i, capacity);
+        }
+        for (Partition partition : this.partitions) {
+            partition.thread.start();
+        }
+    }
+
+    /**
+     * Set the verifier of notification parameters
+     * 
+     * @param verifier null to accept every notification
+     * @return NotificationPipeline
+     */
+    public NotificationPipeline setVerifier(NotificationVerifier verifier) {
+        this.verifier = verifier;
+        return this;
+    }
+
+    /**
+     * Set the deduplicator that drops notifications sent again
+     * 
+     * @param deduplicator null to queue every notification
+     * @return NotificationPipeline
+     */
+    public NotificationPipeline setDeduplicator(NotificationDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+        return this;
+    }
+
+    /**
+     * Verify notification parameters, parse them with the connector and queue the notification
+     * 
+     * @param connector
+     * @param parameters the parameters the gateway sent
+     * @return Admission
+     */
+    public Admission accept(ConnectorBase connector, Map<String, String> parameters) {
+        PaymentEvents events = PaymentEvents.get();
+        Object event = events.beginNotification();
+        Admission admission = null;
+        PaymentNotification notification = null;
+        try {
+            NotificationVerifier verifier = this.verifier;
+            if (verifier != null && !verifier.verify(parameters)) {
+                invalid.increment();
+                admission = Admission.INVALID;
+                return admission;
+            }
+            notification = toNotification(connector.acceptNotification(parameters));
+            admission = submit(notification);
+            return admission;
+        }
+        finally {
+            if (event != null) {
+                events.endNotification(event, connector.getShortName(),
+                    notification != null ? notification.getTransactionReference() : null,
+                    admission != null ? admission.name() : "ERROR");
+            }
+        }
+    }
+
+    /**
+     * Queue a notification
+     * 
+     * @param notification
+     * @return ACCEPTED, DUPLICATE or OVERLOADED
+     */
+    public Admission submit(PaymentNotification notification) {
+        if (closed) {
+            overloaded.increment();
+            return Admission.OVERLOADED;
+        }
+        NotificationDeduplicator deduplicator = this.deduplicator;
+        // Claimed before queuing, so concurrent resends cannot all get through
+        if (deduplicator != null && !deduplicator.addIfAbsent(notification)) {
+            duplicates.increment();
+            return Admission.DUPLICATE;
+        }
+        BlockingQueue<PaymentNotification> queue = partitions[partition(notification.getTransactionReference())].queue;
+        boolean queued;
+        try {
+            queued = maxWait > 0 ? queue.offer(notification, maxWait, TimeUnit.NANOSECONDS) : queue.offer(notification);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        // Closed meanwhile: the partition may be gone, so take the notification back unless it was already taken
+        if (queued && closed && queue.remove(notification)) {
+            queued = false;
+        }
+        if (!queued) {
+            // A refused notification must be accepted when sent again
+            if (deduplicator != null) {
+                deduplicator.remove(notification);
+            }
+            overloaded.increment();
+            return Admission.OVERLOADED;
+        }
+        accepted.increment();
+        return Admission.ACCEPTED;
+    }
+
+    /**
+     * Stop accepting notifications, and wait for the queued ones to be delivered.
+     * Notifications still queued after the timeout are dropped.
+     * 
+     * @param timeout
+     * @param unit
+     * @return were all queued notifications delivered?
+     * @throws InterruptedException
+     */
+    public Boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = true;
+        for (Partition partition : partitions) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(partition.thread, remaining);
+            }
+            if (partition.thread.isAlive()) {
+                partition.thread.interrupt();
+                drained = false;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Get the number of notifications waiting in the queues
+     */
+    public int getPending() {
+        int pending = 0;
+        for (Partition partition : partitions) {
+            pending += partition.queue.size();
+        }
+        return pending;
+    }
+
+    /**
+     * Get the number of notifications queued
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Get the number of notifications that failed verification
+     */
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    /**
+     * Get the number of notifications dropped as duplicates
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Get the number of notifications refused because a queue was full or the pipeline closed
+     */
+    public long getOverloaded() {
+        return overloaded.sum();
+    }
+
+    /**
+     * Get the number of notifications delivered to the sink
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * Get the number of batches the sink failed to process
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Get the number of queued notifications dropped when the pipeline closed
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private int partition(String reference) {
+        int hash = reference != null ? reference.hashCode() : 0;
+        // Spread the bits like HashMap so similar references use different partitions
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % partitions.length;
+    }
+
+    private static PaymentNotification toNotification(RequestBase request) {
+        if (request instanceof PaymentNotification) {
+            return (PaymentNotification) request;
+        }
+        PaymentResponse response = request.send();
+        if (response instanceof PaymentNotification) {
+            return (PaymentNotification) response;
+        }
+        throw new IllegalArgumentException("The connector does not parse notifications into a PaymentNotification.");
+    }
+
+    private final class Partition implements Runnable {
+
+        private final BlockingQueue<PaymentNotification> queue;
+        private final Thread thread;
+
+        Partition(int index, int capacity) {
+            this.queue = new ArrayBlockingQueue<PaymentNotification>(capacity);
+            this.thread = new Thread(this, "payment-notification-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<PaymentNotification> batch = new ArrayList<PaymentNotification>(batchSize);
+            try {
+                while (!closed || !queue.isEmpty()) {
+                    PaymentNotification first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    deliver(batch);
+                    batch.clear();
+                }
+            }
+            catch (InterruptedException e) {
+                dropped.add(batch.size() + queue.size());
+                queue.clear();
+            }
+        }
+
+        private void deliver(List<PaymentNotification> batch) throws InterruptedException {
+            long backoff = MIN_BACKOFF;
+            while (true) {
+                try {
+                    sink.accept(batch);
+                    delivered.add(batch.size());
+                    return;
+                }
+                catch (InterruptedException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    failures.increment();
+                }
+                TimeUnit.NANOSECONDS.sleep(backoff);
+                backoff = Math.min(MAX_BACKOFF, backoff * 2);
+            }
+        }
+    }
+}
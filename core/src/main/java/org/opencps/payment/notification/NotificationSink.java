@@ -0,0 +1,39 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.List;
+import org.opencps.payment.api.PaymentNotification;
+
+/**
+ * This interface defines where a NotificationPipeline delivers notifications,
+ * e.g. the database of the application.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface NotificationSink {
+
+    /**
+     * Process a batch of notifications. Notifications of one transaction
+     * reference arrive in the order they were received, and a batch is only
+     * delivered once the previous batch of its partition was processed.
+     * 
+     * @param notifications
+     * @throws Exception to have the batch delivered again
+     */
+    public void accept(List<PaymentNotification> notifications) throws Exception;
+}
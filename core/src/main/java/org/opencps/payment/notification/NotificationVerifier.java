@@ -0,0 +1,36 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.Map;
+
+/**
+ * This interface defines how a NotificationPipeline checks that a
+ * notification really comes from the gateway.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface NotificationVerifier {
+
+    /**
+     * Verify the parameters of a notification
+     * 
+     * @param parameters
+     * @return Boolean
+     */
+    public Boolean verify(Map<String, String> parameters);
+}
@@ -0,0 +1,172 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of 64 bit hashes that forgets old entries.
+ * 
+ * Entries are added to the current generation and looked up in the current
+ * and the previous one. Every window the previous generation is cleared and
+ * becomes the current one, so an entry is remembered between one and two
+ * windows, and the filter keeps a fixed size whatever the traffic.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RotatingBloomFilter {
+
+    private final AtomicLongArray[] generations = new AtomicLongArray[2];
+    private final long mask;
+    private final int hashes;
+    private final long window;
+    private final AtomicLong rotatedAt;
+    private volatile int current;
+
+    /**
+     * Create a filter
+     * 
+     * @param expected the number of entries expected per window
+     * @param falsePositiveRate the false positive rate wanted at the expected number of entries
+     * @param window how long a generation is current
+     * @param unit the unit of window
+     */
+    public RotatingBloomFilter(int expected, double falsePositiveRate, long window, TimeUnit unit) {
+        if (expected < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Expected entries must be positive and the false positive rate between 0 and 1.");
+        }
+        double bits = -expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        // Round up to a power of two so positions are taken with a mask
+        long size = Long.highestOneBit(Math.max(64, (long) Math.ceil(bits)) - 1) << 1;
+        this.mask = size - 1;
+        this.hashes = Math.max(1, (int) Math.round(bits / expected * Math.log(2)));
+        this.window = unit.toNanos(window);
+        this.rotatedAt = new AtomicLong(System.nanoTime());
+        for (int i = 0; i < generations.length; i++) {
+            generations[i] = new AtomicLongArray((int) (size >>> 6));
+        }
+    }
+
+    /**
+     * Get the number of bits of each generation
+     */
+    public long getBits() {
+        return mask + 1;
+    }
+
+    /**
+     * Get the number of bits set per entry
+     */
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Add a hash to the current generation
+     * 
+     * @param hash
+     * @return was the hash possibly present already?
+     */
+    public Boolean add(long hash) {
+        expire();
+        AtomicLongArray bits = generations[current];
+        AtomicLongArray previous = generations[current ^ 1];
+        boolean present = true;
+        boolean presentBefore = true;
+        long h1 = mix(hash);
+        long h2 = mix(h1 ^ hash) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long position = (h1 + i * h2) & mask;
+            int index = (int) (position >>> 6);
+            long bit = 1L << position;
+            if (!set(bits, index, bit)) {
+                present = false;
+            }
+            if ((previous.get(index) & bit) == 0) {
+                presentBefore = false;
+            }
+        }
+        return present || presentBefore;
+    }
+
+    /**
+     * Is a hash possibly present in the filter?
+     * 
+     * @param hash
+     * @return false when the hash was never added or was forgotten
+     */
+    public Boolean mightContain(long hash) {
+        expire();
+        int current = this.current;
+        return contains(generations[current], hash) || contains(generations[current ^ 1], hash);
+    }
+
+    /**
+     * Forget the previous generation and start a new one
+     */
+    public synchronized void rotate() {
+        AtomicLongArray stale = generations[current ^ 1];
+        for (int i = 0; i < stale.length(); i++) {
+            stale.set(i, 0L);
+        }
+        current ^= 1;
+        rotatedAt.set(System.nanoTime());
+    }
+
+    private void expire() {
+        long rotated = rotatedAt.get();
+        if (window > 0 && System.nanoTime() - rotated >= window && rotatedAt.compareAndSet(rotated, System.nanoTime())) {
+            rotate();
+        }
+    }
+
+    private boolean contains(AtomicLongArray bits, long hash) {
+        long h1 = mix(hash);
+        long h2 = mix(h1 ^ hash) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long position = (h1 + i * h2) & mask;
+            if ((bits.get((int) (position >>> 6)) & (1L << position)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean set(AtomicLongArray bits, int index, long bit) {
+        while (true) {
+            long word = bits.get(index);
+            if ((word & bit) != 0) {
+                return true;
+            }
+            if (bits.compareAndSet(index, word, word | bit)) {
+                return false;
+            }
+        }
+    }
+
+    private static long mix(long h) {
+        // The finalizer of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb86fe63a2f53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
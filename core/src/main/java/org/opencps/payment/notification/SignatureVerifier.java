@@ -0,0 +1,50 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.Map;
+import org.opencps.payment.signature.Signer;
+
+/**
+ * Verifies the signature a gateway puts in one of the notification parameters.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class SignatureVerifier implements NotificationVerifier {
+
+    private final Signer signer;
+    private final String field;
+
+    /**
+     * Create a verifier
+     * 
+     * @param signer the signer of the gateway, which must exclude the signature field
+     * @param field the name of the signature parameter
+     */
+    public SignatureVerifier(Signer signer, String field) {
+        this.signer = signer;
+        this.field = field;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.notification.NotificationVerifier#verify(java.util.Map)
+     */
+    @Override
+    public Boolean verify(Map<String, String> parameters) {
+        return signer.verify(parameters, parameters.get(field));
+    }
+}
@@ -0,0 +1,188 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A layout of settlement files with separated, optionally quoted, columns.
+ * Columns are numbered from 0, and the file has one line of column titles
+ * unless set otherwise.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CsvLayout implements SettlementLayout {
+
+    private final byte separator;
+    private int headerLines = 1;
+    private int reference = -1;
+    private int transactionId = -1;
+    private int amount = -1;
+    private int currency = -1;
+    private boolean minorUnits;
+    private String defaultCurrency;
+
+    /**
+     * Create a layout of comma separated columns
+     */
+    public CsvLayout() {
+        this(',');
+    }
+
+    /**
+     * Create a layout of columns separated by the given ASCII character
+     * 
+     * @param separator
+     */
+    public CsvLayout(char separator) {
+        if (separator > 0x7f || separator == '"') {
+            throw new IllegalArgumentException("The separator must be an ASCII character other than a quote.");
+        }
+        this.separator = (byte) separator;
+    }
+
+    /**
+     * Set the number of lines at the top of a file that are not rows
+     */
+    public CsvLayout setHeaderLines(int headerLines) {
+        this.headerLines = headerLines;
+        return this;
+    }
+
+    /**
+     * Set the column of the reference of the gateway, required
+     */
+    public CsvLayout setReference(int column) {
+        this.reference = column;
+        return this;
+    }
+
+    /**
+     * Set the column of the transaction ID
+     */
+    public CsvLayout setTransactionId(int column) {
+        this.transactionId = column;
+        return this;
+    }
+
+    /**
+     * Set the column of the amount, a decimal number such as 10.50 unless in minor units
+     * 
+     * @param column
+     * @param minorUnits whether the amount is in minor units of the currency, such as 1050
+     */
+    public CsvLayout setAmount(int column, Boolean minorUnits) {
+        this.amount = column;
+        this.minorUnits = minorUnits;
+        return this;
+    }
+
+    /**
+     * Set the column of the currency code
+     */
+    public CsvLayout setCurrency(int column) {
+        this.currency = column;
+        return this;
+    }
+
+    /**
+     * Set the currency of rows without a currency column
+     */
+    public CsvLayout setDefaultCurrency(String currency) {
+        this.defaultCurrency = currency;
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.reconciliation.SettlementLayout#getHeaderLines()
+     */
+    @Override
+    public int getHeaderLines() {
+        return headerLines;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.reconciliation.SettlementLayout#parse(java.nio.ByteBuffer, int, int, org.opencps.payment.reconciliation.SettlementRow)
+     */
+    @Override
+    public Boolean parse(ByteBuffer line, int start, int end, SettlementRow row) {
+        if (reference < 0) {
+            throw new IllegalStateException("The reference column is not set.");
+        }
+        int amountStart = -1;
+        int amountEnd = -1;
+        int column = 0;
+        int i = start;
+        while (i <= end) {
+            int fieldStart = i;
+            int fieldEnd;
+            boolean quoted = i < end && line.get(i) == '"';
+            if (quoted) {
+                fieldStart = ++i;
+                while (true) {
+                    if (i >= end) {
+                        throw new IllegalArgumentException("A quoted column is not terminated.");
+                    }
+                    if (line.get(i) == '"') {
+                        if (i + 1 < end && line.get(i + 1) == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                fieldEnd = i++;
+                if (i < end && line.get(i) != separator) {
+                    throw new IllegalArgumentException("A quoted column is followed by more than a separator.");
+                }
+            }
+            else {
+                while (i < end && line.get(i) != separator) {
+                    i++;
+                }
+                fieldEnd = i;
+            }
+            if (column == reference) {
+                row.setTransactionReference(Fields.decode(line, fieldStart, fieldEnd, quoted));
+            }
+            else if (column == transactionId) {
+                row.setTransactionId(Fields.decode(line, fieldStart, fieldEnd, quoted));
+            }
+            else if (column == currency) {
+                row.setCurrency(Fields.decode(line, fieldStart, fieldEnd, quoted));
+            }
+            else if (column == amount) {
+                amountStart = fieldStart;
+                amountEnd = fieldEnd;
+            }
+            column++;
+            i++;
+        }
+        if (row.getTransactionReference() == null) {
+            throw new IllegalArgumentException("The reference column is missing.");
+        }
+        if (row.getCurrency() == null) {
+            row.setCurrency(defaultCurrency);
+        }
+        if (amountStart >= 0) {
+            // Parsed last, its scale depends on the currency
+            row.setAmount(Fields.parseAmount(line, amountStart, amountEnd, Fields.decimals(row.getCurrency()), minorUnits));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.opencps.payment.Currency;
+import org.opencps.payment.Helper;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * Decodes the fields of settlement lines straight from the file buffer.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+final class Fields {
+
+    private Fields() {
+    }
+
+    /**
+     * Get the decimal places of a currency, 2 if unknown
+     */
+    static int decimals(String currency) {
+        return Currency.decimals(currency);
+    }
+
+    /**
+     * Decode a field, without its surrounding spaces
+     * 
+     * @param quoted whether doubled quotes stand for one
+     * @return String, null if the field is blank
+     */
+    static String decode(ByteBuffer buffer, int start, int end, boolean quoted) {
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        int length = 0;
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (quoted && b == '"') {
+                // The parser only leaves doubled quotes inside a quoted field
+                i++;
+            }
+            bytes[length++] = b;
+            ascii &= b >= 0;
+        }
+        if (ascii) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) bytes[i];
+            }
+            return new String(chars);
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse an amount into minor units
+     * 
+     * @param decimals the decimal places of the currency
+     * @param minorUnits whether the field is already in minor units
+     * @return long, JournalRecord.NO_AMOUNT if the field is blank
+     * @throws IllegalArgumentException when the field is not an amount
+     */
+    static long parseAmount(ByteBuffer buffer, int start, int end, int decimals, boolean minorUnits) {
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return JournalRecord.NO_AMOUNT;
+        }
+        // In minor units there are no decimal places
+        long units = Helper.parseMinorUnits(buffer, start, end, minorUnits ? 0 : decimals);
+        if (units == Helper.NOT_AN_AMOUNT || minorUnits && units == Helper.TOO_PRECISE) {
+            throw new IllegalArgumentException("The amount is not a decimal number.");
+        }
+        if (units == Helper.TOO_PRECISE) {
+            throw new IllegalArgumentException("The amount is too precise for its currency.");
+        }
+        if (units == Helper.TOO_LARGE) {
+            throw new IllegalArgumentException("The amount is too large.");
+        }
+        return units;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A layout of settlement files with columns at fixed byte positions.
+ * Columns are given by their offset in the line and their width, and
+ * their surrounding spaces are ignored. Files have no header line unless
+ * set otherwise, and lines not starting with the row prefix, if any, are
+ * skipped, e.g. header and trailer records.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class FixedWidthLayout implements SettlementLayout {
+
+    private int headerLines;
+    private byte[] prefix;
+    private int[] reference;
+    private int[] transactionId;
+    private int[] amount;
+    private int[] currency;
+    private boolean minorUnits;
+    private String defaultCurrency;
+
+    /**
+     * Set the number of lines at the top of a file that are not rows
+     */
+    public FixedWidthLayout setHeaderLines(int headerLines) {
+        this.headerLines = headerLines;
+        return this;
+    }
+
+    /**
+     * Set the ASCII prefix of the lines that are rows, e.g. the record type "D"
+     */
+    public FixedWidthLayout setRowPrefix(String prefix) {
+        this.prefix = new byte[prefix.length()];
+        for (int i = 0; i < prefix.length(); i++) {
+            this.prefix[i] = (byte) prefix.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Set the column of the reference of the gateway, required
+     */
+    public FixedWidthLayout setReference(int offset, int width) {
+        this.reference = new int[] {offset, width};
+        return this;
+    }
+
+    /**
+     * Set the column of the transaction ID
+     */
+    public FixedWidthLayout setTransactionId(int offset, int width) {
+        this.transactionId = new int[] {offset, width};
+        return this;
+    }
+
+    /**
+     * Set the column of the amount
+     * 
+     * @param offset
+     * @param width
+     * @param minorUnits whether the amount is in minor units of the currency, such as 000001050
+     */
+    public FixedWidthLayout setAmount(int offset, int width, Boolean minorUnits) {
+        this.amount = new int[] {offset, width};
+        this.minorUnits = minorUnits;
+        return this;
+    }
+
+    /**
+     * Set the column of the currency code
+     */
+    public FixedWidthLayout setCurrency(int offset, int width) {
+        this.currency = new int[] {offset, width};
+        return this;
+    }
+
+    /**
+     * Set the currency of rows without a currency column
+     */
+    public FixedWidthLayout setDefaultCurrency(String currency) {
+        this.defaultCurrency = currency;
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.reconciliation.SettlementLayout#getHeaderLines()
+     */
+    @Override
+    public int getHeaderLines() {
+        return headerLines;
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.reconciliation.SettlementLayout#parse(java.nio.ByteBuffer, int, int, org.opencps.payment.reconciliation.SettlementRow)
+     */
+    @Override
+    public Boolean parse(ByteBuffer line, int start, int end, SettlementRow row) {
+        if (reference == null) {
+            throw new IllegalStateException("The reference column is not set.");
+        }
+        if (prefix != null) {
+            if (end - start < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (line.get(start + i) != prefix[i]) {
+                    return false;
+                }
+            }
+        }
+        row.setTransactionReference(decode(line, start, end, reference));
+        if (row.getTransactionReference() == null) {
+            throw new IllegalArgumentException("The reference column is missing.");
+        }
+        if (transactionId != null) {
+            row.setTransactionId(decode(line, start, end, transactionId));
+        }
+        String code = currency != null ? decode(line, start, end, currency) : null;
+        row.setCurrency(code != null ? code : defaultCurrency);
+        if (amount != null && start + amount[0] < end) {
+            row.setAmount(Fields.parseAmount(line, start + amount[0], Math.min(end, start + amount[0] + amount[1]),
+                Fields.decimals(row.getCurrency()), minorUnits));
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer line, int start, int end, int[] column) {
+        int from = start + column[0];
+        if (from >= end) {
+            return null;
+        }
+        return Fields.decode(line, from, Math.min(end, from + column[1]), false);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import org.opencps.payment.state.TransactionState;
+
+/**
+ * A settlement row that does not match the records of the transaction.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class Mismatch {
+
+    /**
+     * The kind of mismatch
+     */
+    public enum Type {
+
+        /**
+         * The settled transaction is not known
+         */
+        MISSING,
+
+        /**
+         * The settled amount differs from the amount of the transaction
+         */
+        AMOUNT,
+
+        /**
+         * The transaction is not in a paid state, e.g. it was reverted
+         */
+        STATE,
+
+        /**
+         * The line could not be parsed
+         */
+        MALFORMED
+    }
+
+    private final Type type;
+    private final long offset;
+    private final String transactionReference;
+    private final String transactionId;
+    private final long settledAmount;
+    private final long amount;
+    private final TransactionState state;
+    private final String message;
+
+    /**
+     * @param type
+     * @param offset the offset of the line in the settlement file
+     * @param transactionReference
+     * @param transactionId
+     * @param settledAmount the amount in the settlement file
+     * @param amount the amount of the transaction
+     * @param state the state of the transaction
+     * @param message
+     */
+    public Mismatch(Type type, long offset, String transactionReference, String transactionId,
+            long settledAmount, long amount, TransactionState state, String message) {
+        this.type = type;
+        this.offset = offset;
+        this.transactionReference = transactionReference;
+        this.transactionId = transactionId;
+        this.settledAmount = settledAmount;
+        this.amount = amount;
+        this.state = state;
+        this.message = message;
+    }
+
+    /**
+     * Get the kind of mismatch
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the offset of the line in the settlement file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the reference of the gateway, null for a malformed line
+     */
+    public String getTransactionReference() {
+        return transactionReference;
+    }
+
+    /**
+     * Get the transaction ID, null if neither the file nor the records have it
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Get the amount in the settlement file, in minor units
+     */
+    public long getSettledAmount() {
+        return settledAmount;
+    }
+
+    /**
+     * Get the amount of the transaction, in minor units
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * Get the state of the transaction, null if it is not known
+     */
+    public TransactionState getState() {
+        return state;
+    }
+
+    /**
+     * Get a description of the mismatch
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "Mismatch[" + type + " at " + offset + " " + transactionReference + ": " + message + "]";
+    }
+}
@@ -0,0 +1,284 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.journal.JournalRecord;
+import org.opencps.payment.state.StoredTransaction;
+import org.opencps.payment.state.TransactionState;
+import org.opencps.payment.state.TransactionStateStore;
+
+/**
+ * Reconciles gateway settlement files against the TransactionStateStore.
+ * 
+ * The file is mapped in memory and split at line boundaries into partitions
+ * reconciled in parallel. Each row is parsed by the SettlementLayout of the
+ * gateway and looked up by reference, or else by transaction ID, in the store,
+ * whose index serves as the hash table of the join; the file is never loaded
+ * as a whole, so memory stays flat whatever its size. Mismatches are passed to
+ * the ReconciliationListener as soon as they are found.
+ * 
+ * A row matches when its transaction is known, captured or refunded, and of
+ * the same amount if both have one.
+ * 
+ * The store must hold every transaction the file may settle: a full store
+ * forgets its oldest transactions, whose rows would be reported as MISSING.
+ * Its capacity is to be set above the number of transactions of the
+ * settlement period. When the store is full, MISSING rows say the transaction
+ * may have been evicted and the result is marked, see isStoreFull().
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class ReconciliationEngine {
+
+    private static final long MIN_PARTITION = 1L << 20;
+    private static final long MAX_PARTITION = 1L << 30;
+
+    private final TransactionStateStore store;
+    private final int parallelism;
+
+    /**
+     * Create an engine using every processor
+     * 
+     * @param store
+     */
+    public ReconciliationEngine(TransactionStateStore store) {
+        this(store, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an engine
+     * 
+     * @param store
+     * @param parallelism the number of partitions reconciled at once
+     */
+    public ReconciliationEngine(TransactionStateStore store, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive.");
+        }
+        this.store = store;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reconcile a settlement file
+     * 
+     * @param file
+     * @param layout the column layout of the file
+     * @param listener receives the mismatches
+     * @return ReconciliationResult
+     * @throws IOException when the file cannot be read
+     */
+    public ReconciliationResult reconcile(File file, SettlementLayout layout, ReconciliationListener listener) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            long start = 0;
+            for (int i = 0; i < layout.getHeaderLines(); i++) {
+                start = nextLine(channel, start, size);
+            }
+            long length = size - start;
+            // Small files are not worth splitting, and a mapping cannot exceed 2 GB
+            int partitions = (int) Math.max(Math.min(parallelism, length / MIN_PARTITION + 1), length / MAX_PARTITION + 1);
+            long[] bounds = new long[partitions + 1];
+            bounds[0] = start;
+            bounds[partitions] = size;
+            for (int i = 1; i < partitions; i++) {
+                bounds[i] = Math.max(bounds[i - 1], nextLine(channel, start + length * i / partitions, size));
+            }
+            return run(channel, bounds, layout, listener);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private ReconciliationResult run(final FileChannel channel, long[] bounds, final SettlementLayout layout,
+            final ReconciliationListener listener) throws IOException {
+        int partitions = bounds.length - 1;
+        final Totals totals = new Totals(store.size() >= store.getCapacity());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, partitions), new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "payment-reconciliation-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < partitions; i++) {
+                final long from = bounds[i];
+                final long to = bounds[i + 1];
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        if (to > from) {
+                            reconcile(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from), from, layout, listener, totals);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("The reconciliation was interrupted.", e);
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return new ReconciliationResult(totals.rows.sum(), totals.matched.sum(), totals.mismatched.sum(),
+            totals.malformed.sum(), partitions, totals.storeFull);
+    }
+
+    private void reconcile(MappedByteBuffer buffer, long base, SettlementLayout layout,
+            ReconciliationListener listener, Totals totals) {
+        SettlementRow row = new SettlementRow();
+        int length = buffer.capacity();
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && buffer.get(i) != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                match(buffer, lineStart, lineEnd, row.clear(base + lineStart), layout, listener, totals);
+            }
+            lineStart = i + 1;
+        }
+    }
+
+    private void match(ByteBuffer buffer, int start, int end, SettlementRow row, SettlementLayout layout,
+            ReconciliationListener listener, Totals totals) {
+        try {
+            if (!layout.parse(buffer, start, end, row)) {
+                return;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            totals.malformed.increment();
+            listener.onMismatch(new Mismatch(Mismatch.Type.MALFORMED, row.getOffset(), null, null,
+                JournalRecord.NO_AMOUNT, JournalRecord.NO_AMOUNT, null, e.getMessage()));
+            return;
+        }
+        totals.rows.increment();
+
+        StoredTransaction transaction = store.getByReference(row.getTransactionReference());
+        if (transaction == null && row.getTransactionId() != null) {
+            transaction = store.get(row.getTransactionId());
+        }
+        Mismatch.Type type = null;
+        String message = null;
+        if (transaction == null) {
+            type = Mismatch.Type.MISSING;
+            message = totals.storeFull ? "The transaction is not known, it may have been evicted from the full store."
+                : "The transaction is not known.";
+        }
+        else if (row.getAmount() != JournalRecord.NO_AMOUNT && transaction.getAmount() != JournalRecord.NO_AMOUNT
+                && row.getAmount() != transaction.getAmount()) {
+            type = Mismatch.Type.AMOUNT;
+            message = "The settled amount " + row.getAmount() + " differs from " + transaction.getAmount() + ".";
+        }
+        else if (transaction.getState() != TransactionState.CAPTURED && transaction.getState() != TransactionState.REFUNDED) {
+            type = Mismatch.Type.STATE;
+            message = "The transaction is " + transaction.getState() + ".";
+        }
+        if (type == null) {
+            totals.matched.increment();
+            return;
+        }
+        totals.mismatched.increment();
+        listener.onMismatch(new Mismatch(type, row.getOffset(), row.getTransactionReference(),
+            transaction != null && transaction.getTransactionId() != null ? transaction.getTransactionId() : row.getTransactionId(),
+            row.getAmount(), transaction != null ? transaction.getAmount() : JournalRecord.NO_AMOUNT,
+            transaction != null ? transaction.getState() : null, message));
+    }
+
+    /**
+     * Find the start of the line after a position
+     */
+    private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        while (position < size) {
+            chunk.clear();
+            int read = channel.read(chunk, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (chunk.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * The counters shared by the partitions
+     */
+    private static final class Totals {
+
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder matched = new LongAdder();
+        private final LongAdder mismatched = new LongAdder();
+        private final LongAdder malformed = new LongAdder();
+        private final boolean storeFull;
+
+        private Totals(boolean storeFull) {
+            this.storeFull = storeFull;
+        }
+    }
+}
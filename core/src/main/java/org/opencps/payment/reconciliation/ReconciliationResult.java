@@ -0,0 +1,101 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+/**
+ * The totals of a reconciliation.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class ReconciliationResult {
+
+    private final long rows;
+    private final long matched;
+    private final long mismatched;
+    private final long malformed;
+    private final int partitions;
+    private final boolean storeFull;
+
+    /**
+     * @param rows
+     * @param matched
+     * @param mismatched
+     * @param malformed
+     * @param partitions
+     * @param storeFull
+     */
+    public ReconciliationResult(long rows, long matched, long mismatched, long malformed, int partitions, boolean storeFull) {
+        this.rows = rows;
+        this.matched = matched;
+        this.mismatched = mismatched;
+        this.malformed = malformed;
+        this.partitions = partitions;
+        this.storeFull = storeFull;
+    }
+
+    /**
+     * Get the number of rows parsed
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the number of rows matching their transaction
+     */
+    public long getMatched() {
+        return matched;
+    }
+
+    /**
+     * Get the number of rows not matching their transaction
+     */
+    public long getMismatched() {
+        return mismatched;
+    }
+
+    /**
+     * Get the number of lines that could not be parsed
+     */
+    public long getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Get the number of partitions the file was split into
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Was the store full? Its oldest transactions may then have been evicted
+     * and reported as MISSING, the store capacity is to be raised.
+     */
+    public Boolean isStoreFull() {
+        return storeFull;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ReconciliationResult[rows=" + rows + ", matched=" + matched + ", mismatched=" + mismatched
+            + ", malformed=" + malformed + ", storeFull=" + storeFull + "]";
+    }
+}
@@ -0,0 +1,46 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The column layout of the settlement files of a gateway.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public interface SettlementLayout {
+
+    /**
+     * Get the number of lines at the top of a file that are not rows, e.g. column titles
+     * 
+     * @return int
+     */
+    public int getHeaderLines();
+
+    /**
+     * Parse a line, without its line terminator
+     * 
+     * @param line the buffer holding the line
+     * @param start the offset of the line in the buffer
+     * @param end the offset after the line
+     * @param row the row to fill, cleared
+     * @return false if the line is not a row, e.g. a footer
+     * @throws IllegalArgumentException when the line is malformed
+     */
+    public Boolean parse(ByteBuffer line, int start, int end, SettlementRow row);
+}
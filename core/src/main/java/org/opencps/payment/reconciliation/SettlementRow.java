@@ -0,0 +1,116 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * A row of a settlement file, filled by a SettlementLayout.
+ * Rows are reused from one line to the next.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class SettlementRow {
+
+    private long offset;
+    private String transactionReference;
+    private String transactionId;
+    private long amount = JournalRecord.NO_AMOUNT;
+    private String currency;
+
+    /**
+     * Clear every field
+     * 
+     * @param offset the offset of the line in the file
+     * @return SettlementRow
+     */
+    public SettlementRow clear(long offset) {
+        this.offset = offset;
+        this.transactionReference = null;
+        this.transactionId = null;
+        this.amount = JournalRecord.NO_AMOUNT;
+        this.currency = null;
+        return this;
+    }
+
+    /**
+     * Get the offset of the line in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the reference of the gateway
+     */
+    public String getTransactionReference() {
+        return transactionReference;
+    }
+
+    /**
+     * Set the reference of the gateway
+     */
+    public SettlementRow setTransactionReference(String transactionReference) {
+        this.transactionReference = transactionReference;
+        return this;
+    }
+
+    /**
+     * Get the transaction ID, null if the file does not have it
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Set the transaction ID
+     */
+    public SettlementRow setTransactionId(String transactionId) {
+        this.transactionId = transactionId;
+        return this;
+    }
+
+    /**
+     * Get the settled amount in minor units of the currency, JournalRecord.NO_AMOUNT if the file does not have it
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * Set the settled amount in minor units of the currency
+     */
+    public SettlementRow setAmount(long amount) {
+        this.amount = amount;
+        return this;
+    }
+
+    /**
+     * Get the currency code, null if the file does not have it
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Set the currency code
+     */
+    public SettlementRow setCurrency(String currency) {
+        this.currency = currency;
+        return this;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.redirect;
+
+import java.io.IOException;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.opencps.payment.api.PaymentRedirectResponse;
+import org.opencps.payment.codec.ByteBuilder;
+import org.opencps.payment.codec.JsonWriter;
+
+/**
+ * Writes a redirect as JSON for clients that follow it themselves, such as
+ * single page applications calling the payment over XHR:
+ * 
+ *     {"redirectUrl":"...","redirectMethod":"POST","redirectData":{"name":"value"}}
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RedirectJson {
+
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private static final ThreadLocal<JsonWriter> WRITERS = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter(new ByteBuilder(1024));
+        }
+    };
+
+    private RedirectJson() {
+    }
+
+    /**
+     * Does an Accept header prefer JSON to HTML?
+     * 
+     * @param header
+     * @return Boolean
+     */
+    public static Boolean accepts(String header) {
+        if (header == null) {
+            return false;
+        }
+        float json = 0;
+        float html = 0;
+        for (String range : header.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase();
+            float quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    }
+                    catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (type.equals("application/json") || (type.startsWith("application/") && type.endsWith("+json"))) {
+                json = Math.max(json, quality);
+            }
+            else if (type.equals("text/html") || type.equals("application/xhtml+xml")) {
+                html = Math.max(html, quality);
+            }
+        }
+        return json > 0 && json > html;
+    }
+
+    /**
+     * Write a redirect as the JSON body of a servlet response, with its content type and length
+     * 
+     * @param response
+     * @param redirect
+     * @throws IOException
+     */
+    public static void write(HttpServletResponse response, PaymentRedirectResponse redirect) throws IOException {
+        JsonWriter writer = WRITERS.get();
+        try {
+            ByteBuilder out = append(writer, redirect);
+            response.setContentType("application/json; charset=UTF-8");
+            response.addHeader("Vary", "Accept");
+            response.setContentLength(out.length());
+            out.writeTo(response.getOutputStream());
+        }
+        finally {
+            if (writer.getOut().getBuffer().length > MAX_RETAINED) {
+                WRITERS.remove();
+            }
+        }
+    }
+
+    /**
+     * Render a redirect as JSON
+     * 
+     * @param redirect
+     * @return String
+     */
+    public static String render(PaymentRedirectResponse redirect) {
+        return append(new JsonWriter(new ByteBuilder(256)), redirect).toString();
+    }
+
+    private static ByteBuilder append(JsonWriter writer, PaymentRedirectResponse redirect) {
+        // A getter may have thrown in the middle of the previous redirect of the thread
+        writer.reset().getOut().reset();
+        String method = redirect.getRedirectMethod();
+        Map<String, String> data = redirect.getRedirectData();
+        writer.beginObject()
+            .name("redirectUrl").value(redirect.getRedirectUrl())
+            .name("redirectMethod").value(method != null ? method.toUpperCase() : null)
+            .name("redirectData").value(data)
+            .endObject();
+        return writer.getOut();
+    }
+}
@@ -0,0 +1,88 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.redirect;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the compiled RedirectTemplate of each connector and action URL,
+ * so the static part of a redirect page is rendered and compressed once.
+ * 
+ * Gateways whose action URL changes with every transaction would fill the
+ * cache with pages used once, so past its capacity templates are compiled
+ * for each page instead of being kept.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RedirectPageCache {
+
+    /**
+     * The cache used by RedirectResponseBase
+     */
+    public static final RedirectPageCache DEFAULT = new RedirectPageCache(1000);
+
+    private final int capacity;
+    private final ConcurrentMap<String, RedirectTemplate> templates = new ConcurrentHashMap<String, RedirectTemplate>();
+
+    /**
+     * Create a cache
+     * 
+     * @param capacity the maximum number of templates kept
+     */
+    public RedirectPageCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the template of an action URL
+     * 
+     * @param connector the short name of the connector
+     * @param action the URL the form is posted to
+     * @return RedirectTemplate
+     */
+    public RedirectTemplate get(String connector, String action) {
+        String key = connector + '\u0000' + action;
+        RedirectTemplate template = templates.get(key);
+        if (template == null) {
+            template = new RedirectTemplate(action);
+            if (templates.size() < capacity) {
+                RedirectTemplate existing = templates.putIfAbsent(key, template);
+                if (existing != null) {
+                    template = existing;
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Get the number of templates kept
+     * 
+     * @return Integer
+     */
+    public Integer size() {
+        return templates.size();
+    }
+
+    /**
+     * Forget all templates, e.g. after the gateway configuration changed
+     */
+    public void clear() {
+        templates.clear();
+    }
+}
@@ -0,0 +1,332 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.redirect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.opencps.payment.codec.ByteBuilder;
+
+/**
+ * The auto-submitting page that posts the redirect data to a gateway.
+ * 
+ * The template is compiled for one action URL: the markup before and after
+ * the hidden fields is encoded to UTF-8 once, so rendering a page only
+ * escapes the hidden fields into a per-thread buffer and writes the three
+ * parts to the output stream.
+ * 
+ * The static markup is also compressed once, as raw deflate blocks that the
+ * compressed hidden fields are spliced between. Browsers accepting gzip get
+ * the gzip page for the cost of compressing the hidden fields alone.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RedirectTemplate {
+
+    private static final byte[] FIELD_START = "<input type=\"hidden\" name=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_VALUE = "\" value=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_END = "\" />".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_RETAINED = 64 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final String action;
+    private final byte[] head;
+    private final byte[] tail;
+    private final byte[] gzipHead;
+    private final byte[] gzipTail;
+
+    /**
+     * Compile the template of an action URL
+     * 
+     * @param action the URL the form is posted to
+     */
+    public RedirectTemplate(String action) {
+        this.action = action;
+        this.head = new ByteBuilder(512)
+            .appendUtf8("<!DOCTYPE html><html><head>")
+            .appendUtf8("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\" />")
+            .appendUtf8("<title>Redirecting...</title></head>")
+            .appendUtf8("<body onload=\"document.forms[0].submit();\">")
+            .appendUtf8("<form action=\"").appendHtml(action).appendUtf8("\" method=\"post\">")
+            .appendUtf8("<p>Redirecting to payment page...</p>")
+            .appendUtf8("<p><input type=\"submit\" value=\"Continue\" /></p>")
+            .toByteArray();
+        this.tail = "</form></body></html>".getBytes(StandardCharsets.US_ASCII);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            ByteBuilder gzip = new ByteBuilder(head.length).append(GZIP_HEADER);
+            this.gzipHead = deflate(deflater, head, head.length, gzip, Deflater.SYNC_FLUSH).toByteArray();
+            deflater.reset();
+            this.gzipTail = deflateFinish(deflater, tail);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Get the action URL
+     * 
+     * @return String
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Get the markup before the hidden fields
+     * 
+     * @return byte[]
+     */
+    public byte[] getHead() {
+        return head.clone();
+    }
+
+    /**
+     * Get the markup after the hidden fields
+     * 
+     * @return byte[]
+     */
+    public byte[] getTail() {
+        return tail.clone();
+    }
+
+    /**
+     * Append the escaped hidden fields of data
+     * 
+     * @param builder
+     * @param data
+     */
+    public void appendFields(ByteBuilder builder, Map<String, String> data) {
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            builder.append(FIELD_START).appendHtml(entry.getKey())
+                .append(FIELD_VALUE).appendHtml(entry.getValue() != null ? entry.getValue() : "")
+                .append(FIELD_END);
+        }
+    }
+
+    /**
+     * Render the page to a stream
+     * 
+     * @param out
+     * @param data the hidden fields
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public int write(OutputStream out, Map<String, String> data) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        ByteBuilder fields = buffers.fields(this, data);
+        try {
+            out.write(head);
+            fields.writeTo(out);
+            out.write(tail);
+            return head.length + fields.length() + tail.length;
+        }
+        finally {
+            buffers.release();
+        }
+    }
+
+    /**
+     * Render the page as the body of a servlet response, with its content type and length
+     * 
+     * @param response
+     * @param data the hidden fields
+     * @throws IOException
+     */
+    public void write(HttpServletResponse response, Map<String, String> data) throws IOException {
+        write(null, response, data);
+    }
+
+    /**
+     * Render the page as the body of a servlet response, with its content type and length.
+     * The page is gzip encoded when the servlet request accepts it.
+     * 
+     * @param request the servlet request, may be null
+     * @param response
+     * @param data the hidden fields
+     * @throws IOException
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response, Map<String, String> data) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        ByteBuilder fields = buffers.fields(this, data);
+        try {
+            response.setContentType("text/html; charset=UTF-8");
+            response.addHeader("Vary", "Accept-Encoding");
+            if (request != null && acceptsGzip(request.getHeader("Accept-Encoding"))) {
+                ByteBuilder compressed = buffers.compress(this);
+                response.setHeader("Content-Encoding", "gzip");
+                response.setContentLength(gzipHead.length + compressed.length() + gzipTail.length + 8);
+                OutputStream out = response.getOutputStream();
+                out.write(gzipHead);
+                compressed.writeTo(out);
+                out.write(gzipTail);
+                out.write(buffers.trailer);
+            }
+            else {
+                response.setContentLength(head.length + fields.length() + tail.length);
+                OutputStream out = response.getOutputStream();
+                out.write(head);
+                fields.writeTo(out);
+                out.write(tail);
+            }
+        }
+        finally {
+            buffers.release();
+        }
+    }
+
+    /**
+     * Render the page to a string
+     * 
+     * @param data the hidden fields
+     * @return String
+     */
+    public String render(Map<String, String> data) {
+        ByteBuilder builder = new ByteBuilder(head.length + tail.length + 256).append(head);
+        appendFields(builder, data);
+        return builder.append(tail).toString();
+    }
+
+    /**
+     * Does an Accept-Encoding header accept gzip?
+     * 
+     * @param header
+     * @return Boolean
+     */
+    public static Boolean acceptsGzip(String header) {
+        if (header == null) {
+            return false;
+        }
+        for (String coding : header.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].replace(" ", "");
+                    if (parameter.startsWith("q=") && getQuality(parameter.substring(2)) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float getQuality(String value) {
+        try {
+            return Float.parseFloat(value);
+        }
+        catch (NumberFormatException e) {
+            // A malformed quality is ignored, as if absent
+            return 1;
+        }
+    }
+
+    private static ByteBuilder deflate(Deflater deflater, byte[] input, int length, ByteBuilder out, int flush) {
+        deflater.setInput(input, 0, length);
+        while (true) {
+            out.ensureCapacity(Math.max(64, length / 2));
+            int count = deflater.deflate(out.getBuffer(), out.length(), out.getBuffer().length - out.length(), flush);
+            out.setLength(out.length() + count);
+            // A flush is complete once the deflater leaves room in the output
+            if (out.length() < out.getBuffer().length) {
+                return out;
+            }
+        }
+    }
+
+    private static byte[] deflateFinish(Deflater deflater, byte[] input) {
+        ByteBuilder out = new ByteBuilder(64);
+        deflater.setInput(input);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.ensureCapacity(16);
+            int count = deflater.deflate(out.getBuffer(), out.length(), out.getBuffer().length - out.length());
+            out.setLength(out.length() + count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The buffers of the thread rendering a page
+     */
+    private static final class Buffers {
+
+        private final ByteBuilder fields = new ByteBuilder(2048);
+        private ByteBuilder compressed = new ByteBuilder(1024);
+        private Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] trailer = new byte[8];
+
+        ByteBuilder fields(RedirectTemplate template, Map<String, String> data) {
+            fields.reset();
+            template.appendFields(fields, data);
+            return fields;
+        }
+
+        /**
+         * Compress the hidden fields as deflate blocks, and compute the gzip trailer of the page
+         */
+        ByteBuilder compress(RedirectTemplate template) {
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED, true);
+            }
+            deflater.reset();
+            deflate(deflater, fields.getBuffer(), fields.length(), compressed.reset(), Deflater.SYNC_FLUSH);
+
+            crc.reset();
+            crc.update(template.head, 0, template.head.length);
+            crc.update(fields.getBuffer(), 0, fields.length());
+            crc.update(template.tail, 0, template.tail.length);
+            writeInt(trailer, 0, (int) crc.getValue());
+            writeInt(trailer, 4, template.head.length + fields.length() + template.tail.length);
+            return compressed;
+        }
+
+        void release() {
+            // Do not keep the buffers of an unusually large page for the life of the thread
+            if (fields.getBuffer().length > MAX_RETAINED || compressed.getBuffer().length > MAX_RETAINED) {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                BUFFERS.remove();
+            }
+        }
+
+        private static void writeInt(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte) value;
+            bytes[offset + 1] = (byte) (value >>> 8);
+            bytes[offset + 2] = (byte) (value >>> 16);
+            bytes[offset + 3] = (byte) (value >>> 24);
+        }
+    }
+}
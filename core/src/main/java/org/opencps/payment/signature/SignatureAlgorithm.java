@@ -0,0 +1,60 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.signature;
+
+/**
+ * The hash and HMAC algorithms gateways sign their data with.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public enum SignatureAlgorithm {
+
+    MD5("MD5", false),
+    SHA1("SHA-1", false),
+    SHA256("SHA-256", false),
+    SHA512("SHA-512", false),
+    HMAC_MD5("HmacMD5", true),
+    HMAC_SHA1("HmacSHA1", true),
+    HMAC_SHA256("HmacSHA256", true),
+    HMAC_SHA512("HmacSHA512", true);
+
+    private final String name;
+    private final Boolean keyed;
+
+    private SignatureAlgorithm(String name, Boolean keyed) {
+        this.name = name;
+        this.keyed = keyed;
+    }
+
+    /**
+     * Get the JCA name of the algorithm
+     * 
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Is the algorithm a keyed MAC, rather than a hash over the secret and data?
+     * 
+     * @return Boolean
+     */
+    public Boolean isKeyed() {
+        return keyed;
+    }
+}
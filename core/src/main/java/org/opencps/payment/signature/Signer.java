@@ -0,0 +1,349 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.signature;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.opencps.payment.codec.ByteBuilder;
+import org.opencps.payment.metrics.Phase;
+import org.opencps.payment.metrics.PhaseTimer;
+
+/**
+ * Signs gateway data and verifies the signatures of return URLs and notifications.
+ * 
+ * The data map is canonicalized into a byte buffer: the keys are sorted
+ * (unless insertion order is asked for), excluded and optionally empty
+ * fields are skipped, and the pairs are joined with the configured
+ * separators. A keyed algorithm then computes an HMAC with the secret as key;
+ * a plain hash is computed over the secret followed (or preceded) by the data.
+ * 
+ * A signer is thread safe once configured. Each thread keeps its own keyed
+ * Mac or MessageDigest and buffers, so signing allocates little more than the
+ * resulting hex string.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class Signer {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+
+    private final SignatureAlgorithm algorithm;
+    private final byte[] secret;
+    private final ThreadLocal<State> states;
+    private final Set<String> excluded = new HashSet<String>();
+    private byte[] pairSeparator = "&".getBytes(StandardCharsets.UTF_8);
+    private byte[] keyValueSeparator = "=".getBytes(StandardCharsets.UTF_8);
+    private Boolean valuesOnly = false;
+    private Boolean skipEmpty = true;
+    private Boolean sorted = true;
+    private Boolean secretAppended = false;
+    private Boolean upperCase = false;
+
+    /**
+     * Create a signer
+     * 
+     * @param algorithm
+     * @param secret the HMAC key, or the secret hashed with the data; may be null for a plain hash
+     */
+    public Signer(SignatureAlgorithm algorithm, String secret) {
+        this.algorithm = algorithm;
+        this.secret = secret != null ? secret.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (algorithm.isKeyed() && this.secret.length == 0) {
+            throw new IllegalArgumentException("A secret is required for " + algorithm.getName() + ".");
+        }
+        this.states = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State();
+            }
+        };
+        // Fail now rather than on the first payment when the algorithm is not available
+        states.get();
+    }
+
+    /**
+     * Get the algorithm
+     * 
+     * @return SignatureAlgorithm
+     */
+    public SignatureAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Set the separators between pairs and between a key and its value
+     * 
+     * @param pairSeparator default "&"
+     * @param keyValueSeparator default "="
+     * @return Signer
+     */
+    public Signer setSeparators(String pairSeparator, String keyValueSeparator) {
+        this.pairSeparator = pairSeparator.getBytes(StandardCharsets.UTF_8);
+        this.keyValueSeparator = keyValueSeparator.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Sign only the values, without the keys
+     * 
+     * @param valuesOnly default false
+     * @return Signer
+     */
+    public Signer setValuesOnly(Boolean valuesOnly) {
+        this.valuesOnly = valuesOnly;
+        return this;
+    }
+
+    /**
+     * Skip fields with an empty value
+     * 
+     * @param skipEmpty default true
+     * @return Signer
+     */
+    public Signer setSkipEmpty(Boolean skipEmpty) {
+        this.skipEmpty = skipEmpty;
+        return this;
+    }
+
+    /**
+     * Sign the fields sorted by key, or in the iteration order of the map
+     * 
+     * @param sorted default true
+     * @return Signer
+     */
+    public Signer setSorted(Boolean sorted) {
+        this.sorted = sorted;
+        return this;
+    }
+
+    /**
+     * Hash the secret after the data instead of before it; ignored by keyed algorithms
+     * 
+     * @param secretAppended default false
+     * @return Signer
+     */
+    public Signer setSecretAppended(Boolean secretAppended) {
+        this.secretAppended = secretAppended;
+        return this;
+    }
+
+    /**
+     * Write signatures in upper case hex
+     * 
+     * @param upperCase default false
+     * @return Signer
+     */
+    public Signer setUpperCase(Boolean upperCase) {
+        this.upperCase = upperCase;
+        return this;
+    }
+
+    /**
+     * Leave fields out of the signature, such as the signature field itself
+     * 
+     * @param keys
+     * @return Signer
+     */
+    public Signer setExcluded(String... keys) {
+        excluded.clear();
+        excluded.addAll(Arrays.asList(keys));
+        return this;
+    }
+
+    /**
+     * Sign data
+     * 
+     * @param data
+     * @return the signature in hex
+     */
+    public String sign(Map<String, String> data) {
+        PhaseTimer timer = PhaseTimer.current();
+        long start = timer.isActive() ? System.nanoTime() : 0;
+        State state = states.get();
+        int length = state.digest(data);
+        if (start != 0) {
+            timer.add(Phase.SIGN, System.nanoTime() - start);
+        }
+        char[] hex = upperCase ? HEX_UPPER : HEX;
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = state.output[i] & 0xff;
+            chars[i * 2] = hex[b >>> 4];
+            chars[i * 2 + 1] = hex[b & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Verify the signature of data, in constant time.
+     * The hex signature is compared case insensitively.
+     * 
+     * @param data
+     * @param signature the hex signature received
+     * @return Boolean
+     */
+    public Boolean verify(Map<String, String> data, String signature) {
+        if (signature == null) {
+            return false;
+        }
+        PhaseTimer timer = PhaseTimer.current();
+        long start = timer.isActive() ? System.nanoTime() : 0;
+        State state = states.get();
+        int length = state.digest(data);
+        if (start != 0) {
+            timer.add(Phase.SIGN, System.nanoTime() - start);
+        }
+        if (signature.length() != length * 2) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            int b = state.output[i] & 0xff;
+            diff |= nibble(signature.charAt(i * 2)) ^ (b >>> 4);
+            diff |= nibble(signature.charAt(i * 2 + 1)) ^ (b & 0x0f);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Get the canonical form of data that is signed, without the secret
+     * 
+     * @param data
+     * @return String
+     */
+    public String getCanonical(Map<String, String> data) {
+        State state = states.get();
+        state.out.reset();
+        state.canonicalize(data);
+        return state.out.toString();
+    }
+
+    private static int nibble(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        // Never equal to a nibble, so the comparison fails
+        return 0x10;
+    }
+
+    private final class State {
+
+        private final Mac mac;
+        private final MessageDigest digest;
+        private final byte[] output;
+        private final ByteBuilder out = new ByteBuilder(512);
+        private String[] keys = new String[32];
+
+        State() {
+            try {
+                if (algorithm.isKeyed()) {
+                    mac = Mac.getInstance(algorithm.getName());
+                    mac.init(new SecretKeySpec(secret, algorithm.getName()));
+                    digest = null;
+                    output = new byte[mac.getMacLength()];
+                }
+                else {
+                    mac = null;
+                    digest = MessageDigest.getInstance(algorithm.getName());
+                    output = new byte[digest.getDigestLength()];
+                }
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException("Cannot sign with " + algorithm.getName() + ".", e);
+            }
+        }
+
+        int digest(Map<String, String> data) {
+            out.reset();
+            if (mac == null && !secretAppended) {
+                write(secret);
+            }
+            canonicalize(data);
+            if (mac == null && secretAppended) {
+                write(secret);
+            }
+            try {
+                if (mac != null) {
+                    mac.update(out.getBuffer(), 0, out.length());
+                    mac.doFinal(output, 0);
+                }
+                else {
+                    digest.update(out.getBuffer(), 0, out.length());
+                    digest.digest(output, 0, output.length);
+                }
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            return output.length;
+        }
+
+        void canonicalize(Map<String, String> data) {
+            int count = 0;
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                String key = entry.getKey();
+                String value = entry.getValue();
+                if (excluded.contains(key) || (skipEmpty && (value == null || value.length() == 0))) {
+                    continue;
+                }
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                }
+                keys[count++] = key;
+            }
+            if (sorted) {
+                Arrays.sort(keys, 0, count);
+            }
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    write(pairSeparator);
+                }
+                if (!valuesOnly) {
+                    write(keys[i]);
+                    write(keyValueSeparator);
+                }
+                String value = data.get(keys[i]);
+                if (value != null) {
+                    write(value);
+                }
+                keys[i] = null;
+            }
+        }
+
+        private void write(byte[] bytes) {
+            out.append(bytes);
+        }
+
+        private void write(String value) {
+            out.appendUtf8(value);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.state;
+
+/**
+ * A copy of what the TransactionStateStore knows of a transaction.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class StoredTransaction {
+
+    private final String transactionId;
+    private final String transactionReference;
+    private final TransactionState state;
+    private final long amount;
+    private final long updatedAt;
+
+    /**
+     * @param transactionId
+     * @param transactionReference
+     * @param state
+     * @param amount
+     * @param updatedAt
+     */
+    public StoredTransaction(String transactionId, String transactionReference, TransactionState state, long amount, long updatedAt) {
+        this.transactionId = transactionId;
+        this.transactionReference = transactionReference;
+        this.state = state;
+        this.amount = amount;
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Get the transaction ID, null if only the reference is known
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Get the reference of the gateway, null if not known yet
+     */
+    public String getTransactionReference() {
+        return transactionReference;
+    }
+
+    /**
+     * Get the state
+     */
+    public TransactionState getState() {
+        return state;
+    }
+
+    /**
+     * Get the amount of the operation that opened the transaction, in minor units
+     * of its currency, JournalRecord.NO_AMOUNT if unknown
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * Get when the state last changed, in milliseconds since the epoch
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "StoredTransaction[" + transactionId + " " + transactionReference + " " + state + "]";
+    }
+}
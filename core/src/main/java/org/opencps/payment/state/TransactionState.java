@@ -0,0 +1,138 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.state;
+
+import java.util.EnumSet;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * The lifecycle state of a transaction, and the transitions between them.
+ * 
+ * Read-only operations are allowed in every state. A transaction the store
+ * does not know may go through any operation, since it may predate the store.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public enum TransactionState {
+
+    /**
+     * Sent to the gateway, waiting for the customer or the gateway to complete it
+     */
+    PENDING(PaymentOperation.AUTHORIZE, PaymentOperation.PURCHASE, PaymentOperation.REVERT),
+
+    /**
+     * Authorized, waiting to be captured
+     */
+    AUTHORIZED(PaymentOperation.CAPTURE, PaymentOperation.REVERT),
+
+    /**
+     * Paid, by a purchase or the capture of an authorization
+     */
+    CAPTURED(PaymentOperation.REFUND, PaymentOperation.REVERT),
+
+    /**
+     * Refunded, wholly or partly
+     */
+    REFUNDED(PaymentOperation.REFUND),
+
+    /**
+     * Reverted (voided)
+     */
+    REVERTED(),
+
+    /**
+     * Declined or cancelled before being authorized or paid
+     */
+    FAILED(PaymentOperation.AUTHORIZE, PaymentOperation.PURCHASE);
+
+    private final EnumSet<PaymentOperation> allowed;
+
+    private TransactionState(PaymentOperation... allowed) {
+        this.allowed = EnumSet.noneOf(PaymentOperation.class);
+        for (PaymentOperation operation : allowed) {
+            this.allowed.add(operation);
+        }
+    }
+
+    /**
+     * Is an operation allowed on a transaction in this state?
+     * 
+     * @param operation
+     * @return Boolean
+     */
+    public Boolean isAllowed(PaymentOperation operation) {
+        return operation.isReadOnly() || allowed.contains(operation);
+    }
+
+    /**
+     * Is the transaction done with, no operation changing it anymore?
+     * 
+     * @return Boolean
+     */
+    public Boolean isFinal() {
+        return allowed.isEmpty();
+    }
+
+    /**
+     * Get the state of a transaction after an operation
+     * 
+     * @param current the state before the operation, null if unknown
+     * @param operation
+     * @param outcome the outcome of the operation
+     * @return TransactionState, the current state if the operation does not change it
+     */
+    public static TransactionState next(TransactionState current, PaymentOperation operation, JournalRecord.Status outcome) {
+        if (operation == null || outcome == null) {
+            return current;
+        }
+        switch (outcome) {
+            case REDIRECT:
+            case PENDING:
+                return operation == PaymentOperation.AUTHORIZE || operation == PaymentOperation.PURCHASE ? PENDING : current;
+            case FAILED:
+            case CANCELLED:
+                // A declined operation only fails a transaction not authorized or paid yet
+                boolean opening = operation == PaymentOperation.AUTHORIZE || operation == PaymentOperation.PURCHASE
+                    || operation == PaymentOperation.COMPLETE_AUTHORIZE || operation == PaymentOperation.COMPLETE_PURCHASE;
+                return opening && (current == null || current == PENDING) ? FAILED : current;
+            case SUCCESSFUL:
+                switch (operation) {
+                    case COMPLETE_AUTHORIZE:
+                    case COMPLETE_PURCHASE:
+                        // Completing only settles a transaction not authorized or paid yet
+                        if (current != null && current != PENDING && current != FAILED) {
+                            return current;
+                        }
+                        return operation == PaymentOperation.COMPLETE_AUTHORIZE ? AUTHORIZED : CAPTURED;
+                    case AUTHORIZE:
+                        return AUTHORIZED;
+                    case PURCHASE:
+                    case CAPTURE:
+                        return CAPTURED;
+                    case REFUND:
+                        return REFUNDED;
+                    case REVERT:
+                        return REVERTED;
+                    default:
+                        return current;
+                }
+            default:
+                return current;
+        }
+    }
+}
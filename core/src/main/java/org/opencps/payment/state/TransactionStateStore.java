@@ -0,0 +1,518 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.state;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.exception.InvalidTransitionException;
+import org.opencps.payment.journal.JournalListener;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * An embedded store of the state of transactions, kept off the heap.
+ * 
+ * Transactions are fixed size records in a direct buffer, indexed by
+ * transaction ID and by gateway reference in two open addressing tables, so a
+ * lookup neither allocates nor waits for a writer: it reads optimistically and
+ * only takes the read lock when a write got in the way. The store holds a fixed
+ * number of transactions; when it is full the oldest one without an operation
+in flight is forgotten.
+ * Transaction IDs and references longer than MAX_KEY_LENGTH are not indexed.
+ * 
+ * An operation is reserved on its transaction while it is sent, so a
+ * transaction has at most one operation in flight and two conflicting ones,
+ * e.g. a capture and a revert, cannot both reach the gateway.
+ * 
+ * The store is not durable by itself: it is a JournalListener, to be rebuilt
+ * on startup by replaying the journal that JournalInterceptor writes.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class TransactionStateStore implements JournalListener {
+
+    /**
+     * The maximum number of characters of a transaction ID or reference
+     */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private static final TransactionState[] STATES = TransactionState.values();
+    private static final PaymentOperation[] OPERATIONS = PaymentOperation.values();
+
+    // Layout of a record, key lengths are stored plus one, 0 meaning no key
+    private static final int STATE = 0;
+    private static final int ID_LENGTH = 1;
+    private static final int REFERENCE_LENGTH = 2;
+    private static final int IN_FLIGHT = 3;
+    private static final int AMOUNT = 4;
+    private static final int UPDATED_AT = 12;
+    private static final int ID = 20;
+    private static final int REFERENCE = ID + MAX_KEY_LENGTH * 2;
+    private static final int RECORD_SIZE = REFERENCE + MAX_KEY_LENGTH * 2 + 4;
+    // The records of the largest store still fit in one buffer
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / RECORD_SIZE;
+
+    private final int capacity;
+    private final ByteBuffer records;
+    private final ByteBuffer ids;
+    private final ByteBuffer references;
+    private final int mask;
+    private final StampedLock lock = new StampedLock();
+    private int size;
+    private int oldest;
+
+    /**
+     * Create a store of 100000 transactions
+     */
+    public TransactionStateStore() {
+        this(100000);
+    }
+
+    /**
+     * Create a store
+     * 
+     * @param capacity the number of transactions kept
+     */
+    public TransactionStateStore(int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The capacity must be between 1 and " + MAX_CAPACITY + ".");
+        }
+        // Keep the indexes at most half full
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.capacity = capacity;
+        this.mask = slots - 1;
+        this.records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+        this.ids = ByteBuffer.allocateDirect(slots * 4);
+        this.references = ByteBuffer.allocateDirect(slots * 4);
+    }
+
+    /**
+     * Get the number of transactions kept at most
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of transactions kept
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the state of a transaction
+     * 
+     * @param transactionId
+     * @return TransactionState, null if the transaction is unknown
+     */
+    public TransactionState getState(String transactionId) {
+        return getState(ids, ID, transactionId);
+    }
+
+    /**
+     * Get the state of a transaction by the reference of the gateway
+     * 
+     * @param transactionReference
+     * @return TransactionState, null if the transaction is unknown
+     */
+    public TransactionState getStateByReference(String transactionReference) {
+        return getState(references, REFERENCE, transactionReference);
+    }
+
+    /**
+     * Get a transaction
+     * 
+     * @param transactionId
+     * @return StoredTransaction, null if the transaction is unknown
+     */
+    public StoredTransaction get(String transactionId) {
+        return get(ids, ID, transactionId);
+    }
+
+    /**
+     * Get a transaction by the reference of the gateway
+     * 
+     * @param transactionReference
+     * @return StoredTransaction, null if the transaction is unknown
+     */
+    public StoredTransaction getByReference(String transactionReference) {
+        return get(references, REFERENCE, transactionReference);
+    }
+
+    /**
+     * Check an operation is allowed on a transaction, found by ID or else by reference
+     * 
+     * @param operation
+     * @param transactionId
+     * @param transactionReference
+     * @throws InvalidTransitionException when the state of the transaction does not allow the operation
+     */
+    public void check(PaymentOperation operation, String transactionId, String transactionReference) throws InvalidTransitionException {
+        TransactionState state = getState(transactionId);
+        if (state == null) {
+            state = getStateByReference(transactionReference);
+        }
+        if (state != null && !state.isAllowed(operation)) {
+            throw new InvalidTransitionException("Cannot " + operation.getMethod() + " a transaction in state " + state + ".");
+        }
+    }
+
+    /**
+     * Reserve an operation on a transaction, found by ID or else by reference,
+     * until its outcome is applied or the reservation released. Read-only
+     * operations and unknown transactions are not reserved.
+     * 
+     * @param operation
+     * @param transactionId
+     * @param transactionReference
+     * @return Boolean, was the operation reserved?
+     * @throws InvalidTransitionException when the state of the transaction does not allow
+     *     the operation, or another operation of the transaction is in flight
+     */
+    public Boolean reserve(PaymentOperation operation, String transactionId, String transactionReference) throws InvalidTransitionException {
+        if (operation.isReadOnly()) {
+            check(operation, transactionId, transactionReference);
+            return false;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int record = find(transactionId, transactionReference);
+            if (record < 0) {
+                return false;
+            }
+            TransactionState state = readState(record);
+            if (state != null && !state.isAllowed(operation)) {
+                throw new InvalidTransitionException("Cannot " + operation.getMethod() + " a transaction in state " + state + ".");
+            }
+            int base = record * RECORD_SIZE;
+            int inFlight = records.get(base + IN_FLIGHT);
+            if (inFlight != 0) {
+                throw new InvalidTransitionException("Cannot " + operation.getMethod() + " a transaction while "
+                    + OPERATIONS[inFlight - 1].getMethod() + " is in flight.");
+            }
+            records.put(base + IN_FLIGHT, (byte) (operation.ordinal() + 1));
+            return true;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Release the reservation of an operation whose outcome is unknown, e.g. after a transport error
+     * 
+     * @param operation
+     * @param transactionId
+     * @param transactionReference
+     */
+    public void release(PaymentOperation operation, String transactionId, String transactionReference) {
+        long stamp = lock.writeLock();
+        try {
+            int record = find(transactionId, transactionReference);
+            if (record >= 0) {
+                releaseInFlight(record, operation);
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Apply the outcome of an operation to a transaction, found by ID or else by reference.
+     * A transaction keeps the first ID and reference it is known by, and the
+     * reservation of the operation is released.
+     * 
+     * @param operation
+     * @param outcome
+     * @param transactionId
+     * @param transactionReference
+     * @param amount in minor units, JournalRecord.NO_AMOUNT if unknown
+     * @param time when the outcome came, in milliseconds since the epoch
+     * @return TransactionState, the new state, null if the transaction is not tracked
+     *     or the store is full of transactions with an operation in flight
+     */
+    public TransactionState apply(PaymentOperation operation, JournalRecord.Status outcome,
+            String transactionId, String transactionReference, long amount, long time) {
+        boolean hasId = isKey(transactionId);
+        boolean hasReference = isKey(transactionReference);
+        if (!hasId && !hasReference) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int record = hasId ? find(ids, ID, transactionId) : -1;
+            if (record < 0 && hasReference) {
+                record = find(references, REFERENCE, transactionReference);
+            }
+            if (record >= 0) {
+                releaseInFlight(record, operation);
+            }
+            TransactionState current = record >= 0 ? readState(record) : null;
+            TransactionState next = TransactionState.next(current, operation, outcome);
+            if (next == null) {
+                return null;
+            }
+            if (record < 0) {
+                record = allocate();
+                if (record < 0) {
+                    return null;
+                }
+            }
+            int base = record * RECORD_SIZE;
+            if (hasId && records.get(base + ID_LENGTH) == 0) {
+                setKey(ids, ID, ID_LENGTH, record, transactionId);
+            }
+            if (hasReference && records.get(base + REFERENCE_LENGTH) == 0) {
+                setKey(references, REFERENCE, REFERENCE_LENGTH, record, transactionReference);
+            }
+            if (amount != JournalRecord.NO_AMOUNT && records.getLong(base + AMOUNT) == JournalRecord.NO_AMOUNT) {
+                records.putLong(base + AMOUNT, amount);
+            }
+            records.putLong(base + UPDATED_AT, time);
+            records.put(base + STATE, (byte) (next.ordinal() + 1));
+            return next;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Apply a journal record, e.g. when replaying the journal
+     * 
+     * (non-Javadoc)
+     * @see org.opencps.payment.journal.JournalListener#onRecord(org.opencps.payment.journal.JournalRecord)
+     */
+    @Override
+    public void onRecord(JournalRecord record) {
+        apply(record.getOperation(), record.getStatus(), record.getTransactionId(), record.getTransactionReference(),
+            record.getAmount(), record.getCompletedAt() > 0 ? record.getCompletedAt() : record.getRequestedAt());
+    }
+
+    private int find(String transactionId, String transactionReference) {
+        int record = isKey(transactionId) ? find(ids, ID, transactionId) : -1;
+        if (record < 0 && isKey(transactionReference)) {
+            record = find(references, REFERENCE, transactionReference);
+        }
+        return record;
+    }
+
+    private void releaseInFlight(int record, PaymentOperation operation) {
+        int base = record * RECORD_SIZE;
+        if (operation != null && records.get(base + IN_FLIGHT) == operation.ordinal() + 1) {
+            records.put(base + IN_FLIGHT, (byte) 0);
+        }
+    }
+
+    private TransactionState getState(ByteBuffer index, int field, String key) {
+        if (!isKey(key)) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        TransactionState state = findState(index, field, key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                state = findState(index, field, key);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return state;
+    }
+
+    private TransactionState findState(ByteBuffer index, int field, String key) {
+        int record = find(index, field, key);
+        return record >= 0 ? readState(record) : null;
+    }
+
+    private StoredTransaction get(ByteBuffer index, int field, String key) {
+        if (!isKey(key)) {
+            return null;
+        }
+        long stamp = lock.readLock();
+        try {
+            int record = find(index, field, key);
+            if (record < 0) {
+                return null;
+            }
+            int base = record * RECORD_SIZE;
+            return new StoredTransaction(readKey(record, ID, ID_LENGTH), readKey(record, REFERENCE, REFERENCE_LENGTH),
+                readState(record), records.getLong(base + AMOUNT), records.getLong(base + UPDATED_AT));
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private TransactionState readState(int record) {
+        int state = records.get(record * RECORD_SIZE + STATE);
+        return state > 0 && state <= STATES.length ? STATES[state - 1] : null;
+    }
+
+    private String readKey(int record, int field, int lengthField) {
+        int base = record * RECORD_SIZE;
+        int length = records.get(base + lengthField) - 1;
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = records.getChar(base + field + i * 2);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Take the record of a new transaction, -1 if every record has an operation in flight
+     */
+    private int allocate() {
+        int record;
+        if (size < capacity) {
+            record = size++;
+        }
+        else {
+            // A transaction with an operation in flight is kept until its outcome is applied
+            record = oldest;
+            int skipped = 0;
+            while (records.get(record * RECORD_SIZE + IN_FLIGHT) != 0) {
+                if (++skipped == capacity) {
+                    return -1;
+                }
+                record = (record + 1) % capacity;
+            }
+            oldest = (record + 1) % capacity;
+            remove(ids, ID, ID_LENGTH, record);
+            remove(references, REFERENCE, REFERENCE_LENGTH, record);
+        }
+        int base = record * RECORD_SIZE;
+        records.put(base + STATE, (byte) 0);
+        records.put(base + IN_FLIGHT, (byte) 0);
+        records.putLong(base + AMOUNT, JournalRecord.NO_AMOUNT);
+        return record;
+    }
+
+    private void setKey(ByteBuffer index, int field, int lengthField, int record, String key) {
+        remove(index, field, lengthField, record);
+        int base = record * RECORD_SIZE;
+        for (int i = 0; i < key.length(); i++) {
+            records.putChar(base + field + i * 2, key.charAt(i));
+        }
+        records.put(base + lengthField, (byte) (key.length() + 1));
+        // A transaction now holding a reference replaces the one that held it before
+        int previous = find(index, field, key);
+        if (previous >= 0 && previous != record) {
+            remove(index, field, lengthField, previous);
+        }
+        int slot = hash(key) & mask;
+        while (index.getInt(slot << 2) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(slot << 2, record + 1);
+    }
+
+    /**
+     * Remove the key of a record from an index, shifting back the entries after it
+     */
+    private void remove(ByteBuffer index, int field, int lengthField, int record) {
+        int base = record * RECORD_SIZE;
+        if (records.get(base + lengthField) == 0) {
+            return;
+        }
+        int hole = hashStored(record, field, lengthField) & mask;
+        while (index.getInt(hole << 2) != record + 1) {
+            hole = (hole + 1) & mask;
+        }
+        records.put(base + lengthField, (byte) 0);
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int value = index.getInt(slot << 2);
+            if (value == 0) {
+                break;
+            }
+            int home = hashStored(value - 1, field, lengthField) & mask;
+            boolean between = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+            if (!between) {
+                index.putInt(hole << 2, value);
+                hole = slot;
+            }
+        }
+        index.putInt(hole << 2, 0);
+    }
+
+    private int find(ByteBuffer index, int field, String key) {
+        int slot = hash(key) & mask;
+        for (int i = 0; i <= mask; i++) {
+            int value = index.getInt(slot << 2);
+            if (value == 0) {
+                return -1;
+            }
+            if (value <= capacity && matches(value - 1, field, key)) {
+                return value - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int record, int field, String key) {
+        int base = record * RECORD_SIZE;
+        int length = records.get(base + (field == ID ? ID_LENGTH : REFERENCE_LENGTH)) - 1;
+        if (length != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (records.getChar(base + field + i * 2) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hashStored(int record, int field, int lengthField) {
+        int base = record * RECORD_SIZE;
+        int length = records.get(base + lengthField) - 1;
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ records.getChar(base + field + i * 2)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(String key) {
+        // FNV-1a over the characters, as hashStored computes it over the stored ones
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isKey(String key) {
+        return key != null && !key.isEmpty() && key.length() <= MAX_KEY_LENGTH;
+    }
+}
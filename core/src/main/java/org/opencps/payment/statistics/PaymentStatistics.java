@@ -0,0 +1,270 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * Live counts of completed requests per connector, operation and currency.
+ * 
+ * Counts are kept in LongAdder striped counters, so hundreds of threads
+ * recording at once do not contend on a shared word. Besides the totals since
+ * startup, each key keeps a ring of time buckets for rollups over a sliding
+ * window, e.g. the last five minutes; a bucket is replaced, not cleared,
+ * when the ring comes round to it.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class PaymentStatistics {
+
+    private static final JournalRecord.Status[] OUTCOMES = JournalRecord.Status.values();
+    private static final PaymentOperation[] OPERATIONS = PaymentOperation.values();
+
+    private final long bucketMillis;
+    private final int buckets;
+    private final ConcurrentHashMap<String, Operations> connectors = new ConcurrentHashMap<String, Operations>();
+
+    /**
+     * Create statistics with windows of up to 15 minutes, by steps of 10 seconds
+     */
+    public PaymentStatistics() {
+        this(10, TimeUnit.SECONDS, 90);
+    }
+
+    /**
+     * Create statistics
+     * 
+     * @param bucket the time step of windows
+     * @param unit the unit of bucket
+     * @param buckets the number of steps of the longest window
+     */
+    public PaymentStatistics(long bucket, TimeUnit unit, int buckets) {
+        if (unit.toMillis(bucket) < 1 || buckets < 1) {
+            throw new IllegalArgumentException("The bucket must last at least a millisecond and the buckets be positive.");
+        }
+        this.bucketMillis = unit.toMillis(bucket);
+        this.buckets = buckets;
+    }
+
+    /**
+     * Get the longest window in milliseconds
+     */
+    public long getMaxWindow() {
+        return bucketMillis * buckets;
+    }
+
+    /**
+     * Record a completed request
+     * 
+     * @param connector the short name of the connector
+     * @param operation
+     * @param currency the currency code, null if none
+     * @param outcome
+     * @param amount in minor units of the currency, JournalRecord.NO_AMOUNT if none
+     */
+    public void record(String connector, PaymentOperation operation, String currency, JournalRecord.Status outcome, long amount) {
+        if (connector == null || operation == null || outcome == null || outcome == JournalRecord.Status.SENT) {
+            return;
+        }
+        getCounters(connector, operation, currency).add(outcome, amount, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the totals since startup of every connector, operation and currency
+     * 
+     * @return List
+     */
+    public List<StatisticsSnapshot> snapshot() {
+        return snapshot(-1);
+    }
+
+    /**
+     * Get the counts over the last window of every connector, operation and currency
+     * 
+     * @param window rounded up to the time step, and at most the longest window
+     * @param unit
+     * @return List
+     */
+    public List<StatisticsSnapshot> snapshot(long window, TimeUnit unit) {
+        long millis = unit.toMillis(window);
+        return snapshot((int) Math.min(buckets, (millis + bucketMillis - 1) / bucketMillis));
+    }
+
+    /**
+     * Get the totals since startup of one connector, operation and currency
+     * 
+     * @param connector
+     * @param operation
+     * @param currency null for requests without one
+     * @return StatisticsSnapshot, with all counts 0 if nothing was recorded
+     */
+    public StatisticsSnapshot snapshot(String connector, PaymentOperation operation, String currency) {
+        Operations operations = connectors.get(connector);
+        Counters counters = operations != null ? operations.currencies[operation.ordinal()].get(key(currency)) : null;
+        if (counters == null) {
+            return new StatisticsSnapshot(connector, operation, currency, new long[OUTCOMES.length], 0);
+        }
+        return counters.snapshot(connector, operation, currency, -1, System.currentTimeMillis());
+    }
+
+    /**
+     * Forget every count
+     */
+    public void clear() {
+        connectors.clear();
+    }
+
+    private List<StatisticsSnapshot> snapshot(int span) {
+        long now = System.currentTimeMillis();
+        List<StatisticsSnapshot> snapshots = new ArrayList<StatisticsSnapshot>();
+        for (Map.Entry<String, Operations> connector : connectors.entrySet()) {
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                for (Map.Entry<String, Counters> currency : connector.getValue().currencies[i].entrySet()) {
+                    String code = currency.getKey().isEmpty() ? null : currency.getKey();
+                    snapshots.add(currency.getValue().snapshot(connector.getKey(), OPERATIONS[i], code, span, now));
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    private Counters getCounters(String connector, PaymentOperation operation, String currency) {
+        Operations operations = connectors.get(connector);
+        if (operations == null) {
+            operations = new Operations();
+            Operations previous = connectors.putIfAbsent(connector, operations);
+            if (previous != null) {
+                operations = previous;
+            }
+        }
+        ConcurrentHashMap<String, Counters> currencies = operations.currencies[operation.ordinal()];
+        String key = key(currency);
+        Counters counters = currencies.get(key);
+        if (counters == null) {
+            counters = new Counters();
+            Counters previous = currencies.putIfAbsent(key, counters);
+            if (previous != null) {
+                counters = previous;
+            }
+        }
+        return counters;
+    }
+
+    private static String key(String currency) {
+        return currency != null ? currency : "";
+    }
+
+    /**
+     * The counters of a connector, by operation then currency
+     */
+    private static final class Operations {
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ConcurrentHashMap<String, Counters>[] currencies = new ConcurrentHashMap[OPERATIONS.length];
+
+        Operations() {
+            for (int i = 0; i < currencies.length; i++) {
+                currencies[i] = new ConcurrentHashMap<String, Counters>(4);
+            }
+        }
+    }
+
+    /**
+     * The counts of a time step, or the totals
+     */
+    private static final class Bucket {
+
+        private final long slot;
+        private final LongAdder[] counts = new LongAdder[OUTCOMES.length];
+        private final LongAdder amount = new LongAdder();
+
+        Bucket(long slot) {
+            this.slot = slot;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void add(JournalRecord.Status outcome, long amount) {
+            counts[outcome.ordinal()].increment();
+            if (outcome == JournalRecord.Status.SUCCESSFUL && amount != JournalRecord.NO_AMOUNT) {
+                this.amount.add(amount);
+            }
+        }
+    }
+
+    /**
+     * The counters of a connector, operation and currency
+     */
+    private final class Counters {
+
+        private final Bucket totals = new Bucket(-1);
+        private final AtomicReferenceArray<Bucket> ring = new AtomicReferenceArray<Bucket>(buckets);
+
+        void add(JournalRecord.Status outcome, long amount, long now) {
+            totals.add(outcome, amount);
+            long slot = now / bucketMillis;
+            int index = (int) (slot % buckets);
+            Bucket bucket = ring.get(index);
+            while (bucket == null || bucket.slot < slot) {
+                Bucket fresh = new Bucket(slot);
+                if (ring.compareAndSet(index, bucket, fresh)) {
+                    bucket = fresh;
+                }
+                else {
+                    bucket = ring.get(index);
+                }
+            }
+            // A bucket of a later step means the clock went back, the request is only totalled
+            if (bucket.slot == slot) {
+                bucket.add(outcome, amount);
+            }
+        }
+
+        StatisticsSnapshot snapshot(String connector, PaymentOperation operation, String currency, int span, long now) {
+            long[] counts = new long[OUTCOMES.length];
+            long amount = 0;
+            if (span < 0) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = totals.counts[i].sum();
+                }
+                amount = totals.amount.sum();
+            }
+            else {
+                long slot = now / bucketMillis;
+                for (int i = 0; i < buckets; i++) {
+                    Bucket bucket = ring.get(i);
+                    if (bucket != null && bucket.slot > slot - span && bucket.slot <= slot) {
+                        for (int j = 0; j < counts.length; j++) {
+                            counts[j] += bucket.counts[j].sum();
+                        }
+                        amount += bucket.amount.sum();
+                    }
+                }
+            }
+            return new StatisticsSnapshot(connector, operation, currency, counts, amount);
+        }
+    }
+}
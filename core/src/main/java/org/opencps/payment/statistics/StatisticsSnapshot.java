@@ -0,0 +1,140 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.statistics;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.JournalRecord;
+
+/**
+ * The counts of one connector, operation and currency, totalled or over a window.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class StatisticsSnapshot {
+
+    private final String connector;
+    private final PaymentOperation operation;
+    private final String currency;
+    private final long[] counts;
+    private final long amount;
+
+    /**
+     * @param connector
+     * @param operation
+     * @param currency
+     * @param counts the counts indexed by outcome ordinal
+     * @param amount
+     */
+    public StatisticsSnapshot(String connector, PaymentOperation operation, String currency, long[] counts, long amount) {
+        this.connector = connector;
+        this.operation = operation;
+        this.currency = currency;
+        this.counts = counts;
+        this.amount = amount;
+    }
+
+    /**
+     * Get the short name of the connector
+     */
+    public String getConnector() {
+        return connector;
+    }
+
+    /**
+     * Get the operation
+     */
+    public PaymentOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get the currency code, null for requests without one
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Get the number of completed requests
+     */
+    public long getCount() {
+        long count = 0;
+        for (long value : counts) {
+            count += value;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of requests with an outcome
+     */
+    public long getCount(JournalRecord.Status outcome) {
+        return counts[outcome.ordinal()];
+    }
+
+    /**
+     * Get the number of successful requests
+     */
+    public long getSuccessful() {
+        return getCount(JournalRecord.Status.SUCCESSFUL);
+    }
+
+    /**
+     * Get the number of requests declined by the gateway or failing to reach it
+     */
+    public long getFailed() {
+        return getCount(JournalRecord.Status.FAILED) + getCount(JournalRecord.Status.ERROR);
+    }
+
+    /**
+     * Get the number of requests cancelled by the customer
+     */
+    public long getCancelled() {
+        return getCount(JournalRecord.Status.CANCELLED);
+    }
+
+    /**
+     * Get the number of requests redirecting the customer
+     */
+    public long getRedirect() {
+        return getCount(JournalRecord.Status.REDIRECT);
+    }
+
+    /**
+     * Get the sum of the amounts of successful requests, in minor units of the currency
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * Get the ratio of successful requests, 0 if there were none
+     */
+    public double getSuccessRate() {
+        long count = getCount();
+        return count > 0 ? (double) getSuccessful() / count : 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "StatisticsSnapshot[" + connector + " " + operation + " " + currency + " count=" + getCount()
+            + ", successful=" + getSuccessful() + ", amount=" + amount + "]";
+    }
+}
@@ -0,0 +1,419 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.validation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.opencps.payment.CreditCard;
+import org.opencps.payment.Currency;
+import org.opencps.payment.Helper;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.exception.InvalidCreditCardException;
+
+/**
+ * The declarative rules of a request class, compiled once into a Validator.
+ * 
+ * Example:
+ *     private static final Validator VALIDATOR = new RuleSet()
+ *         .required("transactionId", "amount", "currency", "returnUrl")
+ *         .amount(1, 50000000000L)
+ *         .currency("VND")
+ *         .compile();
+ * 
+ * Rules only read the request parameters and card, and their messages are
+ * built when the rule is declared, so checking a valid request allocates
+ * nothing, but for the card rule, which runs CreditCard.validate().
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RuleSet {
+
+    private final List<Rule> rules = new ArrayList<Rule>();
+
+    /**
+     * Require parameters to be present and not empty
+     * 
+     * @param keys
+     * @return RuleSet
+     */
+    public RuleSet required(String... keys) {
+        for (String key : keys) {
+            rules.add(new RequiredRule(key));
+        }
+        return this;
+    }
+
+    /**
+     * Require at least one of the parameters, e.g. a card reference or a token
+     * 
+     * @param keys
+     * @return RuleSet
+     */
+    public RuleSet requiredOneOf(String... keys) {
+        rules.add(new RequiredOneOfRule(keys));
+        return this;
+    }
+
+    /**
+     * Limit the length of a parameter
+     * 
+     * @param key
+     * @param length the maximum number of characters
+     * @return RuleSet
+     */
+    public RuleSet maxLength(String key, int length) {
+        rules.add(new MaxLengthRule(key, length));
+        return this;
+    }
+
+    /**
+     * Require a parameter to be made of digits only
+     * 
+     * @param key
+     * @param min the minimum number of digits
+     * @param max the maximum number of digits
+     * @return RuleSet
+     */
+    public RuleSet digits(String key, int min, int max) {
+        rules.add(new DigitsRule(key, min, max));
+        return this;
+    }
+
+    /**
+     * Require a parameter to match a regular expression.
+     * Unlike the other rules, matching allocates a Matcher.
+     * 
+     * @param key
+     * @param regex
+     * @return RuleSet
+     */
+    public RuleSet matches(String key, String regex) {
+        rules.add(new PatternRule(key, Pattern.compile(regex)));
+        return this;
+    }
+
+    /**
+     * Require a parameter to be one of the given values
+     * 
+     * @param key
+     * @param values
+     * @return RuleSet
+     */
+    public RuleSet oneOf(String key, String... values) {
+        rules.add(new OneOfRule(key, values));
+        return this;
+    }
+
+    /**
+     * Require the amount to be a valid decimal number for the currency,
+     * with at most the decimal places of the currency and not negative
+     * 
+     * @return RuleSet
+     */
+    public RuleSet amount() {
+        return amount(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Require the amount to be a valid decimal number for the currency
+     * and to be within a range
+     * 
+     * @param minimum the minimum amount in minor units of the currency, e.g. cents
+     * @param maximum the maximum amount in minor units of the currency
+     * @return RuleSet
+     */
+    public RuleSet amount(long minimum, long maximum) {
+        rules.add(new AmountRule(minimum, maximum));
+        return this;
+    }
+
+    /**
+     * Require the currency to be one of the given codes, or any supported
+     * currency when none is given
+     * 
+     * @param codes
+     * @return RuleSet
+     */
+    public RuleSet currency(String... codes) {
+        Set<String> allowed = new HashSet<String>();
+        if (codes.length == 0) {
+            for (Currency currency : Currency.alls()) {
+                allowed.add(currency.getCode());
+                allowed.add(currency.getCode().toLowerCase());
+            }
+        }
+        for (String code : codes) {
+            allowed.add(code.toUpperCase());
+            allowed.add(code.toLowerCase());
+        }
+        rules.add(new CurrencyRule(allowed));
+        return this;
+    }
+
+    /**
+     * Require a valid, unexpired credit card
+     * 
+     * @return RuleSet
+     */
+    public RuleSet card() {
+        rules.add(new CardRule());
+        return this;
+    }
+
+    /**
+     * Add a custom rule
+     * 
+     * @param rule
+     * @return RuleSet
+     */
+    public RuleSet add(Rule rule) {
+        rules.add(rule);
+        return this;
+    }
+
+    /**
+     * Compile the rules
+     * 
+     * @return Validator
+     */
+    public Validator compile() {
+        return new Validator(rules.toArray(new Rule[rules.size()]));
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    private static class RequiredRule implements Rule {
+
+        private final String key;
+        private final String message;
+
+        RequiredRule(String key) {
+            this.key = key;
+            this.message = "The " + key + " parameter is required.";
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            return isEmpty(request.getParameters().get(key)) ? message : null;
+        }
+    }
+
+    private static class RequiredOneOfRule implements Rule {
+
+        private final String[] keys;
+        private final String message;
+
+        RequiredOneOfRule(String[] keys) {
+            this.keys = keys.clone();
+            StringBuilder names = new StringBuilder();
+            for (String key : keys) {
+                names.append(names.length() > 0 ? ", " : "").append(key);
+            }
+            this.message = "One of the " + names + " parameters is required.";
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            Map<String, String> parameters = request.getParameters();
+            for (int i = 0; i < keys.length; i++) {
+                if (!isEmpty(parameters.get(keys[i]))) {
+                    return null;
+                }
+            }
+            return message;
+        }
+    }
+
+    private static class MaxLengthRule implements Rule {
+
+        private final String key;
+        private final int length;
+        private final String message;
+
+        MaxLengthRule(String key, int length) {
+            this.key = key;
+            this.length = length;
+            this.message = "The " + key + " parameter must have at most " + length + " characters.";
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            String value = request.getParameters().get(key);
+            return value != null && value.length() > length ? message : null;
+        }
+    }
+
+    private static class DigitsRule implements Rule {
+
+        private final String key;
+        private final int min;
+        private final int max;
+        private final String message;
+
+        DigitsRule(String key, int min, int max) {
+            this.key = key;
+            this.min = min;
+            this.max = max;
+            this.message = "The " + key + " parameter must have " + min + " to " + max + " digits.";
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            String value = request.getParameters().get(key);
+            if (value == null) {
+                return null;
+            }
+            if (value.length() < min || value.length() > max) {
+                return message;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return message;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class PatternRule implements Rule {
+
+        private final String key;
+        private final Pattern pattern;
+        private final String message;
+
+        PatternRule(String key, Pattern pattern) {
+            this.key = key;
+            this.pattern = pattern;
+            this.message = "The " + key + " parameter has an invalid format.";
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            String value = request.getParameters().get(key);
+            return value != null && !pattern.matcher(value).matches() ? message : null;
+        }
+    }
+
+    private static class OneOfRule implements Rule {
+
+        private final String key;
+        private final Set<String> values;
+        private final String message;
+
+        OneOfRule(String key, String[] values) {
+            this.key = key;
+            this.values = new HashSet<String>();
+            StringBuilder names = new StringBuilder();
+            for (String value : values) {
+                this.values.add(value);
+                names.append(names.length() > 0 ? ", " : "").append(value);
+            }
+            this.message = "The " + key + " parameter must be one of " + names + ".";
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            String value = request.getParameters().get(key);
+            return value != null && !values.contains(value) ? message : null;
+        }
+    }
+
+    private static class CurrencyRule implements Rule {
+
+        private final Set<String> codes;
+
+        CurrencyRule(Set<String> codes) {
+            this.codes = codes;
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            String currency = request.getParameters().get("currency");
+            return currency != null && !codes.contains(currency) ? "The currency is not supported." : null;
+        }
+    }
+
+    private static class AmountRule implements Rule {
+
+        private final long minimum;
+        private final long maximum;
+
+        AmountRule(long minimum, long maximum) {
+            this.minimum = minimum;
+            this.maximum = maximum;
+        }
+
+        @Override
+        public String check(RequestBase request) {
+            Map<String, String> parameters = request.getParameters();
+            String amount = parameters.get("amount");
+            if (isEmpty(amount)) {
+                return null;
+            }
+            String currency = parameters.get("currency");
+            int decimals = Currency.decimals(currency);
+            long units = Helper.parseMinorUnits(amount, decimals);
+            if (units == Helper.NOT_AN_AMOUNT) {
+                return "The amount parameter must be a decimal number.";
+            }
+            if (decimals > 0 && amount.indexOf('.') < 0) {
+                return "Please specify amount as a float string, with decimal places (e.g. '10.00' to represent $10.00).";
+            }
+            if (units == Helper.TOO_PRECISE) {
+                return "Amount precision is too high for currency.";
+            }
+            if (amount.charAt(0) == '-' && units != 0) {
+                return "A negative amount is not allowed.";
+            }
+            if (units == Helper.TOO_LARGE) {
+                return "The amount is above the maximum allowed.";
+            }
+            if (units < minimum) {
+                return "The amount is below the minimum allowed.";
+            }
+            if (units > maximum) {
+                return "The amount is above the maximum allowed.";
+            }
+            return null;
+        }
+    }
+
+    private static class CardRule implements Rule {
+
+        @Override
+        public String check(RequestBase request) {
+            CreditCard card = request.getCard();
+            if (card == null || card.getParameters() == null) {
+                return "The card parameter is required.";
+            }
+            try {
+                card.validate();
+                return null;
+            }
+            catch (InvalidCreditCardException e) {
+                return e.getMessage();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.exception.InvalidRequestException;
+
+/**
+ * The compiled rules of a request class. It runs every rule of a flat array
+ * in one pass and collects all the violations, so an invalid request is
+ * reported completely at once. A valid request is checked without allocation.
+ * 
+ * Validators are immutable and meant to be held in a static field of the
+ * request class, see RuleSet.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public final class Validator {
+
+    private final Rule[] rules;
+
+    Validator(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Get the number of rules
+     * 
+     * @return Integer
+     */
+    public Integer size() {
+        return rules.length;
+    }
+
+    /**
+     * Validate a request
+     * 
+     * @param request
+     * @return the violation messages, empty if the request is valid
+     */
+    public List<String> validate(RequestBase request) {
+        List<String> violations = null;
+        for (int i = 0; i < rules.length; i++) {
+            String violation = rules[i].check(request);
+            if (violation != null) {
+                if (violations == null) {
+                    violations = new ArrayList<String>();
+                }
+                violations.add(violation);
+            }
+        }
+        if (violations == null) {
+            return Collections.emptyList();
+        }
+        return violations;
+    }
+
+    /**
+     * Validate a request. If the request is invalid, InvalidRequestException
+     * listing every violation is thrown.
+     * 
+     * @param request
+     * @throws InvalidRequestException
+     */
+    public void check(RequestBase request) throws InvalidRequestException {
+        List<String> violations = validate(request);
+        if (!violations.isEmpty()) {
+            throw new InvalidRequestException(violations);
+        }
+    }
+}
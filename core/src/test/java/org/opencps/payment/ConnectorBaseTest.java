@@ -20,10 +20,19 @@ import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
 import org.opencps.payment.mock.MockBaseConnector;
 import org.opencps.payment.mock.MockBaseRequest;
 
@@ -218,5 +227,222 @@ public class ConnectorBaseTest extends TestCase {
         MockBaseRequest request = connector.callCreateRequest(MockBaseRequest.class, params);
         assertEquals("VND", request.getCurrency());
     }
-    
+
+    public void testBatchConcurrency() {
+        assertEquals(ConnectorBase.DEFAULT_BATCH_CONCURRENCY, connector.getBatchConcurrency());
+        assertEquals(connector, connector.setBatchConcurrency(4));
+        assertEquals(Integer.valueOf(4), connector.getBatchConcurrency());
+    }
+
+    public void testRequestByOperation() {
+        MockBaseConnector connector = new MockBaseConnector();
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("currency", "VND");
+        for (PaymentOperation operation : PaymentOperation.values()) {
+            RequestBase request = connector.request(operation, params);
+            assertTrue(request instanceof MockBaseRequest);
+            assertEquals("VND", request.getCurrency());
+        }
+    }
+
+    public void testSendBatch() {
+        MockBaseConnector connector = new MockBaseConnector();
+        List<Map<String, String>> items = new ArrayList<Map<String, String>>();
+        for (int i = 0; i < 20; i++) {
+            Map<String, String> params = new HashMap<String, String>();
+            params.put("transactionId", String.valueOf(i));
+            items.add(params);
+        }
+        List<BatchResult> results = connector.sendBatch(PaymentOperation.CAPTURE, items, 3);
+        assertEquals(20, results.size());
+        for (int i = 0; i < 20; i++) {
+            BatchResult result = results.get(i);
+            assertEquals(Integer.valueOf(i), result.getIndex());
+            assertEquals(String.valueOf(i), result.getParameters().get("transactionId"));
+            assertFalse(result.hasError());
+            assertTrue(result.getResponse() instanceof PaymentResponse);
+        }
+    }
+
+    public void testSendBatchItemError() {
+        Map<String, String> good = new HashMap<String, String>();
+        good.put("transactionId", "1");
+        Map<String, String> bad = new HashMap<String, String>();
+        bad.put("transactionId", "2");
+        RequestBase request = mock(RequestBase.class);
+        when(request.send()).thenReturn(mock(PaymentResponse.class));
+        when(connector.doRefund(good)).thenReturn(request);
+        when(connector.doRefund(bad)).thenThrow(new RuntimeException("Gateway error"));
+
+        List<Map<String, String>> items = new ArrayList<Map<String, String>>();
+        items.add(good);
+        items.add(bad);
+        List<BatchResult> results = connector.sendBatch(PaymentOperation.REFUND, items, 2);
+        assertFalse(results.get(0).hasError());
+        assertTrue(results.get(1).hasError());
+        assertNull(results.get(1).getResponse());
+        assertEquals("Gateway error", results.get(1).getError().getMessage());
+    }
+
+    public void testSendBatchBoundedConcurrency() {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        RequestBase request = mock(RequestBase.class);
+        when(request.send()).thenAnswer(new Answer<PaymentResponse>() {
+            @Override
+            public PaymentResponse answer(InvocationOnMock invocation) throws Throwable {
+                int current = inFlight.incrementAndGet();
+                int max;
+                while ((max = maxInFlight.get()) < current && !maxInFlight.compareAndSet(max, current)) {
+                }
+                Thread.sleep(5);
+                inFlight.decrementAndGet();
+                return mock(PaymentResponse.class);
+            }
+        });
+        Map<String, String> params = new HashMap<String, String>();
+        when(connector.doRevert(params)).thenReturn(request);
+
+        List<Map<String, String>> items = new ArrayList<Map<String, String>>();
+        for (int i = 0; i < 30; i++) {
+            items.add(params);
+        }
+        List<BatchResult> results = connector.sendBatch(PaymentOperation.REVERT, items, 4);
+        assertEquals(30, results.size());
+        assertTrue(maxInFlight.get() <= 4);
+    }
+
+    public void testSendBatchWorkerDies() {
+        Map<String, String> slow = new HashMap<String, String>();
+        slow.put("transactionId", "1");
+        Map<String, String> dying = new HashMap<String, String>();
+        dying.put("transactionId", "2");
+        RequestBase slowRequest = mock(RequestBase.class);
+        when(slowRequest.send()).thenAnswer(new Answer<PaymentResponse>() {
+            @Override
+            public PaymentResponse answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(100);
+                return mock(PaymentResponse.class);
+            }
+        });
+        RequestBase dyingRequest = mock(RequestBase.class);
+        when(dyingRequest.send()).thenThrow(new Error("Worker died"));
+        when(connector.doCapture(slow)).thenReturn(slowRequest);
+        when(connector.doCapture(dying)).thenReturn(dyingRequest);
+
+        List<Map<String, String>> items = new ArrayList<Map<String, String>>();
+        items.add(slow);
+        items.add(dying);
+        List<BatchResult> results = connector.sendBatch(PaymentOperation.CAPTURE, items, 2);
+        // The slow capture is still waited for, the one of the dead worker may have reached the gateway
+        assertFalse(results.get(0).hasError());
+        assertEquals("Batch item outcome unknown.", results.get(1).getError().getMessage());
+    }
+
+    public void testSendBatchInterrupted() throws Exception {
+        RequestBase request = mock(RequestBase.class);
+        when(request.send()).thenAnswer(new Answer<PaymentResponse>() {
+            @Override
+            public PaymentResponse answer(InvocationOnMock invocation) throws Throwable {
+                long end = System.currentTimeMillis() + 200;
+                while (System.currentTimeMillis() < end) {
+                    Thread.yield();
+                }
+                return mock(PaymentResponse.class);
+            }
+        });
+        Map<String, String> params = new HashMap<String, String>();
+        when(connector.doRefund(params)).thenReturn(request);
+        final List<Map<String, String>> items = new ArrayList<Map<String, String>>();
+        for (int i = 0; i < 5; i++) {
+            items.add(params);
+        }
+        final List<BatchResult> results = new ArrayList<BatchResult>();
+        final AtomicInteger interrupted = new AtomicInteger();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                results.addAll(connector.sendBatch(PaymentOperation.REFUND, items, 1));
+                if (Thread.currentThread().isInterrupted()) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        };
+        caller.start();
+        Thread.sleep(50);
+        caller.interrupt();
+        caller.join();
+
+        assertEquals(1, interrupted.get());
+        assertEquals(5, results.size());
+        assertFalse(results.get(0).hasError());
+        assertEquals("Batch item was not sent.", results.get(4).getError().getMessage());
+    }
+
+    public void testSendBatchWithoutConcurrency() {
+        try {
+            connector.sendBatch(PaymentOperation.REFUND, new ArrayList<Map<String, String>>(), null);
+            fail("Missing exception");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("The batch concurrency must be set.", e.getMessage());
+        }
+    }
+
+    public void testRequestIsTaggedWithOperation() {
+        MockBaseConnector connector = new MockBaseConnector();
+        Map<String, String> params = new HashMap<String, String>();
+        assertEquals(PaymentOperation.PURCHASE, connector.purchase(params).getOperation());
+        assertEquals(PaymentOperation.REVERT, connector.revert(params).getOperation());
+        assertEquals(PaymentOperation.DELETE_CARD, connector.deleteCard(params).getOperation());
+    }
+
+    public void testInterceptorsRunInOrder() {
+        final List<String> calls = new ArrayList<String>();
+        MockBaseConnector connector = new MockBaseConnector();
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                calls.add("first");
+                return chain.proceed();
+            }
+        });
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                calls.add("second " + chain.getRequest().getOperation());
+                return chain.proceed();
+            }
+        });
+        RequestBase request = connector.capture(new HashMap<String, String>());
+        PaymentResponse response = request.send();
+        assertEquals(response, request.getResponse());
+        assertEquals(2, calls.size());
+        assertEquals("first", calls.get(0));
+        assertEquals("second CAPTURE", calls.get(1));
+    }
+
+    public void testInterceptorRejection() {
+        MockBaseConnector connector = new MockBaseConnector();
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                throw new PaymentException("Rejected");
+            }
+        });
+        try {
+            connector.capture(new HashMap<String, String>()).execute();
+            fail("Missing exception");
+        }
+        catch (PaymentException e) {
+            assertEquals("Rejected", e.getMessage());
+        }
+        try {
+            connector.capture(new HashMap<String, String>()).send();
+            fail("Missing exception");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof PaymentException);
+        }
+    }
 }
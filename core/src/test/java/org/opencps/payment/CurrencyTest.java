@@ -60,4 +60,12 @@ public class CurrencyTest extends TestCase {
         assertNull(currency);
     }
 
+    public void testDecimals() {
+        assertEquals(0, Currency.decimals("VND"));
+        assertEquals(0, Currency.decimals("vnd"));
+        assertEquals(2, Currency.decimals("USD"));
+        assertEquals(2, Currency.decimals("ABC"));
+        assertEquals(2, Currency.decimals(null));
+    }
+
 }
@@ -0,0 +1,185 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.DeadlineExceededException;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.interceptor.RetryInterceptor;
+import org.opencps.payment.interceptor.RetryPolicy;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Deadline.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class DeadlineTest extends TestCase {
+
+    private MockGatewayConnector connector;
+
+    /**
+     * Create the test case
+     */
+    public DeadlineTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        connector = new MockGatewayConnector();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(DeadlineTest.class);
+    }
+
+    public void testDeadline() throws InterruptedException {
+        Deadline deadline = Deadline.after(30, TimeUnit.MILLISECONDS);
+        assertTrue(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remaining(TimeUnit.MILLISECONDS) <= 30);
+        assertTrue(deadline.getConnectTimeout() <= 30);
+        Thread.sleep(40);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remaining(TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(1), deadline.getReadTimeout());
+        try {
+            deadline.check();
+            fail("Missing exception");
+        }
+        catch (DeadlineExceededException e) {
+            assertEquals("Request deadline exceeded.", e.getMessage());
+        }
+    }
+
+    public void testUnboundedDeadline() {
+        Deadline deadline = Deadline.unbounded().withConnectTimeout(1000).withReadTimeout(5000);
+        assertFalse(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.remaining(TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(1000), deadline.getConnectTimeout());
+        assertEquals(Integer.valueOf(5000), deadline.getReadTimeout());
+    }
+
+    public void testConnectorTimeouts() {
+        assertNull(connector.createDeadline(PaymentOperation.PURCHASE));
+
+        connector.setParameter("timeout", "60000").setParameter("readTimeout", "30000");
+        connector.setParameter("purchaseTimeout", "5000").setParameter("purchaseConnectTimeout", "1000");
+        Deadline purchase = connector.createDeadline(PaymentOperation.PURCHASE);
+        assertTrue(purchase.remaining(TimeUnit.MILLISECONDS) <= 5000);
+        assertEquals(Integer.valueOf(1000), purchase.getConnectTimeout());
+        assertTrue(purchase.getReadTimeout() <= 5000);
+
+        Deadline refund = connector.createDeadline(PaymentOperation.REFUND);
+        assertTrue(refund.remaining(TimeUnit.MILLISECONDS) > 5000);
+        assertEquals(Integer.valueOf(Deadline.DEFAULT_TIMEOUT), refund.getConnectTimeout());
+        assertEquals(Integer.valueOf(30000), refund.getReadTimeout());
+    }
+
+    public void testRequestGetsDeadlineOfOperation() throws PaymentException {
+        connector.setParameter("refundTimeout", "60000");
+        RequestBase request = connector.refund(new HashMap<String, String>());
+        assertNull(request.getDeadline());
+        request.execute();
+        assertTrue(request.getDeadline().isBounded());
+        assertNull(connector.purchase(new HashMap<String, String>()).getDeadline());
+    }
+
+    public void testExpiredRequestIsNotSent() {
+        RequestBase request = connector.purchase(new HashMap<String, String>());
+        request.setDeadline(Deadline.after(0, TimeUnit.MILLISECONDS));
+        try {
+            request.execute();
+            fail("Missing exception");
+        }
+        catch (PaymentException e) {
+            assertTrue(e instanceof DeadlineExceededException);
+        }
+        assertEquals(0, connector.getCalls());
+    }
+
+    public void testQueuedRequestIsCutOff() {
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                try {
+                    Thread.sleep(30);
+                }
+                catch (InterruptedException e) {
+                    throw new PaymentException("Interrupted");
+                }
+                return chain.proceed();
+            }
+        });
+        RequestBase request = connector.purchase(new HashMap<String, String>());
+        request.setDeadline(Deadline.after(10, TimeUnit.MILLISECONDS));
+        try {
+            request.execute();
+            fail("Missing exception");
+        }
+        catch (PaymentException e) {
+            assertTrue(e instanceof DeadlineExceededException);
+        }
+        assertEquals(0, connector.getCalls());
+    }
+
+    public void testRetriesStopAtDeadline() {
+        RetryPolicy policy = new RetryPolicy().setMaxAttempts(50).setBackoff(40, 40, TimeUnit.MILLISECONDS);
+        connector.addInterceptor(new RetryInterceptor(policy));
+        connector.setFailures(50);
+        Map<String, String> params = new HashMap<String, String>();
+        RequestBase request = connector.completePurchase(params);
+        request.setDeadline(Deadline.after(100, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        try {
+            request.execute();
+            fail("Missing exception");
+        }
+        catch (Exception e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        assertTrue(connector.getCalls() < 50);
+    }
+
+    public void testHttpRequestTimeouts() throws Exception {
+        RequestBase request = connector.purchase(new HashMap<String, String>());
+        request.setDeadline(Deadline.after(2, TimeUnit.SECONDS).withConnectTimeout(500));
+        HttpRequest httpRequest = request.getRequestFactory().buildGetRequest(new GenericUrl("https://example.com/"));
+        assertEquals(500, httpRequest.getConnectTimeout());
+        assertTrue(httpRequest.getReadTimeout() <= 2000);
+        assertTrue(httpRequest.getReadTimeout() > 1000);
+    }
+}
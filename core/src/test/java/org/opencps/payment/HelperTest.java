@@ -16,6 +16,9 @@
 */
 package org.opencps.payment;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -73,4 +76,29 @@ public class HelperTest extends TestCase {
         assertEquals("1.2345", Helper.formatNumber(1.2345f, 4));
         assertEquals("1.23", Helper.formatNumber(1.2345f, 2));
     }
+    
+    public void testToMinorUnits() {
+        assertEquals(Long.valueOf(1050), Helper.toMinorUnits("10.50", 2));
+        assertEquals(Long.valueOf(1050), Helper.toMinorUnits("10.5", 2));
+        assertEquals(Long.valueOf(1000), Helper.toMinorUnits("10", 2));
+        assertEquals(Long.valueOf(50000), Helper.toMinorUnits("50000", 0));
+        assertEquals(Long.valueOf(-125), Helper.toMinorUnits("-1.25", 2));
+        assertNull(Helper.toMinorUnits("1.234", 2));
+        assertNull(Helper.toMinorUnits("abc", 2));
+        assertNull(Helper.toMinorUnits("", 2));
+        assertNull(Helper.toMinorUnits(null, 2));
+        assertEquals(Long.valueOf(999999999999999999L), Helper.toMinorUnits("999999999999999999", 0));
+        assertNull(Helper.toMinorUnits("999999999999999999", 2));
+    }
+
+    public void testParseMinorUnits() {
+        ByteBuffer buffer = ByteBuffer.wrap("R1,10.50,1.234,x1,999999999999999999".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(1050L, Helper.parseMinorUnits(buffer, 3, 8, 2));
+        assertEquals(Helper.TOO_PRECISE, Helper.parseMinorUnits(buffer, 9, 14, 2));
+        assertEquals(Helper.NOT_AN_AMOUNT, Helper.parseMinorUnits(buffer, 15, 17, 2));
+        assertEquals(Helper.NOT_AN_AMOUNT, Helper.parseMinorUnits(buffer, 8, 8, 2));
+        assertEquals(Helper.TOO_LARGE, Helper.parseMinorUnits(buffer, 18, 36, 2));
+        assertEquals(-100L, Helper.parseMinorUnits("-1", 2));
+        assertEquals(Helper.TOO_LARGE, Helper.parseMinorUnits("-999999999999999999.", 2));
+    }
 }
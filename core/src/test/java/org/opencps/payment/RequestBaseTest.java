@@ -19,16 +19,35 @@ package org.opencps.payment;
 import org.opencps.payment.api.PaymentItem;
 import org.opencps.payment.api.PaymentResponse;
 import org.opencps.payment.exception.InvalidRequestException;
+import org.opencps.payment.metrics.Phase;
+import org.opencps.payment.metrics.PhaseTimer;
+import org.opencps.payment.mock.MockBaseConnector;
 import org.opencps.payment.mock.MockBaseRequest;
 import org.opencps.payment.api.PaymentRequest;
+import org.opencps.payment.codec.ResponseFormat;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import static org.mockito.Mockito.*;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Unit test for Request Base.
@@ -339,5 +358,61 @@ public class RequestBaseTest extends TestCase {
         RequestBase request = new MockBaseRequest();
         assertTrue(request.getConnector() instanceof ConnectorBase);
     }
-}
 
+    public void testFormContent() throws Exception {
+        Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("orderInfo", "Lệ phí");
+        data.put("amount", "10.00");
+        HttpContent content = request.getFormContent(data);
+        assertEquals("application/x-www-form-urlencoded", content.getType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertEquals("orderInfo=L%E1%BB%87+ph%C3%AD&amount=10.00", out.toString("US-ASCII"));
+        assertEquals("https://example.com/query?orderInfo=L%E1%BB%87+ph%C3%AD&amount=10.00",
+                request.getQueryUrl("https://example.com/query", data));
+    }
+
+    public void testParseResponse() throws Exception {
+        MockLowLevelHttpResponse lowLevel = new MockLowLevelHttpResponse()
+            .setContentType("application/json")
+            .setContent("{\"code\":\"00\",\"reference\":\"KP-1\"}");
+        HttpTransport transport = new MockHttpTransport.Builder().setLowLevelHttpResponse(lowLevel).build();
+        HttpResponse response = transport.createRequestFactory()
+            .buildGetRequest(new GenericUrl("https://example.com/query")).execute();
+        Map<String, String> data = request.parseResponse(response, ResponseFormat.JSON);
+        assertEquals("00", data.get("code"));
+        assertEquals("KP-1", data.get("reference"));
+    }
+
+    public void testFailedExchangeIsTimed() throws Exception {
+        HttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                };
+            }
+        };
+        RequestBase request = new MockBaseRequest(new MockBaseConnector(mock(HttpServletRequest.class),
+            mock(HttpServletResponse.class), transport));
+        PhaseTimer timer = PhaseTimer.current();
+        timer.begin();
+        try {
+            request.getRequestFactory().buildGetRequest(new GenericUrl("https://example.com/query")).execute();
+            fail("The exchange must time out");
+        }
+        catch (SocketTimeoutException e) {
+            // expected
+        }
+        finally {
+            timer.end();
+        }
+        assertEquals(1, timer.getExchanges());
+        assertEquals(0, timer.getStatusCode());
+        assertTrue(timer.get(Phase.NETWORK) > 0);
+        assertTrue(timer.isNetworkOpen());
+    }
+}
@@ -18,13 +18,19 @@ package org.opencps.payment;
 
 import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.opencps.payment.api.PaymentRedirectResponse;
 import org.opencps.payment.api.PaymentRequest;
+import org.opencps.payment.mock.MockBaseConnector;
+import org.opencps.payment.mock.MockBaseRequest;
+import org.opencps.payment.mock.MockServletOutputStream;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -91,11 +97,102 @@ public class ResponseBaseTest extends TestCase {
         RedirectResponseBase response = mock(MockRedirectResponse.class, CALLS_REAL_METHODS);
         
         String form = response.getRedirectForm();
-        assertTrue(form.contains("<form action=\"https://example.com/redirect?a=1&b=2\" method=\"post\">"));
+        assertTrue(form.contains("<form action=\"https://example.com/redirect?a=1&amp;b=2\" method=\"post\">"));
         assertTrue(form.contains("<input type=\"hidden\" name=\"key\" value=\"value\" />"));
         assertTrue(form.contains("<input type=\"hidden\" name=\"foo\" value=\"bar\" />"));
     }
     
+    private RedirectResponseBase redirectResponse(HttpServletResponse servletResponse, final String method,
+            final Map<String, String> data) {
+        RequestBase request = new MockBaseRequest(new MockBaseConnector(mock(HttpServletRequest.class), servletResponse));
+        return new MockRedirectResponse(request, data) {
+            @Override
+            public Boolean isRedirect() {
+                return true;
+            }
+
+            @Override
+            public String getRedirectMethod() {
+                return method;
+            }
+
+            @Override
+            public Map<String, String> getRedirectData() {
+                return data;
+            }
+        };
+    }
+
+    public void testRedirectPostWritesFormToOutputStream() throws IOException {
+        HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+        MockServletOutputStream out = new MockServletOutputStream();
+        when(servletResponse.getOutputStream()).thenReturn(out);
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("desc", "Lệ phí <b>\"A&B\"</b>");
+        RedirectResponseBase response = redirectResponse(servletResponse, new String("post"), data);
+
+        response.redirect();
+        String page = out.toString();
+        assertEquals(response.getRedirectForm(), page);
+        assertTrue(page.contains("<input type=\"hidden\" name=\"desc\" value=\"Lệ phí &lt;b&gt;&quot;A&amp;B&quot;&lt;/b&gt;\" />"));
+        verify(servletResponse).setContentType("text/html; charset=UTF-8");
+        verify(servletResponse).setContentLength(out.toByteArray().length);
+    }
+
+    public void testRedirectJson() throws IOException {
+        HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+        when(servletRequest.getHeader("Accept")).thenReturn("application/json, text/plain, */*");
+        HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+        MockServletOutputStream out = new MockServletOutputStream();
+        when(servletResponse.getOutputStream()).thenReturn(out);
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("desc", "Lệ phí \"A\"");
+        RequestBase request = new MockBaseRequest(new MockBaseConnector(servletRequest, servletResponse));
+        RedirectResponseBase response = new MockRedirectResponse(request, data) {
+            @Override
+            public Boolean isRedirect() {
+                return true;
+            }
+
+            @Override
+            public String getRedirectMethod() {
+                return "post";
+            }
+        };
+
+        response.redirect();
+        assertEquals("{\"redirectUrl\":\"https://example.com/redirect?a=1\\u0026b=2\",\"redirectMethod\":\"POST\","
+            + "\"redirectData\":{\"foo\":\"bar\",\"key\":\"value\"}}", out.toString());
+        verify(servletResponse).setContentType("application/json; charset=UTF-8");
+        verify(servletResponse).setContentLength(out.toByteArray().length);
+    }
+
+    public void testRedirectGet() throws IOException {
+        HttpServletResponse servletResponse = mock(HttpServletResponse.class);
+        RedirectResponseBase response = redirectResponse(servletResponse, new String("GET"), new HashMap<String, String>());
+        response.redirect();
+        verify(servletResponse).sendRedirect("https://example.com/redirect?a=1&b=2");
+    }
+
+    public void testRedirectInvalidMethod() {
+        RedirectResponseBase response = redirectResponse(mock(HttpServletResponse.class), "PUT", new HashMap<String, String>());
+        try {
+            response.redirect();
+            fail("Missing exception");
+        }
+        catch (IOException e) {
+            assertEquals("Invalid redirect method PUT.", e.getMessage());
+        }
+    }
+
+    public void testBuildRedirectUrl() {
+        RedirectResponseBase response = mock(MockRedirectResponse.class, CALLS_REAL_METHODS);
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("returnUrl", "https://example.com/return?id=1");
+        assertEquals("https://example.com/pay?returnUrl=https%3A%2F%2Fexample.com%2Freturn%3Fid%3D1",
+                response.buildRedirectUrl("https://example.com/pay", data));
+    }
+
     class MockAbstractResponse extends ResponseBase {
 
         public MockAbstractResponse() {
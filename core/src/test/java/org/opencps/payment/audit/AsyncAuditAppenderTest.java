@@ -0,0 +1,150 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for AsyncAuditAppender.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AsyncAuditAppenderTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public AsyncAuditAppenderTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(AsyncAuditAppenderTest.class);
+    }
+
+    public void testWrites() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncAuditAppender appender = new AsyncAuditAppender(new OutputStreamAuditSink(out), 16, 64);
+        byte[] buffer = "xx{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 100; i++) {
+            // Slow enough for the queue to be drained
+            while (!appender.append(buffer, 2, 7)) {
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(appender.close(5, TimeUnit.SECONDS));
+        assertEquals(100, appender.getWritten());
+        assertEquals(0, appender.getPending());
+        String written = out.toString("UTF-8");
+        assertEquals(700 + 100, written.length());
+        assertTrue(written.startsWith("{\"a\":1}\n{\"a\":1}\n"));
+    }
+
+    public void testAppendWhileClosingIsWrittenOrDropped() throws Exception {
+        final AsyncAuditAppender appender = new AsyncAuditAppender(new OutputStreamAuditSink(new ByteArrayOutputStream()), 1000, 64);
+        final byte[] buffer = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        final AtomicInteger appended = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < 500; j++) {
+                        if (appender.append(buffer, 0, buffer.length)) {
+                            appended.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        started.await();
+        assertTrue(appender.close(5, TimeUnit.SECONDS));
+        done.await();
+
+        assertEquals(appended.get(), appender.getWritten());
+        assertEquals(0, appender.getPending());
+    }
+
+    public void testDropsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AsyncAuditAppender appender = new AsyncAuditAppender(new AuditSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, 4, 16);
+        byte[] record = new byte[8];
+        int appended = 0;
+        for (int i = 0; i < 20; i++) {
+            if (appender.append(record, 0, record.length)) {
+                appended++;
+            }
+        }
+        assertTrue(appended >= 4 && appended <= 5);
+        assertEquals(20 - appended, appender.getDropped());
+
+        assertFalse(appender.append(new byte[17], 0, 17));
+        assertEquals(1, appender.getOverflows());
+
+        release.countDown();
+        assertTrue(appender.close(5, TimeUnit.SECONDS));
+        assertEquals(appended, appender.getWritten());
+        assertFalse(appender.append(record, 0, record.length));
+    }
+
+    public void testSinkFailures() throws Exception {
+        AsyncAuditAppender appender = new AsyncAuditAppender(new AuditSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                throw new IOException("Disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, 4, 16);
+        appender.append(new byte[4], 0, 4);
+        assertTrue(appender.close(5, TimeUnit.SECONDS));
+        assertEquals(1, appender.getFailures());
+        assertEquals(0, appender.getWritten());
+    }
+}
@@ -0,0 +1,146 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.audit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.JournalRecord;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for AuditLog.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AuditLogTest extends TestCase {
+
+    private RecordingAppender appender;
+    private AuditLog log;
+    private MockGatewayConnector connector;
+
+    /**
+     * Create the test case
+     */
+    public AuditLogTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(AuditLogTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        appender = new RecordingAppender();
+        log = new AuditLog(appender);
+        connector = new MockGatewayConnector();
+    }
+
+    public void testDefaultSchema() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("amount", "10.00");
+        params.put("currency", "VND");
+        params.put("transactionId", "T1");
+        params.put("secret", "s3cr3t");
+        RequestBase request = connector.purchase(params);
+        Map<String, String> card = new HashMap<String, String>();
+        card.put("number", "4111111111111111");
+        card.put("cvv", "123");
+        request.setCard(card);
+
+        assertTrue(log.log(request, null, JournalRecord.Status.SUCCESSFUL));
+        String record = appender.records.get(0);
+        assertTrue(record, record.startsWith("{\"time\":"));
+        assertTrue(record, record.endsWith(",\"connector\":\"MockConnector\",\"operation\":\"PURCHASE\",\"status\":\"SUCCESSFUL\","
+            + "\"amount\":\"10.00\",\"currency\":\"VND\",\"transactionId\":\"T1\",\"card.number\":\"411111******1111\"}"));
+        assertFalse(record.contains("s3cr3t"));
+        assertFalse(record.contains("123\""));
+    }
+
+    public void testRegisteredSchema() {
+        log.register(PaymentOperation.REFUND, new AuditSchema()
+            .add("transactionReference")
+            .add("description", AuditSchema.Masking.FULL)
+            .addCard("number", AuditSchema.Masking.PAN));
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionReference", "R1");
+        params.put("description", "Lệ phí");
+        params.put("amount", "10.00");
+        RequestBase request = connector.refund(params);
+        Map<String, String> card = new HashMap<String, String>();
+        card.put("number", "411111111");
+        request.setCard(card);
+
+        log.log(request, null, JournalRecord.Status.FAILED);
+        String record = appender.records.get(0);
+        assertTrue(record, record.endsWith("\"status\":\"FAILED\",\"transactionReference\":\"R1\","
+            + "\"description\":\"******\",\"card.number\":\"*****1111\"}"));
+        assertFalse(record.contains("amount"));
+    }
+
+    public void testReusesBuffer() {
+        RequestBase request = connector.purchase(new HashMap<String, String>());
+        log.log(request, null, JournalRecord.Status.ERROR);
+        log.log(request, null, JournalRecord.Status.ERROR);
+        assertEquals(2, appender.records.size());
+        String first = appender.records.get(0);
+        String second = appender.records.get(1);
+        // The records only differ by their time
+        assertEquals(first.substring(first.indexOf(',')), second.substring(second.indexOf(',')));
+    }
+
+    public void testLargeBufferIsNotRetained() {
+        Map<String, String> params = new HashMap<String, String>();
+        StringBuilder id = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            id.append('x');
+        }
+        params.put("transactionId", id.toString());
+        log.log(connector.purchase(params), null, JournalRecord.Status.ERROR);
+        assertTrue(appender.capacity > 100000);
+        log.log(connector.purchase(new HashMap<String, String>()), null, JournalRecord.Status.ERROR);
+        assertTrue(appender.capacity < 100000);
+        assertEquals(2, appender.records.size());
+    }
+
+    private static final class RecordingAppender implements AuditAppender {
+
+        private final List<String> records = new ArrayList<String>();
+        private int capacity;
+
+        @Override
+        public Boolean append(byte[] buffer, int offset, int length) {
+            capacity = buffer.length;
+            records.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+}
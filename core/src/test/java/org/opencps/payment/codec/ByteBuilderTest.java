@@ -0,0 +1,69 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ByteBuilder.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class ByteBuilderTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public ByteBuilderTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(ByteBuilderTest.class);
+    }
+
+    public void testAppendUtf8() {
+        String value = "Lệ phí 😀 €";
+        ByteBuilder builder = new ByteBuilder(4).appendUtf8(value);
+        assertEquals(value, builder.toString());
+        assertEquals(value.getBytes(StandardCharsets.UTF_8).length, builder.length());
+    }
+
+    public void testAppendHtml() {
+        ByteBuilder builder = new ByteBuilder(4).appendHtml("<a href=\"x?a=1&b='2'\">Phí</a>");
+        assertEquals("&lt;a href=&quot;x?a=1&amp;b=&#39;2&#39;&quot;&gt;Phí&lt;/a&gt;", builder.toString());
+    }
+
+    public void testResetKeepsCapacity() throws Exception {
+        ByteBuilder builder = new ByteBuilder(4).appendUtf8("a long enough value");
+        byte[] buffer = builder.getBuffer();
+        builder.reset().append((byte) 'x').append("yz".getBytes(StandardCharsets.US_ASCII));
+        assertSame(buffer, builder.getBuffer());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeTo(out);
+        assertEquals("xyz", out.toString("US-ASCII"));
+    }
+}
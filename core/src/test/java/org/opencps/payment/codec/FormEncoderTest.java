@@ -0,0 +1,125 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for FormEncoder.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class FormEncoderTest extends TestCase {
+
+    private Map<String, String> data;
+
+    /**
+     * Create the test case
+     */
+    public FormEncoderTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        data = new LinkedHashMap<String, String>();
+        data.put("vpc_OrderInfo", "Lệ phí hồ sơ #12");
+        data.put("vpc_Amount", "100000");
+        data.put("vpc_ReturnURL", "https://example.com/return?a=1&b=~x*");
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(FormEncoderTest.class);
+    }
+
+    private static String urlEncode(String value) throws Exception {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    public void testInsertionOrder() throws Exception {
+        String expected = "vpc_OrderInfo=" + urlEncode("Lệ phí hồ sơ #12")
+            + "&vpc_Amount=100000"
+            + "&vpc_ReturnURL=" + urlEncode("https://example.com/return?a=1&b=~x*");
+        assertEquals(expected, FormEncoder.FORM.toString(data));
+    }
+
+    public void testSorted() {
+        assertTrue(FormEncoder.SORTED_FORM.toString(data).startsWith("vpc_Amount=100000&vpc_OrderInfo="));
+    }
+
+    public void testRfc3986() {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("q", "a b~c*");
+        assertEquals("q=a%20b~c%2A", new FormEncoder(true, false).toString(data));
+    }
+
+    public void testSupplementaryCharacters() throws Exception {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("emoji", "😀 \uD83D");
+        assertEquals("emoji=" + urlEncode("😀 \uD83D"), FormEncoder.FORM.toString(data));
+    }
+
+    public void testNullValuesAreSkipped() {
+        Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("a", null);
+        data.put("b", "");
+        data.put("c", null);
+        assertEquals("b=", FormEncoder.FORM.toString(data));
+    }
+
+    public void testEncodeIntoBuffer() {
+        ByteBuffer buffer = FormEncoder.FORM.encode(data);
+        assertEquals(0, buffer.position());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertEquals(FormEncoder.FORM.toString(data), new String(bytes, StandardCharsets.US_ASCII));
+        assertSame(buffer, FormEncoder.FORM.encode(new HashMap<String, String>()));
+        assertEquals(0, buffer.remaining());
+    }
+
+    public void testBufferGrows() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append("ệ ");
+        }
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("long", value.toString());
+        assertEquals("long=" + urlEncode(value.toString()), new String(FormEncoder.FORM.toByteArray(data), StandardCharsets.US_ASCII));
+    }
+
+    public void testAppendQuery() {
+        Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("a", "1 2");
+        data.put("b", "&");
+        assertEquals("https://example.com/pay?a=1+2&b=%26", FormEncoder.FORM.appendQuery("https://example.com/pay", data));
+        assertEquals("https://example.com/pay?x=y&a=1+2&b=%26", FormEncoder.FORM.appendQuery("https://example.com/pay?x=y", data));
+        assertEquals("https://example.com/pay", FormEncoder.FORM.appendQuery("https://example.com/pay", new HashMap<String, String>()));
+    }
+}
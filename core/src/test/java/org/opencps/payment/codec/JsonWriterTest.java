@@ -0,0 +1,97 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for JsonWriter.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class JsonWriterTest extends TestCase {
+
+    private JsonWriter writer;
+
+    /**
+     * Create the test case
+     */
+    public JsonWriterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        writer = new JsonWriter(new ByteBuilder(8));
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(JsonWriterTest.class);
+    }
+
+    public void testObject() {
+        Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("a", "1");
+        data.put("b", null);
+        writer.beginObject()
+            .name("string").value("Lệ phí")
+            .name("number").value(-1234567890123L)
+            .name("zero").value(0)
+            .name("flag").value(true)
+            .name("data").value(data)
+            .name("list").beginArray().value(1).value(false).beginObject().endObject().endArray()
+            .endObject();
+        assertEquals("{\"string\":\"Lệ phí\",\"number\":-1234567890123,\"zero\":0,\"flag\":true,"
+            + "\"data\":{\"a\":\"1\",\"b\":null},\"list\":[1,false,{}]}", writer.getOut().toString());
+    }
+
+    public void testEscaping() {
+        writer.value("\"quote\" \\ \n\t\u0001 </script> & 'x' \u2028");
+        assertEquals("\"\\\"quote\\\" \\\\ \\n\\t\\u0001 \\u003c/script\\u003e \\u0026 \\u0027x\\u0027 \\u2028\"",
+                writer.getOut().toString());
+    }
+
+    public void testLongBounds() {
+        writer.beginArray().value(Long.MIN_VALUE).value(Long.MAX_VALUE).endArray();
+        assertEquals("[-9223372036854775808,9223372036854775807]", writer.getOut().toString());
+    }
+
+    public void testMaskedValue() {
+        writer.beginArray().maskedValue("4111111111111111", 6, 4).maskedValue("123", 0, 0)
+            .maskedValue("\"1\"", 3, 3).maskedValue(null, 6, 4).endArray();
+        assertEquals("[\"411111******1111\",\"***\",\"*1*\",null]", writer.getOut().toString());
+    }
+
+    public void testUnbalancedClose() {
+        try {
+            writer.endObject();
+            fail("Missing exception");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Nothing to close.", e.getMessage());
+        }
+    }
+}
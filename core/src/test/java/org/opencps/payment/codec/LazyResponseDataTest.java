@@ -0,0 +1,150 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.codec;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LazyResponseData.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LazyResponseDataTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public LazyResponseDataTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(LazyResponseDataTest.class);
+    }
+
+    private static LazyResponseData parse(String body, ResponseFormat format) {
+        return new LazyResponseData(body.getBytes(StandardCharsets.UTF_8), format);
+    }
+
+    public void testKeyValue() {
+        LazyResponseData data = parse("response_code=00\r\ntrans_ref=KP-123\n\ndesc=Lệ phí = 10\nflag", ResponseFormat.KEY_VALUE);
+        assertEquals("00", data.get("response_code"));
+        assertEquals("KP-123", data.get("trans_ref"));
+        assertEquals("Lệ phí = 10", data.get("desc"));
+        assertEquals("", data.get("flag"));
+        assertNull(data.get("missing"));
+        assertEquals(4, data.size());
+    }
+
+    public void testForm() {
+        LazyResponseData data = parse("vpc_TxnResponseCode=0&vpc_Message=Approved+by+bank&vpc_OrderInfo=L%E1%BB%87%20ph%C3%AD&a%5B0%5D=x&bad=%zz%4",
+                ResponseFormat.FORM);
+        assertEquals("0", data.get("vpc_TxnResponseCode"));
+        assertEquals("Approved by bank", data.get("vpc_Message"));
+        assertEquals("Lệ phí", data.get("vpc_OrderInfo"));
+        assertEquals("x", data.get("a[0]"));
+        assertEquals("%zz%4", data.get("bad"));
+        assertTrue(data.containsKey("vpc_Message"));
+        assertFalse(data.containsKey("vpc_message"));
+    }
+
+    public void testJson() {
+        LazyResponseData data = parse("{ \"code\" : \"00\", \"amount\": 100000, \"paid\":true, \"note\":null,"
+                + "\"message\":\"Th\\u00e0nh c\\u00f4ng \\\"OK\\\"\\n\", \"nested\": {\"a\": [1, \"}\"]}, \"list\":[1,2],"
+                + "\"tên\": \"Lệ phí\", \"esc\\u0061ped\": \"\\ud83d\\ude00\"}", ResponseFormat.JSON);
+        assertEquals("00", data.get("code"));
+        assertEquals("100000", data.get("amount"));
+        assertEquals("true", data.get("paid"));
+        assertNull(data.get("note"));
+        assertTrue(data.containsKey("note"));
+        assertEquals("Thành công \"OK\"\n", data.get("message"));
+        assertEquals("{\"a\": [1, \"}\"]}", data.get("nested"));
+        assertEquals("[1,2]", data.get("list"));
+        assertEquals("Lệ phí", data.get("tên"));
+        assertEquals("😀", data.get("escaped"));
+        assertEquals(9, data.size());
+    }
+
+    public void testMalformedJson() {
+        try {
+            parse("{\"code\": \"00\" \"amount\": 1}", ResponseFormat.JSON);
+            fail("Missing exception");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("Malformed JSON response at offset 15.", e.getMessage());
+        }
+        try {
+            parse("{\"code\": \"00", ResponseFormat.JSON);
+            fail("Missing exception");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Malformed JSON response"));
+        }
+        assertTrue(parse(" ", ResponseFormat.JSON).isEmpty());
+        assertTrue(parse("{ }", ResponseFormat.JSON).isEmpty());
+    }
+
+    public void testDuplicateKeysKeepLastValue() {
+        LazyResponseData data = parse("a=1&b=2&a=3", ResponseFormat.FORM);
+        assertEquals("3", data.get("a"));
+        assertEquals(2, data.size());
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "3");
+        expected.put("b", "2");
+        assertEquals(expected, data);
+    }
+
+    public void testEntriesInBodyOrder() {
+        LazyResponseData data = parse("{\"z\":\"1\",\"y\":\"2\",\"x\":\"3\"}", ResponseFormat.JSON);
+        Map<String, String> copy = new LinkedHashMap<String, String>(data);
+        assertEquals("[z, y, x]", copy.keySet().toString());
+    }
+
+    public void testReadOnly() {
+        try {
+            parse("a=1", ResponseFormat.FORM).put("b", "2");
+            fail("Missing exception");
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testParseStream() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("field").append(i).append('=').append(i).append('&');
+        }
+        LazyResponseData data = LazyResponseData.parse(
+                new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)), ResponseFormat.FORM);
+        assertEquals(1000, data.size());
+        assertEquals("999", data.get("field999"));
+        assertEquals(ResponseFormat.FORM, data.getFormat());
+    }
+}
@@ -0,0 +1,192 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.ConcurrencyLimitExceededException;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for AdaptiveConcurrencyInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AdaptiveConcurrencyInterceptorTest extends TestCase {
+
+    private ExecutorService executor;
+
+    /**
+     * Create the test case
+     */
+    public AdaptiveConcurrencyInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(AdaptiveConcurrencyInterceptorTest.class);
+    }
+
+    private void load(final MockGatewayConnector connector, int threads, final int calls) throws Exception {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int shed = 0;
+                    for (int j = 0; j < calls; j++) {
+                        try {
+                            connector.purchase(new HashMap<String, String>()).execute();
+                        }
+                        catch (ConcurrencyLimitExceededException e) {
+                            shed++;
+                        }
+                    }
+                    return shed;
+                }
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            future.get();
+        }
+    }
+
+    public void testShedsOverLimit() throws Exception {
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor(1, 1, 1, 1000);
+        final MockGatewayConnector connector = new MockGatewayConnector();
+        connector.setLatency(300).addInterceptor(interceptor);
+        Future<PaymentResponse> future = executor.submit(new Callable<PaymentResponse>() {
+            @Override
+            public PaymentResponse call() throws Exception {
+                return connector.purchase(new HashMap<String, String>()).execute();
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connector.getInFlight() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        long start = System.nanoTime();
+        try {
+            connector.purchase(new HashMap<String, String>()).execute();
+            fail("Missing exception");
+        }
+        catch (ConcurrencyLimitExceededException e) {
+            assertEquals("Concurrency limit of MockConnector reached.", e.getMessage());
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        assertNotNull(future.get());
+        AdaptiveLimit limit = interceptor.getLimit(connector.getShortName());
+        assertEquals(1, limit.getRejected());
+        assertEquals(0, limit.getInFlight());
+        assertEquals(1, connector.getCalls());
+    }
+
+    public void testLimitGrowsWhileLatencyIsSteady() throws Exception {
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor(4, 1, 100, 100000);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.setLatency(10).addInterceptor(interceptor);
+        load(connector, 16, 20);
+
+        AdaptiveLimit limit = interceptor.getLimit(connector.getShortName());
+        assertTrue(limit.getLimit() > 4);
+        assertTrue(limit.getNoLoadRtt() >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(0, limit.getInFlight());
+    }
+
+    public void testLimitShrinksWhenGatewaySlowsDown() throws Exception {
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor(20, 1, 200, 100000);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.setLatency(5).addInterceptor(interceptor);
+        load(connector, 20, 10);
+        AdaptiveLimit limit = interceptor.getLimit(connector.getShortName());
+        int fast = limit.getLimit();
+
+        connector.setLatency(60);
+        load(connector, 20, 10);
+        int slow = limit.getLimit();
+        assertTrue("Limit " + slow + " should be below " + fast, slow < fast);
+        assertTrue(slow < 20);
+        assertTrue(limit.getRejected() > 0);
+    }
+
+    public void testLimitsArePerConnector() throws Exception {
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor();
+        MockGatewayConnector connector = new MockGatewayConnector();
+        MockGatewayConnector other = new MockGatewayConnector() {
+            @Override
+            public String getShortName() {
+                return "OtherConnector";
+            }
+        };
+        connector.addInterceptor(interceptor);
+        other.addInterceptor(interceptor);
+        assertNotNull(connector.purchase(new HashMap<String, String>()).execute());
+        assertNotNull(other.purchase(new HashMap<String, String>()).execute());
+        assertEquals(2, interceptor.getLimits().size());
+        assertNotSame(interceptor.getLimit("MockConnector"), interceptor.getLimit("OtherConnector"));
+    }
+
+    public void testErrorReleasesSlot() throws Exception {
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor(1, 1, 1, 1000);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.addInterceptor(interceptor);
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                throw new StackOverflowError();
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                connector.purchase(new HashMap<String, String>()).execute();
+                fail("Missing error");
+            }
+            catch (StackOverflowError e) {
+            }
+        }
+        assertEquals(0, interceptor.getLimit(connector.getShortName()).getInFlight());
+    }
+}
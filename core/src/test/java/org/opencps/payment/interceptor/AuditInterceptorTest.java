@@ -0,0 +1,108 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencps.payment.audit.AuditAppender;
+import org.opencps.payment.audit.AuditLog;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for AuditInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class AuditInterceptorTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public AuditInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(AuditInterceptorTest.class);
+    }
+
+    public void testLogsOutcomes() {
+        final List<String> records = new ArrayList<String>();
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.addInterceptor(new AuditInterceptor(new AuditLog(new AuditAppender() {
+            @Override
+            public Boolean append(byte[] buffer, int offset, int length) {
+                records.add(new String(buffer, offset, length));
+                return true;
+            }
+        })));
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", "T1");
+        connector.purchase(params).send();
+        connector.setFailures(1);
+        try {
+            connector.purchase(params).send();
+            fail("The gateway call must fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(2, records.size());
+        assertTrue(records.get(0), records.get(0).contains("\"status\":\"SUCCESSFUL\",\"gatewayReference\":\"REF-T1\""));
+        assertTrue(records.get(1), records.get(1).contains("\"status\":\"ERROR\",\"transactionId\":\"T1\""));
+    }
+
+    public void testLogErrorsAreCounted() {
+        MockGatewayConnector connector = new MockGatewayConnector();
+        AuditInterceptor interceptor = new AuditInterceptor(new AuditLog(new AuditAppender() {
+            @Override
+            public Boolean append(byte[] buffer, int offset, int length) {
+                throw new IllegalStateException("closed");
+            }
+        }));
+        connector.addInterceptor(interceptor);
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", "T1");
+        assertNotNull(connector.purchase(params).send());
+        connector.setFailures(1);
+        try {
+            connector.purchase(params).send();
+            fail("The gateway call must fail");
+        }
+        catch (IllegalStateException e) {
+            fail("The audit log error must not replace the gateway failure");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(2, interceptor.getErrors());
+    }
+}
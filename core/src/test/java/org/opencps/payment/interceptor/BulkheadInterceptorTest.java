@@ -0,0 +1,161 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.exception.BulkheadFullException;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for BulkheadInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class BulkheadInterceptorTest extends TestCase {
+
+    private ExecutorService executor;
+
+    /**
+     * Create the test case
+     */
+    public BulkheadInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(BulkheadInterceptorTest.class);
+    }
+
+    private List<Future<PaymentResponse>> sendInBackground(final MockGatewayConnector connector, int count) {
+        List<Future<PaymentResponse>> futures = new ArrayList<Future<PaymentResponse>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<PaymentResponse>() {
+                @Override
+                public PaymentResponse call() throws Exception {
+                    return connector.purchase(new HashMap<String, String>()).execute();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private void awaitInFlight(MockGatewayConnector connector, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connector.getInFlight() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    public void testFailsFastWhenFull() throws Exception {
+        BulkheadInterceptor interceptor = new BulkheadInterceptor(2, 0, 1, TimeUnit.SECONDS);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.setLatency(300).addInterceptor(interceptor);
+        List<Future<PaymentResponse>> futures = sendInBackground(connector, 2);
+        awaitInFlight(connector, 2);
+
+        Bulkhead bulkhead = interceptor.getBulkhead(connector.getShortName());
+        assertEquals(2, bulkhead.getInFlight());
+        long start = System.nanoTime();
+        try {
+            connector.purchase(new HashMap<String, String>()).execute();
+            fail("Missing exception");
+        }
+        catch (BulkheadFullException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        for (Future<PaymentResponse> future : futures) {
+            assertNotNull(future.get());
+        }
+        assertEquals(1, bulkhead.getRejected());
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    public void testWaitsInQueue() throws Exception {
+        BulkheadInterceptor interceptor = new BulkheadInterceptor(1, 1, 2, TimeUnit.SECONDS);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.setLatency(100).addInterceptor(interceptor);
+        List<Future<PaymentResponse>> futures = sendInBackground(connector, 1);
+        awaitInFlight(connector, 1);
+        assertNotNull(connector.purchase(new HashMap<String, String>()).execute());
+        assertNotNull(futures.get(0).get());
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testWaitTimesOut() throws Exception {
+        BulkheadInterceptor interceptor = new BulkheadInterceptor(1, 1, 20, TimeUnit.MILLISECONDS);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.setLatency(300).addInterceptor(interceptor);
+        sendInBackground(connector, 1);
+        awaitInFlight(connector, 1);
+        try {
+            connector.purchase(new HashMap<String, String>()).execute();
+            fail("Missing exception");
+        }
+        catch (BulkheadFullException e) {
+            assertEquals("Too many requests in flight to MockConnector.", e.getMessage());
+        }
+    }
+
+    public void testConnectorsAreIsolated() throws Exception {
+        BulkheadInterceptor interceptor = new BulkheadInterceptor(1, 0, 1, TimeUnit.SECONDS);
+        MockGatewayConnector slow = new MockGatewayConnector();
+        slow.setLatency(300).addInterceptor(interceptor);
+        MockGatewayConnector other = new MockGatewayConnector() {
+            @Override
+            public String getShortName() {
+                return "OtherConnector";
+            }
+        };
+        other.addInterceptor(interceptor);
+        sendInBackground(slow, 1);
+        awaitInFlight(slow, 1);
+        try {
+            assertNotNull(other.purchase(new HashMap<String, String>()).execute());
+        }
+        catch (PaymentException e) {
+            fail(e.getMessage());
+        }
+    }
+}
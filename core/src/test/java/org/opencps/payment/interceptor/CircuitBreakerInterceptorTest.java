@@ -0,0 +1,205 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.CircuitBreakerOpenException;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for CircuitBreakerInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CircuitBreakerInterceptorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+    private CircuitBreakerPolicy policy;
+    private CircuitBreakerInterceptor interceptor;
+
+    /**
+     * Create the test case
+     */
+    public CircuitBreakerInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        policy = new CircuitBreakerPolicy()
+            .setMinimumCalls(4)
+            .setFailureRateThreshold(0.5)
+            .setOpenDuration(50, TimeUnit.MILLISECONDS)
+            .setHalfOpenCalls(2);
+        interceptor = new CircuitBreakerInterceptor(policy);
+        connector = new MockGatewayConnector();
+        connector.addInterceptor(interceptor);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(CircuitBreakerInterceptorTest.class);
+    }
+
+    private void sendFailing(int count) {
+        connector.setFailures(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                connector.purchase(new HashMap<String, String>()).execute();
+                fail("Missing exception");
+            }
+            catch (PaymentException e) {
+                fail(e.getMessage());
+            }
+            catch (RuntimeException e) {
+            }
+        }
+    }
+
+    public void testOpensOnFailureRate() {
+        sendFailing(4);
+        CircuitBreaker breaker = interceptor.getBreaker(connector.getShortName());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(4, breaker.getCalls());
+        assertEquals(4, breaker.getFailures());
+        try {
+            connector.purchase(new HashMap<String, String>()).execute();
+            fail("Missing exception");
+        }
+        catch (CircuitBreakerOpenException e) {
+            assertEquals("Circuit breaker of MockConnector is open.", e.getMessage());
+        }
+        catch (PaymentException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(4, connector.getCalls());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    public void testStaysClosedBelowMinimumCalls() {
+        sendFailing(3);
+        assertEquals(CircuitBreaker.State.CLOSED, interceptor.getBreaker(connector.getShortName()).getState());
+    }
+
+    public void testClosesAfterSuccessfulTrialCalls() throws Exception {
+        sendFailing(4);
+        Thread.sleep(60);
+        CircuitBreaker breaker = interceptor.getBreaker(connector.getShortName());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        connector.purchase(new HashMap<String, String>()).execute();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        connector.purchase(new HashMap<String, String>()).execute();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getCalls());
+    }
+
+    public void testReopensOnFailedTrialCall() throws Exception {
+        sendFailing(4);
+        Thread.sleep(60);
+        sendFailing(1);
+        assertEquals(CircuitBreaker.State.OPEN, interceptor.getBreaker(connector.getShortName()).getState());
+    }
+
+    public void testOpensOnSlowCalls() throws Exception {
+        policy.setSlowCalls(20, TimeUnit.MILLISECONDS, 0.5);
+        connector.setLatency(30);
+        for (int i = 0; i < 4; i++) {
+            connector.completePurchase(new HashMap<String, String>()).execute();
+        }
+        CircuitBreaker breaker = interceptor.getBreaker(connector.getShortName());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(4, breaker.getSlowCalls());
+        assertEquals(0, breaker.getFailures());
+    }
+
+    public void testErrorReturnsTrialPermit() throws Exception {
+        final AtomicBoolean broken = new AtomicBoolean();
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                if (broken.get()) {
+                    throw new StackOverflowError();
+                }
+                return chain.proceed();
+            }
+        });
+        sendFailing(4);
+        Thread.sleep(60);
+        broken.set(true);
+        for (int i = 0; i < 3; i++) {
+            try {
+                connector.purchase(new HashMap<String, String>()).execute();
+                fail("Missing error");
+            }
+            catch (StackOverflowError e) {
+            }
+        }
+        broken.set(false);
+        CircuitBreaker breaker = interceptor.getBreaker(connector.getShortName());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        connector.purchase(new HashMap<String, String>()).execute();
+        connector.purchase(new HashMap<String, String>()).execute();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testRejectionsAreNotFailures() {
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                throw new PaymentException("Rejected");
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            try {
+                connector.purchase(new HashMap<String, String>()).execute();
+            }
+            catch (PaymentException e) {
+                assertEquals("Rejected", e.getMessage());
+            }
+        }
+        CircuitBreaker breaker = interceptor.getBreaker(connector.getShortName());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getCalls());
+    }
+
+    public void testBreakersArePerConnector() {
+        sendFailing(4);
+        MockGatewayConnector other = new MockGatewayConnector() {
+            @Override
+            public String getShortName() {
+                return "OtherConnector";
+            }
+        };
+        other.addInterceptor(interceptor);
+        assertNotNull(other.purchase(new HashMap<String, String>()).send());
+        assertEquals(2, interceptor.getBreakers().size());
+        assertEquals(CircuitBreaker.State.CLOSED, interceptor.getBreaker("OtherConnector").getState());
+    }
+}
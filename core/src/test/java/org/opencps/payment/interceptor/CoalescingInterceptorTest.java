@@ -0,0 +1,146 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for CoalescingInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class CoalescingInterceptorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+
+    /**
+     * Create the test case
+     */
+    public CoalescingInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        connector = new MockGatewayConnector();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(CoalescingInterceptorTest.class);
+    }
+
+    private Map<String, String> params(String transactionReference) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionReference", transactionReference);
+        return params;
+    }
+
+    private List<PaymentResponse> poll(final String transactionReference, int count) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        List<Future<PaymentResponse>> futures = new ArrayList<Future<PaymentResponse>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<PaymentResponse>() {
+                @Override
+                public PaymentResponse call() {
+                    return connector.completePurchase(params(transactionReference)).send();
+                }
+            }));
+        }
+        List<PaymentResponse> responses = new ArrayList<PaymentResponse>();
+        for (Future<PaymentResponse> future : futures) {
+            responses.add(future.get());
+        }
+        executor.shutdown();
+        return responses;
+    }
+
+    public void testConcurrentPollsShareOneCall() throws Exception {
+        CoalescingInterceptor interceptor = new CoalescingInterceptor();
+        connector.setLatency(100).addInterceptor(interceptor);
+        List<PaymentResponse> responses = poll("REF-1", 8);
+        for (PaymentResponse response : responses) {
+            assertSame(responses.get(0), response);
+        }
+        assertEquals(1, connector.getCalls());
+        assertEquals(Integer.valueOf(0), interceptor.getInFlight());
+    }
+
+    public void testDifferentReferencesAreNotCoalesced() throws Exception {
+        connector.setLatency(50).addInterceptor(new CoalescingInterceptor());
+        poll("REF-1", 4);
+        poll("REF-2", 4);
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testWithoutCacheLaterPollsCallAgain() {
+        connector.addInterceptor(new CoalescingInterceptor());
+        connector.completePurchase(params("REF-1")).send();
+        connector.completePurchase(params("REF-1")).send();
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testCachedResponseIsServedWithinTtl() throws Exception {
+        CoalescingInterceptor interceptor = new CoalescingInterceptor(100, TimeUnit.MILLISECONDS);
+        connector.addInterceptor(interceptor);
+        PaymentResponse first = connector.completePurchase(params("REF-1")).send();
+        assertSame(first, connector.completePurchase(params("REF-1")).send());
+        assertEquals(1, connector.getCalls());
+
+        Thread.sleep(150);
+        assertNotSame(first, connector.completePurchase(params("REF-1")).send());
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testWriteOperationsAreNotCoalesced() throws Exception {
+        connector.setLatency(50).addInterceptor(new CoalescingInterceptor(1, TimeUnit.SECONDS));
+        final Map<String, String> params = params("REF-1");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<PaymentResponse>> futures = new ArrayList<Future<PaymentResponse>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<PaymentResponse>() {
+                @Override
+                public PaymentResponse call() {
+                    return connector.refund(params).send();
+                }
+            }));
+        }
+        for (Future<PaymentResponse> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(4, connector.getCalls());
+    }
+}
@@ -0,0 +1,234 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentRedirectResponse;
+import org.opencps.payment.api.PaymentResponse;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for FileIdempotencyStore.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class FileIdempotencyStoreTest extends TestCase {
+
+    private File file;
+    private FileIdempotencyStore store;
+
+    /**
+     * Create the test case
+     */
+    public FileIdempotencyStoreTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(FileIdempotencyStoreTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("idempotency", ".log");
+        file.delete();
+        store = new FileIdempotencyStore(file, 100, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        file.delete();
+    }
+
+    private FileIdempotencyStore reopen(int capacity, long ttl) throws IOException {
+        store.close();
+        store = new FileIdempotencyStore(file, capacity, ttl, TimeUnit.MILLISECONDS);
+        return store;
+    }
+
+    private PaymentResponse response(String reference) {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("reference", reference);
+        data.put("note", "Lệ phí");
+        PaymentResponse response = mock(PaymentResponse.class);
+        when(response.getCode()).thenReturn("00");
+        when(response.getMessage()).thenReturn("Approved");
+        when(response.getTransactionReference()).thenReturn(reference);
+        when(response.isSuccessful()).thenReturn(true);
+        when(response.isRedirect()).thenReturn(false);
+        when(response.getData()).thenReturn(data);
+        return response;
+    }
+
+    public void testServesTheSameResponse() {
+        PaymentResponse response = response("R1");
+        store.put("a", response);
+        assertSame(response, store.get("a"));
+        assertNull(store.get("b"));
+    }
+
+    public void testRestoresResponses() throws IOException {
+        store.put("a", response("R1"));
+        PaymentResponse restored = reopen(100, 60000).get("a");
+
+        assertNotNull(restored);
+        assertEquals("00", restored.getCode());
+        assertEquals("Approved", restored.getMessage());
+        assertEquals("R1", restored.getTransactionReference());
+        assertEquals(Boolean.TRUE, restored.isSuccessful());
+        assertEquals(Boolean.FALSE, restored.isRedirect());
+        assertEquals(Boolean.FALSE, restored.isCancelled());
+        // The gateway data is not written to disk
+        assertTrue(restored.getData().isEmpty());
+        assertNull(restored.getRequest());
+    }
+
+    public void testRestoresRedirects() throws IOException {
+        Map<String, String> redirectData = new HashMap<String, String>();
+        redirectData.put("token", "t1");
+        PaymentRedirectResponse response = mock(PaymentRedirectResponse.class);
+        when(response.isRedirect()).thenReturn(true);
+        when(response.getRedirectUrl()).thenReturn("https://gateway.example.com/pay");
+        when(response.getRedirectMethod()).thenReturn("POST");
+        when(response.getRedirectData()).thenReturn(redirectData);
+        store.put("a", response);
+
+        PaymentRedirectResponse restored = (PaymentRedirectResponse) reopen(100, 60000).get("a");
+        assertEquals(Boolean.TRUE, restored.isRedirect());
+        assertEquals("https://gateway.example.com/pay", restored.getRedirectUrl());
+        assertEquals("POST", restored.getRedirectMethod());
+        assertEquals(redirectData, restored.getRedirectData());
+        try {
+            restored.redirect();
+            fail("A restored response cannot redirect");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testRemoveIsDurable() throws IOException {
+        store.put("a", response("R1"));
+        store.put("b", response("R2"));
+        store.remove("a");
+        reopen(100, 60000);
+        assertNull(store.get("a"));
+        assertEquals("R2", store.get("b").getTransactionReference());
+    }
+
+    public void testExpiredResponsesAreNotRestored() throws Exception {
+        reopen(100, 50);
+        store.put("a", response("R1"));
+        Thread.sleep(100);
+        assertEquals(Integer.valueOf(0), reopen(100, 50).size());
+    }
+
+    public void testTornRecordIsDiscarded() throws IOException {
+        store.put("a", response("R1"));
+        store.close();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[] {0, 0, 1, 0, 7});
+        }
+        finally {
+            out.close();
+        }
+        store = new FileIdempotencyStore(file, 100, 1, TimeUnit.MINUTES);
+        assertEquals("R1", store.get("a").getTransactionReference());
+        store.put("b", response("R2"));
+        reopen(100, 60000);
+        assertEquals(Integer.valueOf(2), store.size());
+        assertEquals(0, store.getErrors());
+    }
+
+    public void testCapacity() throws IOException {
+        reopen(2, 60000);
+        for (int i = 0; i < 10; i++) {
+            store.put("k" + i, response("R" + i));
+        }
+        assertEquals(Integer.valueOf(2), store.size());
+        long length = file.length();
+        reopen(2, 60000);
+        assertEquals(Integer.valueOf(2), store.size());
+        assertNull(store.get("k7"));
+        assertEquals("R9", store.get("k9").getTransactionReference());
+        assertTrue(file.length() < length);
+    }
+
+    public void testFailedCompactionKeepsTheLog() throws IOException {
+        reopen(1, 60000);
+        File temp = new File(file.getPath() + ".tmp");
+        assertTrue(temp.mkdir());
+        try {
+            store.put("a", response("R1"));
+            store.put("b", response("R2"));
+            store.put("c", response("R3"));
+            assertTrue(store.getErrors() > 0);
+            assertEquals("R3", store.get("c").getTransactionReference());
+        }
+        finally {
+            temp.delete();
+        }
+        reopen(1, 60000);
+        assertEquals("R3", store.get("c").getTransactionReference());
+    }
+
+    public void testConcurrentPuts() throws Exception {
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        store.put(thread + ":" + j, response("R" + j));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, store.getErrors());
+        assertEquals(Integer.valueOf(100), reopen(100, 60000).size());
+    }
+
+    public void testClosedStoreCountsErrors() throws IOException {
+        store.close();
+        store.put("a", response("R1"));
+        assertEquals(1, store.getErrors());
+        assertNotNull(store.get("a"));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for IdempotencyInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class IdempotencyInterceptorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+    private MemoryIdempotencyStore store;
+
+    /**
+     * Create the test case
+     */
+    public IdempotencyInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        store = new MemoryIdempotencyStore(100, 1, TimeUnit.MINUTES);
+        connector = new MockGatewayConnector();
+        connector.addInterceptor(new IdempotencyInterceptor(store));
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(IdempotencyInterceptorTest.class);
+    }
+
+    private Map<String, String> params(String transactionId) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", transactionId);
+        params.put("amount", "10.00");
+        return params;
+    }
+
+    public void testCompletedResponseIsServedFromStore() {
+        PaymentResponse first = connector.purchase(params("1")).send();
+        PaymentResponse second = connector.purchase(params("1")).send();
+        assertSame(first, second);
+        assertEquals(1, connector.getCalls());
+        assertEquals(Integer.valueOf(1), store.size());
+    }
+
+    public void testKeyIncludesOperationAndTransactionId() {
+        connector.purchase(params("1")).send();
+        connector.purchase(params("2")).send();
+        connector.refund(params("1")).send();
+        assertEquals(3, connector.getCalls());
+    }
+
+    public void testOtherOperationsAreNotDeduplicated() {
+        connector.completePurchase(params("1")).send();
+        connector.completePurchase(params("1")).send();
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testRequestWithoutTransactionIdIsNotDeduplicated() {
+        connector.purchase(new HashMap<String, String>()).send();
+        connector.purchase(new HashMap<String, String>()).send();
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testConcurrentCallsShareOneCall() throws Exception {
+        connector.setLatency(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<PaymentResponse>> futures = new ArrayList<Future<PaymentResponse>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<PaymentResponse>() {
+                @Override
+                public PaymentResponse call() {
+                    return connector.capture(params("42")).send();
+                }
+            }));
+        }
+        PaymentResponse response = futures.get(0).get();
+        for (Future<PaymentResponse> future : futures) {
+            assertSame(response, future.get());
+        }
+        executor.shutdown();
+        assertEquals(1, connector.getCalls());
+    }
+
+    public void testFailedCallIsNotStored() {
+        connector.setFailures(1);
+        try {
+            connector.purchase(params("1")).send();
+            fail("Missing exception");
+        }
+        catch (RuntimeException e) {
+            assertEquals(Integer.valueOf(0), store.size());
+        }
+        assertNotNull(connector.purchase(params("1")).send());
+        assertEquals(2, connector.getCalls());
+    }
+
+    public void testStoreExpiresResponses() throws InterruptedException {
+        MemoryIdempotencyStore store = new MemoryIdempotencyStore(10, 20, TimeUnit.MILLISECONDS);
+        PaymentResponse response = connector.purchase(params("1")).send();
+        store.put("key", response);
+        assertSame(response, store.get("key"));
+        Thread.sleep(40);
+        assertNull(store.get("key"));
+    }
+
+    public void testStoreEvictsEldestResponses() {
+        MemoryIdempotencyStore store = new MemoryIdempotencyStore(2, 1, TimeUnit.MINUTES);
+        PaymentResponse response = connector.purchase(params("1")).send();
+        store.put("a", response);
+        store.put("b", response);
+        store.put("c", response);
+        assertNull(store.get("a"));
+        assertSame(response, store.get("c"));
+        assertEquals(Integer.valueOf(2), store.size());
+    }
+}
@@ -0,0 +1,136 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.Journal;
+import org.opencps.payment.journal.JournalListener;
+import org.opencps.payment.journal.JournalRecord;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for JournalInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class JournalInterceptorTest extends TestCase {
+
+    private File directory;
+    private Journal journal;
+    private MockGatewayConnector connector;
+
+    /**
+     * Create the test case
+     */
+    public JournalInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal").toFile();
+        journal = new Journal(directory);
+        connector = new MockGatewayConnector();
+        connector.addInterceptor(new JournalInterceptor(journal));
+    }
+
+    @Override
+    protected void tearDown() {
+        journal.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(JournalInterceptorTest.class);
+    }
+
+    private List<String> replay() throws Exception {
+        final List<String> records = new ArrayList<String>();
+        journal.replay(new JournalListener() {
+            @Override
+            public void onRecord(JournalRecord record) {
+                records.add(record.getOperation() + " " + record.getStatus() + " " + record.getConnector()
+                    + " " + record.getTransactionId() + " " + record.getTransactionReference()
+                    + " " + record.getAmount() + " " + record.getCurrency() + " " + record.getCardNumber()
+                    + " " + (record.getCompletedAt() >= record.getRequestedAt()));
+            }
+        });
+        return records;
+    }
+
+    public void testSentAndOutcome() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", "1");
+        params.put("amount", "10.50");
+        params.put("currency", "USD");
+        RequestBase request = connector.purchase(params);
+        Map<String, String> card = new HashMap<String, String>();
+        card.put("number", "4111111111111111");
+        request.setCard(card);
+        request.send();
+
+        List<String> records = replay();
+        assertEquals(2, records.size());
+        assertEquals("PURCHASE SENT MockConnector 1 null 1050 USD 411111******1111 false", records.get(0));
+        assertEquals("PURCHASE SUCCESSFUL MockConnector 1 REF-1 1050 USD 411111******1111 true", records.get(1));
+    }
+
+    public void testError() throws Exception {
+        connector.setFailures(1);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", "2");
+        try {
+            connector.refund(params).send();
+            fail("The gateway call must fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        List<String> records = replay();
+        assertEquals(2, records.size());
+        assertTrue(records.get(1).startsWith("REFUND ERROR MockConnector 2 null " + JournalRecord.NO_AMOUNT));
+    }
+
+    public void testStatus() {
+        assertEquals(JournalRecord.Status.ERROR, JournalInterceptor.getStatus(null));
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("status", "cancelled");
+        assertEquals(JournalRecord.Status.CANCELLED, JournalInterceptor.getStatus(connector.purchase(params).send()));
+        params.put("status", "failed");
+        assertEquals(JournalRecord.Status.FAILED, JournalInterceptor.getStatus(connector.purchase(params).send()));
+        assertEquals(PaymentOperation.PURCHASE, connector.purchase(params).getOperation());
+    }
+}
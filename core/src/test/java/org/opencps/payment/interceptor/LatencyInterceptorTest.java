@@ -0,0 +1,123 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.LatencyExporter;
+import org.opencps.payment.metrics.LatencyHistogram;
+import org.opencps.payment.metrics.LatencyRecorder;
+import org.opencps.payment.metrics.Phase;
+import org.opencps.payment.metrics.PhaseTimer;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LatencyInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LatencyInterceptorTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public LatencyInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(LatencyInterceptorTest.class);
+    }
+
+    public void testRecordsPhases() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        MockGatewayConnector connector = new MockGatewayConnector().setLatency(20);
+        connector.addInterceptor(new LatencyInterceptor(recorder));
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                try {
+                    Thread.sleep(10);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return chain.proceed();
+            }
+        });
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("amount", "10.00");
+        connector.purchase(params).send();
+        connector.purchase(params).send();
+
+        LatencyHistogram total = recorder.getHistogram("MockConnector", PaymentOperation.PURCHASE, Phase.TOTAL);
+        LatencyHistogram queue = recorder.getHistogram("MockConnector", PaymentOperation.PURCHASE, Phase.QUEUE);
+        assertEquals(2, total.getCount());
+        assertEquals(2, queue.getCount());
+        assertTrue(total.getMax() >= 30000000L);
+        assertTrue(queue.getMax() >= 10000000L);
+        assertTrue(total.getPercentile(50) > queue.getPercentile(50));
+        assertNull(recorder.getHistogram("MockConnector", PaymentOperation.REFUND, Phase.TOTAL));
+        assertNull(recorder.getHistogram("MockConnector", PaymentOperation.PURCHASE, Phase.PARSE));
+        assertFalse(PhaseTimer.current().isActive());
+    }
+
+    public void testRecordsFailures() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        MockGatewayConnector connector = new MockGatewayConnector().setFailures(1);
+        connector.addInterceptor(new LatencyInterceptor(recorder));
+        try {
+            connector.purchase(new HashMap<String, String>()).send();
+            fail("The gateway call must fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(1, recorder.getHistogram("MockConnector", PaymentOperation.PURCHASE, Phase.TOTAL).getCount());
+        assertFalse(PhaseTimer.current().isActive());
+    }
+
+    public void testExport() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record("A", PaymentOperation.PURCHASE, Phase.TOTAL, 1000);
+        recorder.record("B", PaymentOperation.REFUND, Phase.NETWORK, 2000);
+        final Map<String, Long> exported = new HashMap<String, Long>();
+        recorder.export(new LatencyExporter() {
+            @Override
+            public void export(String connector, PaymentOperation operation, Phase phase, LatencyHistogram histogram) {
+                exported.put(connector + " " + operation + " " + phase, histogram.getMax());
+            }
+        });
+        assertEquals(2, exported.size());
+        assertEquals(Long.valueOf(1000), exported.get("A PURCHASE TOTAL"));
+        assertEquals(Long.valueOf(2000), exported.get("B REFUND NETWORK"));
+    }
+}
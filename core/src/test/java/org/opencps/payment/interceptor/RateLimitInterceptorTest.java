@@ -0,0 +1,203 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.exception.RateLimitExceededException;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RateLimitInterceptor and TokenBucket.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RateLimitInterceptorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+
+    /**
+     * Create the test case
+     */
+    public RateLimitInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        connector = new MockGatewayConnector();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RateLimitInterceptorTest.class);
+    }
+
+    private Map<String, String> params(String token) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("token", token);
+        return params;
+    }
+
+    public void testTryModeRejectsOverBurst() throws PaymentException {
+        connector.addInterceptor(new RateLimitInterceptor(1, 3, 0, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 3; i++) {
+            connector.purchase(params("merchant")).execute();
+        }
+        try {
+            connector.purchase(params("merchant")).execute();
+            fail("Missing exception");
+        }
+        catch (RateLimitExceededException e) {
+            assertEquals("Rate limit of MockConnector exceeded.", e.getMessage());
+        }
+        assertEquals(3, connector.getCalls());
+    }
+
+    public void testBucketsArePerToken() throws PaymentException {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(1, 1, 0, TimeUnit.MILLISECONDS);
+        connector.addInterceptor(interceptor);
+        connector.purchase(params("first")).execute();
+        connector.purchase(params("second")).execute();
+        assertEquals(2, interceptor.getBuckets().size());
+        assertTrue(interceptor.getBuckets().containsKey("MockConnector:" + RateLimitInterceptor.fingerprint("first")));
+        assertFalse(interceptor.getBuckets().containsKey("MockConnector:first"));
+        // First 64 bits of SHA-256("first")
+        assertEquals("a7937b64b8caa58f", RateLimitInterceptor.fingerprint("first"));
+    }
+
+    public void testBlockingModeWaitsForToken() throws PaymentException {
+        connector.addInterceptor(new RateLimitInterceptor(20, 1, 1, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            connector.purchase(params("merchant")).execute();
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    public void testConnectorParametersOverrideRate() throws PaymentException {
+        connector.setParameter("rateLimit", "1000").setParameter("rateLimitBurst", "5");
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(1, 1, 0, TimeUnit.MILLISECONDS);
+        connector.addInterceptor(interceptor);
+        for (int i = 0; i < 5; i++) {
+            connector.purchase(params("merchant")).execute();
+        }
+        assertEquals(5, connector.getCalls());
+    }
+
+    public void testSendAsyncSharesQuota() throws Exception {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(10, 1, 0, TimeUnit.MILLISECONDS);
+        connector.addInterceptor(interceptor);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<CompletableFuture<PaymentResponse>> futures = new ArrayList<CompletableFuture<PaymentResponse>>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            futures.add(interceptor.sendAsync(connector.refund(params("merchant")), executor));
+        }
+        for (CompletableFuture<PaymentResponse> future : futures) {
+            assertNotNull(future.get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+        assertEquals(3, connector.getCalls());
+        try {
+            connector.purchase(params("merchant")).execute();
+            fail("Missing exception");
+        }
+        catch (RateLimitExceededException e) {
+        }
+        executor.shutdown();
+    }
+
+    public void testTokenBucketUnderContention() throws Exception {
+        final TokenBucket bucket = new TokenBucket(0.001, 100);
+        final AtomicInteger granted = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        if (bucket.tryAcquire()) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(100, granted.get());
+        assertEquals(0, bucket.getAvailable());
+    }
+
+    public void testTokenBucketRefills() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 2);
+        assertEquals(2, bucket.getAvailable());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(30);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    public void testAsyncBacklogDoesNotStarveInteractiveRequests() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(bucket.acquireAsync(scheduler));
+        }
+        assertTrue(futures.get(0).isDone());
+        assertTrue(bucket.reserve(TimeUnit.MILLISECONDS.toNanos(2500)) >= 0);
+        for (CompletableFuture<Void> future : futures) {
+            future.cancel(false);
+        }
+        scheduler.shutdownNow();
+    }
+
+    public void testCancelledAcquireReturnsToken() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        assertTrue(bucket.tryAcquire());
+        CompletableFuture<Void> future = bucket.acquireAsync(scheduler);
+        assertFalse(future.isDone());
+        assertEquals(-1, bucket.reserve(TimeUnit.MILLISECONDS.toNanos(1500)));
+        future.cancel(false);
+        assertTrue(bucket.reserve(TimeUnit.MILLISECONDS.toNanos(1500)) >= 0);
+        scheduler.shutdownNow();
+    }
+}
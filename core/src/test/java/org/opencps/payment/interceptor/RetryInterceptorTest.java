@@ -0,0 +1,269 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opencps.payment.api.PaymentResponse;
+import org.opencps.payment.api.RequestInterceptor;
+import org.opencps.payment.exception.PaymentException;
+import org.opencps.payment.metrics.Phase;
+import org.opencps.payment.metrics.PhaseTimer;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RetryInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RetryInterceptorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+    private RetryPolicy policy;
+    private RetryInterceptor interceptor;
+
+    /**
+     * Create the test case
+     */
+    public RetryInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        policy = new RetryPolicy().setBackoff(1, 5, TimeUnit.MILLISECONDS);
+        interceptor = new RetryInterceptor(policy);
+        connector = new MockGatewayConnector();
+        connector.addInterceptor(interceptor);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RetryInterceptorTest.class);
+    }
+
+    public void testReadOnlyRequestIsRetried() {
+        connector.setFailures(2);
+        assertNotNull(connector.completePurchase(new HashMap<String, String>()).send());
+        assertEquals(3, connector.getCalls());
+        RetryMetrics metrics = interceptor.getMetrics(connector.getShortName());
+        assertEquals(1, metrics.getRequests());
+        assertEquals(2, metrics.getRetries());
+        assertEquals(1, metrics.getFailures(1));
+        assertEquals(1, metrics.getFailures(2));
+        assertEquals(0, metrics.getFailures(3));
+    }
+
+    public void testOtherRequestIsNotRetried() {
+        connector.setFailures(1);
+        try {
+            connector.purchase(new HashMap<String, String>()).send();
+            fail("Missing exception");
+        }
+        catch (RuntimeException e) {
+            assertEquals(1, connector.getCalls());
+        }
+    }
+
+    public void testMaxAttempts() {
+        connector.setFailures(5);
+        try {
+            connector.completePurchase(new HashMap<String, String>()).send();
+            fail("Missing exception");
+        }
+        catch (RuntimeException e) {
+            assertEquals(3, connector.getCalls());
+        }
+    }
+
+    public void testBudgetStopsRetries() {
+        policy.setBudget(0.0, 1);
+        RetryInterceptor interceptor = new RetryInterceptor(policy);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.addInterceptor(interceptor);
+        connector.setFailures(10);
+        for (int i = 0; i < 2; i++) {
+            try {
+                connector.completePurchase(new HashMap<String, String>()).send();
+                fail("Missing exception");
+            }
+            catch (RuntimeException e) {
+            }
+        }
+        assertEquals(3, connector.getCalls());
+        assertEquals(2, interceptor.getMetrics(connector.getShortName()).getBudgetExhausted());
+        assertEquals(0, interceptor.getBudget(connector.getShortName()).getRemaining());
+    }
+
+    public void testRejectionIsNotRetried() {
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                throw new PaymentException("Rejected");
+            }
+        });
+        try {
+            connector.completePurchase(new HashMap<String, String>()).execute();
+            fail("Missing exception");
+        }
+        catch (PaymentException e) {
+            assertEquals(1, interceptor.getMetrics(connector.getShortName()).getAttempts(1));
+            assertEquals(0, interceptor.getMetrics(connector.getShortName()).getRetries());
+        }
+    }
+
+    public void testJitteredDelay() {
+        RetryPolicy policy = new RetryPolicy().setBackoff(10, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(1) <= TimeUnit.MILLISECONDS.toNanos(10));
+            assertTrue(policy.getDelay(2) <= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(policy.getDelay(10) <= TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(policy.getDelay(10) >= 0);
+        }
+    }
+
+    public void testSlowReadOnlyRequestIsHedged() {
+        policy.setHedging(true, 0.9);
+        final AtomicBoolean slow = new AtomicBoolean();
+        final ThreadLocal<Boolean> primary = new ThreadLocal<Boolean>();
+        // The first attempt submitted once slow is set is the primary one, whichever thread starts first
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 4, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>()) {
+            @Override
+            public void execute(final Runnable command) {
+                if (!slow.compareAndSet(true, false)) {
+                    super.execute(command);
+                    return;
+                }
+                super.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        primary.set(Boolean.TRUE);
+                        try {
+                            command.run();
+                        }
+                        finally {
+                            primary.remove();
+                        }
+                    }
+                });
+            }
+        };
+        RetryInterceptor interceptor = new RetryInterceptor(policy, executor);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.addInterceptor(interceptor);
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                if (primary.get() != null) {
+                    try {
+                        Thread.sleep(2000);
+                    }
+                    catch (InterruptedException e) {
+                        throw new PaymentException("Cancelled");
+                    }
+                }
+                return chain.proceed();
+            }
+        });
+        for (int i = 0; i < 256; i++) {
+            connector.completePurchase(new HashMap<String, String>()).send();
+        }
+        // A fast attempt may still be hedged when its thread is slow to start
+        RetryMetrics metrics = interceptor.getMetrics(connector.getShortName());
+        long hedges = metrics.getHedges();
+        long wins = metrics.getHedgeWins();
+        slow.set(true);
+        long start = System.nanoTime();
+        assertNotNull(connector.completePurchase(new HashMap<String, String>()).send());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(hedges + 1, metrics.getHedges());
+        assertEquals(wins + 1, metrics.getHedgeWins());
+        executor.shutdownNow();
+    }
+
+    public void testHedgedAttemptIsTimed() {
+        policy.setHedging(true, 0.9);
+        RetryInterceptor interceptor = new RetryInterceptor(policy);
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.addInterceptor(interceptor);
+        connector.addInterceptor(new RequestInterceptor() {
+            @Override
+            public PaymentResponse intercept(Chain chain) throws PaymentException {
+                PhaseTimer.current().add(Phase.SIGN, 1000);
+                return chain.proceed();
+            }
+        });
+        for (int i = 0; i < 256; i++) {
+            connector.completePurchase(new HashMap<String, String>()).send();
+        }
+        PhaseTimer timer = PhaseTimer.current();
+        timer.begin();
+        try {
+            assertNotNull(connector.completePurchase(new HashMap<String, String>()).send());
+        }
+        finally {
+            timer.end();
+        }
+        assertEquals(1000, timer.get(Phase.SIGN));
+        interceptor.close();
+    }
+
+    public void testBusyHedgeExecutor() throws Exception {
+        policy.setHedging(true, 0.9);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>());
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            RetryInterceptor interceptor = new RetryInterceptor(policy, executor);
+            MockGatewayConnector connector = new MockGatewayConnector();
+            connector.addInterceptor(interceptor);
+            for (int i = 0; i < 256; i++) {
+                connector.completePurchase(new HashMap<String, String>()).send();
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertNotNull(connector.completePurchase(new HashMap<String, String>()).send());
+            interceptor.close();
+            assertFalse(executor.isShutdown());
+        }
+        finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.exception.InvalidTransitionException;
+import org.opencps.payment.mock.MockGatewayConnector;
+import org.opencps.payment.state.TransactionState;
+import org.opencps.payment.state.TransactionStateStore;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for StateInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class StateInterceptorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+    private TransactionStateStore store;
+
+    /**
+     * Create the test case
+     */
+    public StateInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        connector = new MockGatewayConnector();
+        store = new TransactionStateStore(1000);
+        connector.addInterceptor(new StateInterceptor(store));
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(StateInterceptorTest.class);
+    }
+
+    private Map<String, String> params(String transactionId) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", transactionId);
+        params.put("amount", "10.00");
+        params.put("currency", "USD");
+        return params;
+    }
+
+    public void testRejectsCaptureAfterRevert() throws Exception {
+        connector.authorize(params("1")).send();
+        assertEquals(TransactionState.AUTHORIZED, store.getState("1"));
+        assertEquals(TransactionState.AUTHORIZED, store.getStateByReference("REF-1"));
+        assertEquals(1000L, store.get("1").getAmount());
+        connector.revert(params("1")).send();
+        assertEquals(TransactionState.REVERTED, store.getState("1"));
+
+        int calls = connector.getCalls();
+        RequestBase capture = connector.capture(params("1"));
+        try {
+            capture.execute();
+            fail("A reverted transaction must not be captured");
+        }
+        catch (InvalidTransitionException e) {
+            assertEquals("Cannot capture a transaction in state REVERTED.", e.getMessage());
+        }
+        assertEquals(calls, connector.getCalls());
+    }
+
+    public void testFailedCallKeepsState() throws Exception {
+        connector.purchase(params("2")).send();
+        connector.setFailures(1);
+        try {
+            connector.refund(params("2")).send();
+            fail("The gateway call must fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(TransactionState.CAPTURED, store.getState("2"));
+        connector.refund(params("2")).send();
+        assertEquals(TransactionState.REFUNDED, store.getState("2"));
+    }
+
+    public void testConcurrentOperations() throws Exception {
+        connector.authorize(params("3")).send();
+        connector.setLatency(200);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger rejected = new AtomicInteger();
+        final PaymentOperation[] operations = { PaymentOperation.CAPTURE, PaymentOperation.CAPTURE, PaymentOperation.REVERT };
+        Thread[] threads = new Thread[operations.length];
+        for (int i = 0; i < threads.length; i++) {
+            final PaymentOperation operation = operations[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        connector.request(operation, params("3")).execute();
+                    }
+                    catch (InvalidTransitionException e) {
+                        rejected.incrementAndGet();
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        int calls = connector.getCalls();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2, rejected.get());
+        assertEquals(calls + 1, connector.getCalls());
+        TransactionState state = store.getState("3");
+        assertTrue(state == TransactionState.CAPTURED || state == TransactionState.REVERTED);
+    }
+}
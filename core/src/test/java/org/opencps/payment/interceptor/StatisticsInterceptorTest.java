@@ -0,0 +1,79 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.mock.MockGatewayConnector;
+import org.opencps.payment.statistics.PaymentStatistics;
+import org.opencps.payment.statistics.StatisticsSnapshot;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for StatisticsInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class StatisticsInterceptorTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public StatisticsInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(StatisticsInterceptorTest.class);
+    }
+
+    public void testRecordsOutcomes() {
+        PaymentStatistics statistics = new PaymentStatistics();
+        MockGatewayConnector connector = new MockGatewayConnector();
+        connector.addInterceptor(new StatisticsInterceptor(statistics));
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("amount", "10.50");
+        params.put("currency", "USD");
+        connector.purchase(params).send();
+        params.put("status", "failed");
+        connector.purchase(params).send();
+        connector.setFailures(1);
+        try {
+            connector.purchase(params).send();
+            fail("The gateway call must fail");
+        }
+        catch (RuntimeException e) {
+            // expected
+        }
+
+        StatisticsSnapshot snapshot = statistics.snapshot("MockConnector", PaymentOperation.PURCHASE, "USD");
+        assertEquals(3, snapshot.getCount());
+        assertEquals(1, snapshot.getSuccessful());
+        assertEquals(2, snapshot.getFailed());
+        assertEquals(1050, snapshot.getAmount());
+    }
+}
@@ -0,0 +1,157 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.audit.AuditAppender;
+import org.opencps.payment.audit.AuditSchema;
+import org.opencps.payment.metrics.LatencyRecorder;
+import org.opencps.payment.metrics.PhaseTimer;
+import org.opencps.payment.metrics.SlowRequestTracer;
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for TracingInterceptor.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class TracingInterceptorTest extends TestCase {
+
+    private List<String> traces;
+    private AuditAppender appender;
+    private MockGatewayConnector connector;
+    private Map<String, String> params;
+
+    /**
+     * Create the test case
+     */
+    public TracingInterceptorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(TracingInterceptorTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        traces = new ArrayList<String>();
+        appender = new AuditAppender() {
+            @Override
+            public Boolean append(byte[] buffer, int offset, int length) {
+                traces.add(new String(buffer, offset, length));
+                return true;
+            }
+        };
+        connector = new MockGatewayConnector();
+        params = new HashMap<String, String>();
+        params.put("transactionId", "T1");
+        params.put("amount", "10.00");
+        params.put("pan", "4111111111111111");
+    }
+
+    public void testSkipsFastRequests() {
+        SlowRequestTracer tracer = new SlowRequestTracer(appender, 1, TimeUnit.SECONDS);
+        connector.addInterceptor(new TracingInterceptor(tracer));
+        connector.purchase(params).send();
+        assertEquals(0, traces.size());
+        assertEquals(0, tracer.getTraced());
+        assertFalse(PhaseTimer.current().isActive());
+    }
+
+    public void testTracesSlowRequests() {
+        SlowRequestTracer tracer = new SlowRequestTracer(appender, 10, TimeUnit.MILLISECONDS);
+        connector.addInterceptor(new LatencyInterceptor(new LatencyRecorder()));
+        connector.addInterceptor(new TracingInterceptor(tracer));
+        connector.setLatency(20);
+        connector.purchase(params).send();
+
+        assertEquals(1, traces.size());
+        String trace = traces.get(0);
+        assertTrue(trace, trace.contains("\"connector\":\"MockConnector\",\"operation\":\"PURCHASE\",\"status\":\"SUCCESSFUL\""));
+        assertTrue(trace, trace.contains("\"phases\":{\"QUEUE\":"));
+        assertTrue(trace, trace.contains("\"request\":{\"amount\":\"10.00\",\"transactionId\":\"T1\"}"));
+        assertTrue(trace, trace.contains("\"transactionReference\":\"REF-T1\""));
+        assertFalse(trace, trace.contains("\"data\""));
+        assertFalse(trace, trace.contains("4111111111111111"));
+        assertTrue(trace, trace.contains("\"transport\":{"));
+        assertFalse(PhaseTimer.current().isActive());
+    }
+
+    public void testResponseSchema() {
+        SlowRequestTracer tracer = new SlowRequestTracer(appender, 10, TimeUnit.MILLISECONDS)
+            .setResponseSchema(new AuditSchema().add("transactionId").add("pan", AuditSchema.Masking.PAN));
+        connector.addInterceptor(new TracingInterceptor(tracer));
+        connector.setLatency(20);
+        connector.purchase(params).send();
+
+        assertEquals(1, traces.size());
+        String trace = traces.get(0);
+        assertTrue(trace, trace.contains("\"data\":{\"transactionId\":\"T1\",\"pan\":\"411111******1111\"}"));
+        assertFalse(trace, trace.contains("\"amount\":\"10.00\"}}"));
+    }
+
+    public void testTracesFailuresWithinBudget() {
+        SlowRequestTracer tracer = new SlowRequestTracer(appender, 1, TimeUnit.SECONDS, new TokenBucket(0.001, 2));
+        connector.addInterceptor(new TracingInterceptor(tracer));
+        connector.setFailures(3);
+        for (int i = 0; i < 3; i++) {
+            try {
+                connector.purchase(params).send();
+                fail("The gateway call must fail");
+            }
+            catch (RuntimeException e) {
+                // expected
+            }
+        }
+        params.put("status", "failed");
+        connector.purchase(params).send();
+
+        assertEquals(2, traces.size());
+        assertEquals(2, tracer.getTraced());
+        assertEquals(2, tracer.getSkipped());
+        assertTrue(traces.get(0), traces.get(0).contains("\"status\":\"ERROR\",\"failure\":\"java.lang.RuntimeException\""));
+    }
+
+    public void testTracerErrorsAreCounted() {
+        AuditAppender broken = new AuditAppender() {
+            @Override
+            public Boolean append(byte[] buffer, int offset, int length) {
+                throw new IllegalStateException("closed");
+            }
+        };
+        TracingInterceptor interceptor = new TracingInterceptor(new SlowRequestTracer(broken, 1, TimeUnit.SECONDS));
+        connector.addInterceptor(interceptor);
+        params.put("status", "failed");
+        assertNotNull(connector.purchase(params).send());
+        assertEquals(1, interceptor.getErrors());
+        assertFalse(PhaseTimer.current().isActive());
+    }
+}
@@ -0,0 +1,232 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentOperation;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Journal.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class JournalTest extends TestCase {
+
+    private File directory;
+
+    /**
+     * Create the test case
+     */
+    public JournalTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(JournalTest.class);
+    }
+
+    private static JournalRecord record(int i) {
+        return new JournalRecord()
+            .setOperation(PaymentOperation.PURCHASE)
+            .setStatus(JournalRecord.Status.SUCCESSFUL)
+            .setConnector("Mock")
+            .setTransactionId("T" + i)
+            .setTransactionReference("R" + i)
+            .setAmount(1000L * i)
+            .setCurrency("VND")
+            .setRequestedAt(1000 + i)
+            .setCompletedAt(2000 + i);
+    }
+
+    private static List<JournalRecord> replay(Journal journal) throws Exception {
+        final List<JournalRecord> records = new ArrayList<JournalRecord>();
+        journal.replay(new JournalListener() {
+            @Override
+            public void onRecord(JournalRecord record) {
+                records.add(new JournalRecord()
+                    .setOperation(record.getOperation())
+                    .setStatus(record.getStatus())
+                    .setConnector(record.getConnector())
+                    .setTransactionId(record.getTransactionId())
+                    .setTransactionReference(record.getTransactionReference())
+                    .setAmount(record.getAmount())
+                    .setCurrency(record.getCurrency())
+                    .setCardNumber(record.getCardNumber())
+                    .setRequestedAt(record.getRequestedAt())
+                    .setCompletedAt(record.getCompletedAt()));
+            }
+        });
+        return records;
+    }
+
+    public void testAppendAndReplay() throws Exception {
+        Journal journal = new Journal(directory);
+        journal.append(record(1));
+        journal.append(new JournalRecord().setStatus(JournalRecord.Status.SENT).setCardNumber("4111111111111111"));
+        assertEquals(journal.getPosition(), journal.getDurablePosition());
+
+        List<JournalRecord> records = replay(journal);
+        assertEquals(2, records.size());
+        JournalRecord first = records.get(0);
+        assertEquals(PaymentOperation.PURCHASE, first.getOperation());
+        assertEquals(JournalRecord.Status.SUCCESSFUL, first.getStatus());
+        assertEquals("Mock", first.getConnector());
+        assertEquals("T1", first.getTransactionId());
+        assertEquals("R1", first.getTransactionReference());
+        assertEquals(1000L, first.getAmount());
+        assertEquals("VND", first.getCurrency());
+        assertEquals(1001L, first.getRequestedAt());
+        assertEquals(2001L, first.getCompletedAt());
+        assertNull(first.getCardNumber());
+
+        JournalRecord second = records.get(1);
+        assertNull(second.getOperation());
+        assertNull(second.getTransactionId());
+        assertEquals(JournalRecord.NO_AMOUNT, second.getAmount());
+        assertEquals("411111******1111", second.getCardNumber());
+        journal.close();
+    }
+
+    public void testReopenContinues() throws Exception {
+        Journal journal = new Journal(directory);
+        journal.append(record(1));
+        journal.append(record(2));
+        long position = journal.getPosition();
+        journal.close();
+
+        journal = new Journal(directory);
+        assertEquals(position, journal.getPosition());
+        journal.append(record(3));
+        List<JournalRecord> records = replay(journal);
+        assertEquals(3, records.size());
+        assertEquals("T3", records.get(2).getTransactionId());
+        journal.close();
+    }
+
+    public void testTornRecordIsDiscarded() throws Exception {
+        Journal journal = new Journal(directory, 4096, FsyncPolicy.NEVER, 0, TimeUnit.MILLISECONDS);
+        journal.append(record(1));
+        long end = journal.getPosition();
+        journal.append(record(2));
+        journal.close();
+
+        // Corrupt the payload of the second record
+        RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw");
+        file.seek(end + 12);
+        file.write(0x55);
+        file.close();
+
+        journal = new Journal(directory, 4096, FsyncPolicy.NEVER, 0, TimeUnit.MILLISECONDS);
+        assertEquals(end, journal.getPosition());
+        journal.append(record(3));
+        List<JournalRecord> records = replay(journal);
+        assertEquals(2, records.size());
+        assertEquals("T1", records.get(0).getTransactionId());
+        assertEquals("T3", records.get(1).getTransactionId());
+        journal.close();
+    }
+
+    public void testSegments() throws Exception {
+        Journal journal = new Journal(directory, 1024, FsyncPolicy.INTERVAL, 10, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            journal.append(record(i));
+        }
+        assertTrue(directory.listFiles().length > 1);
+        List<JournalRecord> records = replay(journal);
+        assertEquals(100, records.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("T" + i, records.get(i).getTransactionId());
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.getDurablePosition() < journal.getPosition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(journal.getPosition(), journal.getDurablePosition());
+        journal.close();
+    }
+
+    public void testConcurrentCommits() throws Exception {
+        final Journal journal = new Journal(directory, 1 << 20, FsyncPolicy.COMMIT, 0, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int i = 0; i < 400; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long end = journal.append(record(n));
+                    assertTrue(journal.getDurablePosition() >= end);
+                    return end;
+                }
+            }));
+        }
+        for (Future<Long> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(400, replay(journal).size());
+        journal.close();
+    }
+
+    public void testClosed() throws Exception {
+        Journal journal = new Journal(directory);
+        journal.close();
+        try {
+            journal.append(record(1));
+            fail("A closed journal must refuse records");
+        }
+        catch (IOException e) {
+            assertEquals("The journal is closed.", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LatencyHistogram.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public LatencyHistogramTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(LatencyHistogramTest.class);
+    }
+
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.getBucket(value);
+            assertTrue(LatencyHistogram.getLowerBound(bucket) <= value);
+            assertTrue(LatencyHistogram.getUpperBound(bucket) >= value);
+        }
+        assertEquals(7, LatencyHistogram.getBucket(7));
+        assertEquals(8, LatencyHistogram.getBucket(8));
+        assertEquals(LatencyHistogram.getBucket(16), LatencyHistogram.getBucket(17));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(LatencyHistogram.getBucket(Long.MAX_VALUE)));
+        assertEquals(0, LatencyHistogram.getBucket(-5));
+    }
+
+    public void testRelativeError() {
+        long value = 1;
+        while (value < Long.MAX_VALUE / 3) {
+            int bucket = LatencyHistogram.getBucket(value);
+            long width = LatencyHistogram.getUpperBound(bucket) - LatencyHistogram.getLowerBound(bucket) + 1;
+            assertTrue(width <= Math.max(1, LatencyHistogram.getLowerBound(bucket) / 8));
+            value = value * 3 + 1;
+        }
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000000L, histogram.getMax());
+        assertEquals(500500000000L, histogram.getSum());
+        assertEquals(500500000.0, histogram.getMean(), 0.5);
+        assertWithin(500000000L, histogram.getPercentile(50));
+        assertWithin(990000000L, histogram.getPercentile(99));
+        assertEquals(1000000000L, histogram.getPercentile(100));
+    }
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    public void testConcurrentRecords() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+        long count = 0;
+        for (int i = 0; i < histogram.getBuckets(); i++) {
+            count += histogram.getCount(i);
+        }
+        assertEquals(40000, count);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.metrics;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.opencps.payment.mock.MockGatewayConnector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for PaymentEvents.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class PaymentEventsTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public PaymentEventsTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(PaymentEventsTest.class);
+    }
+
+    public void testAmountClass() {
+        assertEquals("0", PaymentEvents.getAmountClass("0.50"));
+        assertEquals("1e0", PaymentEvents.getAmountClass("9.99"));
+        assertEquals("1e3", PaymentEvents.getAmountClass("1000"));
+        assertEquals("1e3", PaymentEvents.getAmountClass("009999.99"));
+        assertEquals("1e6", PaymentEvents.getAmountClass("2500000"));
+        assertNull(PaymentEvents.getAmountClass("-5"));
+        assertNull(PaymentEvents.getAmountClass(null));
+    }
+
+    public void testNotRecorded() {
+        assertTrue(PaymentEvents.get() instanceof FlightRecorderEvents);
+        assertNull(PaymentEvents.get().beginRequest());
+        assertNull(PaymentEvents.get().beginExchange());
+        assertNull(PaymentEvents.get().beginNotification());
+        assertNull(PaymentEvents.get().beginRedirect());
+    }
+
+    public void testRecordsRequests() throws Exception {
+        MockGatewayConnector connector = new MockGatewayConnector();
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("amount", "150.00");
+        params.put("transactionId", "T1");
+
+        File file = File.createTempFile("payment", ".jfr");
+        Recording recording = new Recording();
+        try {
+            recording.enable("org.opencps.payment.Request");
+            recording.start();
+            connector.purchase(params).send();
+            params.put("status", "failed");
+            connector.refund(params).send();
+            recording.stop();
+            recording.dump(file.toPath());
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            assertEquals(2, events.size());
+            RecordedEvent purchase = events.get(0);
+            assertEquals("MockConnector", purchase.getString("connector"));
+            assertEquals("PURCHASE", purchase.getString("operation"));
+            assertEquals("T1", purchase.getString("transactionId"));
+            assertEquals("1e2", purchase.getString("amountClass"));
+            assertEquals("SUCCESSFUL", purchase.getString("outcome"));
+            assertEquals("REFUND", events.get(1).getString("operation"));
+            assertEquals("FAILED", events.get(1).getString("outcome"));
+        }
+        finally {
+            recording.close();
+            file.delete();
+        }
+    }
+}
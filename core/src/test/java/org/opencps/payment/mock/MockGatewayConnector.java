@@ -0,0 +1,181 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.mock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.api.PaymentResponse;
+
+/**
+ * A stub gateway connector, its requests are answered locally with
+ * an injected latency and an injected number of failures.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class MockGatewayConnector extends MockBaseConnector {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long latency;
+
+    /**
+     * Get the number of calls received by the gateway
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Get the number of calls the gateway is processing
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Set the latency of the gateway in milliseconds
+     */
+    public MockGatewayConnector setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Make the next calls to the gateway fail with a connection error
+     */
+    public MockGatewayConnector setFailures(int failures) {
+        this.failures.set(failures);
+        return this;
+    }
+
+    /**
+     * Answer a request sent to the gateway
+     */
+    public PaymentResponse exchange(RequestBase request, Map<String, String> data) {
+        calls.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new RuntimeException(new IOException("Connection reset"));
+            }
+            return new MockGatewayResponse(request, new HashMap<String, String>(data));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doAuthorize(java.util.Map)
+     */
+    @Override
+    protected RequestBase doAuthorize(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doCompleteAuthorize(java.util.Map)
+     */
+    @Override
+    protected RequestBase doCompleteAuthorize(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doCapture(java.util.Map)
+     */
+    @Override
+    protected RequestBase doCapture(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doPurchase(java.util.Map)
+     */
+    @Override
+    protected RequestBase doPurchase(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doCompletePurchase(java.util.Map)
+     */
+    @Override
+    protected RequestBase doCompletePurchase(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doRefund(java.util.Map)
+     */
+    @Override
+    protected RequestBase doRefund(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doRevert(java.util.Map)
+     */
+    @Override
+    protected RequestBase doRevert(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doAcceptNotification(java.util.Map)
+     */
+    @Override
+    protected RequestBase doAcceptNotification(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doCreateCard(java.util.Map)
+     */
+    @Override
+    protected RequestBase doCreateCard(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doUpdateCard(java.util.Map)
+     */
+    @Override
+    protected RequestBase doUpdateCard(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+
+    /* (non-Javadoc)
+     * @see org.opencps.payment.ConnectorBase#doDeleteCard(java.util.Map)
+     */
+    @Override
+    protected RequestBase doDeleteCard(Map<String, String> parameters) {
+        return createRequest(MockGatewayRequest.class, parameters);
+    }
+}
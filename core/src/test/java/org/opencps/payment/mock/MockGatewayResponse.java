@@ -0,0 +1,80 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.mock;
+
+import java.util.Map;
+
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.ResponseBase;
+import org.opencps.payment.api.NotificationStatus;
+import org.opencps.payment.api.PaymentNotification;
+
+/**
+ * A response of MockGatewayConnector, successful unless the status
+ * is "failed" or "cancelled". It also serves as the notification
+ * accepted by the connector.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class MockGatewayResponse extends ResponseBase implements PaymentNotification {
+
+    /**
+     * @param request
+     * @param data
+     */
+    public MockGatewayResponse(RequestBase request, Map<String, String> data) {
+        super(request, data);
+    }
+
+    @Override
+    public Boolean isSuccessful() {
+        String status = data.get("status");
+        return !"failed".equals(status) && !"cancelled".equals(status);
+    }
+
+    @Override
+    public Boolean isCancelled() {
+        return "cancelled".equals(data.get("status"));
+    }
+
+    @Override
+    public String getMessage() {
+        return isSuccessful() ? "OK" : "Failed";
+    }
+
+    @Override
+    public String getCode() {
+        return isSuccessful() ? "00" : "99";
+    }
+
+    @Override
+    public String getTransactionReference() {
+        String reference = data.get("transactionReference");
+        if (reference == null && data.get("transactionId") != null) {
+            reference = "REF-" + data.get("transactionId");
+        }
+        return reference;
+    }
+
+    @Override
+    public NotificationStatus getTransactionStatus() {
+        if (!isSuccessful()) {
+            return NotificationStatus.FAILED;
+        }
+        return "pending".equals(data.get("status")) ? NotificationStatus.PENDING : NotificationStatus.COMPLETED;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentNotification;
+import org.opencps.payment.mock.MockGatewayConnector;
+import org.opencps.payment.mock.MockGatewayRequest;
+import org.opencps.payment.mock.MockGatewayResponse;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for NotificationDeduplicator and RotatingBloomFilter.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class NotificationDeduplicatorTest extends TestCase {
+
+    private MockGatewayConnector connector;
+
+    /**
+     * Create the test case
+     */
+    public NotificationDeduplicatorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        connector = new MockGatewayConnector();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(NotificationDeduplicatorTest.class);
+    }
+
+    private PaymentNotification notification(String reference, String status) {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("transactionReference", reference);
+        data.put("status", status);
+        return new MockGatewayResponse(new MockGatewayRequest(connector), data);
+    }
+
+    public void testDuplicate() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator();
+        PaymentNotification pending = notification("R1", "pending");
+        assertFalse(deduplicator.isDuplicate(pending));
+        deduplicator.add(pending);
+        assertTrue(deduplicator.isDuplicate(notification("R1", "pending")));
+        // the same transaction with another status is new
+        assertFalse(deduplicator.isDuplicate(notification("R1", "completed")));
+        assertFalse(deduplicator.isDuplicate(notification("R2", "pending")));
+        assertEquals(1, deduplicator.getDuplicates());
+    }
+
+    public void testAddIfAbsent() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator();
+        assertTrue(deduplicator.addIfAbsent(notification("R1", "pending")));
+        assertFalse(deduplicator.addIfAbsent(notification("R1", "pending")));
+        deduplicator.remove(notification("R1", "pending"));
+        assertFalse(deduplicator.isDuplicate(notification("R1", "pending")));
+        assertTrue(deduplicator.addIfAbsent(notification("R1", "pending")));
+        assertEquals(1, deduplicator.getDuplicates());
+    }
+
+    public void testDefaultWindow() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator();
+        for (int i = 0; i < 50000; i++) {
+            assertTrue(deduplicator.addIfAbsent(notification("R" + i, "completed")));
+        }
+        assertFalse(deduplicator.addIfAbsent(notification("R0", "completed")));
+        assertEquals(0, deduplicator.getFalsePositives());
+    }
+
+    public void testLruCapacity() {
+        NotificationDeduplicator deduplicator = new NotificationDeduplicator(1000, 0.01, 1, TimeUnit.HOURS, 2);
+        deduplicator.add(notification("R1", "completed"));
+        deduplicator.add(notification("R2", "completed"));
+        assertTrue(deduplicator.isDuplicate(notification("R1", "completed")));
+        deduplicator.add(notification("R3", "completed"));
+        assertEquals(2, deduplicator.size());
+        // R2 was the least recently used, the filter still matches it but it is taken as new
+        assertFalse(deduplicator.isDuplicate(notification("R2", "completed")));
+        assertEquals(1, deduplicator.getFalsePositives());
+        assertTrue(deduplicator.isDuplicate(notification("R1", "completed")));
+        assertTrue(deduplicator.isDuplicate(notification("R3", "completed")));
+    }
+
+    public void testBloomFilterSize() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, 0, TimeUnit.SECONDS);
+        // 9586 bits are needed, rounded up to a power of two
+        assertEquals(16384, filter.getBits());
+        assertEquals(7, filter.getHashes());
+    }
+
+    public void testBloomFilterFalsePositiveRate() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(10000, 0.01, 0, TimeUnit.SECONDS);
+        for (long i = 0; i < 10000; i++) {
+            filter.add(i);
+        }
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+        int positives = 0;
+        for (long i = 10000; i < 110000; i++) {
+            if (filter.mightContain(i)) {
+                positives++;
+            }
+        }
+        assertTrue("False positives " + positives, positives < 1000);
+    }
+
+    public void testBloomFilterRotation() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, 0, TimeUnit.SECONDS);
+        filter.add(1);
+        filter.rotate();
+        assertTrue(filter.mightContain(1));
+        // adding again to the new generation reports it was present
+        assertTrue(filter.add(1));
+        filter.add(2);
+        filter.rotate();
+        assertTrue(filter.mightContain(1));
+        assertTrue(filter.mightContain(2));
+        filter.rotate();
+        assertFalse(filter.mightContain(1));
+        assertFalse(filter.mightContain(2));
+    }
+
+    public void testBloomFilterWindow() throws Exception {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, 20, TimeUnit.MILLISECONDS);
+        filter.add(1);
+        Thread.sleep(50);
+        assertTrue(filter.mightContain(1));
+        Thread.sleep(50);
+        assertFalse(filter.mightContain(1));
+    }
+}
@@ -0,0 +1,326 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.notification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencps.payment.api.NotificationStatus;
+import org.opencps.payment.api.PaymentNotification;
+import org.opencps.payment.mock.MockGatewayConnector;
+import org.opencps.payment.mock.MockGatewayRequest;
+import org.opencps.payment.mock.MockGatewayResponse;
+import org.opencps.payment.signature.SignatureAlgorithm;
+import org.opencps.payment.signature.Signer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for NotificationPipeline.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class NotificationPipelineTest extends TestCase {
+
+    private MockGatewayConnector connector;
+    private RecordingSink sink;
+
+    /**
+     * Create the test case
+     */
+    public NotificationPipelineTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        connector = new MockGatewayConnector();
+        sink = new RecordingSink();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(NotificationPipelineTest.class);
+    }
+
+    private PaymentNotification notification(String reference, String status) {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("transactionReference", reference);
+        data.put("status", status);
+        return new MockGatewayResponse(new MockGatewayRequest(connector), data);
+    }
+
+    public void testAccept() throws Exception {
+        NotificationPipeline pipeline = new NotificationPipeline(sink, 2, 10, 5, 0, TimeUnit.MILLISECONDS);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionReference", "R1");
+        params.put("status", "pending");
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.accept(connector, params));
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(1, sink.received.size());
+        assertEquals("R1", sink.received.get(0).getTransactionReference());
+        assertEquals(NotificationStatus.PENDING, sink.received.get(0).getTransactionStatus());
+        assertEquals(1, pipeline.getAccepted());
+        assertEquals(1, pipeline.getDelivered());
+    }
+
+    public void testInvalidSignature() throws Exception {
+        Signer signer = new Signer(SignatureAlgorithm.HMAC_SHA256, "secret").setExcluded("signature");
+        NotificationPipeline pipeline = new NotificationPipeline(sink, 1, 10, 5, 0, TimeUnit.MILLISECONDS)
+            .setVerifier(new SignatureVerifier(signer, "signature"));
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionReference", "R1");
+        params.put("status", "completed");
+        params.put("signature", signer.sign(params));
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.accept(connector, params));
+
+        params.put("status", "failed");
+        assertEquals(NotificationPipeline.Admission.INVALID, pipeline.accept(connector, params));
+        params.remove("signature");
+        assertEquals(NotificationPipeline.Admission.INVALID, pipeline.accept(connector, params));
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(1, sink.received.size());
+        assertEquals(2, pipeline.getInvalid());
+        assertEquals(1, connector.getCalls());
+    }
+
+    public void testDuplicate() throws Exception {
+        NotificationPipeline pipeline = new NotificationPipeline(sink, 2, 10, 5, 0, TimeUnit.MILLISECONDS)
+            .setDeduplicator(new NotificationDeduplicator());
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R1", "pending")));
+        assertEquals(NotificationPipeline.Admission.DUPLICATE, pipeline.submit(notification("R1", "pending")));
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R1", "completed")));
+        assertEquals(NotificationPipeline.Admission.DUPLICATE, pipeline.submit(notification("R1", "completed")));
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(2, sink.received.size());
+        assertEquals(2, pipeline.getDuplicates());
+    }
+
+    public void testConcurrentDuplicates() throws Exception {
+        final NotificationPipeline pipeline = new NotificationPipeline(sink, 2, 100, 5, 0, TimeUnit.MILLISECONDS)
+            .setDeduplicator(new NotificationDeduplicator());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    if (pipeline.submit(notification("R1", "completed")) == NotificationPipeline.Admission.ACCEPTED) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(1, accepted.get());
+        assertEquals(1, sink.received.size());
+        assertEquals(7, pipeline.getDuplicates());
+    }
+
+    public void testOrderPerReference() throws Exception {
+        NotificationPipeline pipeline = new NotificationPipeline(sink, 4, 1000, 16, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 200; i++) {
+            String reference = "R" + (i % 10);
+            assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification(reference, String.valueOf(i))));
+        }
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(200, sink.received.size());
+        Map<String, Integer> last = new HashMap<String, Integer>();
+        for (PaymentNotification received : sink.received) {
+            int sequence = Integer.parseInt(((MockGatewayResponse) received).getData().get("status"));
+            Integer previous = last.put(received.getTransactionReference(), sequence);
+            assertTrue(previous == null || previous < sequence);
+        }
+        assertTrue(sink.largestBatch <= 16);
+    }
+
+    public void testBackpressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        NotificationSink blocking = new NotificationSink() {
+            @Override
+            public void accept(List<PaymentNotification> notifications) throws Exception {
+                entered.countDown();
+                release.await();
+            }
+        };
+        NotificationPipeline pipeline = new NotificationPipeline(blocking, 1, 2, 1, 10, TimeUnit.MILLISECONDS);
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R1", "1")));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R1", "2")));
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R1", "3")));
+        assertEquals(NotificationPipeline.Admission.OVERLOADED, pipeline.submit(notification("R1", "4")));
+        assertEquals(2, pipeline.getPending());
+        assertEquals(1, pipeline.getOverloaded());
+
+        release.countDown();
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+        assertEquals(3, pipeline.getDelivered());
+        assertEquals(NotificationPipeline.Admission.OVERLOADED, pipeline.submit(notification("R1", "5")));
+    }
+
+    public void testRefusedIsNotDuplicate() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        NotificationSink blocking = new NotificationSink() {
+            @Override
+            public void accept(List<PaymentNotification> notifications) throws Exception {
+                entered.countDown();
+                release.await();
+            }
+        };
+        NotificationPipeline pipeline = new NotificationPipeline(blocking, 1, 1, 1, 0, TimeUnit.MILLISECONDS)
+            .setDeduplicator(new NotificationDeduplicator());
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R1", "pending")));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R2", "pending")));
+        assertEquals(NotificationPipeline.Admission.OVERLOADED, pipeline.submit(notification("R3", "pending")));
+
+        release.countDown();
+        while (pipeline.getPending() > 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(NotificationPipeline.Admission.ACCEPTED, pipeline.submit(notification("R3", "pending")));
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+        assertEquals(0, pipeline.getDuplicates());
+    }
+
+    public void testBatching() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+        NotificationSink batching = new NotificationSink() {
+            @Override
+            public void accept(List<PaymentNotification> notifications) throws Exception {
+                release.await();
+                sizes.add(notifications.size());
+            }
+        };
+        NotificationPipeline pipeline = new NotificationPipeline(batching, 1, 100, 4, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 9; i++) {
+            pipeline.submit(notification("R" + i, "completed"));
+        }
+        release.countDown();
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(9, pipeline.getDelivered());
+        int total = 0;
+        for (Integer size : sizes) {
+            assertTrue(size <= 4);
+            total += size;
+        }
+        assertEquals(9, total);
+        assertTrue(sizes.size() < 9);
+    }
+
+    public void testSinkFailureRedelivers() throws Exception {
+        sink.failures.set(2);
+        NotificationPipeline pipeline = new NotificationPipeline(sink, 1, 10, 10, 0, TimeUnit.MILLISECONDS);
+        pipeline.submit(notification("R1", "1"));
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+
+        assertEquals(1, sink.received.size());
+        assertEquals(2, pipeline.getFailures());
+        assertEquals(1, pipeline.getDelivered());
+    }
+
+    public void testCloseDropsAfterTimeout() throws Exception {
+        sink.failures.set(Integer.MAX_VALUE);
+        NotificationPipeline pipeline = new NotificationPipeline(sink, 1, 10, 1, 0, TimeUnit.MILLISECONDS);
+        pipeline.submit(notification("R1", "1"));
+        pipeline.submit(notification("R1", "2"));
+        assertFalse(pipeline.close(200, TimeUnit.MILLISECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.getDropped() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, pipeline.getDropped());
+        assertEquals(0, pipeline.getDelivered());
+    }
+
+    public void testSubmitWhileClosingIsDeliveredOrRefused() throws Exception {
+        final NotificationPipeline pipeline = new NotificationPipeline(sink, 2, 1000, 10, 0, TimeUnit.MILLISECONDS);
+        final AtomicInteger accepted = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            final int thread = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < 200; j++) {
+                        if (pipeline.submit(notification("R" + thread + "-" + j, "completed")) == NotificationPipeline.Admission.ACCEPTED) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        started.await();
+        assertTrue(pipeline.close(5, TimeUnit.SECONDS));
+        done.await();
+
+        assertEquals(accepted.get(), sink.received.size());
+        assertEquals(0, pipeline.getPending());
+    }
+
+    private static class RecordingSink implements NotificationSink {
+
+        private final List<PaymentNotification> received = Collections.synchronizedList(new ArrayList<PaymentNotification>());
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile int largestBatch;
+
+        @Override
+        public void accept(List<PaymentNotification> notifications) throws Exception {
+            if (failures.getAndDecrement() > 0) {
+                throw new Exception("Database unavailable");
+            }
+            largestBatch = Math.max(largestBatch, notifications.size());
+            received.addAll(notifications);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.reconciliation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.JournalRecord;
+import org.opencps.payment.state.TransactionState;
+import org.opencps.payment.state.TransactionStateStore;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ReconciliationEngine and the settlement layouts.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class ReconciliationEngineTest extends TestCase {
+
+    private TransactionStateStore store;
+    private File file;
+    private List<Mismatch> mismatches;
+    private ReconciliationListener listener;
+
+    /**
+     * Create the test case
+     */
+    public ReconciliationEngineTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        store = new TransactionStateStore(100000);
+        file = File.createTempFile("settlement", ".csv");
+        mismatches = Collections.synchronizedList(new ArrayList<Mismatch>());
+        listener = new ReconciliationListener() {
+            @Override
+            public void onMismatch(Mismatch mismatch) {
+                mismatches.add(mismatch);
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(ReconciliationEngineTest.class);
+    }
+
+    private void write(String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void purchase(String transactionId, String reference, long amount) {
+        store.apply(PaymentOperation.PURCHASE, JournalRecord.Status.SUCCESSFUL, transactionId, reference, amount, 1);
+    }
+
+    private Mismatch find(Mismatch.Type type) {
+        for (Mismatch mismatch : mismatches) {
+            if (mismatch.getType() == type) {
+                return mismatch;
+            }
+        }
+        return null;
+    }
+
+    public void testCsv() throws Exception {
+        purchase("T1", "R1", 1050);
+        purchase("T2", "R2", 2000);
+        purchase("T3", "R3", 500);
+        store.apply(PaymentOperation.REVERT, JournalRecord.Status.SUCCESSFUL, "T3", null, JournalRecord.NO_AMOUNT, 2);
+        write("Reference,Order,Amount,Currency\r\n"
+            + "R1,T1,10.50,USD\r\n"
+            + "\"R2\",\"T2\",\"25.00\",USD\r\n"
+            + "R3,T3,5.00,USD\r\n"
+            + "R4,T4,1.00,USD\r\n"
+            + "R5,T5,abc,USD\r\n"
+            + "\r\n");
+        CsvLayout layout = new CsvLayout().setReference(0).setTransactionId(1).setAmount(2, false).setCurrency(3);
+        ReconciliationResult result = new ReconciliationEngine(store, 2).reconcile(file, layout, listener);
+
+        assertEquals(4, result.getRows());
+        assertEquals(1, result.getMatched());
+        assertEquals(3, result.getMismatched());
+        assertEquals(1, result.getMalformed());
+        assertEquals(4, mismatches.size());
+
+        Mismatch amount = find(Mismatch.Type.AMOUNT);
+        assertEquals("R2", amount.getTransactionReference());
+        assertEquals("T2", amount.getTransactionId());
+        assertEquals(2500L, amount.getSettledAmount());
+        assertEquals(2000L, amount.getAmount());
+        assertEquals(TransactionState.REVERTED, find(Mismatch.Type.STATE).getState());
+        assertEquals("R4", find(Mismatch.Type.MISSING).getTransactionReference());
+        Mismatch malformed = find(Mismatch.Type.MALFORMED);
+        assertEquals("The amount is not a decimal number.", malformed.getMessage());
+        assertEquals(105L, malformed.getOffset());
+        assertFalse(result.isStoreFull());
+    }
+
+    public void testFullStore() throws Exception {
+        store = new TransactionStateStore(2);
+        purchase("T1", "R1", 100);
+        purchase("T2", "R2", 100);
+        purchase("T3", "R3", 100);
+        write("Reference,Order,Amount\n"
+            + "R1,T1,1.00\n"
+            + "R3,T3,1.00\n");
+        CsvLayout layout = new CsvLayout().setReference(0).setTransactionId(1).setAmount(2, false);
+        ReconciliationResult result = new ReconciliationEngine(store, 1).reconcile(file, layout, listener);
+
+        assertTrue(result.isStoreFull());
+        assertEquals(1, result.getMatched());
+        Mismatch missing = find(Mismatch.Type.MISSING);
+        assertEquals("R1", missing.getTransactionReference());
+        assertEquals("The transaction is not known, it may have been evicted from the full store.", missing.getMessage());
+    }
+
+    public void testCsvLayout() {
+        SettlementRow row = new SettlementRow();
+        CsvLayout layout = new CsvLayout(';').setReference(1).setAmount(0, true).setDefaultCurrency("VND");
+        assertTrue(parse(layout, "50000;\"R \"\"1\"\"\";x", row));
+        assertEquals("R \"1\"", row.getTransactionReference());
+        assertEquals(50000L, row.getAmount());
+        assertEquals("VND", row.getCurrency());
+        assertNull(row.getTransactionId());
+        try {
+            parse(layout, "50000;\"R1", row);
+            fail("An unterminated quote must be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("A quoted column is not terminated.", e.getMessage());
+        }
+        try {
+            parse(layout, "50000", row);
+            fail("A missing reference must be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("The reference column is missing.", e.getMessage());
+        }
+    }
+
+    public void testFixedWidthLayout() {
+        SettlementRow row = new SettlementRow();
+        FixedWidthLayout layout = new FixedWidthLayout().setRowPrefix("D")
+            .setReference(1, 10).setTransactionId(11, 8).setAmount(19, 12, true).setCurrency(31, 3);
+        assertTrue(parse(layout, "DREF0001   ORD-0001000000105000VND", row));
+        assertEquals("REF0001", row.getTransactionReference());
+        assertEquals("ORD-0001", row.getTransactionId());
+        assertEquals(105000L, row.getAmount());
+        assertEquals("VND", row.getCurrency());
+        assertFalse(parse(layout, "T00000001", row));
+    }
+
+    public void testFixedWidthFile() throws Exception {
+        purchase("T1", "REF0001", 105000);
+        purchase("T2", "REF0002", 20000);
+        write("H20260101\n"
+            + "DREF0001   T1      000000105000VND\n"
+            + "DREF0002   T2      000000020000VND\n"
+            + "DREF0003   T3      000000001000VND\n"
+            + "T00000003\n");
+        FixedWidthLayout layout = new FixedWidthLayout().setRowPrefix("D")
+            .setReference(1, 10).setTransactionId(11, 8).setAmount(19, 12, true).setCurrency(31, 3);
+        ReconciliationResult result = new ReconciliationEngine(store, 1).reconcile(file, layout, listener);
+        assertEquals(3, result.getRows());
+        assertEquals(2, result.getMatched());
+        assertEquals(1, mismatches.size());
+        assertEquals(Mismatch.Type.MISSING, mismatches.get(0).getType());
+        assertEquals("T3", mismatches.get(0).getTransactionId());
+    }
+
+    public void testPartitions() throws Exception {
+        StringBuilder content = new StringBuilder("reference,amount\n");
+        int count = 80000;
+        for (int i = 0; i < count; i++) {
+            String reference = "REF-" + i + "-PADDING-TO-MAKE-THE-FILE-LARGER";
+            if (i % 1000 != 0) {
+                purchase("T" + i, reference, i);
+            }
+            content.append(reference).append(',').append(i).append('\n');
+        }
+        write(content.toString());
+        CsvLayout layout = new CsvLayout().setReference(0).setAmount(1, true);
+        ReconciliationResult result = new ReconciliationEngine(store, 4).reconcile(file, layout, listener);
+
+        assertTrue(file.length() > 3 << 20);
+        assertEquals(4, result.getPartitions());
+        assertEquals(count, result.getRows());
+        assertEquals(count - 80, result.getMatched());
+        assertEquals(80, mismatches.size());
+        for (Mismatch mismatch : mismatches) {
+            assertEquals(Mismatch.Type.MISSING, mismatch.getType());
+        }
+    }
+
+    private static Boolean parse(SettlementLayout layout, String line, SettlementRow row) {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        return layout.parse(buffer, 0, buffer.capacity(), row.clear(0));
+    }
+}
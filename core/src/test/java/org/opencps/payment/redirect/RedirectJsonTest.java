@@ -0,0 +1,96 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.redirect;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.opencps.payment.api.PaymentRedirectResponse;
+import org.opencps.payment.mock.MockServletOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RedirectJson.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RedirectJsonTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public RedirectJsonTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RedirectJsonTest.class);
+    }
+
+    public void testAccepts() {
+        assertTrue(RedirectJson.accepts("application/json"));
+        assertTrue(RedirectJson.accepts("application/json, text/plain, */*"));
+        assertTrue(RedirectJson.accepts("application/vnd.api+json"));
+        assertTrue(RedirectJson.accepts("text/html;q=0.5, application/json"));
+        assertFalse(RedirectJson.accepts("text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8"));
+        assertFalse(RedirectJson.accepts("text/html, application/json"));
+        assertFalse(RedirectJson.accepts("application/json;q=0"));
+        assertFalse(RedirectJson.accepts("*/*"));
+        assertFalse(RedirectJson.accepts(null));
+    }
+
+    public void testWriteAfterFailure() throws Exception {
+        PaymentRedirectResponse broken = mock(PaymentRedirectResponse.class);
+        when(broken.getRedirectUrl()).thenReturn("x");
+        when(broken.getRedirectData()).thenReturn(new HashMap<String, String>() {
+            @Override
+            public Set<Map.Entry<String, String>> entrySet() {
+                throw new IllegalStateException("No data");
+            }
+        });
+        try {
+            RedirectJson.write(mock(HttpServletResponse.class), broken);
+            fail("Missing exception");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("No data", e.getMessage());
+        }
+
+        PaymentRedirectResponse redirect = mock(PaymentRedirectResponse.class);
+        when(redirect.getRedirectUrl()).thenReturn("x");
+        for (int i = 0; i < 2; i++) {
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            MockServletOutputStream out = new MockServletOutputStream();
+            when(response.getOutputStream()).thenReturn(out);
+            RedirectJson.write(response, redirect);
+            assertEquals("{\"redirectUrl\":\"x\",\"redirectMethod\":null,\"redirectData\":{}}", out.toString());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.redirect;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.opencps.payment.mock.MockServletOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RedirectTemplate and RedirectPageCache.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RedirectTemplateTest extends TestCase {
+
+    private RedirectTemplate template;
+    private Map<String, String> data;
+
+    /**
+     * Create the test case
+     */
+    public RedirectTemplateTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        template = new RedirectTemplate("https://example.com/pay?merchant=1&lang=vi");
+        data = new LinkedHashMap<String, String>();
+        data.put("orderInfo", "Lệ phí hồ sơ <HS-001>");
+        data.put("amount", "100000");
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RedirectTemplateTest.class);
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws Exception {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    public void testRender() {
+        String page = template.render(data);
+        assertTrue(page.contains("<form action=\"https://example.com/pay?merchant=1&amp;lang=vi\" method=\"post\">"));
+        assertTrue(page.contains("<input type=\"hidden\" name=\"orderInfo\" value=\"Lệ phí hồ sơ &lt;HS-001&gt;\" />"
+            + "<input type=\"hidden\" name=\"amount\" value=\"100000\" />"));
+        assertTrue(page.endsWith("</form></body></html>"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            assertEquals(page.getBytes(StandardCharsets.UTF_8).length, template.write(out, data));
+        }
+        catch (Exception e) {
+            fail(e.getMessage());
+        }
+        assertEquals(page, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testWriteGzip() throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate, br");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        MockServletOutputStream out = new MockServletOutputStream();
+        when(response.getOutputStream()).thenReturn(out);
+
+        template.write(request, response, data);
+        byte[] body = out.toByteArray();
+        assertEquals(template.render(data), new String(gunzip(body), StandardCharsets.UTF_8));
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setContentLength(body.length);
+    }
+
+    public void testWriteGzipRepeatedly() throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+        for (int i = 0; i < 3; i++) {
+            StringBuilder value = new StringBuilder();
+            for (int j = 0; j < i * 5000; j++) {
+                value.append((char) ('a' + j * 7 % 26));
+            }
+            data.put("field", value.toString());
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            MockServletOutputStream out = new MockServletOutputStream();
+            when(response.getOutputStream()).thenReturn(out);
+            template.write(request, response, data);
+            assertEquals(template.render(data), new String(gunzip(out.toByteArray()), StandardCharsets.UTF_8));
+        }
+    }
+
+    public void testWritePlainWithoutAcceptEncoding() throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        MockServletOutputStream out = new MockServletOutputStream();
+        when(response.getOutputStream()).thenReturn(out);
+
+        template.write(mock(HttpServletRequest.class), response, data);
+        assertEquals(template.render(data), out.toString());
+        verify(response, never()).setHeader("Content-Encoding", "gzip");
+        verify(response).setContentLength(out.toByteArray().length);
+        verify(response).addHeader("Vary", "Accept-Encoding");
+    }
+
+    public void testAcceptsGzip() {
+        assertTrue(RedirectTemplate.acceptsGzip("gzip"));
+        assertTrue(RedirectTemplate.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(RedirectTemplate.acceptsGzip("*"));
+        assertFalse(RedirectTemplate.acceptsGzip("gzip;q=0"));
+        assertFalse(RedirectTemplate.acceptsGzip("gzip; q=0.0, deflate"));
+        assertFalse(RedirectTemplate.acceptsGzip("identity"));
+        assertFalse(RedirectTemplate.acceptsGzip(null));
+        assertTrue(RedirectTemplate.acceptsGzip("gzip;q=high"));
+        assertTrue(RedirectTemplate.acceptsGzip("gzip;q="));
+    }
+
+    public void testCache() {
+        RedirectPageCache cache = new RedirectPageCache(2);
+        RedirectTemplate template = cache.get("Keypay", "https://example.com/a");
+        assertSame(template, cache.get("Keypay", "https://example.com/a"));
+        assertNotSame(template, cache.get("Vnpay", "https://example.com/a"));
+        assertEquals(Integer.valueOf(2), cache.size());
+
+        RedirectTemplate other = cache.get("Keypay", "https://example.com/b");
+        assertEquals("https://example.com/b", other.getAction());
+        assertNotSame(other, cache.get("Keypay", "https://example.com/b"));
+        assertEquals(Integer.valueOf(2), cache.size());
+
+        cache.clear();
+        assertEquals(Integer.valueOf(0), cache.size());
+    }
+}
@@ -0,0 +1,176 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.signature;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Signer.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class SignerTest extends TestCase {
+
+    private Map<String, String> data;
+
+    /**
+     * Create the test case
+     */
+    public SignerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        data = new HashMap<String, String>();
+        data.put("merchant_code", "OPENCPS");
+        data.put("good_code", "HS-001");
+        data.put("net_cost", "100000");
+        data.put("desc_1", "Lệ phí hồ sơ");
+        data.put("return_url", "");
+        data.put("secure_hash", "ignored");
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(SignerTest.class);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    public void testCanonical() {
+        Signer signer = new Signer(SignatureAlgorithm.MD5, "secret").setExcluded("secure_hash");
+        assertEquals("desc_1=Lệ phí hồ sơ&good_code=HS-001&merchant_code=OPENCPS&net_cost=100000",
+                signer.getCanonical(data));
+        signer.setValuesOnly(true).setSeparators("|", "=");
+        assertEquals("Lệ phí hồ sơ|HS-001|OPENCPS|100000", signer.getCanonical(data));
+        signer.setSkipEmpty(false);
+        assertEquals("Lệ phí hồ sơ|HS-001|OPENCPS|100000|", signer.getCanonical(data));
+    }
+
+    public void testInsertionOrder() {
+        Map<String, String> ordered = new LinkedHashMap<String, String>();
+        ordered.put("b", "2");
+        ordered.put("a", "1");
+        Signer signer = new Signer(SignatureAlgorithm.SHA256, null).setSorted(false);
+        assertEquals("b=2&a=1", signer.getCanonical(ordered));
+    }
+
+    public void testHash() throws Exception {
+        Signer signer = new Signer(SignatureAlgorithm.MD5, "secret").setExcluded("secure_hash").setValuesOnly(true).setSeparators("", "");
+        String expected = hex(MessageDigest.getInstance("MD5").digest(
+                "secretLệ phí hồ sơHS-001OPENCPS100000".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected, signer.sign(data));
+
+        signer.setSecretAppended(true).setUpperCase(true);
+        expected = hex(MessageDigest.getInstance("MD5").digest(
+                "Lệ phí hồ sơHS-001OPENCPS100000secret".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected.toUpperCase(), signer.sign(data));
+    }
+
+    public void testHmac() throws Exception {
+        Signer signer = new Signer(SignatureAlgorithm.HMAC_SHA256, "secret").setExcluded("secure_hash");
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String expected = hex(mac.doFinal(signer.getCanonical(data).getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected, signer.sign(data));
+        assertEquals(expected, signer.sign(data));
+    }
+
+    public void testHmacRequiresSecret() {
+        try {
+            new Signer(SignatureAlgorithm.HMAC_SHA512, "");
+            fail("Missing exception");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("A secret is required for HmacSHA512.", e.getMessage());
+        }
+    }
+
+    public void testVerify() {
+        Signer signer = new Signer(SignatureAlgorithm.HMAC_SHA1, "secret").setExcluded("secure_hash");
+        String signature = signer.sign(data);
+        data.put("secure_hash", signature);
+        assertTrue(signer.verify(data, signature));
+        assertTrue(signer.verify(data, signature.toUpperCase()));
+        assertFalse(signer.verify(data, signature.substring(1)));
+        assertFalse(signer.verify(data, null));
+        assertFalse(signer.verify(data, signature.substring(0, signature.length() - 1) + "g"));
+
+        data.put("net_cost", "1000");
+        assertFalse(signer.verify(data, signature));
+    }
+
+    public void testLargeData() {
+        Signer signer = new Signer(SignatureAlgorithm.SHA512, "secret");
+        for (int i = 0; i < 100; i++) {
+            data.put("field" + i, "value with some length " + i);
+        }
+        String signature = signer.sign(data);
+        assertEquals(128, signature.length());
+        assertTrue(signer.verify(data, signature));
+    }
+
+    public void testConcurrentSigning() throws Exception {
+        final Signer signer = new Signer(SignatureAlgorithm.HMAC_SHA256, "secret");
+        final String expected = signer.sign(data);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int j = 0; j < 1000; j++) {
+                        if (!expected.equals(signer.sign(data))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,225 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.state;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.exception.InvalidTransitionException;
+import org.opencps.payment.journal.Journal;
+import org.opencps.payment.journal.JournalRecord;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for TransactionStateStore and TransactionState.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class TransactionStateStoreTest extends TestCase {
+
+    private static final JournalRecord.Status OK = JournalRecord.Status.SUCCESSFUL;
+
+    private TransactionStateStore store;
+
+    /**
+     * Create the test case
+     */
+    public TransactionStateStoreTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        store = new TransactionStateStore(1000);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(TransactionStateStoreTest.class);
+    }
+
+    public void testLifecycle() throws Exception {
+        assertNull(store.getState("T1"));
+        assertEquals(TransactionState.AUTHORIZED, store.apply(PaymentOperation.AUTHORIZE, OK, "T1", "R1", 1000, 1));
+        store.check(PaymentOperation.CAPTURE, "T1", null);
+        assertEquals(TransactionState.CAPTURED, store.apply(PaymentOperation.CAPTURE, OK, "T1", null, 1000, 2));
+        assertEquals(TransactionState.REFUNDED, store.apply(PaymentOperation.REFUND, OK, "T1", null, 500, 3));
+        store.check(PaymentOperation.REFUND, "T1", null);
+        assertEquals(TransactionState.REFUNDED, store.getStateByReference("R1"));
+
+        StoredTransaction transaction = store.getByReference("R1");
+        assertEquals("T1", transaction.getTransactionId());
+        assertEquals("R1", transaction.getTransactionReference());
+        assertEquals(1000L, transaction.getAmount());
+        assertEquals(3L, transaction.getUpdatedAt());
+        assertEquals(1, store.size());
+    }
+
+    public void testNoCaptureAfterRevert() throws Exception {
+        store.apply(PaymentOperation.AUTHORIZE, OK, "T1", null, 1000, 1);
+        store.apply(PaymentOperation.REVERT, OK, "T1", null, JournalRecord.NO_AMOUNT, 2);
+        try {
+            store.check(PaymentOperation.CAPTURE, "T1", null);
+            fail("A reverted transaction must not be captured");
+        }
+        catch (InvalidTransitionException e) {
+            assertEquals("Cannot capture a transaction in state REVERTED.", e.getMessage());
+        }
+        // read-only operations and unknown transactions are always allowed
+        store.check(PaymentOperation.COMPLETE_PURCHASE, "T1", null);
+        store.check(PaymentOperation.CAPTURE, "T2", null);
+        assertTrue(TransactionState.REVERTED.isFinal());
+    }
+
+    public void testReservations() throws Exception {
+        store.apply(PaymentOperation.AUTHORIZE, OK, "T1", null, 1000, 1);
+        assertTrue(store.reserve(PaymentOperation.CAPTURE, "T1", null));
+        try {
+            store.reserve(PaymentOperation.REVERT, "T1", null);
+            fail("A revert must not be sent while a capture is in flight");
+        }
+        catch (InvalidTransitionException e) {
+            assertEquals("Cannot revert a transaction while capture is in flight.", e.getMessage());
+        }
+        // read-only operations and unknown transactions are not reserved
+        assertFalse(store.reserve(PaymentOperation.COMPLETE_PURCHASE, "T1", null));
+        assertFalse(store.reserve(PaymentOperation.CAPTURE, "T2", null));
+
+        store.release(PaymentOperation.CAPTURE, "T1", null);
+        assertTrue(store.reserve(PaymentOperation.REVERT, "T1", null));
+        store.apply(PaymentOperation.REVERT, OK, "T1", null, JournalRecord.NO_AMOUNT, 2);
+        try {
+            store.reserve(PaymentOperation.CAPTURE, "T1", null);
+            fail("A reverted transaction must not be captured");
+        }
+        catch (InvalidTransitionException e) {
+            assertEquals("Cannot capture a transaction in state REVERTED.", e.getMessage());
+        }
+    }
+
+    public void testTransitions() {
+        assertEquals(TransactionState.PENDING, TransactionState.next(null, PaymentOperation.PURCHASE, JournalRecord.Status.REDIRECT));
+        assertEquals(TransactionState.CAPTURED, TransactionState.next(TransactionState.PENDING, PaymentOperation.COMPLETE_PURCHASE, OK));
+        assertEquals(TransactionState.FAILED, TransactionState.next(TransactionState.PENDING, PaymentOperation.COMPLETE_PURCHASE, JournalRecord.Status.CANCELLED));
+        // a declined refund leaves the transaction captured
+        assertEquals(TransactionState.CAPTURED, TransactionState.next(TransactionState.CAPTURED, PaymentOperation.REFUND, JournalRecord.Status.FAILED));
+        // completing again does not undo a refund
+        assertEquals(TransactionState.REFUNDED, TransactionState.next(TransactionState.REFUNDED, PaymentOperation.COMPLETE_PURCHASE, OK));
+        assertNull(TransactionState.next(null, PaymentOperation.ACCEPT_NOTIFICATION, OK));
+        assertEquals(TransactionState.AUTHORIZED, TransactionState.next(TransactionState.AUTHORIZED, PaymentOperation.CAPTURE, JournalRecord.Status.SENT));
+        assertFalse(TransactionState.CAPTURED.isAllowed(PaymentOperation.CAPTURE));
+        assertTrue(TransactionState.FAILED.isAllowed(PaymentOperation.PURCHASE));
+    }
+
+    public void testReferenceOnly() {
+        assertEquals(TransactionState.PENDING, store.apply(PaymentOperation.PURCHASE, JournalRecord.Status.REDIRECT, "T1", null, 1000, 1));
+        assertNull(store.getStateByReference("R1"));
+        // the gateway reference comes with the completion
+        store.apply(PaymentOperation.COMPLETE_PURCHASE, OK, "T1", "R1", JournalRecord.NO_AMOUNT, 2);
+        assertEquals(TransactionState.CAPTURED, store.getStateByReference("R1"));
+        // a refund sent by reference only finds the transaction
+        store.apply(PaymentOperation.REFUND, OK, null, "R1", 1000, 3);
+        assertEquals(TransactionState.REFUNDED, store.getState("T1"));
+        assertEquals(1, store.size());
+    }
+
+    public void testKeys() {
+        StringBuilder longKey = new StringBuilder();
+        for (int i = 0; i <= TransactionStateStore.MAX_KEY_LENGTH; i++) {
+            longKey.append('x');
+        }
+        assertNull(store.apply(PaymentOperation.PURCHASE, OK, longKey.toString(), null, 1, 1));
+        assertNull(store.apply(PaymentOperation.PURCHASE, OK, "", null, 1, 1));
+        assertEquals(TransactionState.CAPTURED, store.apply(PaymentOperation.PURCHASE, OK, "Mã-đơn-1", null, 1, 1));
+        assertEquals(TransactionState.CAPTURED, store.getState("Mã-đơn-1"));
+        assertNull(store.getState("Mã-đơn-2"));
+    }
+
+    public void testEviction() {
+        TransactionStateStore small = new TransactionStateStore(100);
+        for (int i = 0; i < 250; i++) {
+            small.apply(PaymentOperation.PURCHASE, OK, "T" + i, "R" + i, i, i);
+        }
+        assertEquals(100, small.size());
+        for (int i = 0; i < 150; i++) {
+            assertNull(small.getState("T" + i));
+            assertNull(small.getStateByReference("R" + i));
+        }
+        for (int i = 150; i < 250; i++) {
+            assertEquals(TransactionState.CAPTURED, small.getState("T" + i));
+            assertEquals("T" + i, small.getByReference("R" + i).getTransactionId());
+        }
+    }
+
+    public void testEvictionKeepsInFlight() throws Exception {
+        TransactionStateStore small = new TransactionStateStore(2);
+        small.apply(PaymentOperation.AUTHORIZE, OK, "T1", null, 1, 1);
+        small.apply(PaymentOperation.AUTHORIZE, OK, "T2", null, 1, 2);
+        assertTrue(small.reserve(PaymentOperation.CAPTURE, "T1", null));
+        small.apply(PaymentOperation.AUTHORIZE, OK, "T3", null, 1, 3);
+        assertEquals(TransactionState.AUTHORIZED, small.getState("T1"));
+        assertNull(small.getState("T2"));
+
+        assertTrue(small.reserve(PaymentOperation.CAPTURE, "T3", null));
+        // every transaction has an operation in flight
+        assertNull(small.apply(PaymentOperation.AUTHORIZE, OK, "T4", null, 1, 4));
+        assertNull(small.getState("T4"));
+        assertEquals(TransactionState.CAPTURED, small.apply(PaymentOperation.CAPTURE, OK, "T1", null, 1, 5));
+        assertEquals(TransactionState.AUTHORIZED, small.apply(PaymentOperation.AUTHORIZE, OK, "T4", null, 1, 6));
+        assertNull(small.getState("T1"));
+        assertEquals(TransactionState.AUTHORIZED, small.getState("T3"));
+    }
+
+    public void testCapacity() {
+        try {
+            new TransactionStateStore(Integer.MAX_VALUE / 280 + 1);
+            fail("Missing exception");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testReplayJournal() throws Exception {
+        File directory = Files.createTempDirectory("journal").toFile();
+        Journal journal = new Journal(directory);
+        journal.append(new JournalRecord().setOperation(PaymentOperation.AUTHORIZE).setStatus(JournalRecord.Status.SENT)
+            .setTransactionId("T1").setRequestedAt(1));
+        journal.append(new JournalRecord().setOperation(PaymentOperation.AUTHORIZE).setStatus(OK)
+            .setTransactionId("T1").setTransactionReference("R1").setAmount(500).setRequestedAt(1).setCompletedAt(2));
+        journal.append(new JournalRecord().setOperation(PaymentOperation.REVERT).setStatus(OK)
+            .setTransactionId("T1").setRequestedAt(3).setCompletedAt(4));
+        journal.replay(store);
+        journal.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+
+        StoredTransaction transaction = store.get("T1");
+        assertEquals(TransactionState.REVERTED, transaction.getState());
+        assertEquals("R1", transaction.getTransactionReference());
+        assertEquals(500L, transaction.getAmount());
+        assertEquals(4L, transaction.getUpdatedAt());
+    }
+}
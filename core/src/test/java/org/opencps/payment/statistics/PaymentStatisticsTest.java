@@ -0,0 +1,121 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.statistics;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.opencps.payment.api.PaymentOperation;
+import org.opencps.payment.journal.JournalRecord;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for PaymentStatistics.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class PaymentStatisticsTest extends TestCase {
+
+    /**
+     * Create the test case
+     */
+    public PaymentStatisticsTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(PaymentStatisticsTest.class);
+    }
+
+    public void testTotals() {
+        PaymentStatistics statistics = new PaymentStatistics();
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.SUCCESSFUL, 50000);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.SUCCESSFUL, 20000);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.FAILED, 10000);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.ERROR, JournalRecord.NO_AMOUNT);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.REDIRECT, JournalRecord.NO_AMOUNT);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.CANCELLED, JournalRecord.NO_AMOUNT);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.SENT, JournalRecord.NO_AMOUNT);
+        statistics.record("Keypay", PaymentOperation.REFUND, "VND", JournalRecord.Status.SUCCESSFUL, 5000);
+        statistics.record("Vnpay", PaymentOperation.COMPLETE_PURCHASE, null, JournalRecord.Status.SUCCESSFUL, JournalRecord.NO_AMOUNT);
+
+        StatisticsSnapshot purchases = statistics.snapshot("Keypay", PaymentOperation.PURCHASE, "VND");
+        assertEquals(6, purchases.getCount());
+        assertEquals(2, purchases.getSuccessful());
+        assertEquals(2, purchases.getFailed());
+        assertEquals(1, purchases.getRedirect());
+        assertEquals(1, purchases.getCancelled());
+        assertEquals(70000, purchases.getAmount());
+        assertEquals(2.0 / 6, purchases.getSuccessRate(), 1e-9);
+
+        assertEquals(1, statistics.snapshot("Vnpay", PaymentOperation.COMPLETE_PURCHASE, null).getCount());
+        assertEquals(0, statistics.snapshot("Vnpay", PaymentOperation.REFUND, "USD").getCount());
+
+        List<StatisticsSnapshot> all = statistics.snapshot();
+        assertEquals(3, all.size());
+        long count = 0;
+        for (StatisticsSnapshot snapshot : all) {
+            count += snapshot.getCount();
+        }
+        assertEquals(8, count);
+    }
+
+    public void testWindow() throws Exception {
+        PaymentStatistics statistics = new PaymentStatistics(100, TimeUnit.MILLISECONDS, 4);
+        assertEquals(400, statistics.getMaxWindow());
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.SUCCESSFUL, 1000);
+        assertEquals(1, statistics.snapshot(400, TimeUnit.MILLISECONDS).get(0).getCount());
+        Thread.sleep(500);
+        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.SUCCESSFUL, 2000);
+
+        StatisticsSnapshot window = statistics.snapshot(400, TimeUnit.MILLISECONDS).get(0);
+        assertEquals(1, window.getCount());
+        assertEquals(2000, window.getAmount());
+        StatisticsSnapshot totals = statistics.snapshot().get(0);
+        assertEquals(2, totals.getCount());
+        assertEquals(3000, totals.getAmount());
+    }
+
+    public void testConcurrentRecords() throws Exception {
+        final PaymentStatistics statistics = new PaymentStatistics();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 16; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        statistics.record("Keypay", PaymentOperation.PURCHASE, "VND", JournalRecord.Status.SUCCESSFUL, 1);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        StatisticsSnapshot snapshot = statistics.snapshot("Keypay", PaymentOperation.PURCHASE, "VND");
+        assertEquals(160000, snapshot.getSuccessful());
+        assertEquals(160000, snapshot.getAmount());
+    }
+}
@@ -0,0 +1,187 @@
+/**
+* OpenCPS Payment is the open source Core Payment Connector software
+* Copyright (C) 2016-present OpenCPS community
+
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Affero General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* any later version.
+
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Affero General Public License for more details.
+* You should have received a copy of the GNU Affero General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>
+*/
+package org.opencps.payment.validation;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencps.payment.CreditCard;
+import org.opencps.payment.RequestBase;
+import org.opencps.payment.exception.InvalidRequestException;
+import org.opencps.payment.mock.MockGatewayConnector;
+import org.opencps.payment.mock.MockGatewayRequest;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RuleSet and Validator.
+ * 
+ * @author Nguyen Van Nguyen <nguyennv@iwayvietnam.com>
+ */
+public class RuleSetTest extends TestCase {
+
+    private static final Validator PURCHASE = new RuleSet()
+        .required("transactionId", "amount", "currency", "returnUrl")
+        .maxLength("description", 10)
+        .amount(100, 1000000)
+        .currency("VND", "USD")
+        .compile();
+
+    private RequestBase request;
+
+    /**
+     * Create the test case
+     */
+    public RuleSetTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() {
+        request = new MockGatewayRequest(new MockGatewayConnector());
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite(RuleSetTest.class);
+    }
+
+    private RequestBase purchase(String amount, String currency) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("transactionId", "1");
+        params.put("amount", amount);
+        params.put("currency", currency);
+        params.put("returnUrl", "https://example.com/return");
+        request.initialize(params);
+        return request;
+    }
+
+    public void testValidRequest() {
+        assertEquals(Integer.valueOf(7), PURCHASE.size());
+        assertTrue(PURCHASE.validate(purchase("10.00", "USD")).isEmpty());
+        assertTrue(PURCHASE.validate(purchase("5000", "VND")).isEmpty());
+    }
+
+    public void testEveryViolationIsReported() {
+        request.getParameters().put("description", "A long description");
+        List<String> violations = PURCHASE.validate(request);
+        assertEquals(Arrays.asList(
+                "The transactionId parameter is required.",
+                "The amount parameter is required.",
+                "The currency parameter is required.",
+                "The returnUrl parameter is required.",
+                "The description parameter must have at most 10 characters."), violations);
+    }
+
+    public void testAmount() {
+        assertEquals(Arrays.asList("Amount precision is too high for currency."),
+                PURCHASE.validate(purchase("10.001", "USD")));
+        assertEquals(Arrays.asList("Please specify amount as a float string, with decimal places (e.g. '10.00' to represent $10.00)."),
+                PURCHASE.validate(purchase("10", "USD")));
+        assertEquals(Arrays.asList("A negative amount is not allowed."),
+                PURCHASE.validate(purchase("-1.00", "USD")));
+        assertEquals(Arrays.asList("The amount parameter must be a decimal number."),
+                PURCHASE.validate(purchase("1.0.0", "USD")));
+        assertEquals(Arrays.asList("The amount is below the minimum allowed."),
+                PURCHASE.validate(purchase("0.99", "USD")));
+        assertEquals(Arrays.asList("The amount is above the maximum allowed."),
+                PURCHASE.validate(purchase("10000.01", "USD")));
+        assertEquals(Arrays.asList("Amount precision is too high for currency."),
+                PURCHASE.validate(purchase("5000.5", "VND")));
+        Validator unbounded = new RuleSet().amount(0, Long.MAX_VALUE).compile();
+        assertEquals(Arrays.asList("The amount is above the maximum allowed."),
+                unbounded.validate(purchase("999999999999999999.", "USD")));
+    }
+
+    public void testCurrency() {
+        assertEquals(Arrays.asList("The currency is not supported."),
+                PURCHASE.validate(purchase("10.00", "EUR")));
+        Validator any = new RuleSet().currency().compile();
+        assertTrue(any.validate(purchase("10.00", "EUR")).isEmpty());
+        assertEquals(1, any.validate(purchase("10.00", "XXX")).size());
+    }
+
+    public void testFormats() {
+        Validator validator = new RuleSet()
+            .digits("clientIp", 4, 6)
+            .matches("returnUrl", "https://.*")
+            .oneOf("paymentMethod", "card", "atm")
+            .requiredOneOf("token", "cardReference")
+            .compile();
+        request.getParameters().put("clientIp", "12a4");
+        request.getParameters().put("returnUrl", "http://example.com");
+        request.getParameters().put("paymentMethod", "cash");
+        assertEquals(Arrays.asList(
+                "The clientIp parameter must have 4 to 6 digits.",
+                "The returnUrl parameter has an invalid format.",
+                "The paymentMethod parameter must be one of card, atm.",
+                "One of the token, cardReference parameters is required."), validator.validate(request));
+
+        request.getParameters().put("clientIp", "1234");
+        request.getParameters().put("returnUrl", "https://example.com");
+        request.getParameters().put("paymentMethod", "atm");
+        request.getParameters().put("cardReference", "abc");
+        assertTrue(validator.validate(request).isEmpty());
+    }
+
+    public void testCard() {
+        Validator validator = new RuleSet().card().compile();
+        assertEquals(Arrays.asList("The card parameter is required."), validator.validate(request));
+
+        int year = Calendar.getInstance().get(Calendar.YEAR);
+        CreditCard card = new CreditCard();
+        card.setNumber("4111111111111111").setExpiryMonth(12).setExpiryYear(year + 1);
+        request.setCard(card);
+        assertTrue(validator.validate(request).isEmpty());
+
+        card.setNumber("4111111111111112");
+        assertEquals(Arrays.asList("Card number is invalid"), validator.validate(request));
+        card.setNumber("0000000000");
+        assertTrue(validator.validate(request).isEmpty());
+        card.setNumber("4111111111111111").setExpiryYear(year - 1);
+        assertEquals(Arrays.asList("Card has expired"), validator.validate(request));
+    }
+
+    public void testRequestValidate() {
+        RequestBase request = new MockGatewayRequest(new MockGatewayConnector()) {
+            @Override
+            protected Validator getValidator() {
+                return PURCHASE;
+            }
+        };
+        try {
+            request.validate();
+            fail("Missing exception");
+        }
+        catch (InvalidRequestException e) {
+            assertEquals(4, e.getViolations().size());
+            assertTrue(e.getMessage().startsWith("The transactionId parameter is required. The amount parameter is required."));
+        }
+    }
+
+    public void testRequestWithoutRules() throws InvalidRequestException {
+        request.validate();
+    }
+}